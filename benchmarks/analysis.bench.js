@@ -0,0 +1,266 @@
+// Analysis pipeline benchmark suite: the parser, the extractors, edge aggregation, Mermaid generation and
+// end-to-end ComponentDiagramController.processProject, measured with the shared harness (warmup, timed
+// iterations, mean ± margin of error, median and p99).
+//
+// The corpus is test-samples (scale 1) plus synthetic copies of it scaled 10x and 100x: every file is copied
+// with its top-level class and component ids renamed per copy, so the copies add components and connections
+// instead of duplicating the original ones. The scaled corpora are generated once in the temp directory.
+// The per-function benchmarks run over the scale 1 corpus; processProject and generateMermaidDiagram run at
+// every scale.
+//
+// Build the unbundled modules first so out/parsers/componentDiagramController.js exists:
+//   npx tsc -p ./
+// Then run:
+//   node --expose-gc benchmarks/analysis.bench.js [--scales 1,10,100] [--jobs <n>] [--time <ms>] [--filter <text>]
+//     [--json <file>] [--compare <file>] [--threshold <fraction>]
+//
+// --json writes the results with the environment and corpus sizes for regression tracking. --compare reads such
+// a file from an earlier run, reports the change of every benchmark and exits with code 1 when one regressed by
+// more than the threshold (default 0.1) beyond the margins of error of both runs.
+const fs = require('fs');
+const os = require('os');
+const path = require('path');
+const { parse } = require('java-parser');
+const { Bench, formatResult, environment, compareResults } = require('./harness');
+
+const outDir = path.join(__dirname, '..', 'out');
+const { JavaParser } = require(path.join(outDir, 'parsers', 'javaParser'));
+const { extractComponentConnectionsFromCST } = require(path.join(outDir, 'parsers', 'javaCstUtils'));
+const { ComponentDiagramController } = require(path.join(outDir, 'parsers', 'componentDiagramController'));
+const { NodeAnalysisHost } = require(path.join(outDir, 'host', 'nodeAnalysisHost'));
+const { aggregateEdges } = require(path.join(outDir, 'models', 'diagramGraph'));
+const { generateMermaidDiagram } = require(path.join(outDir, 'utils', 'mermaidGenerator'));
+const { setLogLevel } = require(path.join(outDir, 'utils', 'logger'));
+
+const SAMPLES_DIR = path.join(__dirname, '..', 'test-samples');
+
+function takeOption(args, name, defaultValue) {
+  const index = args.indexOf(name);
+  return index >= 0 ? args.splice(index, 2)[1] : defaultValue;
+}
+
+function collectJavaFiles(dir, files = []) {
+  for (const entry of fs.readdirSync(dir, { withFileTypes: true })) {
+    const fullPath = path.join(dir, entry.name);
+    if (entry.isDirectory()) {
+      if (entry.name !== 'target' && entry.name !== 'node_modules') {
+        collectJavaFiles(fullPath, files);
+      }
+    } else if (entry.name.endsWith('.java')) {
+      files.push(fullPath);
+    }
+  }
+  return files;
+}
+
+function escapeRegExp(text) {
+  return text.replace(/[.*+?^${}()|[\]\\]/g, '\\$&');
+}
+
+/**
+ * The test-samples corpus copied scale times (scale 1 is test-samples itself). In copy k the top-level classes,
+ * named after their files, get a Copy<k> suffix wherever they are mentioned, and component ids a -copy<k> suffix.
+ */
+function scaledCorpus(scale) {
+  if (scale === 1) {
+    return SAMPLES_DIR;
+  }
+  const root = path.join(os.tmpdir(), `akka-diagram-analysis-bench-x${scale}`);
+  if (fs.existsSync(root)) {
+    return root;
+  }
+
+  const files = collectJavaFiles(SAMPLES_DIR);
+  const classNames = [...new Set(files.map((file) => path.basename(file, '.java')))];
+  const classPattern = new RegExp(`\\b(${classNames.map(escapeRegExp).join('|')})\\b`, 'g');
+  const componentIdPattern = /(@(?:ComponentId|Component\s*\(\s*id\s*=)\s*\(?\s*")([^"]*)"/g;
+
+  const sources = files.map((file) => ({ relative: path.relative(SAMPLES_DIR, file), sourceText: fs.readFileSync(file, 'utf8') }));
+  for (let copy = 0; copy < scale; copy++) {
+    for (const { relative, sourceText } of sources) {
+      const renamed = sourceText.replace(classPattern, `$1Copy${copy}`).replace(componentIdPattern, `$1$2-copy${copy}"`);
+      const target = path.join(root, `copy${copy}`, path.dirname(relative), `${path.basename(relative, '.java')}Copy${copy}.java`);
+      fs.mkdirSync(path.dirname(target), { recursive: true });
+      fs.writeFileSync(target, renamed);
+    }
+  }
+  return root;
+}
+
+function loadCorpus(scale) {
+  const root = scaledCorpus(scale);
+  const files = collectJavaFiles(root);
+  const bytes = files.reduce((sum, file) => sum + fs.statSync(file).size, 0);
+  return { scale, root, files, bytes };
+}
+
+async function processProject(files, jobs) {
+  const host = new NodeAnalysisHost({ jobs });
+  return new ComponentDiagramController(host, undefined).processProject(files.map((file) => host.fileUri(file)));
+}
+
+/**
+ * The edges extracted from the corpus, repeated for every copy with the copy's suffix on both ends
+ */
+function scaledEdges(edges, scale) {
+  const scaled = [];
+  for (let copy = 0; copy < scale; copy++) {
+    edges.forEach((edge) => scaled.push({ ...edge, source: `${edge.source}Copy${copy}`, target: `${edge.target}Copy${copy}`, details: [...edge.details] }));
+  }
+  return scaled;
+}
+
+function addBenchmarks(bench, corpora, jobs) {
+  const base = corpora[0];
+  const sources = base.files.map((filename) => ({ filename, sourceText: fs.readFileSync(filename, 'utf8') }));
+  let parsed;
+  const parsedSources = () => {
+    if (!parsed) {
+      parsed = [];
+      for (const source of sources) {
+        try {
+          parsed.push({ ...source, cst: parse(source.sourceText) });
+        } catch (error) {
+          // Files the parser rejects are not part of the extractor benchmarks
+        }
+      }
+    }
+    return parsed;
+  };
+
+  bench.add(
+    'javaParser.parse',
+    () => {
+      for (const { sourceText } of sources) {
+        try {
+          parse(sourceText);
+        } catch (error) {
+          // Parse failures count towards the time, the same as in the extension
+        }
+      }
+    },
+    { units: sources.length }
+  );
+
+  bench.add(
+    'extractAkkaComponentsFromCST',
+    (files) => {
+      for (const { cst, filename } of files) {
+        JavaParser.extractAkkaComponentsFromCST(cst, filename);
+      }
+    },
+    { setup: parsedSources, units: sources.length }
+  );
+
+  bench.add(
+    'extractComponentConnectionsFromCST',
+    (files) => {
+      for (const { cst, filename, sourceText } of files) {
+        extractComponentConnectionsFromCST(cst, filename, sourceText);
+      }
+    },
+    { setup: parsedSources, units: sources.length }
+  );
+
+  // Edges as the controller passes them to aggregation: every connection of the corpus, per copy
+  let baseEdges;
+  const connections = () => {
+    if (!baseEdges) {
+      baseEdges = parsedSources().flatMap(({ cst, filename, sourceText }) =>
+        extractComponentConnectionsFromCST(cst, filename, sourceText).connections.map(({ source, target, label, details }) => ({ source, target, label, details: details || [] }))
+      );
+    }
+    return baseEdges;
+  };
+  for (const { scale } of corpora) {
+    bench.add(`aggregateEdges x${scale}`, (edges) => aggregateEdges(edges.map((edge) => ({ ...edge, details: [...edge.details] }))), {
+      setup: () => scaledEdges(connections(), scale),
+    });
+  }
+
+  for (const { scale, files } of corpora) {
+    bench.add(
+      `generateMermaidDiagram x${scale}`,
+      ({ nodes, edges }) => generateMermaidDiagram(nodes, edges, { title: 'Akka Component Diagram', direction: 'TB', theme: 'neutral' }),
+      {
+        setup: async () => {
+          const result = await processProject(files, jobs);
+          return { nodes: result.nodes, edges: aggregateEdges(result.edges) };
+        },
+      }
+    );
+  }
+
+  // End-to-end runs of the larger corpora take seconds each; a few samples are enough to see their trend
+  for (const { scale, files } of corpora) {
+    const slow = scale > 1 ? { iterations: scale >= 100 ? 3 : 5, time: 0, warmupIterations: 1, warmupTime: 0 } : {};
+    bench.add(`processProject x${scale}`, () => processProject(files, jobs), { units: files.length, ...slow });
+  }
+}
+
+async function main() {
+  const args = process.argv.slice(2);
+  const scales = takeOption(args, '--scales', '1,10,100')
+    .split(',')
+    .map((value) => parseInt(value, 10))
+    .filter((value) => value > 0);
+  const jobs = parseInt(takeOption(args, '--jobs', '0'), 10);
+  const time = parseInt(takeOption(args, '--time', '1000'), 10);
+  const filter = takeOption(args, '--filter');
+  const jsonFile = takeOption(args, '--json');
+  const compareFile = takeOption(args, '--compare');
+  const threshold = parseFloat(takeOption(args, '--threshold', '0.1'));
+  if (!scales.includes(1)) {
+    scales.unshift(1);
+  }
+
+  // Without an output channel the analysis logs to the console; only errors are of interest here
+  setLogLevel('error');
+
+  const corpora = scales.sort((a, b) => a - b).map(loadCorpus);
+  const env = environment();
+  console.log(`Node ${env.node} on ${env.platform}, ${env.cpus} x ${env.cpu}; parser threads: ${jobs > 0 ? jobs : 'default'}`);
+  corpora.forEach(({ scale, root, files, bytes }) => console.log(`Corpus x${scale}: ${files.length} files, ${(bytes / 1024).toFixed(0)} KiB in ${root}`));
+  if (!global.gc) {
+    console.log('Run with --expose-gc to collect garbage between benchmarks');
+  }
+  console.log('');
+
+  const bench = new Bench({ time });
+  addBenchmarks(bench, corpora, jobs);
+  if (filter) {
+    bench.tasks = bench.tasks.filter((task) => task.name.includes(filter));
+  }
+  const results = await bench.run((result) => console.log(formatResult(result)));
+
+  if (jsonFile) {
+    const report = {
+      suite: 'analysis',
+      date: new Date().toISOString(),
+      environment: env,
+      options: { scales, jobs, time },
+      corpus: corpora.map(({ scale, files, bytes }) => ({ scale, files: files.length, bytes })),
+      results,
+    };
+    fs.writeFileSync(jsonFile, JSON.stringify(report, null, 2) + '\n');
+    console.log(`\nResults written to ${jsonFile}`);
+  }
+
+  if (compareFile) {
+    const baseline = JSON.parse(fs.readFileSync(compareFile, 'utf8'));
+    const comparison = compareResults(results, baseline.results, threshold);
+    console.log(`\nCompared with ${compareFile} (${baseline.date}), threshold ${(threshold * 100).toFixed(0)}%:`);
+    comparison.forEach(({ name, change, regression }) => {
+      const sign = change >= 0 ? '+' : '';
+      console.log(`${name.padEnd(40)} ${`${sign}${(change * 100).toFixed(1)}%`.padStart(9)}${regression ? '  REGRESSION' : ''}`);
+    });
+    if (comparison.some((entry) => entry.regression)) {
+      process.exitCode = 1;
+    }
+  }
+}
+
+main().catch((error) => {
+  console.error(error);
+  process.exit(1);
+});
@@ -0,0 +1,185 @@
+// CST traversal benchmark: per-file fact extraction with the single-pass visitor.
+//
+// Reports how many CST nodes and tokens are visited per corpus, comparing the single visitCst pass with
+// the separate recursions the extractors used to make (components, annotations, client chains and tool
+// invocations over every method body, identifiers), and the wall time of extractFileFacts.
+//
+// Build the unbundled modules first so out/parsers/fileFacts.js exists:
+//   npx tsc -p ./
+// Then run:
+//   node benchmarks/cstVisitor.bench.js [rootDir] [rounds] [--baseline <outDir>]
+//
+// To time the previous multi-walk extractors as well, build the commit before the visitor was introduced
+// into a separate directory and pass its out/ directory:
+//   git worktree add /tmp/akka-diagram-baseline <commit> && (cd /tmp/akka-diagram-baseline && npm ci && npx tsc -p ./)
+//   node benchmarks/cstVisitor.bench.js test-samples/akka-multi-region-visualizer 20 --baseline /tmp/akka-diagram-baseline/out
+const fs = require('fs');
+const path = require('path');
+const Module = require('module');
+
+// The extractors only need vscode.Uri.file outside the extension host
+const vscodeStub = { Uri: { file: (fsPath) => ({ fsPath, scheme: 'file', path: fsPath }) } };
+const originalLoad = Module._load;
+Module._load = function (request, ...rest) {
+  return request === 'vscode' ? vscodeStub : originalLoad.call(this, request, ...rest);
+};
+
+const { parse } = require('java-parser');
+const { extractFileFacts } = require('../out/parsers/fileFacts');
+
+const args = process.argv.slice(2);
+const baselineIndex = args.indexOf('--baseline');
+const baselineDir = baselineIndex >= 0 ? path.resolve(args.splice(baselineIndex, 2)[1]) : undefined;
+const rootDir = path.resolve(args[0] || path.join(__dirname, '..', 'test-samples', 'akka-multi-region-visualizer'));
+const rounds = parseInt(args[1] || '10', 10);
+
+function collectJavaFiles(dir, files = []) {
+  for (const entry of fs.readdirSync(dir, { withFileTypes: true })) {
+    const fullPath = path.join(dir, entry.name);
+    if (entry.isDirectory()) {
+      if (entry.name !== 'target' && entry.name !== 'node_modules') {
+        collectJavaFiles(fullPath, files);
+      }
+    } else if (entry.name.endsWith('.java')) {
+      files.push(fullPath);
+    }
+  }
+  return files;
+}
+
+// Number of objects (nodes and tokens) one of the old recursive walks touched for a subtree
+function countSubtree(node) {
+  if (!node || typeof node !== 'object') return 0;
+  let count = 1;
+  if (node.children) {
+    for (const key in node.children) {
+      for (const child of node.children[key]) {
+        count += countSubtree(child);
+      }
+    }
+  }
+  return count;
+}
+
+// Replays the traversal shapes of the extractors before the visitor: which subtrees each one recursed over
+function legacyVisits(cst) {
+  const wholeTree = countSubtree(cst);
+  let annotations = 0;
+  let methodBodies = 0;
+
+  const unit = cst.children.ordinaryCompilationUnit && cst.children.ordinaryCompilationUnit[0];
+  for (const typeDecl of (unit && unit.children.typeDeclaration) || []) {
+    const classDecl = typeDecl.children.classDeclaration && typeDecl.children.classDeclaration[0];
+    const normalClass = classDecl && classDecl.children.normalClassDeclaration && classDecl.children.normalClassDeclaration[0];
+    if (!normalClass || !normalClass.children.typeIdentifier) continue;
+
+    annotations += countSubtree(typeDecl);
+    const classBody = normalClass.children.classBody && normalClass.children.classBody[0];
+    for (const bodyDecl of (classBody && classBody.children.classBodyDeclaration) || []) {
+      const member = bodyDecl.children.classMemberDeclaration && bodyDecl.children.classMemberDeclaration[0];
+      const method = member && member.children.methodDeclaration && member.children.methodDeclaration[0];
+      const block = method && method.children.methodBody && method.children.methodBody[0].children.block;
+      for (const blockStmts of (block && block[0].children.blockStatements) || []) {
+        methodBodies += countSubtree(blockStmts);
+      }
+    }
+  }
+
+  return {
+    components: wholeTree,
+    annotations,
+    clientChains: methodBodies,
+    toolInvocations: methodBodies,
+    identifiers: wholeTree,
+  };
+}
+
+// Facts with order-insensitive arrays sorted, so results of different traversal orders can be compared
+function canonical(facts) {
+  const sorted = (items) => items.map((item) => JSON.stringify(item)).sort();
+  return JSON.stringify({
+    components: sorted(facts.components),
+    functionTools: sorted(facts.functionTools),
+    connections: sorted(facts.connections),
+    topicNodes: sorted(facts.topicNodes),
+    serviceStreamNodes: sorted(facts.serviceStreamNodes),
+    toolNodes: sorted(facts.toolNodes),
+    classNames: facts.classNames,
+    identifiers: [...facts.identifiers].sort(),
+  });
+}
+
+// The extractors log every step to the console when no output channel is given; keep that out of the timings
+function quietly(fn) {
+  const log = console.log;
+  console.log = () => {};
+  try {
+    return fn();
+  } finally {
+    console.log = log;
+  }
+}
+
+function time(label, extract, files) {
+  quietly(() => files.forEach((f) => extract(f.cst, f.filename, f.sourceText))); // warm up
+
+  let best = Infinity;
+  let total = 0;
+  for (let round = 0; round < rounds; round++) {
+    const start = process.hrtime.bigint();
+    quietly(() => files.forEach((f) => extract(f.cst, f.filename, f.sourceText)));
+    const elapsed = Number(process.hrtime.bigint() - start) / 1e6;
+    best = Math.min(best, elapsed);
+    total += elapsed;
+  }
+  console.log(`${label.padEnd(28)} best ${best.toFixed(2).padStart(8)} ms   mean ${(total / rounds).toFixed(2).padStart(8)} ms`);
+  return best;
+}
+
+function main() {
+  const files = [];
+  for (const filename of collectJavaFiles(rootDir)) {
+    const sourceText = fs.readFileSync(filename, 'utf8');
+    try {
+      files.push({ filename, sourceText, cst: parse(sourceText) });
+    } catch (error) {
+      console.log(`Skipping ${filename}: ${error.message}`);
+    }
+  }
+  console.log(`Corpus: ${files.length} files from ${rootDir}, rounds: ${rounds}\n`);
+
+  const legacy = { components: 0, annotations: 0, clientChains: 0, toolInvocations: 0, identifiers: 0 };
+  const stats = { nodes: 0, tokens: 0 };
+  for (const f of files) {
+    const visits = legacyVisits(f.cst);
+    Object.keys(legacy).forEach((key) => (legacy[key] += visits[key]));
+    quietly(() => extractFileFacts(f.cst, f.filename, f.sourceText, undefined, stats));
+  }
+
+  const legacyTotal = Object.values(legacy).reduce((sum, n) => sum + n, 0);
+  const singlePass = stats.nodes + stats.tokens;
+  console.log('Node visits (nodes + tokens)');
+  Object.entries(legacy).forEach(([walk, count]) => console.log(`  before: ${walk.padEnd(20)} ${String(count).padStart(9)}`));
+  console.log(`  before: ${'total'.padEnd(20)} ${String(legacyTotal).padStart(9)}`);
+  console.log(`  after:  ${'single pass'.padEnd(20)} ${String(singlePass).padStart(9)}  (${stats.nodes} nodes, ${stats.tokens} tokens)`);
+  console.log(`  reduction: ${(legacyTotal / singlePass).toFixed(2)}x fewer visits\n`);
+
+  console.log('Wall time of extractFileFacts over the corpus');
+  const after = time('after (single pass)', extractFileFacts, files);
+
+  if (baselineDir) {
+    const baseline = require(path.join(baselineDir, 'parsers', 'fileFacts'));
+    const before = time('before (baseline build)', baseline.extractFileFacts, files);
+    console.log(`  speed-up: ${(before / after).toFixed(2)}x`);
+
+    const mismatches = files.filter((f) => quietly(() => canonical(extractFileFacts(f.cst, f.filename, f.sourceText)) !== canonical(baseline.extractFileFacts(f.cst, f.filename, f.sourceText))));
+    if (mismatches.length > 0) {
+      console.log(`\nResults differ from the baseline for ${mismatches.length} file(s):`);
+      mismatches.forEach((f) => console.log(`  ${f.filename}`));
+      process.exit(1);
+    }
+    console.log('  results identical to the baseline');
+  }
+}
+
+main();
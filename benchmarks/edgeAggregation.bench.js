@@ -0,0 +1,119 @@
+// Edge aggregation benchmark: aggregateEdges over synthetic edge lists.
+//
+// Generates edges between a fixed pool of components (method calls with repeated labels, plus produces to /
+// consumes edges without method details) and compares aggregateEdges with the previous aggregateCstEdges,
+// which checked details with Array.includes and looked up the first edge of every detail-less pair with
+// Array.find over the whole input. Both must produce the same edges.
+//
+// Build the unbundled modules first so out/models/diagramGraph.js exists:
+//   npx tsc -p ./
+// Then run:
+//   node benchmarks/edgeAggregation.bench.js [edgeCount] [rounds]
+const { aggregateEdges } = require('../out/models/diagramGraph');
+
+const edgeCount = parseInt(process.argv[2] || '50000', 10);
+const rounds = parseInt(process.argv[3] || '5', 10);
+
+// Deterministic pseudo-random numbers so every run sees the same edges
+function random(seed) {
+  let state = seed >>> 0;
+  return () => {
+    // mulberry32
+    state = (state + 0x6d2b79f5) >>> 0;
+    let t = state;
+    t = Math.imul(t ^ (t >>> 15), t | 1);
+    t ^= t + Math.imul(t ^ (t >>> 7), t | 61);
+    return ((t ^ (t >>> 14)) >>> 0) / 4294967296;
+  };
+}
+
+function createEdges(count) {
+  const next = random(count);
+  const componentCount = Math.max(10, Math.floor(Math.sqrt(count) * 4));
+  const methods = Array.from({ length: 40 }, (_, i) => `method${i}`);
+  const edges = [];
+  for (let i = 0; i < count; i++) {
+    const source = `Component${Math.floor(next() * componentCount)}`;
+    const kind = next();
+    if (kind < 0.2) {
+      edges.push({ source, target: `topic-${Math.floor(next() * componentCount)}`, label: 'produces to', details: [] });
+    } else if (kind < 0.4) {
+      edges.push({ source: `topic-${Math.floor(next() * componentCount)}`, target: source, label: 'consumes', details: [] });
+    } else {
+      const method = methods[Math.floor(next() * methods.length)];
+      edges.push({ source, target: `Component${Math.floor(next() * componentCount)}`, label: method, details: [method] });
+    }
+  }
+  return edges;
+}
+
+// The previous implementation from extension.ts
+function aggregateCstEdges(edges) {
+  const edgeMap = new Map();
+
+  edges.forEach((edge) => {
+    const key = `${edge.source}->${edge.target}`;
+    const existing = edgeMap.get(key);
+
+    if (existing) {
+      if (edge.label !== 'consumes' && edge.label !== 'produces to' && !existing.details.includes(edge.label)) {
+        existing.details.push(edge.label);
+      }
+    } else {
+      const newEdge = { source: edge.source, target: edge.target, label: '', details: [] };
+      if (edge.label !== 'consumes' && edge.label !== 'produces to') {
+        newEdge.details.push(edge.label);
+      }
+      edgeMap.set(key, newEdge);
+    }
+  });
+
+  return Array.from(edgeMap.values()).map((edge) => {
+    if (edge.details.length > 0) {
+      edge.label = `invokes (${edge.details.length} methods)`;
+    } else {
+      const originalEdge = edges.find((e) => e.source === edge.source && e.target === edge.target);
+      edge.label = originalEdge ? originalEdge.label : '';
+    }
+    return edge;
+  });
+}
+
+function time(label, aggregate, edges) {
+  let result = aggregate(edges); // warm up
+  let best = Infinity;
+  let total = 0;
+  for (let round = 0; round < rounds; round++) {
+    const start = process.hrtime.bigint();
+    result = aggregate(edges);
+    const elapsed = Number(process.hrtime.bigint() - start) / 1e6;
+    best = Math.min(best, elapsed);
+    total += elapsed;
+  }
+  console.log(`${label.padEnd(24)} best ${best.toFixed(2).padStart(9)} ms   mean ${(total / rounds).toFixed(2).padStart(9)} ms`);
+  return { best, result };
+}
+
+function main() {
+  const edges = createEdges(edgeCount);
+  console.log(`Edges: ${edges.length}, rounds: ${rounds}\n`);
+
+  const after = time('aggregateEdges', aggregateEdges, edges);
+  const before = time('aggregateCstEdges (old)', aggregateCstEdges, edges);
+  console.log(`  aggregated pairs: ${after.result.length}, speed-up: ${(before.best / after.best).toFixed(2)}x`);
+
+  const strip = (edge) => JSON.stringify({ source: edge.source, target: edge.target, label: edge.label, details: edge.details });
+  const mismatch = after.result.findIndex((edge, i) => !before.result[i] || strip(edge) !== strip(before.result[i]));
+  if (mismatch >= 0 || after.result.length !== before.result.length) {
+    console.log(`Results differ from the previous implementation at edge ${mismatch}`);
+    process.exit(1);
+  }
+  const totalWeight = after.result.reduce((sum, edge) => sum + edge.weight, 0);
+  if (totalWeight !== edges.length) {
+    console.log(`Edge weights add up to ${totalWeight}, expected ${edges.length}`);
+    process.exit(1);
+  }
+  console.log('  results identical to the previous implementation; weights add up to the input edge count');
+}
+
+main();
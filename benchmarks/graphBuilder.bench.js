@@ -0,0 +1,130 @@
+// Graph construction benchmark: node and edge deduplication with DiagramGraphBuilder.
+//
+// Builds synthetic graphs of increasing size the way the controller does (components, then per-file topic,
+// service stream and tool nodes with duplicates across files, then connections and 'references' edges that
+// are dropped when their source/target pair already has an edge) and reports the time per node. With the
+// Map-keyed registries the time per node stays flat as the graph grows; the Array.find baseline the
+// controller used before grows linearly per node, i.e. quadratically overall.
+//
+// Build the unbundled modules first so out/models/diagramGraph.js exists:
+//   npx tsc -p ./
+// Then run:
+//   node benchmarks/graphBuilder.bench.js [rounds]
+const { DiagramGraphBuilder } = require('../out/models/diagramGraph');
+
+const rounds = parseInt(process.argv[2] || '5', 10);
+const SIZES = [10000, 20000, 40000, 80000, 160000];
+// The quadratic baseline is only run up to this size
+const BASELINE_MAX = 40000;
+
+// Deterministic pseudo-random numbers so every run and both implementations see the same graph
+function random(seed) {
+  let state = seed;
+  return () => {
+    state = (state * 1103515245 + 12345) & 0x7fffffff;
+    return state / 0x7fffffff;
+  };
+}
+
+/**
+ * Synthetic per-file facts: one component per file, a few detected nodes (a quarter of them repeated from
+ * other files) and connections, half of which are 'references' edges, some repeating an existing pair
+ */
+function createCorpus(nodeCount) {
+  const next = random(nodeCount);
+  const files = [];
+  const componentCount = Math.floor(nodeCount / 2);
+  const detectedCount = nodeCount - componentCount;
+  const pick = (count) => Math.floor(next() * count);
+
+  for (let i = 0; i < componentCount; i++) {
+    const detected = [];
+    for (let j = 0; j < Math.ceil(detectedCount / componentCount); j++) {
+      const id = next() < 0.25 ? `topic-${pick(detectedCount)}` : `topic-${(i * 7 + j) % detectedCount}`;
+      detected.push({ id, name: id, type: 'Topic' });
+    }
+    const connections = [];
+    for (let j = 0; j < 3; j++) {
+      const target = `Component${pick(componentCount)}`;
+      connections.push({ source: `Component${i}`, target, label: j === 0 ? 'method call' : 'references', details: [] });
+    }
+    files.push({
+      component: { className: `Component${i}`, componentType: 'EventSourcedEntity', filename: `Component${i}.java` },
+      topicNodes: detected,
+      connections,
+    });
+  }
+  return files;
+}
+
+function buildWithGraphBuilder(files) {
+  const graph = new DiagramGraphBuilder();
+  files.forEach((file) => graph.components.add(file.component.className, file.component));
+  files.forEach((file) => {
+    file.connections.forEach((conn) => (conn.label === 'references' ? graph.addReference(conn) : graph.edges.add(conn)));
+    graph.addDetectedNodes({ topicNodes: file.topicNodes, serviceStreamNodes: [], toolNodes: [] });
+  });
+  return { nodes: graph.components.size + graph.topicNodes.size, edges: graph.edges.size };
+}
+
+// The previous implementation: linear scans of the node and edge arrays for every insertion
+function buildWithArrayFind(files) {
+  const components = [];
+  const topicNodes = [];
+  const edges = [];
+  files.forEach((file) => {
+    if (!components.find((c) => c.className === file.component.className)) {
+      components.push(file.component);
+    }
+  });
+  files.forEach((file) => {
+    file.connections.forEach((conn) => {
+      if (conn.label === 'references' && edges.find((e) => e.source === conn.source && e.target === conn.target)) {
+        return;
+      }
+      edges.push(conn);
+    });
+    file.topicNodes.forEach((topic) => {
+      if (!topicNodes.find((t) => t.id === topic.id)) {
+        topicNodes.push(topic);
+      }
+    });
+  });
+  return { nodes: components.length + topicNodes.length, edges: edges.length };
+}
+
+function time(build, files) {
+  build(files); // warm up
+  let best = Infinity;
+  let result;
+  for (let round = 0; round < rounds; round++) {
+    const start = process.hrtime.bigint();
+    result = build(files);
+    best = Math.min(best, Number(process.hrtime.bigint() - start) / 1e6);
+  }
+  return { best, result };
+}
+
+function main() {
+  console.log(`Rounds: ${rounds}\n`);
+  console.log(`${'nodes'.padStart(8)} ${'edges'.padStart(8)}   ${'builder ms'.padStart(10)} ${'ns/node'.padStart(8)}   ${'Array.find ms'.padStart(13)} ${'ns/node'.padStart(8)}`);
+
+  for (const size of SIZES) {
+    const files = createCorpus(size);
+    const builder = time(buildWithGraphBuilder, files);
+    let baselineColumns = `${'-'.padStart(13)} ${'-'.padStart(8)}`;
+    if (size <= BASELINE_MAX) {
+      const baseline = time(buildWithArrayFind, files);
+      if (baseline.result.nodes !== builder.result.nodes || baseline.result.edges !== builder.result.edges) {
+        console.log(`Results differ at ${size} nodes: ${JSON.stringify(builder.result)} vs ${JSON.stringify(baseline.result)}`);
+        process.exit(1);
+      }
+      baselineColumns = `${baseline.best.toFixed(2).padStart(13)} ${((baseline.best * 1e6) / size).toFixed(0).padStart(8)}`;
+    }
+    console.log(
+      `${String(builder.result.nodes).padStart(8)} ${String(builder.result.edges).padStart(8)}   ${builder.best.toFixed(2).padStart(10)} ${((builder.best * 1e6) / size).toFixed(0).padStart(8)}   ${baselineColumns}`
+    );
+  }
+}
+
+main();
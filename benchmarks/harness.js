@@ -0,0 +1,161 @@
+// Benchmark harness shared by the benchmark suites: warmup, timed iterations and sample statistics.
+//
+// Each task is warmed up (until both the warmup iteration count and warmup time are reached) and then run until
+// both the minimum iteration count and the time budget are reached. Every iteration is one sample; the reported
+// statistics are computed over the samples, with the relative margin of error at 95% confidence. Results are plain
+// objects so they can be written as JSON and compared with the results of a previous run.
+const os = require('os');
+
+// Two-sided Student's t critical values at 95% confidence, by degrees of freedom; larger samples use 1.96
+const T_TABLE = [12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228, 2.201, 2.179, 2.16, 2.145, 2.131,
+  2.12, 2.11, 2.101, 2.093, 2.086, 2.08, 2.074, 2.069, 2.064, 2.06, 2.056, 2.052, 2.048, 2.045, 2.042];
+
+function criticalValue(degreesOfFreedom) {
+  return degreesOfFreedom >= 1 && degreesOfFreedom <= T_TABLE.length ? T_TABLE[degreesOfFreedom - 1] : 1.96;
+}
+
+function percentile(sorted, p) {
+  if (sorted.length === 0) return 0;
+  const rank = (sorted.length - 1) * p;
+  const lower = Math.floor(rank);
+  const upper = Math.ceil(rank);
+  return sorted[lower] + (sorted[upper] - sorted[lower]) * (rank - lower);
+}
+
+/**
+ * Statistics of iteration times in milliseconds
+ */
+function statistics(samples) {
+  const sorted = [...samples].sort((a, b) => a - b);
+  const n = sorted.length;
+  const mean = sorted.reduce((sum, value) => sum + value, 0) / n;
+  const variance = n > 1 ? sorted.reduce((sum, value) => sum + (value - mean) ** 2, 0) / (n - 1) : 0;
+  const sd = Math.sqrt(variance);
+  const sem = sd / Math.sqrt(n);
+  return {
+    samples: n,
+    mean,
+    sd,
+    rme: mean > 0 ? ((sem * criticalValue(n - 1)) / mean) * 100 : 0,
+    min: sorted[0],
+    max: sorted[n - 1],
+    median: percentile(sorted, 0.5),
+    p75: percentile(sorted, 0.75),
+    p99: percentile(sorted, 0.99),
+    hz: mean > 0 ? 1000 / mean : 0,
+  };
+}
+
+function now() {
+  return Number(process.hrtime.bigint()) / 1e6;
+}
+
+class Bench {
+  /**
+   * @param options.time Minimum time in ms to spend on the measured iterations of each task
+   * @param options.iterations Minimum number of measured iterations of each task
+   * @param options.warmupTime Minimum time in ms to spend warming up each task
+   * @param options.warmupIterations Minimum number of warmup iterations of each task
+   */
+  constructor(options = {}) {
+    this.options = { time: 1000, iterations: 10, warmupTime: 200, warmupIterations: 3, ...options };
+    this.tasks = [];
+  }
+
+  /**
+   * Add a task. fn may return a promise, which is awaited as part of the iteration.
+   * @param name Unique name of the task, used to match results across runs
+   * @param fn The measured function
+   * @param taskOptions.setup Runs once before the task is warmed up; its result is passed to fn
+   * @param taskOptions.units Work units (files, edges) per iteration, reported as throughput
+   * @param taskOptions.iterations, taskOptions.time, taskOptions.warmupIterations, taskOptions.warmupTime Overrides
+   *   for slow tasks, such as end-to-end runs
+   */
+  add(name, fn, taskOptions = {}) {
+    if (this.tasks.some((task) => task.name === name)) {
+      throw new Error(`Duplicate benchmark name: ${name}`);
+    }
+    this.tasks.push({ name, fn, ...taskOptions });
+    return this;
+  }
+
+  /**
+   * Run all tasks in order
+   * @param onResult Called with each task's result as soon as it is measured
+   */
+  async run(onResult = () => {}) {
+    const results = [];
+    for (const task of this.tasks) {
+      const context = task.setup ? await task.setup() : undefined;
+      const iterations = task.iterations ?? this.options.iterations;
+      const time = task.time ?? this.options.time;
+      const warmupIterations = task.warmupIterations ?? this.options.warmupIterations;
+      const warmupTime = task.warmupTime ?? this.options.warmupTime;
+
+      const warmupStart = now();
+      for (let i = 0; i < warmupIterations || now() - warmupStart < warmupTime; i++) {
+        await task.fn(context);
+      }
+      if (global.gc) global.gc();
+
+      const samples = [];
+      const start = now();
+      while (samples.length < iterations || now() - start < time) {
+        const iterationStart = now();
+        await task.fn(context);
+        samples.push(now() - iterationStart);
+      }
+
+      const result = { name: task.name, ...statistics(samples) };
+      if (task.units) {
+        result.units = task.units;
+        result.unitsPerSecond = result.hz * task.units;
+      }
+      results.push(result);
+      onResult(result);
+    }
+    return results;
+  }
+}
+
+function formatMs(ms) {
+  return ms >= 100 ? ms.toFixed(0) : ms >= 1 ? ms.toFixed(2) : ms.toFixed(4);
+}
+
+/**
+ * One console line per result: mean, margin of error, median, p99, samples and throughput
+ */
+function formatResult(result) {
+  const throughput = result.unitsPerSecond !== undefined ? `  ${result.unitsPerSecond.toFixed(0).padStart(9)} units/s` : '';
+  return (
+    `${result.name.padEnd(40)} ${formatMs(result.mean).padStart(10)} ms ±${result.rme.toFixed(2).padStart(6)}%` +
+    `  median ${formatMs(result.median).padStart(10)} ms  p99 ${formatMs(result.p99).padStart(10)} ms  (${result.samples} samples)${throughput}`
+  );
+}
+
+/**
+ * Machine and runtime the results were measured on, stored with the JSON results
+ */
+function environment() {
+  const cpus = os.cpus();
+  return { node: process.version, platform: `${process.platform}-${process.arch}`, cpu: cpus.length > 0 ? cpus[0].model : 'unknown', cpus: cpus.length };
+}
+
+/**
+ * Compare results with those of a previous run (by name). A task regressed when its mean grew by more than the
+ * threshold and by more than the combined margins of error of both runs, so noise alone does not count.
+ * @param threshold Relative slowdown tolerated, e.g. 0.1 for 10%
+ */
+function compareResults(results, baseline, threshold = 0.1) {
+  const baselineByName = new Map(baseline.map((result) => [result.name, result]));
+  return results
+    .filter((result) => baselineByName.has(result.name))
+    .map((result) => {
+      const previous = baselineByName.get(result.name);
+      const change = (result.mean - previous.mean) / previous.mean;
+      const noise = ((result.rme + previous.rme) / 100) * Math.max(1, result.mean / previous.mean);
+      return { name: result.name, previousMean: previous.mean, mean: result.mean, change, regression: change > threshold && change > noise };
+    });
+}
+
+module.exports = { Bench, statistics, formatResult, environment, compareResults };
@@ -0,0 +1,82 @@
+// Throughput benchmark: sequential java-parser parsing vs the worker-thread ParsePool.
+//
+// Build the unbundled modules first so out/parsers/parsePool.js and parseWorker.js exist:
+//   npx tsc -p ./
+// Then run:
+//   node benchmarks/parsePool.bench.js [rootDir] [rounds]
+const fs = require('fs');
+const os = require('os');
+const path = require('path');
+const { parse } = require('java-parser');
+const { ParsePool } = require('../out/parsers/parsePool');
+
+const rootDir = path.resolve(process.argv[2] || path.join(__dirname, '..', 'test-samples'));
+const rounds = parseInt(process.argv[3] || '3', 10);
+
+function collectJavaFiles(dir, files = []) {
+  for (const entry of fs.readdirSync(dir, { withFileTypes: true })) {
+    const fullPath = path.join(dir, entry.name);
+    if (entry.isDirectory()) {
+      if (entry.name !== 'target' && entry.name !== 'node_modules') {
+        collectJavaFiles(fullPath, files);
+      }
+    } else if (entry.name.endsWith('.java')) {
+      files.push(fullPath);
+    }
+  }
+  return files;
+}
+
+function report(label, elapsedMs, fileCount, byteCount) {
+  const filesPerSec = (fileCount / elapsedMs) * 1000;
+  const mbPerSec = (byteCount / 1024 / 1024 / elapsedMs) * 1000;
+  console.log(`${label.padEnd(24)} ${elapsedMs.toFixed(1).padStart(9)} ms  ${filesPerSec.toFixed(1).padStart(8)} files/s  ${mbPerSec.toFixed(2).padStart(6)} MB/s`);
+}
+
+async function main() {
+  const tasks = collectJavaFiles(rootDir).map((filename) => ({ filename, sourceText: fs.readFileSync(filename, 'utf8') }));
+  const byteCount = tasks.reduce((sum, t) => sum + t.sourceText.length, 0);
+  console.log(`Corpus: ${tasks.length} files, ${(byteCount / 1024).toFixed(0)} KiB from ${rootDir}`);
+  console.log(`CPUs: ${os.cpus().length}, rounds: ${rounds}\n`);
+
+  // Warm up the parser on the main thread so the first sequential round is not penalised
+  tasks.slice(0, 10).forEach((t) => parse(t.sourceText));
+
+  let best = Infinity;
+  for (let round = 0; round < rounds; round++) {
+    const start = process.hrtime.bigint();
+    for (const task of tasks) {
+      try {
+        parse(task.sourceText);
+      } catch (error) {
+        // Parse failures count towards the time, the same as in the extension
+      }
+    }
+    best = Math.min(best, Number(process.hrtime.bigint() - start) / 1e6);
+  }
+  report('sequential', best, tasks.length, byteCount);
+
+  const sizes = [...new Set([2, 4, ParsePool.defaultSize()])].filter((n) => n <= Math.max(2, os.cpus().length)).sort((a, b) => a - b);
+  for (const size of sizes) {
+    const pool = new ParsePool(size);
+    // Warm up every worker so thread start-up and module loading are excluded
+    await pool.parseAll(tasks.slice(0, size * 2));
+
+    let bestPooled = Infinity;
+    for (let round = 0; round < rounds; round++) {
+      const start = process.hrtime.bigint();
+      const results = await pool.parseAll(tasks);
+      bestPooled = Math.min(bestPooled, Number(process.hrtime.bigint() - start) / 1e6);
+      if (results.length !== tasks.length || results.some((r, i) => r.filename !== tasks[i].filename)) {
+        throw new Error('Pooled results are not in input order');
+      }
+    }
+    await pool.dispose();
+    report(`pool (${size} workers)`, bestPooled, tasks.length, byteCount);
+  }
+}
+
+main().catch((error) => {
+  console.error(error);
+  process.exit(1);
+});
@@ -0,0 +1,232 @@
+// Extension host heap benchmark: ComponentDiagramController.processProject on a synthetic workspace.
+//
+// Generates a workspace of Java files (10,000 by default, a fifth of them Akka components calling each other
+// through the ComponentClient, the rest plain classes referencing them) and runs processProject in a fresh
+// process, sampling the heap every few milliseconds. Reports the heap high-water mark while the project is
+// processed and the heap retained by the result afterwards. Parser worker threads have heaps of their own and
+// are not included; with a single parser thread the files are parsed on the measured heap.
+//
+// Build the unbundled modules first so out/parsers/componentDiagramController.js exists:
+//   npx tsc -p ./
+// Then run:
+//   node benchmarks/pipelineMemory.bench.js [fileCount] [--jobs <n>] [--baseline <outDir>]
+//
+// To measure the controller before streaming as well, build that commit into a separate directory and pass its out/ directory:
+//   git worktree add /tmp/akka-diagram-baseline <commit> && (cd /tmp/akka-diagram-baseline && npm ci && npx tsc -p ./)
+//   node benchmarks/pipelineMemory.bench.js 10000 --baseline /tmp/akka-diagram-baseline/out
+const fs = require('fs');
+const os = require('os');
+const path = require('path');
+const { fork } = require('child_process');
+
+const SAMPLE_INTERVAL_MS = 2;
+const PACKAGES = 100;
+const COMPONENT_EVERY = 5;
+
+function takeOption(args, name) {
+  const index = args.indexOf(name);
+  return index >= 0 ? args.splice(index, 2)[1] : undefined;
+}
+
+// Deterministic pseudo-random numbers so every run sees the same workspace
+function random(seed) {
+  let state = seed;
+  return () => {
+    state = (state * 1103515245 + 12345) & 0x7fffffff;
+    return state / 0x7fffffff;
+  };
+}
+
+function componentSource(i, fileCount, next) {
+  const callees = [1, 2, 3].map(() => Math.floor(next() * fileCount / COMPONENT_EVERY) * COMPONENT_EVERY);
+  const calls = callees
+    .map(
+      (j) => `
+    public String callEntity${j}(String id) {
+        return componentClient.forKeyValueEntity(id)
+            .method(CounterEntity${j}::getCurrentValue)
+            .invoke();
+    }`
+    )
+    .join('\n');
+  return `package com.example.pkg${i % PACKAGES};
+
+import akka.javasdk.annotations.ComponentId;
+import akka.javasdk.client.ComponentClient;
+import akka.javasdk.keyvalueentity.KeyValueEntity;
+${callees.map((j) => `import com.example.pkg${j % PACKAGES}.CounterEntity${j};`).join('\n')}
+
+@ComponentId("counter-${i}")
+public class CounterEntity${i} extends KeyValueEntity<Integer> {
+
+    private final ComponentClient componentClient;
+
+    public CounterEntity${i}(ComponentClient componentClient) {
+        this.componentClient = componentClient;
+    }
+
+    public Effect<Integer> getCurrentValue() {
+        return effects().reply(currentState());
+    }
+
+    public Effect<Integer> increaseCounterValue(int increaseAmount) {
+        int updatedCounterValue = currentState() + increaseAmount;
+        return effects().updateState(updatedCounterValue).thenReply(updatedCounterValue);
+    }
+${calls}
+}
+`;
+}
+
+function plainSource(i, fileCount, next) {
+  const referenced = Math.floor(next() * fileCount / COMPONENT_EVERY) * COMPONENT_EVERY;
+  const methods = [];
+  for (let m = 0; m < 12; m++) {
+    methods.push(`
+    public int computeAggregatedMetric${m}(java.util.List<Integer> measurementValues) {
+        int accumulatedResultValue = 0;
+        for (int measurementIndex = 0; measurementIndex < measurementValues.size(); measurementIndex++) {
+            accumulatedResultValue += measurementValues.get(measurementIndex) * ${m + 1};
+        }
+        return accumulatedResultValue + configurationThreshold${i};
+    }`);
+  }
+  return `package com.example.pkg${i % PACKAGES};
+
+import com.example.pkg${referenced % PACKAGES}.CounterEntity${referenced};
+
+/**
+ * Helper ${i}; only referenced components make it part of the diagram.
+ */
+public class MeasurementHelper${i} {
+
+    private final int configurationThreshold${i} = ${i};
+    private CounterEntity${referenced} associatedCounterEntity;
+${methods.join('\n')}
+}
+`;
+}
+
+function generateWorkspace(fileCount) {
+  const root = path.join(os.tmpdir(), `akka-diagram-pipeline-bench-${fileCount}`);
+  const javaRoot = path.join(root, 'src', 'main', 'java', 'com', 'example');
+  if (fs.existsSync(root)) {
+    return root;
+  }
+
+  const next = random(fileCount);
+  for (let i = 0; i < fileCount; i++) {
+    const dir = path.join(javaRoot, `pkg${i % PACKAGES}`);
+    fs.mkdirSync(dir, { recursive: true });
+    if (i % COMPONENT_EVERY === 0) {
+      fs.writeFileSync(path.join(dir, `CounterEntity${i}.java`), componentSource(i, fileCount, next));
+    } else {
+      fs.writeFileSync(path.join(dir, `MeasurementHelper${i}.java`), plainSource(i, fileCount, next));
+    }
+  }
+  return root;
+}
+
+function collectJavaFiles(dir, files = []) {
+  for (const entry of fs.readdirSync(dir, { withFileTypes: true })) {
+    const fullPath = path.join(dir, entry.name);
+    if (entry.isDirectory()) {
+      collectJavaFiles(fullPath, files);
+    } else if (entry.name.endsWith('.java')) {
+      files.push(fullPath);
+    }
+  }
+  return files;
+}
+
+// --- Child process: run one controller and report its heap usage ---
+
+async function measure(outDir, root, jobs) {
+  const Module = require('module');
+  const v8 = require('v8');
+
+  // Builds with an analysis host run the controller on plain Node; older builds (a --baseline) need a vscode stub
+  // for their file reads, settings and URIs
+  class CancellationError extends Error {}
+  const vscodeStub = {
+    Uri: { file: (fsPath) => ({ fsPath, scheme: 'file', path: fsPath, toString: () => `file://${fsPath}` }) },
+    CancellationError,
+    workspace: {
+      fs: { readFile: (uri) => fs.promises.readFile(uri.fsPath) },
+      textDocuments: [],
+      getConfiguration: () => ({ get: (key, defaultValue) => (key === 'parserThreads' ? jobs : defaultValue) }),
+    },
+  };
+  const originalLoad = Module._load;
+  Module._load = function (request, ...rest) {
+    return request === 'vscode' ? vscodeStub : originalLoad.call(this, request, ...rest);
+  };
+
+  // Without an output channel the controller logs to the console; only errors are of interest here
+  require(path.join(outDir, 'utils', 'logger')).setLogLevel('error');
+  const { ComponentDiagramController } = require(path.join(outDir, 'parsers', 'componentDiagramController'));
+  const hostModule = path.join(outDir, 'host', 'nodeAnalysisHost.js');
+  const controller = fs.existsSync(hostModule)
+    ? new ComponentDiagramController(new (require(hostModule).NodeAnalysisHost)({ jobs }), undefined)
+    : new ComponentDiagramController(undefined, undefined);
+  const files = collectJavaFiles(root).map((fsPath) => vscodeStub.Uri.file(fsPath));
+
+  global.gc();
+  const baseline = v8.getHeapStatistics().used_heap_size;
+  let peak = baseline;
+  const sampler = setInterval(() => {
+    peak = Math.max(peak, v8.getHeapStatistics().used_heap_size);
+  }, SAMPLE_INTERVAL_MS);
+
+  const start = process.hrtime.bigint();
+  const result = await controller.processProject(files);
+  const elapsedMs = Number(process.hrtime.bigint() - start) / 1e6;
+  clearInterval(sampler);
+  peak = Math.max(peak, v8.getHeapStatistics().used_heap_size);
+
+  global.gc();
+  const retained = v8.getHeapStatistics().used_heap_size - baseline;
+  process.send({ files: files.length, nodes: result.nodes.length, edges: result.edges.length, elapsedMs, peak: peak - baseline, retained });
+}
+
+function runChild(label, outDir, root, jobs) {
+  return new Promise((resolve, reject) => {
+    const child = fork(__filename, ['--child', outDir, root, String(jobs)], { execArgv: ['--expose-gc'] });
+    child.on('message', (report) => {
+      const mb = (bytes) => `${(bytes / 1024 / 1024).toFixed(1).padStart(8)} MB`;
+      console.log(
+        `${label.padEnd(12)} ${report.elapsedMs.toFixed(0).padStart(8)} ms  peak ${mb(report.peak)}  retained ${mb(report.retained)}  ` +
+          `(${report.nodes} nodes, ${report.edges} edges)`
+      );
+      resolve();
+    });
+    child.on('error', reject);
+    child.on('exit', (code) => code !== 0 && reject(new Error(`${label} exited with code ${code}`)));
+  });
+}
+
+async function main() {
+  const args = process.argv.slice(2);
+  if (args[0] === '--child') {
+    await measure(args[1], args[2], parseInt(args[3], 10));
+    return;
+  }
+
+  const baselineDir = takeOption(args, '--baseline');
+  const jobs = parseInt(takeOption(args, '--jobs') || '0', 10);
+  const fileCount = parseInt(args[0] || '10000', 10);
+
+  const root = generateWorkspace(fileCount);
+  console.log(`Workspace: ${fileCount} files in ${root}`);
+  console.log(`Parser threads: ${jobs > 0 ? jobs : 'default'}; heap sizes are relative to the heap before processing\n`);
+
+  if (baselineDir) {
+    await runChild('baseline', path.resolve(baselineDir), root, jobs);
+  }
+  await runChild('current', path.join(__dirname, '..', 'out'), root, jobs);
+}
+
+main().catch((error) => {
+  console.error(error);
+  process.exit(1);
+});
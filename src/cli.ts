@@ -0,0 +1,248 @@
+import type * as vscode from 'vscode';
+import * as fs from 'fs';
+import * as path from 'path';
+import { performance } from 'perf_hooks';
+import { ComponentDiagramController } from './parsers/componentDiagramController';
+import { FILE_FACTS_VERSION } from './parsers/fileFacts';
+import { NodeAnalysisHost } from './host/nodeAnalysisHost';
+import { AnalysisCancelledError } from './host/analysisHost';
+import { AnalysisCache } from './utils/analysisCache';
+import { writeMetricsReport } from './utils/analysisMetrics';
+import { generateMermaidSections } from './utils/mermaidGenerator';
+import { documentChunks, writeChunks, writeMermaidDocument } from './utils/mermaidDocument';
+import { DiagramClusters, exceedsClusterThreshold } from './models/diagramClusters';
+import { aggregateEdges } from './models/diagramGraph';
+import { LogChannel, createPrefixedLogger, flushLogs, setLogLevel } from './utils/logger';
+import { SETTING_DEFAULTS } from './utils/settings';
+
+const USAGE = `Usage: node out/cli.js scan <dir> [options]
+
+Scans the Java sources under <dir> for Akka components and writes their diagram to stdout.
+
+Options:
+  --format json|mermaid  Output format (default: json)
+  --jobs <n>             Parser threads; 0 uses one per CPU core minus one, 1 parses sequentially (default: ${SETTING_DEFAULTS.parserThreads})
+  --output <file>        Write the diagram to a file instead of stdout
+  --cache <file>         Per-file analysis cache; unchanged files are not parsed again on the next scan
+  --metrics <file>       Write the analysis timings and counters (per stage and per file) as a JSON report
+  --log-level <level>    off, error, info, debug or trace (default: error); logs are written to stderr
+  -h, --help             Show this help`;
+
+// Directories never scanned: build output and dependencies
+const EXCLUDED_DIRECTORIES = new Set(['target', 'node_modules', '.git']);
+
+type OutputFormat = 'json' | 'mermaid';
+
+interface CliOptions {
+  dir: string;
+  format: OutputFormat;
+  jobs: number;
+  output?: string;
+  cache?: string;
+  metrics?: string;
+  logLevel: string;
+}
+
+class UsageError extends Error {}
+
+function parseArguments(args: string[]): CliOptions | undefined {
+  if (args.length === 0 || args.includes('-h') || args.includes('--help')) {
+    return undefined;
+  }
+  const [command, ...rest] = args;
+  if (command !== 'scan') {
+    throw new UsageError(`Unknown command: ${command}`);
+  }
+
+  const options: CliOptions = { dir: '', format: 'json', jobs: SETTING_DEFAULTS.parserThreads, logLevel: 'error' };
+  for (let i = 0; i < rest.length; i++) {
+    const arg = rest[i];
+    if (!arg.startsWith('--')) {
+      if (options.dir) {
+        throw new UsageError(`Unexpected argument: ${arg}`);
+      }
+      options.dir = arg;
+      continue;
+    }
+    const value = rest[++i];
+    if (value === undefined) {
+      throw new UsageError(`Missing value for ${arg}`);
+    }
+    switch (arg) {
+      case '--format':
+        if (value !== 'json' && value !== 'mermaid') {
+          throw new UsageError(`Unknown format: ${value}`);
+        }
+        options.format = value;
+        break;
+      case '--jobs':
+        options.jobs = Number(value);
+        if (!Number.isInteger(options.jobs) || options.jobs < 0) {
+          throw new UsageError(`Invalid number of jobs: ${value}`);
+        }
+        break;
+      case '--output':
+        options.output = value;
+        break;
+      case '--cache':
+        options.cache = value;
+        break;
+      case '--metrics':
+        options.metrics = value;
+        break;
+      case '--log-level':
+        options.logLevel = value;
+        break;
+      default:
+        throw new UsageError(`Unknown option: ${arg}`);
+    }
+  }
+  if (!options.dir) {
+    throw new UsageError('Missing directory to scan');
+  }
+  return options;
+}
+
+/**
+ * All .java files under dir, skipping build output and dependency directories
+ */
+function collectJavaFiles(dir: string, files: string[] = []): string[] {
+  for (const entry of fs.readdirSync(dir, { withFileTypes: true })) {
+    const fullPath = path.join(dir, entry.name);
+    if (entry.isDirectory()) {
+      if (!EXCLUDED_DIRECTORIES.has(entry.name)) {
+        collectJavaFiles(fullPath, files);
+      }
+    } else if (entry.isFile() && entry.name.endsWith('.java')) {
+      files.push(fullPath);
+    }
+  }
+  return files;
+}
+
+/**
+ * Cancellation token requested on Ctrl+C, so an interrupted scan still saves the cache of the files it finished
+ */
+function cancelOnInterrupt(): vscode.CancellationToken {
+  const listeners: Array<() => void> = [];
+  const token = {
+    isCancellationRequested: false,
+    onCancellationRequested: (listener: () => void) => {
+      listeners.push(listener);
+      return {
+        dispose: () => {
+          const index = listeners.indexOf(listener);
+          if (index >= 0) listeners.splice(index, 1);
+        },
+      };
+    },
+  };
+  process.once('SIGINT', () => {
+    token.isCancellationRequested = true;
+    listeners.forEach((listener) => listener());
+  });
+  return token as unknown as vscode.CancellationToken;
+}
+
+function formatMs(ms: number): string {
+  return `${ms.toFixed(0)} ms`;
+}
+
+async function scan(options: CliOptions): Promise<void> {
+  // stdout carries the diagram; everything else goes to stderr
+  const stderr: LogChannel = { append: (text) => void process.stderr.write(text) };
+  const log = createPrefixedLogger(stderr, '[CLI]');
+  setLogLevel(options.logLevel);
+
+  const root = path.resolve(options.dir);
+  if (!fs.existsSync(root) || !fs.statSync(root).isDirectory()) {
+    throw new UsageError(`Not a directory: ${options.dir}`);
+  }
+
+  const start = performance.now();
+  const host = new NodeAnalysisHost({ jobs: options.jobs });
+  const javaFiles = collectJavaFiles(root).map((file) => host.fileUri(file));
+  const discoveredAt = performance.now();
+  log(`Found ${javaFiles.length} Java files under ${root}`);
+
+  const cache = options.cache ? new AnalysisCache(path.resolve(options.cache), FILE_FACTS_VERSION, SETTING_DEFAULTS.analysisCacheSize) : undefined;
+  const controller = new ComponentDiagramController(host, stderr, cache);
+
+  const result = await controller.processProject(javaFiles, { token: cancelOnInterrupt() });
+  const processedAt = performance.now();
+
+  const edges = aggregateEdges(result.edges);
+  if (options.format === 'mermaid') {
+    const title = `Akka Component Diagram - ${path.basename(root)}`;
+    // Large diagrams are grouped and split by package as with the default clusterThreshold and mermaidMaxNodesPerDiagram settings
+    const clusters = exceedsClusterThreshold(result.nodes.length, SETTING_DEFAULTS.clusterThreshold) ? new DiagramClusters() : undefined;
+    const sections = generateMermaidSections(result.nodes, edges, {
+      direction: 'TB',
+      theme: SETTING_DEFAULTS.mermaidTheme,
+      clusterOf: clusters && ((node) => clusters.clusterOf(node)),
+      maxNodesPerDiagram: SETTING_DEFAULTS.mermaidMaxNodesPerDiagram,
+    });
+    if (options.output) {
+      // An existing file only has the diagrams that changed replaced
+      const written = await writeMermaidDocument(path.resolve(options.output), sections, title);
+      log(`Updated ${written} of ${sections.length} Mermaid diagram(s) in ${options.output}`);
+    } else {
+      await writeChunks(process.stdout, documentChunks(undefined, { rewrite: true }, sections, title));
+    }
+  } else {
+    const diagram = JSON.stringify(
+      {
+        nodes: result.nodes.map((node) => ({ id: node.id, name: node.name, type: node.type, file: path.relative(root, node.uri.fsPath) })),
+        edges: edges.map((edge) => ({ source: edge.source, target: edge.target, label: edge.label, details: edge.details })),
+      },
+      null,
+      2
+    );
+    if (options.output) {
+      fs.writeFileSync(options.output, diagram + '\n');
+    } else {
+      process.stdout.write(diagram + '\n');
+    }
+  }
+  if (options.metrics) {
+    await writeMetricsReport(path.resolve(options.metrics), result.metrics);
+  }
+  const end = performance.now();
+
+  const stats = [`Scanned ${javaFiles.length} Java files: ${result.nodes.length} nodes, ${edges.length} edges`, `  discover ${formatMs(discoveredAt - start)}`];
+  result.metrics.stages.forEach(({ stage, ms }) => stats.push(`  ${stage.padEnd(8)} ${formatMs(ms)}`));
+  stats.push(`  output   ${formatMs(end - processedAt)}`);
+  const seconds = (end - start) / 1000;
+  stats.push(`  total    ${formatMs(end - start)} (${seconds > 0 ? Math.round(javaFiles.length / seconds) : javaFiles.length} files/s)`);
+  process.stderr.write(stats.join('\n') + '\n');
+}
+
+async function main(): Promise<number> {
+  try {
+    const options = parseArguments(process.argv.slice(2));
+    if (!options) {
+      process.stdout.write(USAGE + '\n');
+      return 0;
+    }
+    await scan(options);
+    return 0;
+  } catch (error) {
+    if (error instanceof UsageError) {
+      process.stderr.write(`${error.message}\n\n${USAGE}\n`);
+      return 2;
+    }
+    if (error instanceof AnalysisCancelledError) {
+      process.stderr.write('Scan cancelled\n');
+      return 130;
+    }
+    process.stderr.write(`Error: ${error instanceof Error ? error.stack : error}\n`);
+    return 1;
+  } finally {
+    flushLogs();
+  }
+}
+
+// Exit once stdout is drained rather than with process.exit, which can cut off a diagram written to a pipe
+main().then((code) => {
+  process.exitCode = code;
+});
@@ -1,69 +1,243 @@
 import * as vscode from 'vscode';
 import * as path from 'path';
-import { getWebviewContent } from './webview/webviewManager';
-import { JavaParser } from './parsers/javaParser';
-import { extractComponentConnectionsFromCST } from './parsers/javaCstUtils';
+import { createInitializeMessage, getDiagramRenderOptions, getWebviewContent, getWebviewOptions } from './webview/webviewManager';
+import { DiagramDeltaTracker } from './webview/diagramDelta';
 import { AkkaComponent, AkkaEdge, SerializableDiagramData, ViewState } from './models/types';
-import { createPrefixedLogger } from './utils/logger';
-import { generateMermaidDiagram } from './utils/mermaidGenerator';
-import { ComponentDiagramController } from './parsers/componentDiagramController';
+import { aggregateEdges } from './models/diagramGraph';
+import { ClusterRule, DiagramClusters, exceedsClusterThreshold } from './models/diagramClusters';
+import { NavigationIndex } from './models/navigationIndex';
+import { Logger, createPrefixedLogger, flushLogs, setLogLevel } from './utils/logger';
+import { MermaidSection, generateMermaidSections } from './utils/mermaidGenerator';
+import { documentChunks, editChunks, planDocumentUpdate, writeMermaidDocument } from './utils/mermaidDocument';
+import { ComponentDiagramController, ProcessingProgress, ProcessingResult, ProcessingStage } from './parsers/componentDiagramController';
+import { FILE_FACTS_VERSION } from './parsers/fileFacts';
+import { AnalysisCache } from './utils/analysisCache';
+import { LiveUpdateWatcher } from './utils/liveUpdateWatcher';
+import { AnalysisCancelledError } from './host/analysisHost';
+import { VscodeAnalysisHost } from './host/vscodeAnalysisHost';
+import { parseInProcess } from './parsers/parsePool';
+import { createSyntheticDiagram } from './utils/syntheticDiagram';
+import { LayoutStore } from './utils/layoutStore';
+import { MermaidTheme, SETTINGS_SECTION, SETTING_DEFAULTS } from './utils/settings';
+import { AnalysisMetrics, fileMetricsMs, formatMetricsSummary, writeMetricsReport } from './utils/analysisMetrics';
 
-// Helper function to aggregate CST edges
-function aggregateCstEdges(edges: AkkaEdge[]): AkkaEdge[] {
-  const edgeMap = new Map<string, AkkaEdge>();
+// --- Type Definitions ---
 
-  edges.forEach((edge) => {
-    const key = `${edge.source}->${edge.target}`;
-    const existing = edgeMap.get(key);
+// Global variable to track the existing diagram panel
+let currentDiagramPanel: vscode.WebviewPanel | undefined;
+let currentCstDiagramPanel: vscode.WebviewPanel | undefined;
+// All nodes and edges of the CST panel's diagram (used for navigation and cluster expansion) and the watcher keeping them up to date
+let currentCstDiagramData: { nodes: AkkaComponent[]; edges: AkkaEdge[] } = { nodes: [], edges: [] };
+let currentCstLiveWatcher: LiveUpdateWatcher | undefined;
+// Clusters of a large CST diagram; undefined when every component is shown
+let currentCstClusters: DiagramClusters | undefined;
+// Class declarations and call sites of the CST panel's project, from the last analysis
+let currentCstNavigation: NavigationIndex | undefined;
+// The diagram last sent to the CST panel, so live updates only send what changed
+let currentCstDiagramTracker = new DiagramDeltaTracker();
+// Timings and counters of the last CST diagram scan, for the Show Analysis Performance command
+let lastAnalysisMetrics: AnalysisMetrics | undefined;
+
+// Share of the scan progress bar taken by each processing stage, in percent; parsing dominates
+const PROCESSING_STAGE_WEIGHTS: { [stage in ProcessingStage]: number } = { parse: 80, detect: 10, edges: 10 };
+const PROCESSING_STAGE_MESSAGES: { [stage in ProcessingStage]: string } = { parse: 'Parsing', detect: 'Detecting components', edges: 'Detecting connections' };
 
-    if (existing) {
-      if (edge.label !== 'consumes' && edge.label !== 'produces to' && !existing.details.includes(edge.label)) {
-        existing.details.push(edge.label);
-      }
-    } else {
-      const newEdge: AkkaEdge = {
-        source: edge.source,
-        target: edge.target,
-        label: '', // Will be set later
-        details: [],
-      };
-      if (edge.label !== 'consumes' && edge.label !== 'produces to') {
-        newEdge.details.push(edge.label);
-      }
-      edgeMap.set(key, newEdge);
+// --- Helper Functions ---
+
+/**
+ * Bring the generated Mermaid sections of an open markdown document up to date and save it.
+ * Only the changed sections are replaced, in a single edit.
+ * @returns The number of sections written
+ */
+async function updateMermaidDocument(document: vscode.TextDocument, sections: MermaidSection[], title: string): Promise<number> {
+  const text = document.getText();
+  const update = planDocumentUpdate(text, sections);
+  if (!update.rewrite && update.edits.length === 0) {
+    return 0;
+  }
+
+  // The ranges of all replacements refer to the text before the edit, so they are applied together
+  const edit = new vscode.WorkspaceEdit();
+  if (update.rewrite) {
+    edit.replace(document.uri, new vscode.Range(document.positionAt(0), document.positionAt(text.length)), Array.from(documentChunks(text, update, sections, title)).join(''));
+  } else {
+    for (const sectionEdit of update.edits) {
+      edit.replace(document.uri, new vscode.Range(document.positionAt(sectionEdit.start), document.positionAt(sectionEdit.end)), Array.from(editChunks(sectionEdit)).join(''));
     }
-  });
+  }
+  await vscode.workspace.applyEdit(edit);
+  if (document.isDirty) {
+    await document.save();
+  }
+  return update.rewrite ? sections.length : update.edits.filter((sectionEdit) => sectionEdit.section).length;
+}
 
-  return Array.from(edgeMap.values()).map((edge) => {
-    if (edge.details.length > 0) {
-      edge.label = `invokes (${edge.details.length} methods)`;
-    } else {
-      const originalEdge = edges.find((e) => e.source === edge.source && e.target === edge.target);
-      edge.label = originalEdge ? originalEdge.label : '';
+/**
+ * List the slowest files of the last analysis, with the analysis summary as title.
+ * Picking a file opens it; the first entry opens the full JSON report.
+ */
+async function showAnalysisPerformance(metrics: AnalysisMetrics, reportFile: string) {
+  type Item = vscode.QuickPickItem & { file?: string };
+  const ms = (value: number) => `${value.toFixed(1)} ms`;
+  const { fileTotals } = metrics;
+  const items: Item[] = [
+    {
+      label: '$(json) Open JSON report',
+      description: `${metrics.files.parsed} parsed, ${metrics.files.cached} cached, ${metrics.files.skipped} skipped, ${metrics.files.failed} failed`,
+      detail:
+        `All files: pre-scan ${ms(fileTotals.preScanMs)}, parse ${ms(fileTotals.parseMs)}, extract ${ms(fileTotals.extractMs)}, ` +
+        `references ${ms(fileTotals.referencesMs)}, ${fileTotals.cstNodes} CST nodes, ${(fileTotals.bytes / 1024).toFixed(0)} KiB`,
+      file: reportFile,
+    },
+    { label: 'Slowest files', kind: vscode.QuickPickItemKind.Separator },
+    ...metrics.slowestFiles.map((file) => ({
+      label: path.basename(file.filename),
+      description: `${ms(fileMetricsMs(file))} · ${file.outcome}`,
+      detail:
+        `pre-scan ${ms(file.preScanMs)}, parse ${ms(file.parseMs)}, extract ${ms(file.extractMs)}, references ${ms(file.referencesMs)}, ` +
+        `${file.cstNodes} CST nodes, ${(file.bytes / 1024).toFixed(1)} KiB · ${vscode.workspace.asRelativePath(file.filename)}`,
+      file: file.filename,
+    })),
+  ];
+
+  const picked = await vscode.window.showQuickPick(items, { title: `Analysis: ${formatMetricsSummary(metrics)}`, matchOnDetail: true });
+  if (picked?.file) {
+    const document = await vscode.workspace.openTextDocument(vscode.Uri.file(picked.file));
+    await vscode.window.showTextDocument(document);
+  }
+}
+
+function toSerializableDiagramData(data: { nodes: AkkaComponent[]; edges: AkkaEdge[] }): SerializableDiagramData {
+  return {
+    nodes: data.nodes.map(({ id, name, type, x, y }) => ({ id, name, type, x, y })),
+    edges: data.edges,
+  };
+}
+
+/**
+ * The part of the CST diagram sent to the webview: collapsed clusters replace their members
+ */
+function toCstDiagramView(layoutStore: LayoutStore, data: { nodes: AkkaComponent[]; edges: AkkaEdge[] }): SerializableDiagramData {
+  return currentCstClusters ? currentCstClusters.view(data, layoutStore.getLayout()) : toSerializableDiagramData(data);
+}
+
+/**
+ * Clusters for a diagram with nodeCount nodes, from the akkaDiagramGenerator.clusterThreshold and clusterRules settings.
+ * Used by the CST diagram and the Mermaid diagram, so both group the same components.
+ * @returns undefined if the diagram is small enough to show every component
+ */
+function createDiagramClusters(nodeCount: number, log: Logger): DiagramClusters | undefined {
+  const config = vscode.workspace.getConfiguration(SETTINGS_SECTION);
+  const threshold = config.get<number>('clusterThreshold', SETTING_DEFAULTS.clusterThreshold);
+  if (!exceedsClusterThreshold(nodeCount, threshold)) {
+    return undefined;
+  }
+
+  const rules = config.get<ClusterRule[]>('clusterRules', []).filter((rule) => {
+    try {
+      new RegExp(rule.pattern);
+      return typeof rule.cluster === 'string';
+    } catch (error) {
+      log.error(`Ignoring cluster rule with invalid pattern ${rule.pattern}: ${error}`);
+      return false;
     }
-    return edge;
   });
+  log(`Diagram has ${nodeCount} nodes (more than ${threshold}); grouping components into clusters`);
+  return new DiagramClusters(rules);
 }
 
-// --- Type Definitions ---
+/**
+ * Send the changes of the CST diagram view since the last update to the panel
+ */
+function postCstDiagramDelta(layoutStore: LayoutStore, log: Logger) {
+  if (!currentCstDiagramPanel) return;
 
-// Global variable to track the existing diagram panel
-let currentDiagramPanel: vscode.WebviewPanel | undefined;
-let currentCstDiagramPanel: vscode.WebviewPanel | undefined;
+  // The webview applies the changes in place, keeping its view, node positions, selection and any drag in progress
+  const delta = currentCstDiagramTracker.diff(toCstDiagramView(layoutStore, currentCstDiagramData));
+  if (!delta) {
+    log.debug('No diagram changes');
+    return;
+  }
+  log(
+    `Updating CST diagram to version ${delta.version}: +${delta.addNodes.length}/-${delta.removeNodes.length}/~${delta.updateNodes.length} nodes, ` +
+      `+${delta.addEdges.length}/-${delta.removeEdges.length} edges`
+  );
+  currentCstDiagramPanel.webview.postMessage({ command: 'applyDelta', payload: delta });
+}
 
-// --- Helper Functions ---
+/**
+ * Report the controller's per-stage progress in a progress notification.
+ * Within a stage, progress is only reported when it has advanced by a whole percent.
+ */
+function createProcessingProgressReporter(progress: vscode.Progress<{ message?: string; increment?: number }>): (processingProgress: ProcessingProgress) => void {
+  const reported: { [stage in ProcessingStage]: number } = { parse: 0, detect: 0, edges: 0 };
+  let lastStage: ProcessingStage | undefined;
+
+  return ({ stage, completed, total }) => {
+    const share = total > 0 ? Math.floor((PROCESSING_STAGE_WEIGHTS[stage] * completed) / total) : 0;
+    const increment = share - reported[stage];
+    if (increment <= 0 && stage === lastStage) return;
+
+    reported[stage] = share;
+    lastStage = stage;
+    const message = stage === 'parse' ? `${PROCESSING_STAGE_MESSAGES.parse} ${completed}/${total} file(s)` : PROCESSING_STAGE_MESSAGES[stage];
+    progress.report({ message, increment: Math.max(0, increment) });
+  };
+}
+
+/**
+ * Apply the saved CST layout to the processed nodes and aggregate the edges for display
+ */
+function buildCstDiagramData(layoutStore: LayoutStore, result: Pick<ProcessingResult, 'nodes' | 'edges'>): { data: { nodes: AkkaComponent[]; edges: AkkaEdge[] }; viewState: ViewState } {
+  const savedCstNodeLayout = layoutStore.getLayout();
+  const savedCstViewState = layoutStore.getViewState();
+
+  // Apply saved layout to nodes
+  const nodesWithLayout = result.nodes.map((node) => ({
+    ...node,
+    ...savedCstNodeLayout[node.id], // Apply saved coordinates if they exist
+  }));
+
+  const aggregatedEdges = aggregateEdges(result.edges);
+  return { data: { nodes: nodesWithLayout, edges: aggregatedEdges }, viewState: savedCstViewState };
+}
+
+/**
+ * Keep the open CST diagram in sync with the Java files under scanRoot.
+ * Changed files are re-analyzed incrementally by the controller and the panel receives a live update.
+ */
+function startCstLiveUpdates(layoutStore: LayoutStore, controller: ComponentDiagramController, scanRoot: string, outputChannel: vscode.OutputChannel) {
+  const log = createPrefixedLogger(outputChannel, '[LiveUpdate]');
+
+  currentCstLiveWatcher?.dispose();
+  currentCstLiveWatcher = new LiveUpdateWatcher(
+    scanRoot,
+    async (changedFiles, deletedFiles) => {
+      if (!currentCstDiagramPanel) return;
+
+      const result = await controller.updateFiles(changedFiles, deletedFiles);
+      if (!currentCstDiagramPanel) return; // Closed while the update was running
+
+      currentCstDiagramData = buildCstDiagramData(layoutStore, result).data;
+      currentCstNavigation = result.navigation;
+      postCstDiagramDelta(layoutStore, log);
+    },
+    log
+  );
+  log(`Watching Java files under ${scanRoot} for live diagram updates`);
+}
 
 /**
- * Find the exact location of a class in a Java file using CST parsing
+ * Find the exact location of a class in an open Java document using CST parsing
  */
-async function findClassLocation(className: string, fileUri: vscode.Uri, outputChannel?: vscode.OutputChannel): Promise<vscode.Position | null> {
+function findClassLocation(className: string, document: vscode.TextDocument, outputChannel?: vscode.OutputChannel): vscode.Position | null {
   const log = createPrefixedLogger(outputChannel, '[Navigation]');
 
   try {
-    log?.('Finding class location for:', className, 'in file:', fileUri.fsPath);
+    log?.('Finding class location for:', className, 'in file:', document.uri.fsPath);
 
-    // Parse the file using the Java parser
-    const parseResult = await JavaParser.parseFile(fileUri, outputChannel);
+    // Parse the document text using the Java parser
+    const parseResult = parseInProcess({ filename: document.uri.fsPath, sourceText: document.getText() });
 
     if (!parseResult.success || !parseResult.cst) {
       log?.('Failed to parse file for navigation');
@@ -97,17 +271,18 @@ function findClassInCST(node: any, className: string, log?: any): vscode.Positio
     const classDecl = node.children.classDeclaration[0];
     if (classDecl.children && classDecl.children.normalClassDeclaration) {
       const normalClass = classDecl.children.normalClassDeclaration[0];
-      if (normalClass.children && normalClass.children.identifier) {
-        const identifier = normalClass.children.identifier[0];
+      const typeIdentifier = normalClass.children && normalClass.children.typeIdentifier && normalClass.children.typeIdentifier[0];
+      if (typeIdentifier && typeIdentifier.children && typeIdentifier.children.Identifier) {
+        const identifier = typeIdentifier.children.Identifier[0];
         const foundClassName = identifier.image;
 
         log?.('Checking class:', foundClassName, 'against target:', className);
 
-        if (foundClassName === className && identifier.location) {
+        if (foundClassName === className && typeof identifier.startLine === 'number') {
           log?.('Found matching class:', className);
           return new vscode.Position(
-            identifier.location.startLine - 1, // Convert to 0-based
-            identifier.location.startColumn - 1 // Convert to 0-based
+            identifier.startLine - 1, // Convert to 0-based
+            identifier.startColumn - 1 // Convert to 0-based
           );
         }
       }
@@ -132,6 +307,37 @@ function findClassInCST(node: any, className: string, log?: any): vscode.Positio
   return null;
 }
 
+/**
+ * Open the call from the source component to the target component of a diagram edge.
+ * If the edge aggregates several calls, the user picks one.
+ */
+async function navigateToCallSite(source: string, target: string, outputChannel?: vscode.OutputChannel) {
+  const callSites = currentCstNavigation ? currentCstNavigation.findCallSites(source, target) : [];
+  if (callSites.length === 0) {
+    vscode.window.showInformationMessage(`No component client calls from ${source} to ${target} were found.`);
+    return;
+  }
+
+  let callSite = callSites[0];
+  if (callSites.length > 1) {
+    const picked = await vscode.window.showQuickPick(
+      callSites.map((site) => ({ label: site.method, description: `${path.basename(site.filename)}:${site.line}`, site })),
+      { placeHolder: `Calls from ${source} to ${target}` }
+    );
+    if (!picked) return;
+    callSite = picked.site;
+  }
+
+  try {
+    const editor = await vscode.window.showTextDocument(vscode.Uri.file(callSite.filename));
+    const position = new vscode.Position(callSite.line - 1, callSite.column - 1);
+    editor.selection = new vscode.Selection(position, position);
+    editor.revealRange(new vscode.Range(position, position), vscode.TextEditorRevealType.InCenter);
+  } catch (error) {
+    createPrefixedLogger(outputChannel, '[Navigation]').error(`Error navigating to call site ${callSite.filename}:${callSite.line}: ${error}`);
+  }
+}
+
 // --- Extension Activation ---
 
 export function activate(context: vscode.ExtensionContext) {
@@ -139,15 +345,35 @@ export function activate(context: vscode.ExtensionContext) {
   const outputChannel = vscode.window.createOutputChannel('Akka Diagram Generator');
   const log = createPrefixedLogger(outputChannel, '[Extension]');
 
+  // Log level applies to all loggers and follows setting changes
+  setLogLevel(vscode.workspace.getConfiguration(SETTINGS_SECTION).get<string>('logLevel', SETTING_DEFAULTS.logLevel));
+  context.subscriptions.push(
+    vscode.workspace.onDidChangeConfiguration((event) => {
+      if (event.affectsConfiguration(`${SETTINGS_SECTION}.logLevel`)) {
+        setLogLevel(vscode.workspace.getConfiguration(SETTINGS_SECTION).get<string>('logLevel', SETTING_DEFAULTS.logLevel));
+      }
+    })
+  );
+
   log('Congratulations, your extension "akka-diagram-generator" is now active!');
   log('Extension activation started');
   outputChannel.show(); // Make the output channel visible
 
-  let clearLayoutDisposable = vscode.commands.registerCommand('akka-diagram-generator.clearLayout', async () => {
-    const layout = context.workspaceState.get('akkaDiagramLayout', {});
-    const viewState = context.workspaceState.get('akkaDiagramViewState', { panX: 0, panY: 0, scale: 1 });
+  // Persistent per-file analysis cache, shared by all scans in this session
+  const cacheSize = vscode.workspace.getConfiguration(SETTINGS_SECTION).get<number>('analysisCacheSize', SETTING_DEFAULTS.analysisCacheSize);
+  const analysisCache = cacheSize > 0 ? new AnalysisCache(path.join(context.globalStorageUri.fsPath, 'analysis-cache.json'), FILE_FACTS_VERSION, cacheSize) : undefined;
+  // File reads and settings of the analysis core, which has no runtime dependency on the vscode API
+  const analysisHost = new VscodeAnalysisHost();
+  // JSON report of the last scan's timings and counters, rewritten by every scan
+  const metricsReportFile = path.join(context.globalStorageUri.fsPath, 'analysis-metrics.json');
+
+  // Node positions and view state of each diagram, kept in memory and written to workspace state in batches
+  const layoutStore = new LayoutStore(context.workspaceState, 'akkaDiagramLayout', 'akkaDiagramViewState');
+  const cstLayoutStore = new LayoutStore(context.workspaceState, 'akkaCstDiagramLayout', 'akkaCstDiagramViewState');
+  context.subscriptions.push(layoutStore, cstLayoutStore);
 
-    if (Object.keys(layout).length === 0 && viewState.panX === 0 && viewState.panY === 0 && viewState.scale === 1) {
+  let clearLayoutDisposable = vscode.commands.registerCommand('akka-diagram-generator.clearLayout', async () => {
+    if (layoutStore.isEmpty()) {
       vscode.window.showInformationMessage('No saved diagram layout to clear.');
       return;
     }
@@ -160,8 +386,7 @@ export function activate(context: vscode.ExtensionContext) {
     );
 
     if (result === 'Clear Layout') {
-      context.workspaceState.update('akkaDiagramLayout', {});
-      context.workspaceState.update('akkaDiagramViewState', { panX: 0, panY: 0, scale: 1 });
+      await layoutStore.clear();
       vscode.window.showInformationMessage('Diagram layout cleared successfully. The next time you generate a diagram, it will use default positioning.');
     }
   });
@@ -169,6 +394,8 @@ export function activate(context: vscode.ExtensionContext) {
   let generateCstDiagramDisposable = vscode.commands.registerCommand('akka-diagram-generator.generateCstDiagram', async (uri: vscode.Uri) => {
     // Use the shared logger
     const log = createPrefixedLogger(outputChannel, '[Extension]');
+    // The panel this scan opened to show its components before their connections are detected
+    let partialPanel: vscode.WebviewPanel | undefined;
 
     try {
       log('========================================');
@@ -207,53 +434,94 @@ export function activate(context: vscode.ExtensionContext) {
         return;
       }
 
-      vscode.window.showInformationMessage(`Scanning ${javaFiles.length} Java file(s) for CST diagram...`);
       log(`Found ${javaFiles.length} Java files to scan for CST diagram`);
 
       // Use the controller for all processing steps
       log('========================================');
       log('USING COMPONENT DIAGRAM CONTROLLER FOR CST DIAGRAM');
       log('========================================');
-      const controller = new ComponentDiagramController(outputChannel);
-      const result = await controller.processProject(javaFiles);
+      const controller = new ComponentDiagramController(analysisHost, outputChannel, analysisCache);
+
+      // The components are shown as soon as they are detected; the connections are added when edge detection completes
+      const result = await vscode.window.withProgress(
+        { location: vscode.ProgressLocation.Notification, title: `Scanning ${javaFiles.length} Java file(s) for CST diagram`, cancellable: true },
+        (progress, token) =>
+          controller.processProject(javaFiles, {
+            token,
+            onProgress: createProcessingProgressReporter(progress),
+            onComponents: (nodes) => {
+              // A panel showing a previous diagram keeps it until this scan completes, or if it is cancelled
+              if (nodes.length === 0 || currentCstDiagramPanel) return;
+              log(`Showing ${nodes.length} components while their connections are detected`);
+
+              // Live updates of a previous scan would replace the diagram with that scan's project
+              currentCstLiveWatcher?.dispose();
+              currentCstLiveWatcher = undefined;
+
+              // Whether to cluster is decided here, once, so the connections added later never regroup the components shown
+              const { data, viewState } = buildCstDiagramData(cstLayoutStore, { nodes, edges: [] });
+              currentCstClusters = createDiagramClusters(data.nodes.length, log);
+              currentCstNavigation = undefined;
+              createCstDiagramPanel(context, cstLayoutStore, data, viewState, outputChannel);
+              partialPanel = currentCstDiagramPanel;
+            },
+          })
+      );
 
       log(`Controller result: ${result.nodes.length} nodes, ${result.edges.length} edges`);
-      result.nodes.forEach((node, i) => log(`  Node ${i + 1}: ${node.name} (${node.type})`));
-      result.edges.forEach((edge, i) => log(`  Edge ${i + 1}: ${edge.source} -> ${edge.target} (${edge.label})`));
-
-      // Load saved layouts from workspace state
-      const savedCstNodeLayout = context.workspaceState.get<{ [id: string]: { x: number; y: number } }>('akkaCstDiagramLayout', {});
-      const savedCstViewState = context.workspaceState.get<ViewState>('akkaCstDiagramViewState', { panX: 0, panY: 0, scale: 1 });
+      lastAnalysisMetrics = result.metrics;
+      writeMetricsReport(metricsReportFile, result.metrics).catch((error) => log.error(`Error writing analysis metrics report: ${error}`));
+      result.nodes.forEach((node, i) => log.debug(() => `  Node ${i + 1}: ${node.name} (${node.type})`));
+      result.edges.forEach((edge, i) => log.debug(() => `  Edge ${i + 1}: ${edge.source} -> ${edge.target} (${edge.label})`));
 
-      // Apply saved layout to nodes
-      const nodesWithLayout = result.nodes.map((node) => ({
-        ...node,
-        ...savedCstNodeLayout[node.id], // Apply saved coordinates if they exist
-      }));
+      const { data: cstDiagramData, viewState: savedCstViewState } = buildCstDiagramData(cstLayoutStore, result);
 
-      const aggregatedEdges = aggregateCstEdges(result.edges);
-      const cstDiagramData = { nodes: nodesWithLayout, edges: aggregatedEdges };
+      if (partialPanel && currentCstDiagramPanel !== partialPanel) {
+        log('CST diagram panel was closed while the project was scanned');
+        return;
+      }
 
       // --- Create the CST Webview Panel ---
       if (cstDiagramData.nodes.length > 0) {
         log(`Creating CST diagram with ${cstDiagramData.nodes.length} nodes and ${cstDiagramData.edges.length} edges`);
-        createCstDiagramPanel(context, cstDiagramData, savedCstViewState, outputChannel);
+        currentCstNavigation = result.navigation;
+        if (partialPanel) {
+          // Add the connections and the topic, service stream and tool nodes to the components already shown
+          currentCstDiagramData = cstDiagramData;
+          postCstDiagramDelta(cstLayoutStore, log);
+        } else {
+          currentCstClusters = createDiagramClusters(cstDiagramData.nodes.length, log);
+          createCstDiagramPanel(context, cstLayoutStore, cstDiagramData, savedCstViewState, outputChannel);
+        }
+
+        if (vscode.workspace.getConfiguration(SETTINGS_SECTION).get<boolean>('liveUpdates', SETTING_DEFAULTS.liveUpdates)) {
+          startCstLiveUpdates(cstLayoutStore, controller, path.join(scanFolder.uri.fsPath, relativePath), outputChannel);
+        } else {
+          currentCstLiveWatcher?.dispose();
+          currentCstLiveWatcher = undefined;
+        }
       } else {
         vscode.window.showWarningMessage('No Akka components found in this project.');
         log(`No Akka components found in the project`);
       }
     } catch (error) {
-      log(`ERROR: ${error}`);
-      log(`Error stack: ${error instanceof Error ? error.stack : 'No stack trace'}`);
+      if (error instanceof AnalysisCancelledError) {
+        log('CST diagram generation cancelled');
+        // A panel opened with the components alone would look like a diagram without connections
+        if (partialPanel && currentCstDiagramPanel === partialPanel) {
+          log('Closing the diagram of the cancelled scan, which has no connections');
+          currentCstDiagramPanel.dispose();
+        }
+        return;
+      }
+      log.error(`ERROR: ${error}`);
+      log.error(`Error stack: ${error instanceof Error ? error.stack : 'No stack trace'}`);
       vscode.window.showErrorMessage('An error occurred while generating the CST diagram.');
     }
   });
 
   let clearCstLayoutDisposable = vscode.commands.registerCommand('akka-diagram-generator.clearCstLayout', async () => {
-    const layout = context.workspaceState.get('akkaCstDiagramLayout', {});
-    const viewState = context.workspaceState.get('akkaCstDiagramViewState', { panX: 0, panY: 0, scale: 1 });
-
-    if (Object.keys(layout).length === 0 && viewState.panX === 0 && viewState.panY === 0 && viewState.scale === 1) {
+    if (cstLayoutStore.isEmpty()) {
       vscode.window.showInformationMessage('No saved CST diagram layout to clear.');
       return;
     }
@@ -266,8 +534,7 @@ export function activate(context: vscode.ExtensionContext) {
     );
 
     if (result === 'Clear Layout') {
-      context.workspaceState.update('akkaCstDiagramLayout', {});
-      context.workspaceState.update('akkaCstDiagramViewState', { panX: 0, panY: 0, scale: 1 });
+      await cstLayoutStore.clear();
       vscode.window.showInformationMessage('CST diagram layout cleared successfully. The next time you generate a diagram, it will use default positioning.');
     }
   });
@@ -280,13 +547,13 @@ export function activate(context: vscode.ExtensionContext) {
       log('COMMAND EXECUTED: akka-diagram-generator.generateMermaidDiagram');
       log('========================================');
 
-      // Check if there's an active markdown editor
+      // Check if there's an active markdown editor; other targets are written to disk without opening them
       const activeEditor = vscode.window.activeTextEditor;
-      let targetDocument: vscode.TextDocument | undefined;
+      let targetUri: vscode.Uri | undefined;
 
       if (activeEditor && activeEditor.document.languageId === 'markdown') {
-        targetDocument = activeEditor.document;
-        log(`Using active markdown document: ${targetDocument.fileName}`);
+        targetUri = activeEditor.document.uri;
+        log(`Using active markdown document: ${activeEditor.document.fileName}`);
       } else {
         // Prompt user to create or select a markdown file
         const result = await vscode.window.showInformationMessage(
@@ -315,10 +582,8 @@ export function activate(context: vscode.ExtensionContext) {
             return;
           }
 
-          const fileUri = vscode.Uri.joinPath(workspaceFolder.uri, fileName);
-          targetDocument = await vscode.workspace.openTextDocument(fileUri);
-          await vscode.window.showTextDocument(targetDocument);
-          log(`Created new markdown file: ${fileUri.fsPath}`);
+          targetUri = vscode.Uri.joinPath(workspaceFolder.uri, fileName);
+          log(`Writing to new markdown file: ${targetUri.fsPath}`);
         } else if (result === 'Select Existing File') {
           const uris = await vscode.window.showOpenDialog({
             canSelectFiles: true,
@@ -330,9 +595,8 @@ export function activate(context: vscode.ExtensionContext) {
           });
 
           if (uris && uris.length > 0) {
-            targetDocument = await vscode.workspace.openTextDocument(uris[0]);
-            await vscode.window.showTextDocument(targetDocument);
-            log(`Selected existing markdown file: ${targetDocument.fileName}`);
+            targetUri = uris[0];
+            log(`Selected existing markdown file: ${targetUri.fsPath}`);
           } else {
             log('User cancelled file selection');
             return;
@@ -343,7 +607,7 @@ export function activate(context: vscode.ExtensionContext) {
         }
       }
 
-      if (!targetDocument) {
+      if (!targetUri) {
         vscode.window.showErrorMessage('No target markdown file available.');
         return;
       }
@@ -379,142 +643,131 @@ export function activate(context: vscode.ExtensionContext) {
         return;
       }
 
-      vscode.window.showInformationMessage(`Scanning ${javaFiles.length} Java file(s) for Mermaid diagram...`);
       log(`Found ${javaFiles.length} Java files to scan`);
 
-      // Parse Java files
-      const parseResults = await JavaParser.parseFiles(javaFiles, outputChannel);
-      const successfulParses = parseResults.filter((r) => r.success);
+      // Same analysis as the CST diagram: cached files are not parsed again and only per-file facts are kept
+      const controller = new ComponentDiagramController(analysisHost, outputChannel, analysisCache);
+      const result = await vscode.window.withProgress(
+        { location: vscode.ProgressLocation.Notification, title: `Scanning ${javaFiles.length} Java file(s) for Mermaid diagram`, cancellable: true },
+        (progress, token) => controller.processProject(javaFiles, { token, onProgress: createProcessingProgressReporter(progress) })
+      );
 
-      if (successfulParses.length === 0) {
-        vscode.window.showErrorMessage('Failed to parse any Java files.');
+      if (result.nodes.length === 0) {
+        vscode.window.showWarningMessage('No Akka components found in the specified folder.');
+        log('No Akka components found');
         return;
       }
 
-      // Extract components and connections
-      const allAkkaComponents: Array<{
-        filename: string;
-        className: string;
-        componentType: string;
-        componentId: string;
-      }> = [];
-
-      const allTopicNodes: Array<{ id: string; name: string; type: string; uri: vscode.Uri }> = [];
-      const allServiceStreamNodes: Array<{ id: string; name: string; type: string; uri: vscode.Uri }> = [];
-      const allToolNodes: Array<{ id: string; name: string; type: string; uri: vscode.Uri }> = [];
-      const cstEdges: AkkaEdge[] = [];
-
-      for (const result of successfulParses) {
-        if (result.cst) {
-          // Extract components
-          const components = JavaParser.extractAkkaComponentsFromCST(result.cst, result.filename);
-          allAkkaComponents.push(...components);
-
-          // Extract connections and nodes
-          const document = await vscode.workspace.openTextDocument(result.filename);
-          const sourceText = document.getText();
-          const { connections, topicNodes, serviceStreamNodes, toolNodes } = extractComponentConnectionsFromCST(result.cst, result.filename, sourceText, outputChannel);
-
-          // Add connections
-          connections.forEach((conn) => {
-            const edge: AkkaEdge = {
-              source: conn.source,
-              target: conn.target,
-              label: conn.label,
-              details: conn.details,
-            };
-            cstEdges.push(edge);
-          });
-
-          // Add topic and service stream nodes
-          topicNodes.forEach((topic) => {
-            if (!allTopicNodes.find((t) => t.id === topic.id)) {
-              allTopicNodes.push(topic);
-            }
-          });
-
-          serviceStreamNodes.forEach((stream: any) => {
-            if (!allServiceStreamNodes.find((s) => s.id === stream.id)) {
-              allServiceStreamNodes.push(stream);
-            }
-          });
-
-          // Add tool nodes
-          toolNodes.forEach((tool) => {
-            if (!allToolNodes.find((t) => t.id === tool.id)) {
-              allToolNodes.push(tool);
-            }
-          });
-        }
-      }
-
-      // Convert to AkkaComponent format
-      const cstNodes: AkkaComponent[] = allAkkaComponents.map((component) => ({
-        id: component.className,
-        name: component.componentId || component.className,
-        type: component.componentType,
-        uri: vscode.Uri.file(component.filename),
-      }));
-
-      const topicComponents: AkkaComponent[] = allTopicNodes.map((topic) => ({
-        id: topic.id,
-        name: topic.name,
-        type: topic.type,
-        uri: topic.uri,
-      }));
-
-      const serviceStreamComponents: AkkaComponent[] = allServiceStreamNodes.map((stream) => ({
-        id: stream.id,
-        name: stream.name,
-        type: stream.type,
-        uri: stream.uri,
-      }));
-
-      const toolComponents: AkkaComponent[] = allToolNodes.map((tool) => ({
-        id: tool.id,
-        name: tool.name,
-        type: tool.type,
-        uri: tool.uri,
-      }));
-
-      const allNodes = [...cstNodes, ...topicComponents, ...serviceStreamComponents, ...toolComponents];
-      const aggregatedEdges = aggregateCstEdges(cstEdges);
+      const allNodes = result.nodes;
+      const aggregatedEdges = aggregateEdges(result.edges);
 
       // Get theme from configuration
-      const config = vscode.workspace.getConfiguration('akkaDiagramGenerator');
-      const theme = config.get<string>('mermaidTheme', 'neutral') as 'default' | 'forest' | 'dark' | 'neutral';
-
-      // Generate Mermaid diagram
-      const mermaidContent = generateMermaidDiagram(allNodes, aggregatedEdges, {
-        title: `Akka Component Diagram - ${path.basename(workspaceFolder.name)}`,
+      const config = vscode.workspace.getConfiguration(SETTINGS_SECTION);
+      const theme = config.get<MermaidTheme>('mermaidTheme', SETTING_DEFAULTS.mermaidTheme);
+
+      // Large diagrams group their components into a subgraph per cluster, as the CST diagram does, and above
+      // mermaidMaxNodesPerDiagram are split into an overview and a diagram per cluster
+      const clusters = createDiagramClusters(allNodes.length, log);
+      const title = `Akka Component Diagram - ${path.basename(workspaceFolder.name)}`;
+      const sections = generateMermaidSections(allNodes, aggregatedEdges, {
         direction: 'TB',
         theme: theme,
+        clusterOf: clusters && ((node) => clusters.clusterOf(node)),
+        maxNodesPerDiagram: config.get<number>('mermaidMaxNodesPerDiagram', SETTING_DEFAULTS.mermaidMaxNodesPerDiagram),
       });
 
-      // Update the markdown document
-      const edit = new vscode.WorkspaceEdit();
-      edit.replace(targetDocument.uri, new vscode.Range(0, 0, targetDocument.lineCount, 0), mermaidContent);
-
-      await vscode.workspace.applyEdit(edit);
-      await targetDocument.save();
+      // Only the diagrams that changed since the last generation are replaced. An open document is edited in place,
+      // with all changed diagrams in a single edit; any other file is streamed to disk without loading it as a text document.
+      const targetKey = targetUri.toString();
+      const openDocument = vscode.workspace.textDocuments.find((document) => document.uri.toString() === targetKey);
+      const written = openDocument ? await updateMermaidDocument(openDocument, sections, title) : await writeMermaidDocument(targetUri.fsPath, sections, title);
+
+      log(`Mermaid diagram generated with ${allNodes.length} nodes and ${aggregatedEdges.length} edges in ${sections.length} diagram(s), ${written} updated`);
+      log(`Diagram saved to: ${targetUri.fsPath}`);
+      const message = `Mermaid diagram generated successfully with ${allNodes.length} components and ${aggregatedEdges.length} connections.`;
+      if (openDocument) {
+        vscode.window.showInformationMessage(message);
+      } else if ((await vscode.window.showInformationMessage(message, 'Open')) === 'Open') {
+        await vscode.window.showTextDocument(targetUri);
+      }
+    } catch (error) {
+      if (error instanceof AnalysisCancelledError) {
+        log('Mermaid diagram generation cancelled');
+        return;
+      }
+      log.error(`ERROR: ${error}`);
+      log.error(`Error stack: ${error instanceof Error ? error.stack : 'No stack trace'}`);
+      vscode.window.showErrorMessage('An error occurred while generating the Mermaid diagram.');
+    }
+  });
 
-      vscode.window.showInformationMessage(`Mermaid diagram generated successfully with ${allNodes.length} components and ${aggregatedEdges.length} connections.`);
+  let clearAnalysisCacheDisposable = vscode.commands.registerCommand('akka-diagram-generator.clearAnalysisCache', async () => {
+    if (!analysisCache) {
+      vscode.window.showInformationMessage('The analysis cache is disabled.');
+      return;
+    }
+    try {
+      await analysisCache.clear();
+      log('Analysis cache cleared');
+      vscode.window.showInformationMessage('Analysis cache cleared. The next scan will parse every Java file again.');
+    } catch (error) {
+      log.error(`Error clearing analysis cache: ${error}`);
+      vscode.window.showErrorMessage('An error occurred while clearing the analysis cache.');
+    }
+  });
 
-      log(`Mermaid diagram generated with ${allNodes.length} nodes and ${aggregatedEdges.length} edges`);
-      log(`Diagram saved to: ${targetDocument.fileName}`);
+  let showAnalysisPerformanceDisposable = vscode.commands.registerCommand('akka-diagram-generator.showAnalysisPerformance', async () => {
+    if (!lastAnalysisMetrics) {
+      vscode.window.showInformationMessage('No analysis yet. Generate a component diagram to measure its analysis.');
+      return;
+    }
+    try {
+      await showAnalysisPerformance(lastAnalysisMetrics, metricsReportFile);
     } catch (error) {
-      log(`ERROR: ${error}`);
-      log(`Error stack: ${error instanceof Error ? error.stack : 'No stack trace'}`);
-      vscode.window.showErrorMessage('An error occurred while generating the Mermaid diagram.');
+      log.error(`Error showing analysis performance: ${error}`);
+      vscode.window.showErrorMessage('An error occurred while showing the analysis performance.');
     }
   });
 
-  context.subscriptions.push(clearLayoutDisposable, generateCstDiagramDisposable, clearCstLayoutDisposable, generateMermaidDiagramDisposable);
+  let openRenderingBenchmarkDisposable = vscode.commands.registerCommand('akka-diagram-generator.openRenderingBenchmark', async () => {
+    const input = await vscode.window.showInputBox({
+      prompt: 'Number of nodes in the synthetic diagram',
+      value: '5000',
+      validateInput: (value) => (/^[1-9][0-9]*$/.test(value) ? undefined : 'Enter a positive whole number'),
+    });
+    if (!input) return;
+
+    // A synthetic diagram with the frame statistics overlay, rendered with the configured node renderer
+    const data = createSyntheticDiagram(parseInt(input, 10));
+    const options = { ...getDiagramRenderOptions(), showFrameStats: true };
+    log(`Opening rendering benchmark with ${data.nodes.length} nodes and ${data.edges.length} edges (${options.nodeRenderer} renderer)`);
+    const panel = vscode.window.createWebviewPanel('akkaRenderingBenchmark', 'Akka Diagram Rendering Benchmark', vscode.ViewColumn.One, getWebviewOptions(context.extensionUri));
+    panel.webview.onDidReceiveMessage(
+      (message) => {
+        if (message.command === 'ready') {
+          panel.webview.postMessage(createInitializeMessage(data, { panX: 0, panY: 0, scale: 0.5 }, options));
+        }
+      },
+      undefined,
+      context.subscriptions
+    );
+    panel.webview.html = getWebviewContent(panel.webview, context.extensionUri);
+  });
+
+  context.subscriptions.push(
+    clearLayoutDisposable,
+    generateCstDiagramDisposable,
+    clearCstLayoutDisposable,
+    generateMermaidDiagramDisposable,
+    clearAnalysisCacheDisposable,
+    openRenderingBenchmarkDisposable,
+    showAnalysisPerformanceDisposable
+  );
 }
 
 // --- Webview Panel Creation ---
 
-function createDiagramPanel(context: vscode.ExtensionContext, data: { nodes: AkkaComponent[]; edges: AkkaEdge[] }, viewState: ViewState, outputChannel?: vscode.OutputChannel) {
+function createDiagramPanel(context: vscode.ExtensionContext, layoutStore: LayoutStore, data: { nodes: AkkaComponent[]; edges: AkkaEdge[] }, viewState: ViewState, outputChannel?: vscode.OutputChannel) {
   // Check if we already have an active diagram panel
   if (currentDiagramPanel) {
     // Update the existing panel with new data
@@ -536,7 +789,7 @@ function createDiagramPanel(context: vscode.ExtensionContext, data: { nodes: Akk
 
   // Create a new panel if none exists
   const panel = vscode.window.createWebviewPanel('akkaDiagram', 'Akka Component Diagram', vscode.ViewColumn.One, {
-    enableScripts: true,
+    ...getWebviewOptions(context.extensionUri),
     retainContextWhenHidden: true,
   });
 
@@ -547,30 +800,41 @@ function createDiagramPanel(context: vscode.ExtensionContext, data: { nodes: Akk
   panel.onDidDispose(
     () => {
       currentDiagramPanel = undefined;
+      layoutStore.flush();
     },
     null,
     context.subscriptions
   );
 
+  const serializableData: SerializableDiagramData = {
+    nodes: data.nodes.map(({ id, name, type, x, y }) => ({ id, name, type, x, y })),
+    edges: data.edges,
+  };
+
   panel.webview.onDidReceiveMessage(
     async (message) => {
       switch (message.command) {
+        case 'ready':
+          // The diagram is sent once the webview's script has loaded, not inlined into its HTML
+          panel.webview.postMessage(createInitializeMessage(serializableData, layoutStore.getViewState()));
+          return;
         case 'saveLayout':
-          const currentLayout = context.workspaceState.get('akkaDiagramLayout', {});
-          context.workspaceState.update('akkaDiagramLayout', { ...currentLayout, ...message.payload });
+          layoutStore.mergeLayout(message.payload);
           return;
         case 'saveViewState':
-          context.workspaceState.update('akkaDiagramViewState', message.payload);
+          layoutStore.setViewState(message.payload);
           return;
         case 'navigateTo':
           const component = data.nodes.find((n) => n.id === message.payload.componentId);
           if (component && component.uri.scheme !== 'untitled') {
             try {
+              // The document is opened once, for the editor, and its text is parsed to find the class
+              const document = await vscode.workspace.openTextDocument(component.uri);
+
               // Use CST parsing to find the exact class location
-              const classPosition = await findClassLocation(component.id, component.uri, outputChannel);
+              const classPosition = findClassLocation(component.id, document, outputChannel);
 
               if (classPosition) {
-                const document = await vscode.workspace.openTextDocument(component.uri);
                 const editor = await vscode.window.showTextDocument(document);
 
                 // Set cursor position and reveal the class
@@ -578,7 +842,6 @@ function createDiagramPanel(context: vscode.ExtensionContext, data: { nodes: Akk
                 editor.revealRange(new vscode.Range(classPosition, classPosition), vscode.TextEditorRevealType.InCenter);
               } else {
                 // Fallback to simple regex if CST parsing fails
-                const document = await vscode.workspace.openTextDocument(component.uri);
                 const editor = await vscode.window.showTextDocument(document);
 
                 const text = document.getText();
@@ -593,7 +856,7 @@ function createDiagramPanel(context: vscode.ExtensionContext, data: { nodes: Akk
             } catch (error) {
               if (outputChannel) {
                 const log = createPrefixedLogger(outputChannel, '[Navigation]');
-                log(`Error navigating to component ${component.id}: ${error}`);
+                log.error(`Error navigating to component ${component.id}: ${error}`);
               }
             }
           }
@@ -604,24 +867,18 @@ function createDiagramPanel(context: vscode.ExtensionContext, data: { nodes: Akk
     context.subscriptions
   );
 
-  const serializableData: SerializableDiagramData = {
-    nodes: data.nodes.map(({ id, name, type, x, y }) => ({ id, name, type, x, y })),
-    edges: data.edges,
-  };
-
-  panel.webview.html = getWebviewContent(serializableData, viewState, context.extensionUri);
+  panel.webview.html = getWebviewContent(panel.webview, context.extensionUri);
 }
 
 // --- CST Diagram Panel Creation ---
 
-function createCstDiagramPanel(context: vscode.ExtensionContext, data: { nodes: AkkaComponent[]; edges: AkkaEdge[] }, viewState: ViewState, outputChannel?: vscode.OutputChannel) {
+function createCstDiagramPanel(context: vscode.ExtensionContext, layoutStore: LayoutStore, data: { nodes: AkkaComponent[]; edges: AkkaEdge[] }, viewState: ViewState, outputChannel?: vscode.OutputChannel) {
+  currentCstDiagramData = data;
+
   // Check if we already have an active CST diagram panel
   if (currentCstDiagramPanel) {
     // Update the existing panel with new data
-    const serializableData: SerializableDiagramData = {
-      nodes: data.nodes.map(({ id, name, type, x, y }) => ({ id, name, type, x, y })),
-      edges: data.edges,
-    };
+    const serializableData = currentCstDiagramTracker.reset(toCstDiagramView(layoutStore, data));
 
     // Send the new data to the existing webview
     currentCstDiagramPanel.webview.postMessage({
@@ -636,7 +893,7 @@ function createCstDiagramPanel(context: vscode.ExtensionContext, data: { nodes:
 
   // Create a new panel if none exists
   const panel = vscode.window.createWebviewPanel('akkaCstDiagram', 'Akka Component Diagram', vscode.ViewColumn.One, {
-    enableScripts: true,
+    ...getWebviewOptions(context.extensionUri),
     retainContextWhenHidden: true,
   });
 
@@ -647,6 +904,13 @@ function createCstDiagramPanel(context: vscode.ExtensionContext, data: { nodes:
   panel.onDidDispose(
     () => {
       currentCstDiagramPanel = undefined;
+      currentCstDiagramData = { nodes: [], edges: [] };
+      currentCstClusters = undefined;
+      currentCstNavigation = undefined;
+      currentCstDiagramTracker = new DiagramDeltaTracker();
+      layoutStore.flush();
+      currentCstLiveWatcher?.dispose();
+      currentCstLiveWatcher = undefined;
     },
     null,
     context.subscriptions
@@ -655,22 +919,54 @@ function createCstDiagramPanel(context: vscode.ExtensionContext, data: { nodes:
   panel.webview.onDidReceiveMessage(
     async (message) => {
       switch (message.command) {
+        case 'ready':
+          // The diagram is sent once the webview's script has loaded: the latest version, including changes made while it loaded
+          panel.webview.postMessage(createInitializeMessage(currentCstDiagramTracker.snapshot(), layoutStore.getViewState()));
+          return;
         case 'saveLayout':
-          const currentLayout = context.workspaceState.get('akkaCstDiagramLayout', {});
-          context.workspaceState.update('akkaCstDiagramLayout', { ...currentLayout, ...message.payload });
+          layoutStore.mergeLayout(message.payload);
           return;
         case 'saveViewState':
-          context.workspaceState.update('akkaCstDiagramViewState', message.payload);
+          layoutStore.setViewState(message.payload);
+          return;
+        case 'requestFullUpdate':
+          // The webview missed a delta; send the current diagram, keeping its view, positions and selection
+          panel.webview.postMessage({
+            command: 'updateDiagram',
+            payload: { data: currentCstDiagramTracker.snapshot(), viewState: layoutStore.getViewState(), live: true },
+          });
+          return;
+        case 'expandCluster':
+        case 'collapseCluster':
+          if (currentCstClusters) {
+            const clusters = currentCstClusters;
+            const changed = (message.payload.clusterIds as string[]).filter((clusterId) => (message.command === 'expandCluster' ? clusters.expand(clusterId) : clusters.collapse(clusterId)));
+            if (changed.length > 0) {
+              postCstDiagramDelta(layoutStore, createPrefixedLogger(outputChannel, '[Clusters]'));
+            }
+          }
+          return;
+        case 'navigateToCallSite':
+          await navigateToCallSite(message.payload.source, message.payload.target, outputChannel);
+          return;
+        case 'log':
+          createPrefixedLogger(outputChannel, '[Webview]').debug(message.payload.message);
           return;
         case 'navigateTo':
-          const component = data.nodes.find((n) => n.id === message.payload.componentId);
+          const component = currentCstDiagramData.nodes.find((n) => n.id === message.payload.componentId);
           if (component && component.uri.scheme !== 'untitled') {
             try {
-              // Use CST parsing to find the exact class location
-              const classPosition = await findClassLocation(component.id, component.uri, outputChannel);
+              const document = await vscode.workspace.openTextDocument(component.uri);
+
+              // The declaration recorded during analysis is used unless the file has unsaved changes;
+              // only then, or for classes the analysis did not locate, is the document parsed to find the class
+              const indexed = currentCstNavigation?.findClass(component.id);
+              const classPosition =
+                indexed && indexed.filename === component.uri.fsPath && !document.isDirty
+                  ? new vscode.Position(indexed.line - 1, indexed.column - 1)
+                  : findClassLocation(component.id, document, outputChannel);
 
               if (classPosition) {
-                const document = await vscode.workspace.openTextDocument(component.uri);
                 const editor = await vscode.window.showTextDocument(document);
 
                 // Set cursor position and reveal the class
@@ -678,7 +974,6 @@ function createCstDiagramPanel(context: vscode.ExtensionContext, data: { nodes:
                 editor.revealRange(new vscode.Range(classPosition, classPosition), vscode.TextEditorRevealType.InCenter);
               } else {
                 // Fallback to simple regex if CST parsing fails
-                const document = await vscode.workspace.openTextDocument(component.uri);
                 const editor = await vscode.window.showTextDocument(document);
 
                 const text = document.getText();
@@ -693,7 +988,7 @@ function createCstDiagramPanel(context: vscode.ExtensionContext, data: { nodes:
             } catch (error) {
               if (outputChannel) {
                 const log = createPrefixedLogger(outputChannel, '[Navigation]');
-                log(`Error navigating to component ${component.id}: ${error}`);
+                log.error(`Error navigating to component ${component.id}: ${error}`);
               }
             }
           }
@@ -704,14 +999,15 @@ function createCstDiagramPanel(context: vscode.ExtensionContext, data: { nodes:
     context.subscriptions
   );
 
-  const serializableData: SerializableDiagramData = {
-    nodes: data.nodes.map(({ id, name, type, x, y }) => ({ id, name, type, x, y })),
-    edges: data.edges,
-  };
+  currentCstDiagramTracker.reset(toCstDiagramView(layoutStore, data));
 
-  panel.webview.html = getWebviewContent(serializableData, viewState, context.extensionUri);
+  panel.webview.html = getWebviewContent(panel.webview, context.extensionUri);
 }
 
 // getWebviewContent is now imported from webviewManager
 
-export function deactivate() {}
+export function deactivate() {
+  currentCstLiveWatcher?.dispose();
+  currentCstLiveWatcher = undefined;
+  flushLogs();
+}
@@ -0,0 +1,36 @@
+import type * as vscode from 'vscode';
+import type { FileContent } from '../utils/fileContentService';
+
+/**
+ * What the analysis core (controller, parser and extractors) needs from the environment it runs in.
+ * The core has no runtime dependency on the vscode API: the extension runs it with {@link VscodeAnalysisHost}
+ * and the command line analyzer with {@link NodeAnalysisHost}.
+ */
+export interface AnalysisHost {
+  /**
+   * Read many files with a bounded number of reads in flight, as FileContentService.readAll does
+   * @param onRead Called as each read completes; if it returns a promise, the reader waits for it before its next read
+   * @param token No further reads are started once cancellation is requested
+   */
+  readAll(files: vscode.Uri[], onRead: (content: FileContent, index: number) => void | Promise<void>, token?: vscode.CancellationToken): Promise<void>;
+
+  /**
+   * URI of a local file. Outside VS Code this is a plain object with the fsPath, path and scheme of a file URI.
+   */
+  fileUri(fsPath: string): vscode.Uri;
+
+  /**
+   * Configured number of parser threads; 0 uses one per CPU core (minus one)
+   */
+  parserThreads(): number;
+}
+
+/**
+ * Thrown by the analysis core when an operation is stopped through its cancellation token
+ */
+export class AnalysisCancelledError extends Error {
+  constructor() {
+    super('Analysis cancelled');
+    this.name = 'AnalysisCancelledError';
+  }
+}
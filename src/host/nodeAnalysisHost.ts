@@ -0,0 +1,65 @@
+import type * as vscode from 'vscode';
+import * as fs from 'fs';
+import * as path from 'path';
+import { TextDecoder } from 'util';
+import type { FileContent } from '../utils/fileContentService';
+import { AnalysisHost } from './analysisHost';
+
+// Reads in flight at once, as in the extension
+const DEFAULT_READ_CONCURRENCY = 16;
+
+// Decodes UTF-8 and drops a byte order mark, as FileContentService does
+const decoder = new TextDecoder('utf-8');
+
+export interface NodeAnalysisHostOptions {
+  /** Number of parser threads; 0 uses one per CPU core (minus one) */
+  jobs?: number;
+  /** Maximum number of reads in flight */
+  readConcurrency?: number;
+}
+
+/**
+ * Analysis host for plain Node (the command line analyzer and benchmarks): files are read from disk with fs
+ */
+export class NodeAnalysisHost implements AnalysisHost {
+  constructor(private readonly options: NodeAnalysisHostOptions = {}) {}
+
+  async readAll(files: vscode.Uri[], onRead: (content: FileContent, index: number) => void | Promise<void>, token?: vscode.CancellationToken): Promise<void> {
+    let next = 0;
+
+    const reader = async () => {
+      while (next < files.length && !token?.isCancellationRequested) {
+        const index = next++;
+        let content: FileContent;
+        try {
+          content = { sourceText: decoder.decode(await fs.promises.readFile(files[index].fsPath)) };
+        } catch (error) {
+          content = { error: error instanceof Error ? error.message : String(error) };
+        }
+        await onRead(content, index);
+      }
+    };
+
+    const readers: Promise<void>[] = [];
+    for (let i = 0; i < Math.min(Math.max(1, this.options.readConcurrency ?? DEFAULT_READ_CONCURRENCY), files.length); i++) {
+      readers.push(reader());
+    }
+    await Promise.all(readers);
+  }
+
+  fileUri(fsPath: string): vscode.Uri {
+    const absolutePath = path.resolve(fsPath);
+    const uriPath = absolutePath.split(path.sep).join('/');
+    const fileUri = {
+      scheme: 'file',
+      fsPath: absolutePath,
+      path: uriPath.startsWith('/') ? uriPath : `/${uriPath}`,
+      toString: () => `file://${fileUri.path}`,
+    };
+    return fileUri as unknown as vscode.Uri;
+  }
+
+  parserThreads(): number {
+    return this.options.jobs ?? 0;
+  }
+}
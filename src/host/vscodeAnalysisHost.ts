@@ -0,0 +1,22 @@
+import * as vscode from 'vscode';
+import { FileContent, FileContentService } from '../utils/fileContentService';
+import { SETTINGS_SECTION, SETTING_DEFAULTS } from '../utils/settings';
+import { AnalysisHost } from './analysisHost';
+
+/**
+ * Analysis host of the extension: files are read with the workspace file system (or from the editor when they
+ * have unsaved changes) and the parser thread count comes from the akkaDiagramGenerator.parserThreads setting
+ */
+export class VscodeAnalysisHost implements AnalysisHost {
+  readAll(files: vscode.Uri[], onRead: (content: FileContent, index: number) => void | Promise<void>, token?: vscode.CancellationToken): Promise<void> {
+    return FileContentService.readAll(files, onRead, undefined, token);
+  }
+
+  fileUri(fsPath: string): vscode.Uri {
+    return vscode.Uri.file(fsPath);
+  }
+
+  parserThreads(): number {
+    return vscode.workspace.getConfiguration(SETTINGS_SECTION).get<number>('parserThreads', SETTING_DEFAULTS.parserThreads);
+  }
+}
@@ -0,0 +1,192 @@
+import { AkkaComponent, AkkaEdge, SerializableDiagramData } from './types';
+
+/**
+ * Groups the components whose package-qualified class name matches pattern (a regular expression) into cluster.
+ * $1 to $9 in cluster are replaced by the groups of the match, e.g. { pattern: '^com\\.acme\\.(\\w+)\\.', cluster: '$1' }
+ * groups by the package below com.acme.
+ */
+export interface ClusterRule {
+  pattern: string;
+  cluster: string;
+}
+
+export const CLUSTER_NODE_TYPE = 'Cluster';
+const CLUSTER_ID_PREFIX = 'cluster:';
+
+// Topics and service streams connect the clusters; they are always shown
+const UNCLUSTERED_TYPES = new Set(['Topic', 'ServiceStream']);
+
+// Member connections listed in the tooltip of an edge to or from a collapsed cluster
+const MAX_CLUSTER_EDGE_DETAILS = 20;
+
+/**
+ * Java package of a source file, from its path: the directories below the last 'java' directory
+ * (as in src/main/java/com/example/Foo.java), or the name of the containing directory
+ * @param filePath Path of the file, with '/' separators (e.g. a URI path)
+ */
+export function packageOf(filePath: string): string {
+  const directories = filePath.split('/').slice(0, -1);
+  const javaRoot = directories.lastIndexOf('java');
+  const packageDirectories = javaRoot >= 0 ? directories.slice(javaRoot + 1) : directories.slice(-1);
+  return packageDirectories.filter((directory) => directory.length > 0).join('.') || '(default package)';
+}
+
+/**
+ * Whether a diagram with nodeCount nodes is shown in clusters (see the clusterThreshold setting); a threshold of 0 never clusters
+ */
+export function exceedsClusterThreshold(nodeCount: number, threshold: number): boolean {
+  return threshold > 0 && nodeCount > threshold;
+}
+
+export function clusterNodeId(cluster: string): string {
+  return CLUSTER_ID_PREFIX + cluster;
+}
+
+/**
+ * Level-of-detail view of a large diagram: components are grouped into clusters (by package, or by the
+ * configured rules) and every cluster is shown as a single node until it is expanded.
+ * Edges to and from collapsed clusters are aggregated per visible source and target, and edges inside a
+ * collapsed cluster are hidden, so the webview only receives the cluster summaries and the expanded members.
+ */
+export class DiagramClusters {
+  private readonly rules: Array<{ pattern: RegExp; cluster: string }>;
+  private readonly expanded = new Set<string>();
+
+  /**
+   * @param rules Grouping rules, tried in order before grouping by package; rules with an invalid pattern must be filtered out by the caller
+   */
+  constructor(rules: ClusterRule[] = []) {
+    this.rules = rules.map((rule) => ({ pattern: new RegExp(rule.pattern), cluster: rule.cluster }));
+  }
+
+  /**
+   * Name of the cluster a node belongs to, or undefined if the node is never clustered
+   */
+  clusterOf(node: Pick<AkkaComponent, 'id' | 'type' | 'uri'>): string | undefined {
+    if (UNCLUSTERED_TYPES.has(node.type)) {
+      return undefined;
+    }
+    const packageName = packageOf(node.uri.path);
+    const qualifiedName = `${packageName}.${node.id}`;
+    for (const rule of this.rules) {
+      const match = rule.pattern.exec(qualifiedName);
+      if (match) {
+        return rule.cluster.replace(/\$(\d)/g, (_, group) => match[Number(group)] || '');
+      }
+    }
+    return packageName;
+  }
+
+  /**
+   * @returns false if the cluster was already expanded
+   */
+  expand(clusterId: string): boolean {
+    if (this.expanded.has(clusterId)) return false;
+    this.expanded.add(clusterId);
+    return true;
+  }
+
+  /**
+   * @returns false if the cluster was not expanded
+   */
+  collapse(clusterId: string): boolean {
+    return this.expanded.delete(clusterId);
+  }
+
+  /**
+   * The nodes and edges to show: collapsed clusters replace their members
+   * @param data All nodes and their aggregated edges
+   * @param layout Saved positions, by node or cluster id
+   */
+  view(data: { nodes: AkkaComponent[]; edges: AkkaEdge[] }, layout: { [id: string]: { x: number; y: number } }): SerializableDiagramData {
+    const members = new Map<string, AkkaComponent[]>();
+    const clusterIdOf = new Map<string, string>();
+    data.nodes.forEach((node) => {
+      const cluster = this.clusterOf(node);
+      if (cluster === undefined) return;
+      const clusterId = clusterNodeId(cluster);
+      clusterIdOf.set(node.id, clusterId);
+      const list = members.get(clusterId);
+      if (list) {
+        list.push(node);
+      } else {
+        members.set(clusterId, [node]);
+      }
+    });
+
+    // A cluster of one component is shown as the component
+    const collapsed = new Set<string>();
+    members.forEach((list, clusterId) => {
+      if (list.length > 1 && !this.expanded.has(clusterId)) {
+        collapsed.add(clusterId);
+      }
+    });
+
+    const nodes: SerializableDiagramData['nodes'] = [];
+    data.nodes.forEach((node) => {
+      const clusterId = clusterIdOf.get(node.id);
+      if (clusterId && collapsed.has(clusterId)) return;
+      const position = layout[node.id] || { x: node.x, y: node.y };
+      nodes.push({
+        id: node.id,
+        name: node.name,
+        type: node.type,
+        x: position.x,
+        y: position.y,
+        cluster: clusterId && members.get(clusterId)!.length > 1 ? clusterId : undefined,
+      });
+    });
+    collapsed.forEach((clusterId) => {
+      const position = layout[clusterId];
+      nodes.push({
+        id: clusterId,
+        name: clusterId.slice(CLUSTER_ID_PREFIX.length),
+        type: CLUSTER_NODE_TYPE,
+        x: position?.x,
+        y: position?.y,
+        memberCount: members.get(clusterId)!.length,
+      });
+    });
+
+    return { nodes, edges: this.clusterEdges(data.edges, (id) => (collapsed.has(clusterIdOf.get(id) || '') ? clusterIdOf.get(id)! : id)) };
+  }
+
+  /**
+   * Edges between visible nodes. Edges between two shown components are kept as they are; the others are
+   * aggregated per visible pair, with the sum of their weights and the member connections as details.
+   */
+  private clusterEdges(edges: AkkaEdge[], visibleId: (id: string) => string): AkkaEdge[] {
+    const pairs = new Map<string, { source: string; target: string; edges: AkkaEdge[] }>();
+    const result: Array<AkkaEdge | { source: string; target: string; edges: AkkaEdge[] }> = [];
+
+    edges.forEach((edge) => {
+      const source = visibleId(edge.source);
+      const target = visibleId(edge.target);
+      if (source === target) return; // Inside a collapsed cluster
+      if (source === edge.source && target === edge.target) {
+        result.push(edge);
+        return;
+      }
+      const key = `${source}\u0000${target}`;
+      const pair = pairs.get(key);
+      if (pair) {
+        pair.edges.push(edge);
+      } else {
+        const newPair = { source, target, edges: [edge] };
+        pairs.set(key, newPair);
+        result.push(newPair);
+      }
+    });
+
+    return result.map((item) => {
+      if (!('edges' in item)) return item;
+      const weight = item.edges.reduce((sum, edge) => sum + (edge.weight || 1), 0);
+      const details = item.edges.slice(0, MAX_CLUSTER_EDGE_DETAILS).map((edge) => `${edge.source} → ${edge.target}: ${edge.label}`);
+      if (item.edges.length > MAX_CLUSTER_EDGE_DETAILS) {
+        details.push(`… ${item.edges.length - MAX_CLUSTER_EDGE_DETAILS} more`);
+      }
+      const label = item.edges.length === 1 ? item.edges[0].label : `${item.edges.length} connections`;
+      return { source: item.source, target: item.target, label, details, weight };
+    });
+  }
+}
@@ -0,0 +1,175 @@
+import { AkkaEdge, SourceLocation } from './types';
+
+/**
+ * Nodes keyed by id, in first-registration order.
+ * Registering an id that is already present keeps the first node, which is how nodes detected in several files are deduplicated.
+ */
+export class NodeRegistry<T> {
+  private readonly nodes = new Map<string, T>();
+
+  /**
+   * @returns true if the node was added, false if a node with the same id was already registered
+   */
+  add(id: string, node: T): boolean {
+    if (this.nodes.has(id)) {
+      return false;
+    }
+    this.nodes.set(id, node);
+    return true;
+  }
+
+  has(id: string): boolean {
+    return this.nodes.has(id);
+  }
+
+  get(id: string): T | undefined {
+    return this.nodes.get(id);
+  }
+
+  get size(): number {
+    return this.nodes.size;
+  }
+
+  values(): T[] {
+    return Array.from(this.nodes.values());
+  }
+}
+
+/**
+ * Edges indexed by source and target, keeping insertion order.
+ * Several edges may connect the same pair (e.g. different method calls); the multimap gives constant-time access to them.
+ */
+export class EdgeMultimap {
+  private readonly bySource = new Map<string, Map<string, AkkaEdge[]>>();
+  private readonly edges: AkkaEdge[] = [];
+
+  add(edge: AkkaEdge) {
+    let byTarget = this.bySource.get(edge.source);
+    if (!byTarget) {
+      byTarget = new Map<string, AkkaEdge[]>();
+      this.bySource.set(edge.source, byTarget);
+    }
+    const pairEdges = byTarget.get(edge.target);
+    if (pairEdges) {
+      pairEdges.push(edge);
+    } else {
+      byTarget.set(edge.target, [edge]);
+    }
+    this.edges.push(edge);
+  }
+
+  /**
+   * Whether any edge connects source to target
+   */
+  has(source: string, target: string): boolean {
+    const byTarget = this.bySource.get(source);
+    return byTarget !== undefined && byTarget.has(target);
+  }
+
+  /**
+   * All edges from source to target, in insertion order
+   */
+  get(source: string, target: string): AkkaEdge[] {
+    const byTarget = this.bySource.get(source);
+    return (byTarget && byTarget.get(target)) || [];
+  }
+
+  get size(): number {
+    return this.edges.length;
+  }
+
+  values(): AkkaEdge[] {
+    return this.edges.slice();
+  }
+}
+
+type DetectedNode = { id: string; name: string; type: string };
+
+/**
+ * Graph under construction from per-file analysis results.
+ * Shared by the component diagram panel and the Mermaid generator so both deduplicate nodes and edges the same way.
+ */
+export class DiagramGraphBuilder<C, N extends DetectedNode = DetectedNode> {
+  /** Components keyed by class name */
+  readonly components = new NodeRegistry<C>();
+  readonly topicNodes = new NodeRegistry<N>();
+  readonly serviceStreamNodes = new NodeRegistry<N>();
+  readonly toolNodes = new NodeRegistry<N>();
+  readonly edges = new EdgeMultimap();
+
+  /**
+   * Adds a 'references' edge unless any edge already connects the same source and target
+   * @returns true if the edge was added
+   */
+  addReference(edge: AkkaEdge): boolean {
+    if (this.edges.has(edge.source, edge.target)) {
+      return false;
+    }
+    this.edges.add(edge);
+    return true;
+  }
+
+  /**
+   * Adds the topic, service stream and tool nodes detected in one file, skipping ids already registered
+   */
+  addDetectedNodes(nodes: { topicNodes: N[]; serviceStreamNodes: N[]; toolNodes: N[] }) {
+    nodes.topicNodes.forEach((topic) => this.topicNodes.add(topic.id, topic));
+    nodes.serviceStreamNodes.forEach((stream) => this.serviceStreamNodes.add(stream.id, stream));
+    nodes.toolNodes.forEach((tool) => this.toolNodes.add(tool.id, tool));
+  }
+}
+
+// Labels of data flow edges; they are not method calls and are not listed as details of an aggregated edge
+const DATA_FLOW_LABELS = new Set(['consumes', 'produces to']);
+
+/**
+ * Aggregates the edges between each source/target pair into a single edge, in one pass over the input.
+ * The details of an aggregated edge are the distinct method call labels of the pair, in first-occurrence order,
+ * and its label counts them; pairs without method calls keep the label of their first edge.
+ * The weight is the number of edges (calls) aggregated, which the renderer uses for the line width.
+ * The location is that of the first edge with a recorded call site, if any; the webview only offers call site
+ * navigation for edges that have one.
+ * @param edges The edges as extracted, possibly several per pair
+ * @returns One edge per pair, in order of the first edge of each pair
+ */
+export function aggregateEdges(edges: AkkaEdge[]): AkkaEdge[] {
+  const pairs = new Map<string, Map<string, { firstLabel: string; details: Set<string>; count: number; location?: SourceLocation }>>();
+  const order: Array<{ source: string; target: string }> = [];
+
+  for (const edge of edges) {
+    let byTarget = pairs.get(edge.source);
+    if (!byTarget) {
+      byTarget = new Map();
+      pairs.set(edge.source, byTarget);
+    }
+    let pair = byTarget.get(edge.target);
+    if (!pair) {
+      pair = { firstLabel: edge.label, details: new Set<string>(), count: 0 };
+      byTarget.set(edge.target, pair);
+      order.push({ source: edge.source, target: edge.target });
+    }
+    pair.count++;
+    if (!pair.location && edge.location) {
+      pair.location = edge.location;
+    }
+    if (!DATA_FLOW_LABELS.has(edge.label)) {
+      pair.details.add(edge.label);
+    }
+  }
+
+  return order.map(({ source, target }) => {
+    const pair = pairs.get(source)!.get(target)!;
+    const details = Array.from(pair.details);
+    const edge: AkkaEdge = {
+      source,
+      target,
+      label: details.length > 0 ? `invokes (${details.length} methods)` : pair.firstLabel,
+      details,
+      weight: pair.count,
+    };
+    if (pair.location) {
+      edge.location = pair.location;
+    }
+    return edge;
+  });
+}
@@ -0,0 +1,67 @@
+import { FileFacts, SourceLocation } from './types';
+
+export interface SymbolLocation extends SourceLocation {
+  filename: string;
+}
+
+export interface CallSite extends SymbolLocation {
+  /** Name of the called method */
+  method: string;
+}
+
+/**
+ * Where the classes of a project are declared and where components call each other, from the per-file facts.
+ * Navigation from the diagram looks locations up here instead of parsing the file again.
+ */
+export class NavigationIndex {
+  private readonly classes = new Map<string, SymbolLocation>();
+  private readonly callSites = new Map<string, Map<string, CallSite[]>>();
+
+  /**
+   * @param files Facts of every file of the project; a class declared in several files is located in the first
+   */
+  constructor(files: Iterable<FileFacts>) {
+    for (const file of files) {
+      for (const { className, line, column } of file.classLocations) {
+        if (!this.classes.has(className)) {
+          this.classes.set(className, { filename: file.filename, line, column });
+        }
+      }
+      for (const connection of file.connections) {
+        if (connection.location) {
+          this.addCallSite(connection.source, connection.target, { filename: file.filename, ...connection.location, method: connection.label });
+        }
+      }
+    }
+  }
+
+  findClass(className: string): SymbolLocation | undefined {
+    return this.classes.get(className);
+  }
+
+  /**
+   * Calls from the source component to the target component, in file and source order
+   */
+  findCallSites(source: string, target: string): CallSite[] {
+    const byTarget = this.callSites.get(source);
+    return (byTarget && byTarget.get(target)) || [];
+  }
+
+  get classCount(): number {
+    return this.classes.size;
+  }
+
+  private addCallSite(source: string, target: string, callSite: CallSite) {
+    let byTarget = this.callSites.get(source);
+    if (!byTarget) {
+      byTarget = new Map<string, CallSite[]>();
+      this.callSites.set(source, byTarget);
+    }
+    const list = byTarget.get(target);
+    if (list) {
+      list.push(callSite);
+    } else {
+      byTarget.set(target, [callSite]);
+    }
+  }
+}
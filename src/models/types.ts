@@ -1,4 +1,4 @@
-import * as vscode from 'vscode';
+import type * as vscode from 'vscode';
 
 export interface AkkaComponent {
   id: string; // The class name, used as a unique ID
@@ -14,16 +14,40 @@ export interface AkkaEdge {
   target: string;
   label: string;
   details: string[]; // To hold detailed interaction info, e.g., method names
+  weight?: number; // Number of edges (calls) aggregated into this one, see aggregateEdges
+  location?: SourceLocation; // Where a component client call was found, in the file of the source component
+}
+
+// Position in a source file, 1-based as in CST locations
+export interface SourceLocation {
+  line: number;
+  column: number;
 }
 
 // Data passed from the extension to the webview
 export interface SerializableDiagramData {
-  nodes: Omit<AkkaComponent, 'uri'>[];
+  // cluster: the expanded cluster a node belongs to; memberCount: the number of components of a collapsed cluster node (see DiagramClusters)
+  nodes: Array<Omit<AkkaComponent, 'uri'> & { cluster?: string; memberCount?: number }>;
   edges: AkkaEdge[];
+  version?: number; // Sequence number of the diagram in the webview, see DiagramDeltaTracker
 }
 
 export interface ViewState {
   panX: number;
   panY: number;
   scale: number;
-}
\ No newline at end of file
+}
+
+// Per-file analysis results extracted from a CST. Plain data (no vscode.Uri) so it can be cached on disk.
+export interface FileFacts {
+  filename: string;
+  components: Array<{ filename: string; className: string; componentType: string; componentId: string }>;
+  functionTools: Array<{ filename: string; className: string; componentType: string }>;
+  connections: AkkaEdge[]; // Excludes 'references' edges, which depend on the project-wide component list
+  topicNodes: Array<{ id: string; name: string; type: string }>;
+  serviceStreamNodes: Array<{ id: string; name: string; type: string }>;
+  toolNodes: Array<{ id: string; name: string; type: string }>;
+  classNames: string[]; // Top-level class names, used as reference sources
+  classLocations: Array<{ className: string } & SourceLocation>; // Every type declaration, for navigation
+  identifiers: string[]; // Distinct identifier images, used to detect references
+}
@@ -1,47 +1,177 @@
-import * as vscode from 'vscode';
+import type * as vscode from 'vscode';
+import { performance } from 'perf_hooks';
 import { JavaParser } from './javaParser';
-import { detectFunctionToolClasses } from './javaCstUtils';
-import { createPrefixedLogger } from '../utils/logger';
-import { AkkaComponent, AkkaEdge } from '../models/types';
+import { ComponentReferenceIndex } from './javaCstUtils';
+import { extractFileFacts, factsFromPreScan } from './fileFacts';
+import { CstVisitStats } from './cstVisitor';
+import { preScanJavaSource } from './preScan';
+import { LogChannel, Logger, createPrefixedLogger } from '../utils/logger';
+import { AnalysisCache, hashSource } from '../utils/analysisCache';
+import { AnalysisCancelledError, AnalysisHost } from '../host/analysisHost';
+import { StringTable } from '../utils/stringTable';
+import { AnalysisMetrics, AnalysisMetricsRecorder, formatMetricsSummary } from '../utils/analysisMetrics';
+import { AkkaComponent, AkkaEdge, FileFacts } from '../models/types';
+import { DiagramGraphBuilder } from '../models/diagramGraph';
+import { NavigationIndex } from '../models/navigationIndex';
+
+type DetectedNode = { id: string; name: string; type: string; uri: vscode.Uri };
+
+// Components keyed by class name, plus the topic, service stream and tool nodes located in the files they were found in
+type ProjectGraph = DiagramGraphBuilder<{ className: string; componentType: string; filename: string }, DetectedNode>;
 
 export interface ProcessingResult {
   nodes: AkkaComponent[];
   edges: AkkaEdge[];
-  topicNodes: Array<{ id: string; name: string; type: string; uri: vscode.Uri }>;
-  serviceStreamNodes: Array<{ id: string; name: string; type: string; uri: vscode.Uri }>;
-  toolNodes: Array<{ id: string; name: string; type: string; uri: vscode.Uri }>;
+  topicNodes: DetectedNode[];
+  serviceStreamNodes: DetectedNode[];
+  toolNodes: DetectedNode[];
+  // Class declarations and component client call sites of the project, for navigation from the diagram
+  navigation: NavigationIndex;
+  // Timings and counters of the analysis that produced this result
+  metrics: AnalysisMetrics;
 }
 
-export interface ParsedFile {
-  filename: string;
-  cst: any;
-  sourceText: string;
+/**
+ * Stages reported while processing a project: parsing the files (step 1), detecting components (steps 2-4)
+ * and detecting edges (steps 5-6)
+ */
+export type ProcessingStage = 'parse' | 'detect' | 'edges';
+
+export interface ProcessingProgress {
+  stage: ProcessingStage;
+  /** Work units of the stage done so far: files for 'parse', 0 or 1 for the other stages */
+  completed: number;
+  total: number;
+}
+
+export interface ProcessingOptions {
+  /** Stops processing between files and between stages; an AnalysisCancelledError is thrown and the previous results are kept */
+  token?: vscode.CancellationToken;
+  onProgress?: (progress: ProcessingProgress) => void;
+  /** Called with the component nodes once they are detected, before the edges are */
+  onComponents?: (nodes: AkkaComponent[]) => void;
+}
+
+/**
+ * Let pending events (progress notifications, a cancellation request) be handled between stages
+ */
+function yieldToEventLoop(): Promise<void> {
+  return new Promise((resolve) => setImmediate(resolve));
 }
 
 export class ComponentDiagramController {
-  private log: (message: string) => void;
+  private log: Logger;
+
+  // Facts for every file of the last scan, in scan order; kept so that later updates only re-analyze changed files
+  private readonly factsByFile = new Map<string, FileFacts>();
+  // 'references' connections per file, valid while the project-wide component list is unchanged
+  private readonly referencesByFile = new Map<string, AkkaEdge[]>();
+  private referenceComponentsKey = '';
+  // Every string of the kept facts; most names are mentioned by many files and are stored once.
+  // Rebuilt on each full analysis, and by incremental updates once strings of replaced facts have doubled its size.
+  private strings = new StringTable();
+  private stringsAfterRebuild = 0;
 
-  constructor(outputChannel?: vscode.OutputChannel) {
+  /**
+   * @param host Reads the project's files and provides the settings of the environment the analysis runs in
+   * @param outputChannel Optional output channel for logging
+   * @param cache Optional persistent cache; files whose source hash is cached are not parsed again
+   */
+  constructor(private readonly host: AnalysisHost, outputChannel?: LogChannel, private readonly cache?: AnalysisCache) {
     this.log = createPrefixedLogger(outputChannel, '[Controller]');
   }
 
   /**
    * Main processing flow for creating component diagrams
+   * @param javaFiles The Java files of the project
+   * @param options Cancellation, progress and partial result callbacks
    */
-  async processProject(javaFiles: vscode.Uri[]): Promise<ProcessingResult> {
+  async processProject(javaFiles: vscode.Uri[], options: ProcessingOptions = {}): Promise<ProcessingResult> {
     this.log('========================================');
     this.log('STARTING COMPONENT DIAGRAM PROCESSING');
     this.log('========================================');
 
-    // Step 1: Parse all Java source files and create CSTs
+    // Step 1: Parse all Java source files and extract per-file facts (cached files are not parsed)
     this.log('\n=== STEP 1: PARSING JAVA FILES ===');
-    const parsedFiles = await this.parseJavaFiles(javaFiles);
-    this.log(`Parsed ${parsedFiles.length} Java files successfully`);
+    const metrics = this.createMetricsRecorder();
+    const strings = this.strings;
+    this.strings = new StringTable();
+    let parsedFiles: FileFacts[];
+    try {
+      parsedFiles = await this.parseJavaFiles(javaFiles, metrics, options);
+    } catch (error) {
+      // A cancelled scan keeps the previous results, and their strings
+      this.strings = strings;
+      throw error;
+    }
+    this.log(`Analyzed ${parsedFiles.length} Java files successfully`);
+
+    this.factsByFile.clear();
+    this.referencesByFile.clear();
+    parsedFiles.forEach((facts) => this.factsByFile.set(facts.filename, facts));
+    this.stringsAfterRebuild = this.strings.size;
+
+    return this.buildResult(metrics, options);
+  }
+
+  /**
+   * Incrementally update the last processed project.
+   * Only the changed files are re-analyzed; 'references' edges are recomputed only for changed files,
+   * unless the set of components changed, in which case every file's references are recomputed.
+   * @param changedFiles Files that were created or modified
+   * @param deletedFiles Files that were deleted
+   */
+  async updateFiles(changedFiles: vscode.Uri[], deletedFiles: vscode.Uri[]): Promise<ProcessingResult> {
+    this.log('========================================');
+    this.log(`INCREMENTAL UPDATE: ${changedFiles.length} changed, ${deletedFiles.length} deleted`);
+    this.log('========================================');
+
+    for (const file of deletedFiles) {
+      this.factsByFile.delete(file.fsPath);
+      this.referencesByFile.delete(file.fsPath);
+    }
+
+    // A file that fails to parse (e.g. while it is being edited) keeps its previous facts
+    const metrics = this.createMetricsRecorder();
+    const parsedFiles = await this.parseJavaFiles(changedFiles, metrics);
+    for (const facts of parsedFiles) {
+      this.factsByFile.set(facts.filename, facts);
+      this.referencesByFile.delete(facts.filename);
+    }
+    this.log(`Re-analyzed ${parsedFiles.length} of ${changedFiles.length} changed files`);
+
+    // Strings of the replaced and deleted facts stay in the table until it is rebuilt from the facts still kept
+    if (this.strings.size > 2 * this.stringsAfterRebuild) {
+      this.rebuildStrings();
+    }
+
+    return this.buildResult(metrics);
+  }
+
+  private createMetricsRecorder(): AnalysisMetricsRecorder {
+    const metrics = new AnalysisMetricsRecorder(this.host.parserThreads(), this.cache !== undefined);
+    metrics.beginStage('parse');
+    return metrics;
+  }
+
+  /**
+   * Steps 2-6: build the diagram from the per-file facts of the current project
+   */
+  private async buildResult(metrics: AnalysisMetricsRecorder, options: ProcessingOptions = {}): Promise<ProcessingResult> {
+    const parsedFiles = Array.from(this.factsByFile.values());
+    const { token, onProgress, onComponents } = options;
 
     // Step 2: Scan CSTs for Akka components (initial diagram nodes)
     this.log('\n=== STEP 2: DETECTING AKKA COMPONENTS ===');
+    metrics.beginStage('detect');
+    onProgress?.({ stage: 'detect', completed: 0, total: 1 });
     const akkaComponents = this.detectAkkaComponents(parsedFiles);
     this.log(`Found ${akkaComponents.length} Akka components`);
+    if (onComponents) {
+      onComponents(akkaComponents.map((component) => this.toComponentNode(component)));
+      await yieldToEventLoop();
+    }
+    this.throwIfCancelled(token);
 
     // Step 3: Scan CSTs for function tools
     this.log('\n=== STEP 3: DETECTING FUNCTION TOOLS ===');
@@ -50,76 +180,176 @@ export class ComponentDiagramController {
 
     // Step 4: Combine component lists (full list of diagram nodes)
     this.log('\n=== STEP 4: COMBINING COMPONENT LISTS ===');
-    const allComponents = this.combineComponentLists(akkaComponents, functionToolComponents);
-    this.log(`Combined list has ${allComponents.length} total components`);
+    const graph = this.combineComponentLists(akkaComponents, functionToolComponents);
+    this.log(`Combined list has ${graph.components.size} total components`);
+    onProgress?.({ stage: 'detect', completed: 1, total: 1 });
 
     // Step 5: Edge detection
     this.log('\n=== STEP 5: DETECTING EDGES ===');
-    const edgeDetectionResult = this.detectEdges(parsedFiles, allComponents);
-    this.log(`Found ${edgeDetectionResult.edges.length} edges`);
+    onProgress?.({ stage: 'edges', completed: 0, total: 1 });
+    await yieldToEventLoop();
+    this.throwIfCancelled(token);
+    metrics.beginStage('edges');
+    this.detectEdges(parsedFiles, graph, metrics);
+    this.log(`Found ${graph.edges.size} edges`);
 
     // Step 6: Create final result
     this.log('\n=== STEP 6: CREATING FINAL RESULT ===');
-    const result = this.createFinalResult(allComponents, edgeDetectionResult);
+    metrics.beginStage('result');
+    const result: ProcessingResult = { ...this.createFinalResult(graph, parsedFiles), metrics: metrics.finish() };
 
     this.log('========================================');
     this.log('COMPONENT DIAGRAM PROCESSING COMPLETE');
     this.log('========================================');
     this.log(`Final result: ${result.nodes.length} nodes, ${result.edges.length} edges`);
+    this.log(`Analysis metrics: ${formatMetricsSummary(result.metrics)}`);
+    onProgress?.({ stage: 'edges', completed: 1, total: 1 });
 
     return result;
   }
 
+  private throwIfCancelled(token?: vscode.CancellationToken) {
+    if (token?.isCancellationRequested) {
+      this.log('Processing cancelled');
+      throw new AnalysisCancelledError();
+    }
+  }
+
   /**
-   * Step 1: Parse all Java source files and create CSTs
+   * Step 1: Parse all Java source files and extract per-file facts.
+   * Files whose path and source hash are in the cache reuse the cached facts and are not parsed.
+   * Files the lexical pre-scan finds no Akka constructs in are not parsed either; only their identifiers are indexed.
    */
-  private async parseJavaFiles(javaFiles: vscode.Uri[]): Promise<ParsedFile[]> {
+  private async parseJavaFiles(javaFiles: vscode.Uri[], metrics: AnalysisMetricsRecorder, options: ProcessingOptions = {}): Promise<FileFacts[]> {
     this.log(`Parsing ${javaFiles.length} Java files...`);
+    const { token, onProgress } = options;
+    let completed = 0;
+    const fileDone = () => {
+      metrics.fileDone();
+      onProgress?.({ stage: 'parse', completed: ++completed, total: javaFiles.length });
+    };
 
-    const parseResults = await JavaParser.parseFiles(javaFiles);
-    const successfulParses = parseResults.filter((r) => r.success);
-
-    if (successfulParses.length === 0) {
-      this.log('No files parsed successfully');
-      return [];
+    if (this.cache) {
+      await this.cache.load();
     }
 
-    // Get source text for each successfully parsed file
-    const parsedFiles: ParsedFile[] = [];
-    for (const result of successfulParses) {
-      try {
-        const document = await vscode.workspace.openTextDocument(result.filename);
-        const sourceText = document.getText();
-        parsedFiles.push({
-          filename: result.filename,
-          cst: result.cst,
-          sourceText: sourceText,
-        });
-      } catch (error) {
-        this.log(`Error reading source text for ${result.filename}: ${error}`);
+    // Two phases: each file is read, pre-scanned and (if it is a candidate) parsed, and only its compact facts are kept;
+    // the source text and CST are dropped as soon as the facts are extracted. The project-wide steps that follow
+    // work from the facts alone. Reads wait while the parser is busy, so only the files being parsed are held in memory.
+    const slots: Array<FileFacts | undefined> = new Array(javaFiles.length);
+    let skipped = 0;
+    let parsed = 0;
+
+    try {
+      await JavaParser.parseStream<{ filename: string; sourceText: string; hash: string; index: number }>(
+        (stream) =>
+          this.host.readAll(
+            javaFiles,
+            ({ sourceText, error }, index) => {
+              const filename = javaFiles[index].fsPath;
+              const fileMetrics = metrics.file(filename);
+              if (sourceText === undefined) {
+                this.log.error(`Error reading source text for ${filename}: ${error}`);
+                fileMetrics.outcome = 'failed';
+                fileDone();
+                return;
+              }
+              fileMetrics.bytes = Buffer.byteLength(sourceText, 'utf8');
+              const hash = hashSource(sourceText);
+              const cached = this.cache ? this.cache.get(filename, hash) : undefined;
+              if (cached) {
+                // The cache keeps the compact copy too, so there is one instance per file
+                const facts = this.compactFacts(cached);
+                this.cache!.replaceFacts(filename, cached, facts);
+                slots[index] = facts;
+                metrics.cacheHits++;
+                fileMetrics.outcome = 'cached';
+                fileDone();
+                return;
+              }
+              if (this.cache) {
+                metrics.cacheMisses++;
+              }
+
+              const preScanStart = performance.now();
+              const preScan = preScanJavaSource(sourceText);
+              fileMetrics.preScanMs = performance.now() - preScanStart;
+              if (preScan.isCandidate) {
+                parsed++;
+                return stream.parse({ filename, sourceText, hash, index });
+              }
+              const facts = this.compactFacts(factsFromPreScan(filename, preScan));
+              slots[index] = facts;
+              skipped++;
+              fileMetrics.outcome = 'skipped';
+              fileDone();
+              if (this.cache) {
+                this.cache.set(filename, hash, facts);
+              }
+            },
+            token
+          ),
+        (result, { filename, sourceText, hash, index }) => {
+          const fileMetrics = metrics.file(filename);
+          fileMetrics.parseMs = result.parseMs ?? 0;
+          fileMetrics.outcome = result.success ? 'parsed' : 'failed';
+          fileDone();
+          if (!result.success) return;
+          try {
+            const extractStart = performance.now();
+            const visited: CstVisitStats = { nodes: 0, tokens: 0 };
+            const facts = this.compactFacts(extractFileFacts(result.cst, filename, sourceText, undefined, visited));
+            fileMetrics.extractMs = performance.now() - extractStart;
+            fileMetrics.cstNodes = visited.nodes;
+            fileMetrics.cstTokens = visited.tokens;
+            slots[index] = facts;
+            if (this.cache) {
+              this.cache.set(filename, hash, facts);
+            }
+          } catch (error) {
+            fileMetrics.outcome = 'failed';
+            this.log.error(`Error extracting facts from ${filename}: ${error}`);
+          }
+        },
+        undefined,
+        { jobs: this.host.parserThreads(), token }
+      );
+    } finally {
+      // A cancelled scan still saves the facts of the files it finished, so the next scan starts from them
+      if (this.cache) {
+        try {
+          await this.cache.save();
+        } catch (error) {
+          this.log.error(`Error saving analysis cache: ${error}`);
+        }
       }
     }
+    this.log(`Cache hits: ${metrics.cacheHits}, files parsed: ${parsed}`);
+    this.log(`Pre-scan skipped ${skipped} file(s) without Akka components, client calls, topic/stream annotations or tool references`);
 
-    this.log(`Successfully parsed ${parsedFiles.length} files with CST and source text`);
+    const parsedFiles = slots.filter((file): file is FileFacts => file !== undefined);
+    if (parsedFiles.length === 0) {
+      this.log('No files parsed successfully');
+    }
     return parsedFiles;
   }
 
   /**
    * Step 2: Scan CSTs for Akka components (initial diagram nodes)
    */
-  private detectAkkaComponents(parsedFiles: ParsedFile[]): Array<{ className: string; componentType: string; filename: string }> {
+  private detectAkkaComponents(parsedFiles: FileFacts[]): Array<{ className: string; componentType: string; filename: string }> {
     this.log('Detecting Akka components from CSTs...');
 
     const allAkkaComponents: Array<{ className: string; componentType: string; filename: string }> = [];
 
     for (const file of parsedFiles) {
-      const components = JavaParser.extractAkkaComponentsFromCST(file.cst, file.filename);
+      const components = file.components;
       allAkkaComponents.push(...components);
 
       if (components.length > 0) {
-        this.log(`File ${file.filename}: Found ${components.length} Akka components`);
+        this.log.debug(() => `File ${file.filename}: Found ${components.length} Akka components`);
         components.forEach((component, index) => {
-          this.log(`  Component ${index + 1}: ${component.className} (${component.componentType})`);
+          this.log.debug(() => `  Component ${index + 1}: ${component.className} (${component.componentType})`);
         });
       }
     }
@@ -131,19 +361,19 @@ export class ComponentDiagramController {
   /**
    * Step 3: Scan CSTs for function tools
    */
-  private detectFunctionTools(parsedFiles: ParsedFile[]): Array<{ className: string; componentType: string; filename: string }> {
+  private detectFunctionTools(parsedFiles: FileFacts[]): Array<{ className: string; componentType: string; filename: string }> {
     this.log('Detecting function tools from CSTs...');
 
     const allFunctionTools: Array<{ className: string; componentType: string; filename: string }> = [];
 
     for (const file of parsedFiles) {
-      const functionTools = detectFunctionToolClasses(file.cst, file.filename, file.sourceText);
+      const functionTools = file.functionTools;
       allFunctionTools.push(...functionTools);
 
       if (functionTools.length > 0) {
-        this.log(`File ${file.filename}: Found ${functionTools.length} function tools`);
+        this.log.debug(() => `File ${file.filename}: Found ${functionTools.length} function tools`);
         functionTools.forEach((tool, index) => {
-          this.log(`  Function tool ${index + 1}: ${tool.className} (${tool.componentType})`);
+          this.log.debug(() => `  Function tool ${index + 1}: ${tool.className} (${tool.componentType})`);
         });
       }
     }
@@ -158,181 +388,180 @@ export class ComponentDiagramController {
   private combineComponentLists(
     akkaComponents: Array<{ className: string; componentType: string; filename: string }>,
     functionToolComponents: Array<{ className: string; componentType: string; filename: string }>
-  ): Array<{ className: string; componentType: string; filename: string }> {
+  ): ProjectGraph {
     this.log('Combining Akka components and function tools...');
 
+    const graph: ProjectGraph = new DiagramGraphBuilder();
+
     // Start with Akka components
-    const allComponents = [...akkaComponents];
+    akkaComponents.forEach((component) => graph.components.add(component.className, component));
 
     // Add function tools that aren't already in the list
     functionToolComponents.forEach((toolComponent) => {
-      if (!allComponents.find((c) => c.className === toolComponent.className)) {
-        allComponents.push(toolComponent);
-        this.log(`Added function tool to component list: ${toolComponent.className}`);
+      if (graph.components.add(toolComponent.className, toolComponent)) {
+        this.log.debug(() => `Added function tool to component list: ${toolComponent.className}`);
       } else {
-        this.log(`Function tool already in component list: ${toolComponent.className}`);
+        this.log.debug(() => `Function tool already in component list: ${toolComponent.className}`);
       }
     });
 
-    this.log(`Combined list has ${allComponents.length} total components:`);
-    allComponents.forEach((comp, index) => {
-      this.log(`  Component ${index + 1}: ${comp.className} (${comp.componentType})`);
+    this.log(`Combined list has ${graph.components.size} total components:`);
+    graph.components.values().forEach((comp, index) => {
+      this.log.debug(() => `  Component ${index + 1}: ${comp.className} (${comp.componentType})`);
     });
 
-    return allComponents;
+    return graph;
   }
 
   /**
-   * Step 5: Edge detection
+   * Step 5: Edge detection. Adds the edges and the topic, service stream and tool nodes of every file to the graph.
    */
-  private detectEdges(
-    parsedFiles: ParsedFile[],
-    allComponents: Array<{ className: string; componentType: string; filename: string }>
-  ): {
-    edges: AkkaEdge[];
-    topicNodes: Array<{ id: string; name: string; type: string; uri: vscode.Uri }>;
-    serviceStreamNodes: Array<{ id: string; name: string; type: string; uri: vscode.Uri }>;
-    toolNodes: Array<{ id: string; name: string; type: string; uri: vscode.Uri }>;
-  } {
+  private detectEdges(parsedFiles: FileFacts[], graph: ProjectGraph, metrics: AnalysisMetricsRecorder) {
     this.log('Detecting edges between components...');
 
-    const allEdges: AkkaEdge[] = [];
-    const allTopicNodes: Array<{ id: string; name: string; type: string; uri: vscode.Uri }> = [];
-    const allServiceStreamNodes: Array<{ id: string; name: string; type: string; uri: vscode.Uri }> = [];
-    const allToolNodes: Array<{ id: string; name: string; type: string; uri: vscode.Uri }> = [];
-
     // Convert components to the format expected by edge detection
-    const allComponentsForReference = allComponents.map((comp) => ({
+    const allComponentsForReference = graph.components.values().map((comp) => ({
       className: comp.className,
       componentType: comp.componentType,
     }));
 
-    for (const file of parsedFiles) {
-      this.log(`Processing edges for file: ${file.filename}`);
+    // Cached references are only valid for the component list they were computed against
+    const componentsKey = allComponentsForReference.map((comp) => `${comp.className}:${comp.componentType}`).join(',');
+    if (componentsKey !== this.referenceComponentsKey) {
+      this.referencesByFile.clear();
+      this.referenceComponentsKey = componentsKey;
+    }
 
-      // Import the edge detection function
-      const { extractComponentConnectionsFromCST } = require('./javaCstUtils');
+    // Component class name index, built once per scan and only when some file's references must be recomputed
+    let referenceIndex: ComponentReferenceIndex | undefined;
 
-      const { connections, topicNodes, serviceStreamNodes, toolNodes } = extractComponentConnectionsFromCST(
-        file.cst,
-        file.filename,
-        file.sourceText,
-        undefined, // outputChannel
-        allComponentsForReference
-      );
+    for (const file of parsedFiles) {
+      this.log.debug(() => `Processing edges for file: ${file.filename}`);
 
-      // Add edges
-      connections.forEach((conn: any) => {
-        // Filter out references edges that already have existing matching source and target nodes
-        if (conn.label === 'references') {
-          const existingEdge = allEdges.find((e) => e.source === conn.source && e.target === conn.target);
-          if (existingEdge) {
-            return;
-          }
+      // Local connections were extracted with the file; references need the project-wide component list
+      let referenceConnections = this.referencesByFile.get(file.filename);
+      if (!referenceConnections) {
+        if (!referenceIndex) {
+          referenceIndex = new ComponentReferenceIndex(allComponentsForReference);
         }
+        const referencesStart = performance.now();
+        referenceConnections = referenceIndex.findReferenceConnections(file.classNames, file.identifiers, file.toolNodes);
+        metrics.file(file.filename).referencesMs = performance.now() - referencesStart;
+        this.referencesByFile.set(file.filename, referenceConnections);
+      }
 
-        const edge: AkkaEdge = {
-          source: conn.source,
-          target: conn.target,
-          label: conn.label,
-          details: conn.details,
-        };
-        allEdges.push(edge);
-        this.log(`  Edge: ${conn.source} -> ${conn.target} (${conn.label})`);
-      });
-
-      // Add topic nodes (avoiding duplicates)
-      topicNodes.forEach((topic: any) => {
-        if (!allTopicNodes.find((t) => t.id === topic.id)) {
-          allTopicNodes.push(topic);
-        }
+      // Add edges
+      file.connections.forEach((conn) => {
+        graph.edges.add({ source: conn.source, target: conn.target, label: conn.label, details: conn.details, location: conn.location });
+        this.log.debug(() => `  Edge: ${conn.source} -> ${conn.target} (${conn.label})`);
       });
 
-      // Add service stream nodes (avoiding duplicates)
-      serviceStreamNodes.forEach((stream: any) => {
-        if (!allServiceStreamNodes.find((s) => s.id === stream.id)) {
-          allServiceStreamNodes.push(stream);
+      // Filter out references edges that already have existing matching source and target nodes
+      referenceConnections.forEach((conn) => {
+        if (graph.addReference({ source: conn.source, target: conn.target, label: conn.label, details: conn.details })) {
+          this.log.debug(() => `  Edge: ${conn.source} -> ${conn.target} (${conn.label})`);
         }
       });
 
-      // Add tool nodes (avoiding duplicates)
-      toolNodes.forEach((tool: any) => {
-        if (!allToolNodes.find((t) => t.id === tool.id)) {
-          allToolNodes.push(tool);
-        }
+      // Add topic, service stream and tool nodes (avoiding duplicates); nodes detected in a file are located in that file
+      const uri = this.host.fileUri(file.filename);
+      graph.addDetectedNodes({
+        topicNodes: file.topicNodes.map((node) => ({ ...node, uri })),
+        serviceStreamNodes: file.serviceStreamNodes.map((node) => ({ ...node, uri })),
+        toolNodes: file.toolNodes.map((node) => ({ ...node, uri })),
       });
     }
 
-    this.log(`Total edges found: ${allEdges.length}`);
-    this.log(`Total topic nodes found: ${allTopicNodes.length}`);
-    this.log(`Total service stream nodes found: ${allServiceStreamNodes.length}`);
-    this.log(`Total tool nodes found: ${allToolNodes.length}`);
-
-    return {
-      edges: allEdges,
-      topicNodes: allTopicNodes,
-      serviceStreamNodes: allServiceStreamNodes,
-      toolNodes: allToolNodes,
-    };
+    this.log(`Total edges found: ${graph.edges.size}`);
+    this.log(`Total topic nodes found: ${graph.topicNodes.size}`);
+    this.log(`Total service stream nodes found: ${graph.serviceStreamNodes.size}`);
+    this.log(`Total tool nodes found: ${graph.toolNodes.size}`);
   }
 
   /**
    * Step 6: Create final result
    */
-  private createFinalResult(
-    allComponents: Array<{ className: string; componentType: string; filename: string }>,
-    edgeDetectionResult: {
-      edges: AkkaEdge[];
-      topicNodes: Array<{ id: string; name: string; type: string; uri: vscode.Uri }>;
-      serviceStreamNodes: Array<{ id: string; name: string; type: string; uri: vscode.Uri }>;
-      toolNodes: Array<{ id: string; name: string; type: string; uri: vscode.Uri }>;
-    }
-  ): ProcessingResult {
+  private createFinalResult(graph: ProjectGraph, parsedFiles: FileFacts[]): Omit<ProcessingResult, 'metrics'> {
     this.log('Creating final processing result...');
 
     // Convert components to AkkaComponent format
-    const componentNodes: AkkaComponent[] = allComponents.map((component) => ({
-      id: component.className,
-      name: component.className,
-      type: component.componentType,
-      uri: vscode.Uri.file(component.filename),
-    }));
+    const componentNodes: AkkaComponent[] = graph.components.values().map((component) => this.toComponentNode(component));
 
-    // Convert topic nodes to AkkaComponent format
-    const topicComponents: AkkaComponent[] = edgeDetectionResult.topicNodes.map((topic) => ({
-      id: topic.id,
-      name: topic.name,
-      type: topic.type,
-      uri: topic.uri,
-    }));
+    const topicNodes = graph.topicNodes.values();
+    const serviceStreamNodes = graph.serviceStreamNodes.values();
+    const toolNodes = graph.toolNodes.values();
+    const edges = graph.edges.values();
 
-    // Convert service stream nodes to AkkaComponent format
-    const serviceStreamComponents: AkkaComponent[] = edgeDetectionResult.serviceStreamNodes.map((stream) => ({
-      id: stream.id,
-      name: stream.name,
-      type: stream.type,
-      uri: stream.uri,
-    }));
+    // Combine all nodes; topic, service stream and tool nodes already have the AkkaComponent fields
+    const toComponent = (node: DetectedNode): AkkaComponent => ({ id: node.id, name: node.name, type: node.type, uri: node.uri });
+    const allNodes = [...componentNodes, ...topicNodes.map(toComponent), ...serviceStreamNodes.map(toComponent), ...toolNodes.map(toComponent)];
 
-    // Convert tool nodes to AkkaComponent format
-    const toolComponents: AkkaComponent[] = edgeDetectionResult.toolNodes.map((tool) => ({
-      id: tool.id,
-      name: tool.name,
-      type: tool.type,
-      uri: tool.uri,
-    }));
+    this.log(`Final result: ${allNodes.length} nodes, ${edges.length} edges`);
 
-    // Combine all nodes
-    const allNodes = [...componentNodes, ...topicComponents, ...serviceStreamComponents, ...toolComponents];
+    return {
+      nodes: allNodes,
+      edges,
+      topicNodes,
+      serviceStreamNodes,
+      toolNodes,
+      navigation: new NavigationIndex(parsedFiles),
+    };
+  }
 
-    this.log(`Final result: ${allNodes.length} nodes, ${edgeDetectionResult.edges.length} edges`);
+  /**
+   * Facts with every string taken from the string table. The extractors slice names, labels and details out of the
+   * source text, and V8 keeps the whole source text reachable from such slices; the table's copies do not, so facts
+   * kept for the whole session neither duplicate common names nor retain the files they were extracted from.
+   */
+  private compactFacts(facts: FileFacts): FileFacts {
+    const intern = (value: string) => this.strings.intern(value);
+    const internNode = (node: { id: string; name: string; type: string }) => ({ id: intern(node.id), name: intern(node.name), type: intern(node.type) });
+    return {
+      filename: intern(facts.filename),
+      components: facts.components.map((component) => ({
+        filename: intern(component.filename),
+        className: intern(component.className),
+        componentType: intern(component.componentType),
+        componentId: intern(component.componentId),
+      })),
+      functionTools: facts.functionTools.map((tool) => ({ filename: intern(tool.filename), className: intern(tool.className), componentType: intern(tool.componentType) })),
+      connections: facts.connections.map((connection) => ({
+        source: intern(connection.source),
+        target: intern(connection.target),
+        label: intern(connection.label),
+        details: connection.details.map(intern),
+        location: connection.location && { line: connection.location.line, column: connection.location.column },
+      })),
+      topicNodes: facts.topicNodes.map(internNode),
+      serviceStreamNodes: facts.serviceStreamNodes.map(internNode),
+      toolNodes: facts.toolNodes.map(internNode),
+      classNames: facts.classNames.map(intern),
+      classLocations: facts.classLocations.map((location) => ({ className: intern(location.className), line: location.line, column: location.column })),
+      identifiers: facts.identifiers.map(intern),
+    };
+  }
+
+  /**
+   * Replace the string table with one holding only the strings of the facts still kept
+   */
+  private rebuildStrings() {
+    const previousSize = this.strings.size;
+    this.strings = new StringTable();
+    this.factsByFile.forEach((facts, filename) => {
+      const compacted = this.compactFacts(facts);
+      this.cache?.replaceFacts(filename, facts, compacted);
+      this.factsByFile.set(filename, compacted);
+    });
+    this.stringsAfterRebuild = this.strings.size;
+    this.log.debug(() => `Rebuilt string table: ${previousSize} -> ${this.strings.size} strings`);
+  }
 
+  private toComponentNode(component: { className: string; componentType: string; filename: string }): AkkaComponent {
     return {
-      nodes: allNodes,
-      edges: edgeDetectionResult.edges,
-      topicNodes: edgeDetectionResult.topicNodes,
-      serviceStreamNodes: edgeDetectionResult.serviceStreamNodes,
-      toolNodes: edgeDetectionResult.toolNodes,
+      id: component.className,
+      name: component.className,
+      type: component.componentType,
+      uri: this.host.fileUri(component.filename),
     };
   }
 }
@@ -0,0 +1,192 @@
+/**
+ * Single-pass traversal of java-parser CSTs.
+ *
+ * Each extractor registers a rule with handlers for the CST node names it is interested in.
+ * visitCst walks the tree once and dispatches every node to the handlers registered for its name,
+ * so all extractors share one traversal instead of each recursing over the whole tree.
+ */
+
+export type CstNodeHandler = (node: any, context: CstVisitContext) => void;
+
+/**
+ * Handlers one extractor registers with the visitor
+ */
+export interface CstRule {
+  /** Handlers called when a node with the given name is entered, before its children are visited */
+  enter?: { [nodeName: string]: CstNodeHandler };
+  /** Handlers called when a node with the given name is left, after its children were visited */
+  leave?: { [nodeName: string]: CstNodeHandler };
+  /** Handler called for every token (leaf) */
+  token?: CstNodeHandler;
+}
+
+/**
+ * A rule together with the function returning what it collected once the traversal is complete
+ */
+export interface CstCollector<T> {
+  rule: CstRule;
+  finish(): T;
+}
+
+/**
+ * Traversal state shared with the handlers
+ */
+export interface CstVisitContext {
+  /** Nodes from the root down to the parent of the current node */
+  readonly ancestors: any[];
+  /** Name of the top-level class currently being visited, if it has one */
+  topLevelClassName: string | undefined;
+  /** True while visiting the statements of a method declared directly in a top-level class */
+  inTopLevelMethodBody: boolean;
+}
+
+export interface CstVisitStats {
+  nodes: number;
+  tokens: number;
+}
+
+// Ancestors of the block statements of a method declared directly in a top-level class, nearest last
+const TOP_LEVEL_METHOD_BODY_PATH = [
+  'ordinaryCompilationUnit',
+  'typeDeclaration',
+  'classDeclaration',
+  'normalClassDeclaration',
+  'classBody',
+  'classBodyDeclaration',
+  'classMemberDeclaration',
+  'methodDeclaration',
+  'methodBody',
+  'block',
+];
+
+/**
+ * Checks whether the nearest ancestors of the current node have the given names
+ * @param context The visit context
+ * @param names Ancestor node names, outermost first and the parent of the current node last
+ */
+export function hasAncestors(context: CstVisitContext, names: string[]): boolean {
+  const ancestors = context.ancestors;
+  if (ancestors.length < names.length) return false;
+  const offset = ancestors.length - names.length;
+  for (let i = 0; i < names.length; i++) {
+    if (ancestors[offset + i].name !== names[i]) return false;
+  }
+  return true;
+}
+
+/**
+ * Checks whether the current node is the classDeclaration of a top-level type
+ */
+export function isTopLevelClassDeclaration(context: CstVisitContext): boolean {
+  return hasAncestors(context, ['ordinaryCompilationUnit', 'typeDeclaration']);
+}
+
+/**
+ * Returns the name of the normal class declared by a typeDeclaration node, if any
+ */
+export function getTypeDeclarationClassName(typeDecl: any): string | undefined {
+  if (
+    typeDecl &&
+    typeDecl.children &&
+    typeDecl.children.classDeclaration &&
+    typeDecl.children.classDeclaration[0].children.normalClassDeclaration &&
+    typeDecl.children.classDeclaration[0].children.normalClassDeclaration[0].children.typeIdentifier &&
+    typeDecl.children.classDeclaration[0].children.normalClassDeclaration[0].children.typeIdentifier[0].children.Identifier
+  ) {
+    return typeDecl.children.classDeclaration[0].children.normalClassDeclaration[0].children.typeIdentifier[0].children.Identifier[0].image;
+  }
+  return undefined;
+}
+
+function addHandlers(target: Map<string, CstNodeHandler[]>, handlers?: { [nodeName: string]: CstNodeHandler }) {
+  if (!handlers) return;
+  for (const nodeName of Object.keys(handlers)) {
+    const list = target.get(nodeName);
+    if (list) {
+      list.push(handlers[nodeName]);
+    } else {
+      target.set(nodeName, [handlers[nodeName]]);
+    }
+  }
+}
+
+/**
+ * Walks a CST once, depth first in child order, dispatching each node to the rules' handlers.
+ * Handlers of different rules for the same node are called in the order the rules are given.
+ * @param cst The CST root
+ * @param rules The rules to dispatch to
+ * @returns The number of nodes and tokens visited
+ */
+export function visitCst(cst: any, rules: CstRule[]): CstVisitStats {
+  const enterHandlers = new Map<string, CstNodeHandler[]>();
+  const leaveHandlers = new Map<string, CstNodeHandler[]>();
+  const tokenHandlers: CstNodeHandler[] = [];
+  for (const rule of rules) {
+    addHandlers(enterHandlers, rule.enter);
+    addHandlers(leaveHandlers, rule.leave);
+    if (rule.token) {
+      tokenHandlers.push(rule.token);
+    }
+  }
+
+  const context: CstVisitContext = { ancestors: [], topLevelClassName: undefined, inTopLevelMethodBody: false };
+  const stats: CstVisitStats = { nodes: 0, tokens: 0 };
+
+  // Nodes are dispatched by their name; the child key is used for hand-built CSTs without names
+  function visit(node: any, key: string) {
+    if (!node || typeof node !== 'object') return;
+
+    if (!node.children) {
+      stats.tokens++;
+      for (const handler of tokenHandlers) {
+        handler(node, context);
+      }
+      return;
+    }
+
+    stats.nodes++;
+    const name = node.name || key;
+
+    // Track the top-level class and method body scopes the extractors attribute their findings to
+    const previousClassName = context.topLevelClassName;
+    const previousInMethodBody = context.inTopLevelMethodBody;
+    if (name === 'typeDeclaration' && hasAncestors(context, ['ordinaryCompilationUnit'])) {
+      context.topLevelClassName = getTypeDeclarationClassName(node);
+    } else if (name === 'blockStatements' && !context.inTopLevelMethodBody && context.topLevelClassName && hasAncestors(context, TOP_LEVEL_METHOD_BODY_PATH)) {
+      context.inTopLevelMethodBody = true;
+    }
+
+    const enter = enterHandlers.get(name);
+    if (enter) {
+      for (const handler of enter) {
+        handler(node, context);
+      }
+    }
+
+    context.ancestors.push(node);
+    for (const childKey in node.children) {
+      const children = node.children[childKey];
+      if (Array.isArray(children)) {
+        for (const child of children) {
+          visit(child, childKey);
+        }
+      } else {
+        visit(children, childKey);
+      }
+    }
+    context.ancestors.pop();
+
+    const leave = leaveHandlers.get(name);
+    if (leave) {
+      for (const handler of leave) {
+        handler(node, context);
+      }
+    }
+
+    context.topLevelClassName = previousClassName;
+    context.inTopLevelMethodBody = previousInMethodBody;
+  }
+
+  visit(cst, cst && cst.name);
+  return stats;
+}
@@ -0,0 +1,75 @@
+import type * as vscode from 'vscode';
+import { JavaParser } from './javaParser';
+import {
+  createClassLocationCollector,
+  createComponentConnectionCollector,
+  createFunctionToolClassCollector,
+  createIdentifierCollector,
+  getTopLevelClassNames,
+} from './javaCstUtils';
+import { CstVisitStats, visitCst } from './cstVisitor';
+import { PreScanResult } from './preScan';
+import { FileFacts } from '../models/types';
+
+/**
+ * Version of the per-file extraction logic.
+ * Bump this whenever a change to the CST extractors would produce different FileFacts for the same source,
+ * so that cached facts from older versions are discarded.
+ */
+export const FILE_FACTS_VERSION = 3;
+
+/**
+ * Extract everything the diagram needs from one file's CST, except 'references' edges.
+ * References depend on the project-wide component list and are resolved later from classNames and identifiers.
+ * All extractors run as rules of a single CST traversal.
+ * @param stats Optional counters the number of visited nodes and tokens are added to
+ */
+export function extractFileFacts(cst: any, filename: string, sourceText: string, outputChannel?: vscode.OutputChannel, stats?: CstVisitStats): FileFacts {
+  const componentCollector = JavaParser.createAkkaComponentCollector(filename);
+  const functionToolCollector = createFunctionToolClassCollector(filename, sourceText, outputChannel);
+  const connectionCollector = createComponentConnectionCollector(filename, sourceText, outputChannel);
+  const identifierCollector = createIdentifierCollector();
+  const classLocationCollector = createClassLocationCollector();
+
+  const visited = visitCst(cst, [componentCollector.rule, functionToolCollector.rule, connectionCollector.rule, identifierCollector.rule, classLocationCollector.rule]);
+  if (stats) {
+    stats.nodes += visited.nodes;
+    stats.tokens += visited.tokens;
+  }
+
+  const components = componentCollector.finish();
+  const functionTools = functionToolCollector.finish();
+  const { connections, topicNodes, serviceStreamNodes, toolNodes } = connectionCollector.finish();
+
+  return {
+    filename,
+    components,
+    functionTools,
+    connections,
+    topicNodes,
+    serviceStreamNodes,
+    toolNodes,
+    classNames: getTopLevelClassNames(cst),
+    classLocations: classLocationCollector.finish(),
+    identifiers: identifierCollector.finish(),
+  };
+}
+
+/**
+ * Facts of a file the pre-scan found to contain no Akka constructs: no components, tools or connections,
+ * only the class names and identifiers its 'references' edges are resolved from.
+ */
+export function factsFromPreScan(filename: string, preScan: PreScanResult): FileFacts {
+  return {
+    filename,
+    components: [],
+    functionTools: [],
+    connections: [],
+    topicNodes: [],
+    serviceStreamNodes: [],
+    toolNodes: [],
+    classNames: preScan.classNames,
+    classLocations: [],
+    identifiers: preScan.identifiers,
+  };
+}
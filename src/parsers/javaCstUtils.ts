@@ -1,7 +1,12 @@
 // import { parse } from 'java-parser';
 // import { AkkaComponent, AkkaEdge } from '../models/types';
-import * as vscode from 'vscode';
-import { createPrefixedLogger } from '../utils/logger';
+import type * as vscode from 'vscode';
+import { Logger, createPrefixedLogger, nullLogger } from '../utils/logger';
+import { CstCollector, CstRule, isTopLevelClassDeclaration, visitCst } from './cstVisitor';
+import { SourceLocation } from '../models/types';
+
+// Topic, service stream and tool node detected in a file; callers locate it in that file
+type DetectedNodeInfo = { id: string; name: string; type: string };
 
 /**
  * Utility function to extract Java source code from a CST node location
@@ -27,6 +32,186 @@ export function extractSourceAtLocation(sourceText: string, location: { startOff
   return sourceText.substring(location.startOffset, location.endOffset + 1);
 }
 
+
+const IDENTIFIER_PATTERN = /^[A-Za-z_$][A-Za-z0-9_$]*$/;
+
+/**
+ * Collects the distinct identifier-like token images of a CST, in first-occurrence order.
+ * This is all that component reference detection needs, so it can run without keeping the CST.
+ */
+export function createIdentifierCollector(): CstCollector<string[]> {
+  const seen = new Set<string>();
+  return {
+    rule: {
+      token: (token) => {
+        if (typeof token.image === 'string' && IDENTIFIER_PATTERN.test(token.image)) {
+          seen.add(token.image);
+        }
+      },
+    },
+    finish: () => Array.from(seen),
+  };
+}
+
+// Declarations whose typeIdentifier child is the name of the declared type
+const TYPE_DECLARATIONS = new Set(['normalClassDeclaration', 'enumDeclaration', 'recordDeclaration', 'normalInterfaceDeclaration', 'annotationInterfaceDeclaration']);
+
+/**
+ * Collects the name and position of every class, interface, enum and record declaration, nested ones included,
+ * so that navigation can go to a declaration without parsing its file again.
+ */
+export function createClassLocationCollector(): CstCollector<Array<{ className: string } & SourceLocation>> {
+  const locations: Array<{ className: string } & SourceLocation> = [];
+  return {
+    rule: {
+      enter: {
+        typeIdentifier: (node, context) => {
+          const parent = context.ancestors[context.ancestors.length - 1];
+          const identifier = node.children && node.children.Identifier && node.children.Identifier[0];
+          if (parent && TYPE_DECLARATIONS.has(parent.name) && identifier && typeof identifier.startLine === 'number') {
+            locations.push({ className: identifier.image, line: identifier.startLine, column: identifier.startColumn });
+          }
+        },
+      },
+    },
+    finish: () => locations,
+  };
+}
+
+/**
+ * Returns the names of the top-level (normal) class declarations in a CST, in declaration order.
+ * @param cst The CST root
+ */
+export function getTopLevelClassNames(cst: any): string[] {
+  const classNames: string[] = [];
+  if (cst && cst.children && cst.children.ordinaryCompilationUnit && cst.children.ordinaryCompilationUnit[0].children.typeDeclaration) {
+    for (const typeDecl of cst.children.ordinaryCompilationUnit[0].children.typeDeclaration) {
+      const classDecl = typeDecl.children && typeDecl.children.classDeclaration && typeDecl.children.classDeclaration[0];
+      const normalClass = classDecl && classDecl.children.normalClassDeclaration && classDecl.children.normalClassDeclaration[0];
+      if (normalClass && normalClass.children.typeIdentifier && normalClass.children.typeIdentifier[0].children.Identifier) {
+        classNames.push(normalClass.children.typeIdentifier[0].children.Identifier[0].image);
+      }
+    }
+  }
+  return classNames;
+}
+
+/**
+ * Hash index of the project's component class names for 'references' detection.
+ * Built once per project; each file is then matched with a single pass over its distinct identifiers,
+ * so the cost per file does not grow with the number of components.
+ */
+export class ComponentReferenceIndex {
+  // Component type by class name; the first component listed with a class name wins
+  private readonly componentTypes = new Map<string, string>();
+
+  /**
+   * @param allComponents All components known in the project
+   */
+  constructor(allComponents: Array<{ className: string; componentType: string }>) {
+    for (const comp of allComponents) {
+      if (!this.componentTypes.has(comp.className)) {
+        this.componentTypes.set(comp.className, comp.componentType);
+      }
+    }
+  }
+
+  get size(): number {
+    return this.componentTypes.size;
+  }
+
+  /**
+   * Finds 'references' connections from the classes of one file to known components.
+   * A class references a component when the component's class name appears anywhere in the file.
+   * View classes are skipped, and function tool classes declared in the file are added to the known components.
+   * @param classNames Top-level class names declared in the file
+   * @param identifiers Distinct identifier images found in the file (see createIdentifierCollector)
+   * @param toolNodes Tool nodes detected in the file
+   * @param log Optional logger
+   * @returns Array of 'references' connections
+   */
+  findReferenceConnections(
+    classNames: string[],
+    identifiers: string[],
+    toolNodes: Array<{ name: string }>,
+    log: Logger = nullLogger
+  ): Array<{ source: string; target: string; label: string; details: string[] }> {
+    const connections: Array<{ source: string; target: string; label: string; details: string[] }> = [];
+
+    // Function tool classes detected in this file are known components for this file only
+    let localToolClassNames: Set<string> | undefined;
+    for (const tool of toolNodes) {
+      const toolClassName = tool.name.split('.')[0]; // Extract class name from tool name
+      if (!this.componentTypes.has(toolClassName)) {
+        if (!localToolClassNames) {
+          localToolClassNames = new Set<string>();
+        }
+        localToolClassNames.add(toolClassName);
+      }
+    }
+
+    const componentCount = this.componentTypes.size + (localToolClassNames ? localToolClassNames.size : 0);
+    log.trace(() => `Total components for reference detection: ${componentCount}`);
+    if (componentCount === 0) {
+      return connections;
+    }
+
+    // One pass over the file's identifiers finds every component it mentions
+    const referencedClassNames: string[] = [];
+    for (const identifier of identifiers) {
+      if (this.componentTypes.has(identifier) || (localToolClassNames && localToolClassNames.has(identifier))) {
+        referencedClassNames.push(identifier);
+      }
+    }
+
+    for (const className of classNames) {
+      // Check if the current class is a view component - if so, skip reference detection
+      const componentType = this.componentTypes.get(className);
+      if (componentType && componentType.toLowerCase() === 'view') {
+        log.trace(() => `[Component Reference Detection] Skipping reference detection for view component: ${className}`);
+        continue;
+      }
+
+      let referenceCount = 0;
+      for (const referencedClassName of referencedClassNames) {
+        if (referencedClassName !== className) {
+          log.trace(() => `[Component Reference Detection] Found reference to component: ${referencedClassName} in ${className}`);
+          connections.push({
+            source: className,
+            target: referencedClassName,
+            label: 'references',
+            details: [],
+          });
+          referenceCount++;
+        }
+      }
+      log.trace(() => `[Component Reference Detection] Found ${referenceCount} references from ${className} to other components`);
+    }
+
+    return connections;
+  }
+}
+
+/**
+ * Finds 'references' connections from the classes of one file to known components (see ComponentReferenceIndex).
+ * When matching many files against the same components, build one ComponentReferenceIndex and reuse it instead.
+ * @param classNames Top-level class names declared in the file
+ * @param identifiers Distinct identifier images found in the file (see createIdentifierCollector)
+ * @param toolNodes Tool nodes detected in the file
+ * @param allComponents All components known in the project
+ * @param log Optional logger
+ * @returns Array of 'references' connections
+ */
+export function findComponentReferenceConnections(
+  classNames: string[],
+  identifiers: string[],
+  toolNodes: Array<{ name: string }>,
+  allComponents: Array<{ className: string; componentType: string }>,
+  log: Logger = nullLogger
+): Array<{ source: string; target: string; label: string; details: string[] }> {
+  return new ComponentReferenceIndex(allComponents).findReferenceConnections(classNames, identifiers, toolNodes, log);
+}
+
 /**
  * Extracts Akka component connections from a Java CST.
  * Looks for injected ComponentClient variable name and uses it to find for*().method().invoke() chains.
@@ -35,6 +220,8 @@ export function extractSourceAtLocation(sourceText: string, location: { startOff
  * @param filename The filename (for debugging)
  * @param sourceText The source text (for extracting method parameters)
  * @param outputChannel Optional VS Code output channel for logging
+ * @param allComponents All components known in the project, used for reference detection
+ * @param detectReferences Set to false to skip reference detection (see findComponentReferenceConnections)
  * @returns Array of connections: { sourceClass, targetType, targetClass, methodName, location }
  */
 export function extractComponentConnectionsFromCST(
@@ -42,65 +229,115 @@ export function extractComponentConnectionsFromCST(
   filename: string,
   sourceText?: string,
   outputChannel?: vscode.OutputChannel,
-  allComponents?: Array<{ className: string; componentType: string }>
+  allComponents?: Array<{ className: string; componentType: string }>,
+  detectReferences: boolean = true
 ) {
   const log = createPrefixedLogger(outputChannel, '[CSTUtils]');
 
-  log('[DEBUG] Top of extractComponentConnectionsFromCST');
-  log('========================================');
-  log(`STARTING CST-BASED EDGE DETECTION FOR: ${filename}`);
-  log('========================================');
-  log(`All components available for reference detection: ${allComponents ? allComponents.length : 0}`);
+  log.trace('[DEBUG] Top of extractComponentConnectionsFromCST');
+  log.trace('========================================');
+  log.trace(() => `STARTING CST-BASED EDGE DETECTION FOR: ${filename}`);
+  log.trace('========================================');
+  log.trace(() => `All components available for reference detection: ${allComponents ? allComponents.length : 0}`);
   if (allComponents && allComponents.length > 0) {
     allComponents.forEach((comp, index) => {
-      log(`  Component ${index + 1}: ${comp.className} (${comp.componentType})`);
+      log.trace(() => `  Component ${index + 1}: ${comp.className} (${comp.componentType})`);
+    });
+  }
+
+  // One traversal feeds both the connection rules and, when needed, the identifier index for references
+  const connectionCollector = createComponentConnectionCollector(filename, sourceText, outputChannel);
+  const identifierCollector = createIdentifierCollector();
+  visitCst(cst, detectReferences ? [connectionCollector.rule, identifierCollector.rule] : [connectionCollector.rule]);
+  const { connections, topicNodes, serviceStreamNodes, toolNodes } = connectionCollector.finish();
+
+  // Stage 5: Component Reference Detection (after all components are detected)
+  log.trace('========================================');
+  log.trace('STAGE 5: COMPONENT REFERENCE DETECTION');
+  log.trace('========================================');
+
+  if (detectReferences) {
+    const referenceConnections = findComponentReferenceConnections(getTopLevelClassNames(cst), identifierCollector.finish(), toolNodes, allComponents || [], log);
+    connections.push(...referenceConnections);
+  } else {
+    log.trace('Skipping reference detection');
+  }
+
+  log.trace('--- Stage 5 Complete ---');
+
+  // Final results summary
+  log.debug('========================================');
+  log.debug(() => `CST-BASED EDGE DETECTION COMPLETE FOR: ${filename}`);
+  log.debug('========================================');
+  log.debug('Final Results:');
+  log.debug(() => `  - Connections found: ${connections.length}`);
+  log.debug(() => `  - Topic nodes found: ${topicNodes.length}`);
+  log.debug(() => `  - Service stream nodes found: ${serviceStreamNodes.length}`);
+  log.debug(() => `  - Tool nodes found: ${toolNodes.length}`);
+
+  if (connections.length > 0) {
+    log.debug('  - Connection details:');
+    connections.forEach((conn, index) => {
+      log.debug(() => `    ${index + 1}. ${conn.source} -> ${conn.target} (${conn.label})`);
     });
   }
 
+  return { connections, topicNodes, serviceStreamNodes, toolNodes };
+}
+
+/**
+ * Visitor rules for extractComponentConnectionsFromCST, without reference detection.
+ * Handles, in a single traversal: ComponentClient call chains and tool invocations in the methods of top-level classes,
+ * @FunctionTool methods and tool fields of top-level classes, and @Consume / @Produce annotations.
+ * @param filename The filename (for debugging)
+ * @param sourceText The source text (for extracting method parameters)
+ * @param outputChannel Optional VS Code output channel for logging
+ */
+export function createComponentConnectionCollector(
+  filename: string,
+  sourceText?: string,
+  outputChannel?: vscode.OutputChannel
+): CstCollector<{
+  connections: Array<{ source: string; target: string; label: string; details: string[]; location?: SourceLocation }>;
+  topicNodes: DetectedNodeInfo[];
+  serviceStreamNodes: DetectedNodeInfo[];
+  toolNodes: DetectedNodeInfo[];
+}> {
+  const log = createPrefixedLogger(outputChannel, '[CSTUtils]');
+
   const connections: Array<{
     source: string;
     target: string;
     label: string;
     details: string[];
+    location?: SourceLocation;
   }> = [];
-  const topicNodes: Array<{ id: string; name: string; type: string; uri: vscode.Uri }> = [];
-  const serviceStreamNodes: Array<{ id: string; name: string; type: string; uri: vscode.Uri }> = [];
-  const toolNodes: Array<{ id: string; name: string; type: string; uri: vscode.Uri }> = [];
-
-  // Helper: get class name
-  function getClassName(classDecl: any): string | undefined {
-    if (
-      classDecl &&
-      classDecl.children &&
-      classDecl.children.classDeclaration &&
-      classDecl.children.classDeclaration[0].children.normalClassDeclaration &&
-      classDecl.children.classDeclaration[0].children.normalClassDeclaration[0].children.typeIdentifier &&
-      classDecl.children.classDeclaration[0].children.normalClassDeclaration[0].children.typeIdentifier[0].children.Identifier
-    ) {
-      return classDecl.children.classDeclaration[0].children.normalClassDeclaration[0].children.typeIdentifier[0].children.Identifier[0].image;
-    }
-    return undefined;
-  }
+  const topicNodes: DetectedNodeInfo[] = [];
+  const serviceStreamNodes: DetectedNodeInfo[] = [];
+  const toolNodes: DetectedNodeInfo[] = [];
+
+  const annotations: Array<{ annotation: any; className: string }> = [];
+  let clientFieldNames: string[] = [];
 
   // Helper: find injected ComponentClient field names in the class
   function findComponentClientFieldNames(classBodyDecls: any[]): string[] {
     const fieldNames: string[] = [];
-    log('Finding ComponentClient field names in class body declarations...');
+    log.trace('Finding ComponentClient field names in class body declarations...');
 
     // 1. Find constructor(s)
     for (const bodyDecl of classBodyDecls) {
       if (bodyDecl.children && bodyDecl.children.constructorDeclaration) {
         const ctor = bodyDecl.children.constructorDeclaration[0];
-        log('Found constructor, checking parameters...');
+        log.trace('Found constructor, checking parameters...');
 
         // Find parameters
         if (ctor.children.constructorDeclarator && ctor.children.constructorDeclarator[0].children.formalParameterList) {
           const params = ctor.children.constructorDeclarator[0].children.formalParameterList[0];
           if (params.children.formalParameter) {
-            log(`Found ${params.children.formalParameter.length} constructor parameters`);
+            log.trace(() => `Found ${params.children.formalParameter.length} constructor parameters`);
 
             for (const param of params.children.formalParameter) {
-              log(`Checking parameter: ${JSON.stringify(Object.keys(param.children || {}))}`);
+              log.trace(() => `Checking parameter: ${JSON.stringify(Object.keys(param.children || {}))}`);
 
               // Look for type ComponentClient - simplified path checking
               let isComponentClient = false;
@@ -113,7 +350,7 @@ export function extractComponentConnectionsFromCST(
                 // Get parameter name
                 if (varParam.children && varParam.children.variableDeclaratorId && varParam.children.variableDeclaratorId[0].children.Identifier) {
                   paramName = varParam.children.variableDeclaratorId[0].children.Identifier[0].image;
-                  log(`Parameter name: ${paramName}`);
+                  log.trace(() => `Parameter name: ${paramName}`);
                 }
 
                 // Check type - simplified path
@@ -155,17 +392,17 @@ export function extractComponentConnectionsFromCST(
                     }
                   }
 
-                  log(`Parameter type: ${typeName}`);
+                  log.trace(() => `Parameter type: ${typeName}`);
                   isComponentClient = typeName.includes('ComponentClient');
                 }
               }
 
               if (isComponentClient && paramName) {
-                log(`Found ComponentClient parameter: ${paramName}`);
+                log.trace(() => `Found ComponentClient parameter: ${paramName}`);
 
                 // Now, look for assignments in the constructor body: this.FIELD = paramName;
                 if (ctor.children.constructorBody && ctor.children.constructorBody[0].children.blockStatements) {
-                  log('Checking constructor body for field assignments...');
+                  log.trace('Checking constructor body for field assignments...');
 
                   for (const blockStmt of ctor.children.constructorBody[0].children.blockStatements) {
                     if (blockStmt.children && blockStmt.children.blockStatement) {
@@ -177,7 +414,7 @@ export function extractComponentConnectionsFromCST(
                           // Extract assignment using source text if available
                           if (statement.location && sourceText) {
                             const stmtText = extractSourceAtLocation(sourceText, statement.location);
-                            log(`Statement text: "${stmtText}"`);
+                            log.trace(() => `Statement text: "${stmtText}"`);
 
                             // Look for pattern: this.fieldName = paramName;
                             const assignmentPattern = new RegExp(`this\\.(\\w+)\\s*=\\s*${paramName}\\s*;?`);
@@ -186,7 +423,7 @@ export function extractComponentConnectionsFromCST(
                             if (match) {
                               const fieldName = match[1];
                               fieldNames.push(fieldName);
-                              log(`Found ComponentClient field assignment: ${fieldName} = ${paramName}`);
+                              log.trace(() => `Found ComponentClient field assignment: ${fieldName} = ${paramName}`);
                             }
                           }
                         }
@@ -203,7 +440,7 @@ export function extractComponentConnectionsFromCST(
 
     // Fallback: if no field names found, try to find any field that might be a ComponentClient
     if (fieldNames.length === 0) {
-      log('No ComponentClient field names found with constructor detection, trying fallback...');
+      log.trace('No ComponentClient field names found with constructor detection, trying fallback...');
       for (const bodyDecl of classBodyDecls) {
         if (bodyDecl.children && bodyDecl.children.fieldDeclaration) {
           const fieldDecl = bodyDecl.children.fieldDeclaration[0];
@@ -228,7 +465,7 @@ export function extractComponentConnectionsFromCST(
                             if (varId.children && varId.children.Identifier) {
                               const fieldName = varId.children.Identifier[0].image;
                               fieldNames.push(fieldName);
-                              log(`Found ComponentClient field with fallback: ${fieldName}`);
+                              log.trace(() => `Found ComponentClient field with fallback: ${fieldName}`);
                             }
                           }
                         }
@@ -244,411 +481,300 @@ export function extractComponentConnectionsFromCST(
     }
 
     if (fieldNames.length > 0) {
-      log(`ComponentClient field names found: ${fieldNames.join(', ')}`);
+      log.trace(() => `ComponentClient field names found: ${fieldNames.join(', ')}`);
     } else {
-      log('No ComponentClient field names found');
+      log.trace('No ComponentClient field names found');
     }
     return fieldNames;
   }
 
-  // Helper: find function tool invocations in method bodies
-  function findFunctionToolInvocations(blockStmt: any, className: string) {
-    if (!blockStmt || !blockStmt.children) return;
-
-    function searchForToolInvocations(node: any) {
-      if (!node || typeof node !== 'object') return;
-
-      if (node.children) {
-        for (const [key, children] of Object.entries(node.children)) {
-          if (Array.isArray(children)) {
-            for (const child of children) {
-              if (child && typeof child === 'object') {
-                // Look for primary nodes that could be the start of a tool invocation chain
-                if (key === 'primary') {
-                  const primary = child;
-                  if (primary.location && sourceText) {
-                    const chainText = extractSourceAtLocation(sourceText, primary.location);
-
-                    // Look for .tools() and .mcpTools() invocations
-                    const toolsMatch = chainText.match(/\.tools\(([^)]+)\)/);
-                    const mcpToolsMatch = chainText.match(/\.mcpTools\(([^)]+)\)/);
-
-                    if (toolsMatch) {
-                      const toolArgs = toolsMatch[1].split(',').map((arg) => arg.trim());
-                      for (const arg of toolArgs) {
-                        // Handle different tool argument patterns
-                        const toolName = arg.replace(/\.class$/, '');
-
-                        // Handle List.of() patterns with multiple tool instances
-                        if (toolName.includes('List.of(')) {
-                          const listMatch = toolName.match(/List\.of\(([^)]+)\)/);
-                          if (listMatch) {
-                            const listArgs = listMatch[1].split(',').map((listArg) => listArg.trim());
-                            log(`[Tool Detection] Found List.of() with ${listArgs.length} arguments: ${listArgs.join(', ')}`);
-                            for (const listArg of listArgs) {
-                              // Extract tool class name from constructor calls like "new DrawRectangleTool(...)"
-                              const constructorMatch = listArg.match(/new\s+(\w+)\s*\(/);
-                              if (constructorMatch) {
-                                const toolClassName = constructorMatch[1];
-                                log(`[Tool Detection] Found tool constructor: ${toolClassName}`);
-                                const toolId = `tool:${toolClassName}`;
-                                if (!toolNodes.find((t) => t.id === toolId)) {
-                                  toolNodes.push({ id: toolId, name: toolClassName, type: 'FunctionTool', uri: vscode.Uri.file(filename) });
-                                }
-                                connections.push({ source: className, target: toolId, label: 'uses tool', details: [] });
-                                log(`[Tool Detection] Found tool in List.of(): ${toolClassName}`);
-                              } else {
-                                // Handle case where tool is referenced as a class name without constructor
-                                const classMatch = listArg.match(/^(\w+)$/);
-                                if (classMatch) {
-                                  const toolClassName = classMatch[1];
-                                  log(`[Tool Detection] Found tool class reference: ${toolClassName}`);
-                                  const toolId = `tool:${toolClassName}`;
-                                  if (!toolNodes.find((t) => t.id === toolId)) {
-                                    toolNodes.push({ id: toolId, name: toolClassName, type: 'FunctionTool', uri: vscode.Uri.file(filename) });
-                                  }
-                                  connections.push({ source: className, target: toolId, label: 'uses tool', details: [] });
-                                  log(`[Tool Detection] Found tool class reference: ${toolClassName}`);
-                                }
-                              }
-                            }
-                          }
-                        } else {
-                          // Handle simple variable references
-                          const toolId = `tool:${toolName}`;
-                          if (!toolNodes.find((t) => t.id === toolId)) {
-                            toolNodes.push({ id: toolId, name: toolName, type: 'FunctionTool', uri: vscode.Uri.file(filename) });
-                          }
-                          connections.push({ source: className, target: toolId, label: 'uses tool', details: [] });
-                          log(`[Tool Detection] Found tool reference: ${toolName}`);
-                        }
-                      }
-                    }
-
-                    if (mcpToolsMatch) {
-                      const mcpToolArgs = mcpToolsMatch[1].split(',').map((arg) => arg.trim());
-                      for (const arg of mcpToolArgs) {
-                        const serviceNameMatch = arg.match(/fromService\("([^"]+)"\)/);
-                        if (serviceNameMatch) {
-                          const serviceName = serviceNameMatch[1];
-                          const toolId = `mcp-tool:${serviceName}`;
-                          if (!toolNodes.find((t) => t.id === toolId)) {
-                            toolNodes.push({ id: toolId, name: serviceName, type: 'MCPTool', uri: vscode.Uri.file(filename) });
-                          }
-                          connections.push({ source: className, target: toolId, label: 'uses MCP tool', details: [] });
-                        }
-                      }
+  // Helper: find function tool invocations in a primary expression of a method body
+  function findFunctionToolInvocations(primary: any, className: string) {
+    if (primary.location && sourceText) {
+      const chainText = extractSourceAtLocation(sourceText, primary.location);
+
+      // Look for .tools() and .mcpTools() invocations
+      const toolsMatch = chainText.match(/\.tools\(([^)]+)\)/);
+      const mcpToolsMatch = chainText.match(/\.mcpTools\(([^)]+)\)/);
+
+      if (toolsMatch) {
+        const toolArgs = toolsMatch[1].split(',').map((arg) => arg.trim());
+        for (const arg of toolArgs) {
+          // Handle different tool argument patterns
+          const toolName = arg.replace(/\.class$/, '');
+
+          // Handle List.of() patterns with multiple tool instances
+          if (toolName.includes('List.of(')) {
+            const listMatch = toolName.match(/List\.of\(([^)]+)\)/);
+            if (listMatch) {
+              const listArgs = listMatch[1].split(',').map((listArg) => listArg.trim());
+              log.trace(() => `[Tool Detection] Found List.of() with ${listArgs.length} arguments: ${listArgs.join(', ')}`);
+              for (const listArg of listArgs) {
+                // Extract tool class name from constructor calls like "new DrawRectangleTool(...)"
+                const constructorMatch = listArg.match(/new\s+(\w+)\s*\(/);
+                if (constructorMatch) {
+                  const toolClassName = constructorMatch[1];
+                  log.trace(() => `[Tool Detection] Found tool constructor: ${toolClassName}`);
+                  const toolId = `tool:${toolClassName}`;
+                  if (!toolNodes.find((t) => t.id === toolId)) {
+                    toolNodes.push({ id: toolId, name: toolClassName, type: 'FunctionTool' });
+                  }
+                  connections.push({ source: className, target: toolId, label: 'uses tool', details: [] });
+                  log.trace(() => `[Tool Detection] Found tool in List.of(): ${toolClassName}`);
+                } else {
+                  // Handle case where tool is referenced as a class name without constructor
+                  const classMatch = listArg.match(/^(\w+)$/);
+                  if (classMatch) {
+                    const toolClassName = classMatch[1];
+                    log.trace(() => `[Tool Detection] Found tool class reference: ${toolClassName}`);
+                    const toolId = `tool:${toolClassName}`;
+                    if (!toolNodes.find((t) => t.id === toolId)) {
+                      toolNodes.push({ id: toolId, name: toolClassName, type: 'FunctionTool' });
                     }
+                    connections.push({ source: className, target: toolId, label: 'uses tool', details: [] });
+                    log.trace(() => `[Tool Detection] Found tool class reference: ${toolClassName}`);
                   }
                 }
-                // Recurse deeper
-                searchForToolInvocations(child);
               }
             }
-          } else if (children && typeof children === 'object') {
-            searchForToolInvocations(children);
+          } else {
+            // Handle simple variable references
+            const toolId = `tool:${toolName}`;
+            if (!toolNodes.find((t) => t.id === toolId)) {
+              toolNodes.push({ id: toolId, name: toolName, type: 'FunctionTool' });
+            }
+            connections.push({ source: className, target: toolId, label: 'uses tool', details: [] });
+            log.trace(() => `[Tool Detection] Found tool reference: ${toolName}`);
           }
         }
       }
-    }
 
-    searchForToolInvocations(blockStmt);
+      if (mcpToolsMatch) {
+        const mcpToolArgs = mcpToolsMatch[1].split(',').map((arg) => arg.trim());
+        for (const arg of mcpToolArgs) {
+          const serviceNameMatch = arg.match(/fromService\("([^"]+)"\)/);
+          if (serviceNameMatch) {
+            const serviceName = serviceNameMatch[1];
+            const toolId = `mcp-tool:${serviceName}`;
+            if (!toolNodes.find((t) => t.id === toolId)) {
+              toolNodes.push({ id: toolId, name: serviceName, type: 'MCPTool' });
+            }
+            connections.push({ source: className, target: toolId, label: 'uses MCP tool', details: [] });
+          }
+        }
+      }
+    }
   }
 
-  // Helper: find componentClient invocation chains in method bodies
-  function findComponentClientChains(blockStmt: any, className: string, clientFieldNames: string[]) {
-    if (!blockStmt || !blockStmt.children) return;
-
-    // Recursively search for primary nodes that start with a client field and walk their primarySuffix chain
-    function searchForClientChains(node: any, path: string = '') {
-      if (!node || typeof node !== 'object') return;
-
-      if (node.children) {
-        for (const [key, children] of Object.entries(node.children)) {
-          if (Array.isArray(children)) {
-            for (let i = 0; i < children.length; i++) {
-              const child = children[i];
-              if (child && typeof child === 'object') {
-                // Look for primary nodes
-                if (key === 'primary') {
-                  const primary = child;
-                  if (primary.children && primary.children.primaryPrefix) {
-                    const prefix = primary.children.primaryPrefix[0];
-                    let varName = undefined;
-                    if (prefix.children && prefix.children.Identifier) {
-                      varName = prefix.children.Identifier[0].image;
-                    } else if (prefix.children && prefix.children.fqnOrRefType) {
-                      // Check for fqnOrRefType path
-                      const fqnRef = prefix.children.fqnOrRefType[0];
-                      if (fqnRef.children && fqnRef.children.fqnOrRefTypePartFirst) {
-                        const partFirst = fqnRef.children.fqnOrRefTypePartFirst[0];
-                        if (partFirst.children && partFirst.children.fqnOrRefTypePartCommon) {
-                          const partCommon = partFirst.children.fqnOrRefTypePartCommon[0];
-                          if (partCommon.children && partCommon.children.Identifier) {
-                            varName = partCommon.children.Identifier[0].image;
-                          }
-                        }
-                      }
-                    }
-                    if (varName && clientFieldNames.includes(varName)) {
-                      log(`Found component client field: ${varName}`);
-                      // Walk the primarySuffix chain
-                      const suffixes = primary.children.primarySuffix || [];
-                      const chain = [];
-
-                      // Extract the first method name from primaryPrefix.fqnOrRefType.fqnOrRefTypePartRest
-                      if (prefix.children && prefix.children.fqnOrRefType) {
-                        const fqnRef = prefix.children.fqnOrRefType[0];
-                        if (fqnRef.children && fqnRef.children.fqnOrRefTypePartRest) {
-                          const partRest = fqnRef.children.fqnOrRefTypePartRest[0];
-                          if (partRest.children && partRest.children.fqnOrRefTypePartCommon) {
-                            const partCommon = partRest.children.fqnOrRefTypePartCommon[0];
-                            if (partCommon.children && partCommon.children.Identifier) {
-                              const firstMethod = partCommon.children.Identifier[0].image;
-                              chain.push(firstMethod);
-                              log(`Extracted first method from FQN: ${firstMethod}`);
-                            }
-                          }
-                        }
-                      }
-
-                      // If no method was extracted from FQN, try to extract from the first suffix
-                      if (chain.length === 0 && suffixes.length > 0) {
-                        const firstSuffix = suffixes[0];
-                        if (firstSuffix.children && firstSuffix.children.Identifier) {
-                          const firstMethod = firstSuffix.children.Identifier[0].image;
-                          chain.push(firstMethod);
-                          log(`Extracted first method from first suffix: ${firstMethod}`);
-                        }
-                      }
-
-                      // Extract subsequent method names from primarySuffix
-                      for (let i = 0; i < suffixes.length; i++) {
-                        const suffix = suffixes[i];
-                        if (suffix.children && suffix.children.Dot && suffix.children.Identifier) {
-                          // Extract method name from Dot.Identifier
-                          const methodName = suffix.children.Identifier[0].image;
-                          chain.push(methodName);
-                          log(`Extracted method from suffix ${i}: ${methodName}`);
-                        }
-                      }
+  // Helper: find a componentClient invocation chain starting at a primary expression of a method body
+  function findComponentClientChain(primary: any, className: string) {
+    if (primary.children && primary.children.primaryPrefix) {
+      const prefix = primary.children.primaryPrefix[0];
+      let varName: string | undefined = undefined;
+      if (prefix.children && prefix.children.Identifier) {
+        varName = prefix.children.Identifier[0].image;
+      } else if (prefix.children && prefix.children.fqnOrRefType) {
+        // Check for fqnOrRefType path
+        const fqnRef = prefix.children.fqnOrRefType[0];
+        if (fqnRef.children && fqnRef.children.fqnOrRefTypePartFirst) {
+          const partFirst = fqnRef.children.fqnOrRefTypePartFirst[0];
+          if (partFirst.children && partFirst.children.fqnOrRefTypePartCommon) {
+            const partCommon = partFirst.children.fqnOrRefTypePartCommon[0];
+            if (partCommon.children && partCommon.children.Identifier) {
+              varName = partCommon.children.Identifier[0].image;
+            }
+          }
+        }
+      }
+      if (varName && clientFieldNames.includes(varName)) {
+        log.trace(() => `Found component client field: ${varName}`);
+        // Walk the primarySuffix chain
+        const suffixes = primary.children.primarySuffix || [];
+        const chain: string[] = [];
+
+        // Extract the first method name from primaryPrefix.fqnOrRefType.fqnOrRefTypePartRest
+        if (prefix.children && prefix.children.fqnOrRefType) {
+          const fqnRef = prefix.children.fqnOrRefType[0];
+          if (fqnRef.children && fqnRef.children.fqnOrRefTypePartRest) {
+            const partRest = fqnRef.children.fqnOrRefTypePartRest[0];
+            if (partRest.children && partRest.children.fqnOrRefTypePartCommon) {
+              const partCommon = partRest.children.fqnOrRefTypePartCommon[0];
+              if (partCommon.children && partCommon.children.Identifier) {
+                const firstMethod = partCommon.children.Identifier[0].image;
+                chain.push(firstMethod);
+                log.trace(() => `Extracted first method from FQN: ${firstMethod}`);
+              }
+            }
+          }
+        }
 
-                      // Look for for* -> [any methods] -> method -> invoke pattern
-                      log(`Checking chain: ${chain.join(' -> ')}`);
-
-                      // Find the pattern: starts with for*, contains method, ends with invoke
-                      const hasForMethod = chain.some((method) => method.startsWith('for') || method === 'forView' || method === 'forEventSourcedEntity');
-                      const hasMethodCall = chain.includes('method');
-                      const hasInvokeCall = chain.some((method) => method === 'invoke' || method === 'invokeAsync' || method === 'deferred');
-
-                      if (hasForMethod && hasMethodCall && hasInvokeCall) {
-                        log(`Found valid chain pattern: ${chain.join(' -> ')}`);
-                        // Extract target component type and method name from the method reference argument
-                        let targetComponentType = '';
-                        let calledMethodName = '';
-
-                        // Find the method invocation that contains the method parameter
-                        // The method parameter is typically in the 'method()' call, not the 'invoke()' call
-                        let methodInv = null;
-                        log(`Looking for method invocation in ${suffixes.length} suffixes...`);
-
-                        // First, find the 'method' suffix that contains the method parameter
-                        for (let i = 0; i < suffixes.length; i++) {
-                          const suffix = suffixes[i];
-                          log(`Checking suffix ${i}: ${JSON.stringify(Object.keys(suffix.children || {}))}`);
-                          if (suffix.children && suffix.children.methodInvocationSuffix) {
-                            const methodSuffix = suffix.children.methodInvocationSuffix[0];
-                            // Check if this is the 'method' call by looking at the previous identifier
-                            if (i > 0 && suffixes[i - 1].children && suffixes[i - 1].children.Identifier) {
-                              const prevMethod = suffixes[i - 1].children.Identifier[0].image;
-                              if (prevMethod === 'method') {
-                                methodInv = methodSuffix;
-                                log(`Found method invocation in suffix ${i} (method call)`);
-                                break;
-                              }
-                            }
-                          }
-                        }
+        // If no method was extracted from FQN, try to extract from the first suffix
+        if (chain.length === 0 && suffixes.length > 0) {
+          const firstSuffix = suffixes[0];
+          if (firstSuffix.children && firstSuffix.children.Identifier) {
+            const firstMethod = firstSuffix.children.Identifier[0].image;
+            chain.push(firstMethod);
+            log.trace(() => `Extracted first method from first suffix: ${firstMethod}`);
+          }
+        }
 
-                        // If we didn't find the method call, fall back to the last method invocation (invoke)
-                        if (!methodInv) {
-                          for (let i = 0; i < suffixes.length; i++) {
-                            const suffix = suffixes[i];
-                            if (suffix.children && suffix.children.methodInvocationSuffix) {
-                              methodInv = suffix.children.methodInvocationSuffix[0];
-                              log(`Found method invocation in suffix ${i} (fallback)`);
-                              break;
-                            }
-                          }
-                        }
+        // Extract subsequent method names from primarySuffix
+        for (let i = 0; i < suffixes.length; i++) {
+          const suffix = suffixes[i];
+          if (suffix.children && suffix.children.Dot && suffix.children.Identifier) {
+            // Extract method name from Dot.Identifier
+            const methodName = suffix.children.Identifier[0].image;
+            chain.push(methodName);
+            log.trace(() => `Extracted method from suffix ${i}: ${methodName}`);
+          }
+        }
 
-                        if (methodInv) {
-                          log('Found method invocation, checking for argument list...');
-                          log(`Method invocation children: ${JSON.stringify(Object.keys(methodInv.children || {}))}`);
-
-                          if (methodInv.children && methodInv.children.argumentList) {
-                            const argList = methodInv.children.argumentList[0];
-                            log('Found argument list, checking for expressions...');
-                            log(`Argument list children: ${JSON.stringify(Object.keys(argList.children || {}))}`);
-
-                            if (argList.children && argList.children.expression) {
-                              const expr = argList.children.expression[0];
-                              log('Found expression in argument list');
-                              log(`Expression children: ${JSON.stringify(Object.keys(expr.children || {}))}`);
-
-                              // Use the location offsets to extract the method parameter directly from source text
-                              if (methodInv.location && methodInv.location.startOffset !== undefined && methodInv.location.endOffset !== undefined) {
-                                log(`Method invocation location: ${methodInv.location.startOffset} to ${methodInv.location.endOffset}`);
-
-                                // Extract the method parameter text directly from source
-                                if (sourceText) {
-                                  const methodParamText = extractSourceAtLocation(sourceText, methodInv.location);
-                                  log(`Method parameter text: "${methodParamText}"`);
-
-                                  // Remove parentheses from the extracted text
-                                  const cleanParamText = methodParamText.replace(/^\(|\)$/g, '');
-                                  log(`Clean parameter text: "${cleanParamText}"`);
-
-                                  // Parse the ClassName::methodName format
-                                  const parts = cleanParamText.split('::');
-                                  if (parts.length === 2) {
-                                    targetComponentType = parts[0];
-                                    calledMethodName = parts[1];
-                                    log(`Extracted from text - Class: ${targetComponentType}, Method: ${calledMethodName}`);
-                                  } else {
-                                    log(`Could not parse method parameter: "${cleanParamText}"`);
-                                    log(`Parts after split: ${JSON.stringify(parts)}`);
-                                  }
-                                } else {
-                                  log('No source text provided, cannot extract method name');
-                                }
-                              }
-                            } else {
-                              log('No expression found in argument list');
-                              // Try to find the method reference in a different way
-                              if (argList.children) {
-                                log(`Available children in argument list: ${JSON.stringify(Object.keys(argList.children))}`);
-                                // Look for methodReference or other possible structures
-                                for (const [childKey, childValue] of Object.entries(argList.children)) {
-                                  log(`Checking argument list child: ${childKey}`);
-                                  if (Array.isArray(childValue) && childValue.length > 0) {
-                                    const child = childValue[0];
-                                    log(`Child ${childKey} has location: ${child.location ? 'yes' : 'no'}`);
-                                    if (child.location && sourceText) {
-                                      const childText = extractSourceAtLocation(sourceText, child.location);
-                                      log(`Child ${childKey} text: "${childText}"`);
-
-                                      // Parse the ClassName::methodName format
-                                      const parts = childText.split('::');
-                                      if (parts.length === 2) {
-                                        targetComponentType = parts[0];
-                                        calledMethodName = parts[1];
-                                        log(`Extracted from child ${childKey} - Class: ${targetComponentType}, Method: ${calledMethodName}`);
-                                        break;
-                                      }
-                                    }
-                                  }
-                                }
-                              }
-                            }
-                          }
-                        } else {
-                          log('No method invocation found in suffixes');
-                        }
+        // Look for for* -> [any methods] -> method -> invoke pattern
+        log.trace(() => `Checking chain: ${chain.join(' -> ')}`);
+
+        // Find the pattern: starts with for*, contains method, ends with invoke
+        const hasForMethod = chain.some((method) => method.startsWith('for') || method === 'forView' || method === 'forEventSourcedEntity');
+        const hasMethodCall = chain.includes('method');
+        const hasInvokeCall = chain.some((method) => method === 'invoke' || method === 'invokeAsync' || method === 'deferred');
+
+        if (hasForMethod && hasMethodCall && hasInvokeCall) {
+          log.trace(() => `Found valid chain pattern: ${chain.join(' -> ')}`);
+          // Extract target component type and method name from the method reference argument
+          let targetComponentType = '';
+          let calledMethodName = '';
+
+          // Find the method invocation that contains the method parameter
+          // The method parameter is typically in the 'method()' call, not the 'invoke()' call
+          let methodInv: any = null;
+          log.trace(() => `Looking for method invocation in ${suffixes.length} suffixes...`);
+
+          // First, find the 'method' suffix that contains the method parameter
+          for (let i = 0; i < suffixes.length; i++) {
+            const suffix = suffixes[i];
+            log.trace(() => `Checking suffix ${i}: ${JSON.stringify(Object.keys(suffix.children || {}))}`);
+            if (suffix.children && suffix.children.methodInvocationSuffix) {
+              const methodSuffix = suffix.children.methodInvocationSuffix[0];
+              // Check if this is the 'method' call by looking at the previous identifier
+              if (i > 0 && suffixes[i - 1].children && suffixes[i - 1].children.Identifier) {
+                const prevMethod = suffixes[i - 1].children.Identifier[0].image;
+                if (prevMethod === 'method') {
+                  methodInv = methodSuffix;
+                  log.trace(() => `Found method invocation in suffix ${i} (method call)`);
+                  break;
+                }
+              }
+            }
+          }
 
-                        // Method name extraction is now done in the same loop where we find the class name
+          // If we didn't find the method call, fall back to the last method invocation (invoke)
+          if (!methodInv) {
+            for (let i = 0; i < suffixes.length; i++) {
+              const suffix = suffixes[i];
+              if (suffix.children && suffix.children.methodInvocationSuffix) {
+                methodInv = suffix.children.methodInvocationSuffix[0];
+                log.trace(() => `Found method invocation in suffix ${i} (fallback)`);
+                break;
+              }
+            }
+          }
 
-                        if (targetComponentType) {
-                          const details = []; // Start with empty details array
-                          if (calledMethodName) {
-                            details.push(calledMethodName); // Add only the called method name
-                          }
-                          log(`Found connection: ${className} -> ${targetComponentType} (${calledMethodName})`);
-                          log(`Chain: ${chain.join(' -> ')}`);
-                          log(`Called method name: ${calledMethodName}`);
-                          log(`Details array: ${JSON.stringify(details)}`);
-                          connections.push({
-                            source: className,
-                            target: targetComponentType,
-                            label: calledMethodName || chain[0], // Use the actual method name, fallback to chain[0]
-                            details: details,
-                          });
+          if (methodInv) {
+            log.trace('Found method invocation, checking for argument list...');
+            log.trace(() => `Method invocation children: ${JSON.stringify(Object.keys(methodInv.children || {}))}`);
+
+            if (methodInv.children && methodInv.children.argumentList) {
+              const argList = methodInv.children.argumentList[0];
+              log.trace('Found argument list, checking for expressions...');
+              log.trace(() => `Argument list children: ${JSON.stringify(Object.keys(argList.children || {}))}`);
+
+              if (argList.children && argList.children.expression) {
+                const expr = argList.children.expression[0];
+                log.trace('Found expression in argument list');
+                log.trace(() => `Expression children: ${JSON.stringify(Object.keys(expr.children || {}))}`);
+
+                // Use the location offsets to extract the method parameter directly from source text
+                if (methodInv.location && methodInv.location.startOffset !== undefined && methodInv.location.endOffset !== undefined) {
+                  log.trace(() => `Method invocation location: ${methodInv.location.startOffset} to ${methodInv.location.endOffset}`);
+
+                  // Extract the method parameter text directly from source
+                  if (sourceText) {
+                    const methodParamText = extractSourceAtLocation(sourceText, methodInv.location);
+                    log.trace(() => `Method parameter text: "${methodParamText}"`);
+
+                    // Remove parentheses from the extracted text
+                    const cleanParamText = methodParamText.replace(/^\(|\)$/g, '');
+                    log.trace(() => `Clean parameter text: "${cleanParamText}"`);
+
+                    // Parse the ClassName::methodName format
+                    const parts = cleanParamText.split('::');
+                    if (parts.length === 2) {
+                      targetComponentType = parts[0];
+                      calledMethodName = parts[1];
+                      log.trace(() => `Extracted from text - Class: ${targetComponentType}, Method: ${calledMethodName}`);
+                    } else {
+                      log.trace(() => `Could not parse method parameter: "${cleanParamText}"`);
+                      log.trace(() => `Parts after split: ${JSON.stringify(parts)}`);
+                    }
+                  } else {
+                    log.trace('No source text provided, cannot extract method name');
+                  }
+                }
+              } else {
+                log.trace('No expression found in argument list');
+                // Try to find the method reference in a different way
+                if (argList.children) {
+                  log.trace(() => `Available children in argument list: ${JSON.stringify(Object.keys(argList.children))}`);
+                  // Look for methodReference or other possible structures
+                  for (const [childKey, childValue] of Object.entries(argList.children)) {
+                    log.trace(() => `Checking argument list child: ${childKey}`);
+                    if (Array.isArray(childValue) && childValue.length > 0) {
+                      const child = childValue[0];
+                      log.trace(() => `Child ${childKey} has location: ${child.location ? 'yes' : 'no'}`);
+                      if (child.location && sourceText) {
+                        const childText = extractSourceAtLocation(sourceText, child.location);
+                        log.trace(() => `Child ${childKey} text: "${childText}"`);
+
+                        // Parse the ClassName::methodName format
+                        const parts = childText.split('::');
+                        if (parts.length === 2) {
+                          targetComponentType = parts[0];
+                          calledMethodName = parts[1];
+                          log.trace(() => `Extracted from child ${childKey} - Class: ${targetComponentType}, Method: ${calledMethodName}`);
+                          break;
                         }
                       }
                     }
                   }
                 }
-                // Recursively search deeper
-                searchForClientChains(child, `${path}.${key}[${i}]`);
               }
             }
-          } else if (children && typeof children === 'object') {
-            searchForClientChains(children, `${path}.${key}`);
+          } else {
+            log.trace('No method invocation found in suffixes');
           }
-        }
-      }
-    }
-
-    searchForClientChains(blockStmt);
-  }
 
-  // Helper: find component-to-component connections by scanning for class name references
-  function findComponentReferences(cst: any, allComponents: Array<{ className: string; componentType: string }>, className: string) {
-    log(`[DEBUG] Entered findComponentReferences for class: ${className}`);
-    if (!cst || !allComponents || allComponents.length === 0) {
-      log('[Component Reference Detection] Skipping - no CST or components available');
-      return;
-    }
+          // Method name extraction is now done in the same loop where we find the class name
 
-    // Check if the current class is a view component - if so, skip reference detection
-    const currentComponent = allComponents.find((comp) => comp.className === className);
-    if (currentComponent && currentComponent.componentType.toLowerCase() === 'view') {
-      log(`[Component Reference Detection] Skipping reference detection for view component: ${className}`);
-      return;
-    }
-
-    // Get all component class names for reference (including tool classes)
-    const componentClassNames = allComponents.map((comp) => comp.className);
-    log(`[Component Reference Detection] Looking for references to: ${componentClassNames.join(', ')}`);
-
-    let referenceCount = 0;
-
-    function searchForComponentReferences(node: any, depth = 0) {
-      if (!node || typeof node !== 'object') return;
-      // Check if this node itself has an image that matches a component class name
-      if (node.image) {
-        // if (className === 'VisualizerAgent') {
-        //   log(`[Component Reference Detection] Depth ${depth} Node image: ${node.image}`);
-        // }
-        const referencedClassName = node.image;
-        if (componentClassNames.includes(referencedClassName) && referencedClassName !== className) {
-          log(`[Component Reference Detection] Found reference to component: ${referencedClassName} in ${className}`);
-          connections.push({
-            source: className,
-            target: referencedClassName,
-            label: 'references',
-            details: [],
-          });
-          referenceCount++;
-        }
-      }
-      if (node.children) {
-        for (const [, children] of Object.entries(node.children)) {
-          if (Array.isArray(children)) {
-            for (const child of children) {
-              if (child && typeof child === 'object') {
-                searchForComponentReferences(child, depth + 1);
-              }
+          if (targetComponentType) {
+            const details: string[] = []; // Start with empty details array
+            if (calledMethodName) {
+              details.push(calledMethodName); // Add only the called method name
             }
-          } else if (children && typeof children === 'object') {
-            searchForComponentReferences(children, depth + 1);
+            log.trace(() => `Found connection: ${className} -> ${targetComponentType} (${calledMethodName})`);
+            log.trace(() => `Chain: ${chain.join(' -> ')}`);
+            log.trace(() => `Called method name: ${calledMethodName}`);
+            log.trace(() => `Details array: ${JSON.stringify(details)}`);
+            connections.push({
+              source: className,
+              target: targetComponentType,
+              label: calledMethodName || chain[0], // Use the actual method name, fallback to chain[0]
+              details: details,
+              // Start of the call chain, for going to the call site from the diagram
+              location: primary.location ? { line: primary.location.startLine, column: primary.location.startColumn } : undefined,
+            });
           }
         }
       }
     }
-
-    searchForComponentReferences(cst);
-    log(`[Component Reference Detection] Found ${referenceCount} references from ${className} to other components`);
   }
 
   // Helper: find tool-related field declarations and their initialization
@@ -671,14 +797,14 @@ export function extractComponentConnectionsFromCST(
 
                     // Check if this looks like a tool collection field
                     if (fieldName.toLowerCase().includes('tool') || fieldName.toLowerCase().includes('function')) {
-                      log(`[Tool Detection] Found potential tool field: ${fieldName}`);
+                      log.trace(() => `[Tool Detection] Found potential tool field: ${fieldName}`);
 
                       // Check for initialization
                       if (varDecl.children && varDecl.children.variableInitializer) {
                         const init = varDecl.children.variableInitializer[0];
                         if (init.location && sourceText) {
                           const initText = extractSourceAtLocation(sourceText, init.location);
-                          log(`[Tool Detection] Tool field initialization: ${initText}`);
+                          log.trace(() => `[Tool Detection] Tool field initialization: ${initText}`);
 
                           // Look for List.of() patterns in initialization
                           const listMatch = initText.match(/List\.of\(([^)]+)\)/);
@@ -690,67 +816,10 @@ export function extractComponentConnectionsFromCST(
                                 const toolClassName = constructorMatch[1];
                                 const toolId = `tool:${toolClassName}`;
                                 if (!toolNodes.find((t) => t.id === toolId)) {
-                                  toolNodes.push({ id: toolId, name: toolClassName, type: 'FunctionTool', uri: vscode.Uri.file(filename) });
+                                  toolNodes.push({ id: toolId, name: toolClassName, type: 'FunctionTool' });
                                 }
                                 connections.push({ source: className, target: toolId, label: 'defines tool', details: [] });
-                                log(`[Tool Detection] Found tool in field initialization: ${toolClassName}`);
-                              }
-                            }
-                          }
-                        }
-                      }
-                    }
-                  }
-                }
-              }
-            }
-          }
-        }
-      }
-    }
-  }
-
-  // Helper: find tool class definitions and their methods
-  function findToolClassDefinitions(cst: any) {
-    if (!cst.children || !cst.children.ordinaryCompilationUnit) return;
-
-    const compilationUnit = cst.children.ordinaryCompilationUnit[0];
-    if (!compilationUnit.children || !compilationUnit.children.typeDeclaration) return;
-
-    for (const typeDecl of compilationUnit.children.typeDeclaration) {
-      if (typeDecl.children && typeDecl.children.classDeclaration) {
-        const classDecl = typeDecl.children.classDeclaration[0];
-        if (classDecl.children && classDecl.children.normalClassDeclaration) {
-          const normalClass = classDecl.children.normalClassDeclaration[0];
-          const className = getClassName(classDecl);
-
-          if (!className) continue;
-
-          // Check if this class has @FunctionTool methods
-          if (normalClass.children && normalClass.children.classBody) {
-            const classBody = normalClass.children.classBody[0];
-            if (classBody.children && classBody.children.classBodyDeclaration) {
-              const classBodyDecls = classBody.children.classBodyDeclaration;
-
-              // Check for @FunctionTool methods in this class
-              for (const bodyDecl of classBodyDecls) {
-                if (bodyDecl.children && bodyDecl.children.classMemberDeclaration) {
-                  const memberDecl = bodyDecl.children.classMemberDeclaration[0];
-                  if (memberDecl.children && memberDecl.children.methodDeclaration) {
-                    const methodDecl = memberDecl.children.methodDeclaration[0];
-                    if (methodDecl.children && methodDecl.children.methodModifier) {
-                      for (const modifier of methodDecl.children.methodModifier) {
-                        if (modifier.children && modifier.children.annotation) {
-                          for (const annotation of modifier.children.annotation) {
-                            if (annotation.location && sourceText) {
-                              const annotationText = extractSourceAtLocation(sourceText, annotation.location);
-                              if (annotationText.startsWith('@FunctionTool')) {
-                                const methodName = methodDecl.children.methodHeader[0].children.methodDeclarator[0].children.Identifier[0].image;
-                                const toolId = `tool:${className}.${methodName}`;
-                                if (!toolNodes.find((t) => t.id === toolId)) {
-                                  toolNodes.push({ id: toolId, name: `${className}.${methodName}`, type: 'FunctionTool', uri: vscode.Uri.file(filename) });
-                                }
-                                log(`[Tool Detection] Found tool class method: ${className}.${methodName}`);
+                                log.trace(() => `[Tool Detection] Found tool in field initialization: ${toolClassName}`);
                               }
                             }
                           }
@@ -784,7 +853,7 @@ export function extractComponentConnectionsFromCST(
                       const methodName = methodDecl.children.methodHeader[0].children.methodDeclarator[0].children.Identifier[0].image;
                       const toolId = `tool:${className}.${methodName}`;
                       if (!toolNodes.find((t) => t.id === toolId)) {
-                        toolNodes.push({ id: toolId, name: methodName, type: 'FunctionTool', uri: vscode.Uri.file(filename) });
+                        toolNodes.push({ id: toolId, name: methodName, type: 'FunctionTool' });
                       }
                       connections.push({ source: className, target: toolId, label: 'defines tool', details: [] });
                     }
@@ -798,62 +867,20 @@ export function extractComponentConnectionsFromCST(
     }
   }
 
-  // Helper: extract all annotations from CST
-  function extractAllAnnotations(cst: any): Array<{ annotation: any; className: string }> {
-    const annotations: Array<{ annotation: any; className: string }> = [];
-
-    function findAnnotations(node: any, className: string) {
-      if (!node || typeof node !== 'object') return;
-
-      if (node.children) {
-        for (const [key, children] of Object.entries(node.children)) {
-          if (Array.isArray(children)) {
-            for (const child of children) {
-              if (child && typeof child === 'object') {
-                // Look for annotation nodes
-                if (key === 'annotation') {
-                  annotations.push({ annotation: child, className });
-                }
-                // Recursively search deeper
-                findAnnotations(child, className);
-              }
-            }
-          } else if (children && typeof children === 'object') {
-            findAnnotations(children, className);
-          }
-        }
-      }
-    }
-
-    // Find annotations in all classes
-    if (cst.children && cst.children.ordinaryCompilationUnit && cst.children.ordinaryCompilationUnit[0].children.typeDeclaration) {
-      cst.children.ordinaryCompilationUnit[0].children.typeDeclaration.forEach((typeDecl: any) => {
-        if (typeDecl.children && typeDecl.children.classDeclaration && typeDecl.children.classDeclaration[0].children.normalClassDeclaration) {
-          const className = getClassName(typeDecl);
-          if (className) {
-            findAnnotations(typeDecl, className);
-          }
-        }
-      });
-    }
-
-    return annotations;
-  }
-
   // Helper: extract topic annotations from annotations list
   function extractTopicAnnotationsFromList(annotations: Array<{ annotation: any; className: string }>) {
     for (const { annotation, className } of annotations) {
       // Use the annotation location to extract the full annotation text
       if (annotation.location && annotation.location.startOffset !== undefined && annotation.location.endOffset !== undefined) {
-        log(`Annotation location: ${annotation.location.startOffset} to ${annotation.location.endOffset}`);
+        log.trace(() => `Annotation location: ${annotation.location.startOffset} to ${annotation.location.endOffset}`);
 
         if (sourceText) {
           const annotationText = extractSourceAtLocation(sourceText, annotation.location);
-          log(`Annotation text: "${annotationText}"`);
+          log.trace(() => `Annotation text: "${annotationText}"`);
 
           // Check for @Produce.ToTopic and @Consume.FromTopic annotations
           if (annotationText.startsWith('@Produce.ToTopic') || annotationText.startsWith('@Consume.FromTopic')) {
-            log(`Found topic annotation in class: ${className}`);
+            log.trace(() => `Found topic annotation in class: ${className}`);
 
             // Parse both @Produce.ToTopic("topic-name") and @Produce.ToTopic(value = "topic-name", ...) formats
             // Also handle @Consume.FromTopic("topic-name") and @Consume.FromTopic(value = "topic-name", ...) formats
@@ -869,7 +896,7 @@ export function extractComponentConnectionsFromCST(
               const direction = topicMatch[2]; // "To" or "From"
               const topicName = topicMatch[3]; // The topic name
 
-              log(`Found topic annotation - Action: ${action}, Direction: ${direction}, Topic: ${topicName}`);
+              log.trace(() => `Found topic annotation - Action: ${action}, Direction: ${direction}, Topic: ${topicName}`);
 
               // Create topic node if it doesn't exist
               const topicId = `topic:${topicName}`;
@@ -879,9 +906,8 @@ export function extractComponentConnectionsFromCST(
                   id: topicId,
                   name: topicName,
                   type: 'Topic',
-                  uri: vscode.Uri.file(filename),
                 });
-                log(`Created topic node: ${topicId}`);
+                log.trace(() => `Created topic node: ${topicId}`);
               }
 
               // Create connection between component and topic
@@ -893,7 +919,7 @@ export function extractComponentConnectionsFromCST(
                   label: 'produces to',
                   details: [],
                 });
-                log(`Created connection: ${className} -> ${topicId} (produces to)`);
+                log.trace(() => `Created connection: ${className} -> ${topicId} (produces to)`);
               } else if (action === 'Consume') {
                 // Component consumes from topic
                 connections.push({
@@ -902,17 +928,17 @@ export function extractComponentConnectionsFromCST(
                   label: 'consumes from',
                   details: [],
                 });
-                log(`Created connection: ${topicId} -> ${className} (consumes from)`);
+                log.trace(() => `Created connection: ${topicId} -> ${className} (consumes from)`);
               }
             } else {
-              log(`Could not parse topic annotation: "${annotationText}"`);
+              log.trace(() => `Could not parse topic annotation: "${annotationText}"`);
             }
           }
         } else {
-          log('No source text provided, cannot extract annotation');
+          log.trace('No source text provided, cannot extract annotation');
         }
       } else {
-        log('No location information available for annotation');
+        log.trace('No location information available for annotation');
       }
     }
   }
@@ -922,15 +948,15 @@ export function extractComponentConnectionsFromCST(
     for (const { annotation, className } of annotations) {
       // Use the annotation location to extract the full annotation text
       if (annotation.location && annotation.location.startOffset !== undefined && annotation.location.endOffset !== undefined) {
-        log(`Annotation location: ${annotation.location.startOffset} to ${annotation.location.endOffset}`);
+        log.trace(() => `Annotation location: ${annotation.location.startOffset} to ${annotation.location.endOffset}`);
 
         if (sourceText) {
           const annotationText = extractSourceAtLocation(sourceText, annotation.location);
-          log(`Annotation text: "${annotationText}"`);
+          log.trace(() => `Annotation text: "${annotationText}"`);
 
           // Check for @Produce.ServiceStream and @Consume.FromServiceStream annotations
           if (annotationText.startsWith('@Produce.ServiceStream') || annotationText.startsWith('@Consume.FromServiceStream')) {
-            log(`Found service stream annotation in class: ${className}`);
+            log.trace(() => `Found service stream annotation in class: ${className}`);
 
             // Extract parameters (service, id, etc.)
             // Match all key = "value" pairs inside the annotation
@@ -944,7 +970,7 @@ export function extractComponentConnectionsFromCST(
             // Determine the stream name: prefer 'service', fallback to 'id'
             const streamName = params['service'] || params['id'];
             if (!streamName) {
-              log(`Could not determine service stream name from annotation: "${annotationText}"`);
+              log.trace(() => `Could not determine service stream name from annotation: "${annotationText}"`);
               continue;
             }
 
@@ -956,9 +982,8 @@ export function extractComponentConnectionsFromCST(
                 id: streamId,
                 name: streamName,
                 type: 'ServiceStream',
-                uri: vscode.Uri.file(filename),
               });
-              log(`Created service stream node: ${streamId}`);
+              log.trace(() => `Created service stream node: ${streamId}`);
             }
 
             // Determine action (Produce or Consume)
@@ -974,7 +999,7 @@ export function extractComponentConnectionsFromCST(
                 label: 'produces to',
                 details: [],
               });
-              log(`Created connection: ${className} -> ${streamId} (produces to)`);
+              log.trace(() => `Created connection: ${className} -> ${streamId} (produces to)`);
             } else {
               // Component consumes from service stream
               connections.push({
@@ -983,12 +1008,12 @@ export function extractComponentConnectionsFromCST(
                 label: 'consumes from',
                 details: [],
               });
-              log(`Created connection: ${streamId} -> ${className} (consumes from)`);
+              log.trace(() => `Created connection: ${streamId} -> ${className} (consumes from)`);
             }
           }
         }
       } else {
-        log('No location information available for annotation');
+        log.trace('No location information available for annotation');
       }
     }
   }
@@ -998,22 +1023,22 @@ export function extractComponentConnectionsFromCST(
     for (const { annotation, className } of annotations) {
       // Use the annotation location to extract the full annotation text
       if (annotation.location && annotation.location.startOffset !== undefined && annotation.location.endOffset !== undefined) {
-        log(`Annotation location: ${annotation.location.startOffset} to ${annotation.location.endOffset}`);
+        log.trace(() => `Annotation location: ${annotation.location.startOffset} to ${annotation.location.endOffset}`);
 
         if (sourceText) {
           const annotationText = extractSourceAtLocation(sourceText, annotation.location);
-          log(`Annotation text: "${annotationText}"`);
+          log.trace(() => `Annotation text: "${annotationText}"`);
 
           // Check if this is a @Consume annotation and parse it
           if (annotationText.startsWith('@Consume')) {
-            log(`Found @Consume annotation in class: ${className}`);
+            log.trace(() => `Found @Consume annotation in class: ${className}`);
 
             // Parse both @Consume.FromType(ClassName.class) and @Consume.FromType(value = ClassName.class) formats
             const consumeMatch = annotationText.match(/@Consume\.From(\w+)\(([^)]+)\)/);
             if (consumeMatch) {
               const consumeType = consumeMatch[1];
               const sourceClassParam = consumeMatch[2];
-              log(`Found consume type: ${consumeType}, source class param: ${sourceClassParam}`);
+              log.trace(() => `Found consume type: ${consumeType}, source class param: ${sourceClassParam}`);
 
               // Handle both formats: "ClassName.class" and "value = ClassName.class"
               let sourceClass: string;
@@ -1022,15 +1047,15 @@ export function extractComponentConnectionsFromCST(
                 const namedParamMatch = sourceClassParam.match(/value\s*=\s*([^.]+)\.class/);
                 if (namedParamMatch) {
                   sourceClass = namedParamMatch[1];
-                  log(`Extracted source class from named parameter: ${sourceClass}`);
+                  log.trace(() => `Extracted source class from named parameter: ${sourceClass}`);
                 } else {
-                  log(`Could not parse named parameter format: "${sourceClassParam}"`);
+                  log.trace(() => `Could not parse named parameter format: "${sourceClassParam}"`);
                   continue;
                 }
               } else {
                 // Direct format: "ClassName.class"
                 sourceClass = sourceClassParam.replace(/\.class$/, '');
-                log(`Extracted source class from direct format: ${sourceClass}`);
+                log.trace(() => `Extracted source class from direct format: ${sourceClass}`);
               }
 
               // Create connection from source class to current class
@@ -1048,168 +1073,120 @@ export function extractComponentConnectionsFromCST(
                 details: [],
               });
             } else {
-              log(`Could not parse consume annotation: "${annotationText}"`);
+              log.trace(() => `Could not parse consume annotation: "${annotationText}"`);
             }
           }
         }
       } else {
-        log('No location information available for annotation');
+        log.trace('No location information available for annotation');
       }
     }
   }
 
-  if (cst.children && cst.children.ordinaryCompilationUnit && cst.children.ordinaryCompilationUnit[0].children.typeDeclaration) {
-    cst.children.ordinaryCompilationUnit[0].children.typeDeclaration.forEach((typeDecl: any) => {
-      if (typeDecl.children && typeDecl.children.classDeclaration && typeDecl.children.classDeclaration[0].children.normalClassDeclaration) {
-        const classDecl = typeDecl.children.classDeclaration[0];
-        const className = getClassName(typeDecl);
-        log(`[DEBUG] Processing class: ${className}`);
+  const rule: CstRule = {
+    enter: {
+      classDeclaration: (classDecl, context) => {
+        if (!isTopLevelClassDeclaration(context) || !classDecl.children.normalClassDeclaration) return;
+        const className = context.topLevelClassName;
+        log.trace(() => `[DEBUG] Processing class: ${className}`);
+        clientFieldNames = [];
         if (classDecl.children.normalClassDeclaration[0].children.classBody && classDecl.children.normalClassDeclaration[0].children.classBody[0].children.classBodyDeclaration) {
           const classBodyDecls = classDecl.children.normalClassDeclaration[0].children.classBody[0].children.classBodyDeclaration;
-          const clientFieldNames = findComponentClientFieldNames(classBodyDecls);
+          clientFieldNames = findComponentClientFieldNames(classBodyDecls);
           if (clientFieldNames.length > 0) {
-            log(`Found ComponentClient field names in ${className}: ${clientFieldNames.join(', ')}`);
+            log.trace(() => `Found ComponentClient field names in ${className}: ${clientFieldNames.join(', ')}`);
           } else {
-            log(`No ComponentClient field names found in ${className}`);
+            log.trace(() => `No ComponentClient field names found in ${className}`);
           }
 
           if (className) {
-            log(`[DEBUG] Entering className block for: ${className}`);
-            log('========================================');
-            log(`PROCESSING CLASS: ${className}`);
-            log('========================================');
+            log.trace(() => `[DEBUG] Entering className block for: ${className}`);
+            log.trace('========================================');
+            log.trace(() => `PROCESSING CLASS: ${className}`);
+            log.trace('========================================');
 
-            log('--- Stage 1: Function Tool Annotations ---');
+            log.trace('--- Stage 1: Function Tool Annotations ---');
             findFunctionToolAnnotations(classBodyDecls, className);
-            log('--- Stage 1 Complete ---');
+            log.trace('--- Stage 1 Complete ---');
 
-            log('--- Stage 2: Tool Field Declarations ---');
+            log.trace('--- Stage 2: Tool Field Declarations ---');
             findToolFieldDeclarations(classBodyDecls, className);
-            log('--- Stage 2 Complete ---');
+            log.trace('--- Stage 2 Complete ---');
 
             // Component reference detection will be done after all components are detected
           }
-
-          classBodyDecls.forEach((bodyDecl: any) => {
-            if (bodyDecl.children && bodyDecl.children.classMemberDeclaration && bodyDecl.children.classMemberDeclaration[0].children.methodDeclaration) {
-              const methodDecl = bodyDecl.children.classMemberDeclaration[0].children.methodDeclaration[0];
-              if (methodDecl.children.methodBody && methodDecl.children.methodBody[0].children.block && methodDecl.children.methodBody[0].children.block[0].children.blockStatements) {
-                if (className) {
-                  methodDecl.children.methodBody[0].children.block[0].children.blockStatements.forEach((blockStmt: any) => {
-                    findComponentClientChains(blockStmt, className, clientFieldNames);
-                    findFunctionToolInvocations(blockStmt, className);
-                  });
-                }
-              }
-            }
-          });
         }
-      }
-    });
-  }
-
-  // Extract all annotations and process consume, topic, and service stream annotations
-  log('========================================');
-  log('STAGE 4: ANNOTATION PROCESSING');
-  log('========================================');
-  log('Extracting all annotations from CST...');
-  const allAnnotations = extractAllAnnotations(cst);
-  log(`Found ${allAnnotations.length} total annotations`);
-  extractConsumeAnnotationsFromList(allAnnotations);
-  extractTopicAnnotationsFromList(allAnnotations);
-  extractServiceStreamAnnotationsFromList(allAnnotations);
-  findToolClassDefinitions(cst);
-  log('--- Stage 4 Complete ---');
-
-  // Stage 5: Component Reference Detection (after all components are detected)
-  log('========================================');
-  log('STAGE 5: COMPONENT REFERENCE DETECTION');
-  log('========================================');
-
-  // Build complete list of all components including function tools
-  const allComponentsForReference = [...(allComponents || [])];
-
-  // Add function tool classes detected in this file
-  toolNodes.forEach((tool) => {
-    const toolClassName = tool.name.split('.')[0]; // Extract class name from tool name
-    if (!allComponentsForReference.find((c) => c.className === toolClassName)) {
-      allComponentsForReference.push({
-        className: toolClassName,
-        componentType: 'FunctionTool',
-      });
-    }
-  });
-
-  log(`Total components for reference detection: ${allComponentsForReference.length}`);
-  allComponentsForReference.forEach((comp, index) => {
-    log(`  Component ${index + 1}: ${comp.className} (${comp.componentType})`);
-  });
-
-  // Now scan each class for references to other components
-  if (cst.children && cst.children.ordinaryCompilationUnit && cst.children.ordinaryCompilationUnit[0].children.typeDeclaration) {
-    cst.children.ordinaryCompilationUnit[0].children.typeDeclaration.forEach((typeDecl: any) => {
-      if (typeDecl.children && typeDecl.children.classDeclaration && typeDecl.children.classDeclaration[0].children.normalClassDeclaration) {
-        const className = getClassName(typeDecl);
-
-        if (className && allComponentsForReference.length > 0) {
-          log(`Scanning ${className} for references to ${allComponentsForReference.length} components...`);
-          findComponentReferences(cst, allComponentsForReference, className);
+      },
+      // Stage 3: call chains and tool invocations in the method bodies of the class
+      primary: (primary, context) => {
+        if (!context.inTopLevelMethodBody || !context.topLevelClassName) return;
+        findComponentClientChain(primary, context.topLevelClassName);
+        findFunctionToolInvocations(primary, context.topLevelClassName);
+      },
+      // Annotations anywhere in a top-level class are processed in stage 4, once all are known
+      annotation: (annotation, context) => {
+        if (context.topLevelClassName) {
+          annotations.push({ annotation, className: context.topLevelClassName });
         }
-      }
-    });
+      },
+    },
+  };
+
+  function finish() {
+    // Process consume, topic, and service stream annotations
+    log.trace('========================================');
+    log.trace('STAGE 4: ANNOTATION PROCESSING');
+    log.trace('========================================');
+    log.trace(() => `Found ${annotations.length} total annotations`);
+    extractConsumeAnnotationsFromList(annotations);
+    extractTopicAnnotationsFromList(annotations);
+    extractServiceStreamAnnotationsFromList(annotations);
+    log.trace('--- Stage 4 Complete ---');
+
+    return { connections, topicNodes, serviceStreamNodes, toolNodes };
   }
 
-  log('--- Stage 5 Complete ---');
-
-  // Final results summary
-  log('========================================');
-  log(`CST-BASED EDGE DETECTION COMPLETE FOR: ${filename}`);
-  log('========================================');
-  log('Final Results:');
-  log(`  - Connections found: ${connections.length}`);
-  log(`  - Topic nodes found: ${topicNodes.length}`);
-  log(`  - Service stream nodes found: ${serviceStreamNodes.length}`);
-  log(`  - Tool nodes found: ${toolNodes.length}`);
-
-  if (connections.length > 0) {
-    log('  - Connection details:');
-    connections.forEach((conn, index) => {
-      log(`    ${index + 1}. ${conn.source} -> ${conn.target} (${conn.label})`);
-    });
-  }
-
-  return { connections, topicNodes, serviceStreamNodes, toolNodes };
+  return { rule, finish };
 }
 
 // Helper: detect function tool classes from CST
 export function detectFunctionToolClasses(cst: any, filename: string, sourceText?: string, outputChannel?: vscode.OutputChannel) {
   const log = createPrefixedLogger(outputChannel, '[FunctionToolDetection]');
 
-  log('========================================');
-  log(`DETECTING FUNCTION TOOL CLASSES FOR: ${filename}`);
-  log('========================================');
+  log.trace('========================================');
+  log.trace(() => `DETECTING FUNCTION TOOL CLASSES FOR: ${filename}`);
+  log.trace('========================================');
 
-  const functionToolClasses: Array<{ className: string; componentType: string; filename: string }> = [];
+  const collector = createFunctionToolClassCollector(filename, sourceText, outputChannel);
+  visitCst(cst, [collector.rule]);
+  const functionToolClasses = collector.finish();
 
-  if (!cst.children || !cst.children.ordinaryCompilationUnit) {
-    log('No compilation unit found in CST');
-    return functionToolClasses;
-  }
+  log.trace('========================================');
+  log.trace('FUNCTION TOOL CLASS DETECTION COMPLETE');
+  log.trace('========================================');
 
-  const compilationUnit = cst.children.ordinaryCompilationUnit[0];
-  if (!compilationUnit.children || !compilationUnit.children.typeDeclaration) {
-    log('No type declarations found in compilation unit');
-    return functionToolClasses;
-  }
+  return functionToolClasses;
+}
+
+/**
+ * Visitor rule for detectFunctionToolClasses: top-level classes with a @FunctionTool annotation on the class or on one of its methods
+ */
+export function createFunctionToolClassCollector(
+  filename: string,
+  sourceText?: string,
+  outputChannel?: vscode.OutputChannel
+): CstCollector<Array<{ className: string; componentType: string; filename: string }>> {
+  const log = createPrefixedLogger(outputChannel, '[FunctionToolDetection]');
+  const functionToolClasses: Array<{ className: string; componentType: string; filename: string }> = [];
 
-  for (const typeDecl of compilationUnit.children.typeDeclaration) {
-    if (typeDecl.children && typeDecl.children.classDeclaration) {
-      const classDecl = typeDecl.children.classDeclaration[0];
-      if (classDecl.children && classDecl.children.normalClassDeclaration) {
+  const rule: CstRule = {
+    enter: {
+      classDeclaration: (classDecl, context) => {
+        if (!isTopLevelClassDeclaration(context) || !classDecl.children.normalClassDeclaration) return;
         const normalClass = classDecl.children.normalClassDeclaration[0];
 
         // Extract class name
-        let className = null;
+        let className: string | null = null;
         if (normalClass.children && normalClass.children.typeIdentifier) {
           const typeId = normalClass.children.typeIdentifier[0];
           if (typeId.image) {
@@ -1220,11 +1197,11 @@ export function detectFunctionToolClasses(cst: any, filename: string, sourceText
         }
 
         if (!className) {
-          log('Could not extract class name from class declaration');
-          continue;
+          log.trace('Could not extract class name from class declaration');
+          return;
         }
 
-        log(`Checking class: ${className} for @FunctionTool annotation`);
+        log.trace(() => `Checking class: ${className} for @FunctionTool annotation`);
 
         // Check for @FunctionTool annotation
         if (normalClass.children && normalClass.children.classBody) {
@@ -1248,7 +1225,7 @@ export function detectFunctionToolClasses(cst: any, filename: string, sourceText
                             const annotationText = extractSourceAtLocation(sourceText, annotation.location);
                             if (annotationText.startsWith('@FunctionTool')) {
                               hasFunctionToolAnnotation = true;
-                              log(`Found @FunctionTool annotation on method in class: ${className}`);
+                              log.trace(() => `Found @FunctionTool annotation on method in class: ${className}`);
                               break;
                             }
                           }
@@ -1271,7 +1248,7 @@ export function detectFunctionToolClasses(cst: any, filename: string, sourceText
                       const annotationText = extractSourceAtLocation(sourceText, annotation.location);
                       if (annotationText.startsWith('@FunctionTool')) {
                         hasFunctionToolAnnotation = true;
-                        log(`Found @FunctionTool annotation on class: ${className}`);
+                        log.trace(() => `Found @FunctionTool annotation on class: ${className}`);
                         break;
                       }
                     }
@@ -1282,7 +1259,7 @@ export function detectFunctionToolClasses(cst: any, filename: string, sourceText
             }
 
             if (hasFunctionToolAnnotation) {
-              log(`Adding function tool class: ${className}`);
+              log.trace(() => `Adding function tool class: ${className}`);
               functionToolClasses.push({
                 className: className,
                 componentType: 'FunctionTool',
@@ -1291,18 +1268,17 @@ export function detectFunctionToolClasses(cst: any, filename: string, sourceText
             }
           }
         }
-      }
-    }
+      },
+    },
+  };
+
+  function finish() {
+    log.trace(() => `Found ${functionToolClasses.length} function tool classes:`);
+    functionToolClasses.forEach((toolClass, index) => {
+      log.trace(() => `  ${index + 1}. ${toolClass.className} (${toolClass.componentType})`);
+    });
+    return functionToolClasses;
   }
 
-  log(`Found ${functionToolClasses.length} function tool classes:`);
-  functionToolClasses.forEach((toolClass, index) => {
-    log(`  ${index + 1}. ${toolClass.className} (${toolClass.componentType})`);
-  });
-
-  log('========================================');
-  log('FUNCTION TOOL CLASS DETECTION COMPLETE');
-  log('========================================');
-
-  return functionToolClasses;
+  return { rule, finish };
 }
@@ -1,87 +1,197 @@
-import * as vscode from 'vscode';
+import type * as vscode from 'vscode';
 import * as javaParser from 'java-parser';
-import { createPrefixedLogger } from '../utils/logger';
+import { Logger, createPrefixedLogger } from '../utils/logger';
+import { AnalysisCancelledError } from '../host/analysisHost';
+import { ParsePool, ParseTask, parseInProcess } from './parsePool';
+import { CstCollector, CstRule, visitCst } from './cstVisitor';
 
 // Type definitions for java-parser
 interface JavaCST {
   [key: string]: any;
 }
 
-interface ParseResult {
+export interface ParseResult {
   success: boolean;
   cst?: JavaCST;
   error?: string;
   filename: string;
+  /** Time spent in java-parser, see ParseOutcome.parseMs */
+  parseMs?: number;
+}
+
+export interface ParseFilesOptions {
+  /** Number of parser worker threads; 0 or undefined uses one per CPU core (minus one), 1 parses sequentially */
+  jobs?: number;
+  /** Called as each file finishes parsing, with the file's index in the input list */
+  onResult?: (result: ParseResult, index: number) => void;
+  /** Stops parsing when cancellation is requested: files not yet parsed are dropped, the workers are terminated and an AnalysisCancelledError is thrown */
+  token?: vscode.CancellationToken;
+}
+
+// Sources queued or being parsed per parser thread when parsing a stream; bounds the source texts and CSTs held at once
+const STREAM_WINDOW_PER_THREAD = 4;
+
+export interface ParseStream<T extends ParseTask> {
+  /**
+   * Queue a source for parsing. Resolves once there is room in the window for another source, so a producer that
+   * awaits it holds only the sources being parsed. Sources queued after cancellation is requested are dropped.
+   */
+  parse(task: T): Promise<void>;
+}
+
+/**
+ * Let pending events (such as a cancellation request) be handled between files parsed on the extension host thread
+ */
+function yieldToEventLoop(): Promise<void> {
+  return new Promise((resolve) => setImmediate(resolve));
 }
 
 export class JavaParser {
   /**
-   * Parse a single Java source file
+   * Parse Java source texts that have already been read.
+   * Uses the same worker pool as parseStream; results are returned in input order.
    */
-  static async parseFile(fileUri: vscode.Uri, outputChannel?: vscode.OutputChannel): Promise<ParseResult> {
+  static async parseSources(sources: ParseTask[], outputChannel?: vscode.OutputChannel, options: ParseFilesOptions = {}): Promise<ParseResult[]> {
     const log = createPrefixedLogger(outputChannel, '[JavaParser]');
-    const filename = fileUri.fsPath;
-    log(`Starting to parse file: ${filename}`);
-
-    try {
-      // Read the file content
-      const document = await vscode.workspace.openTextDocument(fileUri);
-      const sourceCode = document.getText();
+    const jobs = Math.min(this.resolveJobs(options.jobs), sources.length);
+    log(`Starting to parse ${sources.length} Java sources with ${jobs} parser thread(s)`);
 
-      log(`File content length: ${sourceCode.length} characters`);
+    const onResult = this.resultCallback(options);
+    let results: ParseResult[];
+    if (jobs > 1) {
+      const pool = new ParsePool(jobs, log);
+      const cancellation = options.token?.onCancellationRequested(() => void pool.dispose());
+      try {
+        results = await pool.parseAll(sources, onResult);
+      } finally {
+        cancellation?.dispose();
+        await pool.dispose();
+      }
+    } else {
+      results = [];
+      for (let index = 0; index < sources.length && !options.token?.isCancellationRequested; index++) {
+        const result = parseInProcess(sources[index]);
+        onResult(result, index);
+        results.push(result);
+        if (options.token) {
+          await yieldToEventLoop();
+        }
+      }
+    }
+    this.throwIfCancelled(options.token, log);
+    this.logParseSummary(results, log);
 
-      // Parse the Java source code
-      const cst = javaParser.parse(sourceCode);
+    return results;
+  }
 
-      log(`Parse successful for: ${filename}`);
-      log(`CST keys: ${Object.keys(cst).join(', ')}`);
+  /**
+   * options.onResult, no longer called once cancellation is requested: the remaining results are failures caused by the cancellation
+   */
+  private static resultCallback(options: ParseFilesOptions): (result: ParseResult, index: number) => void {
+    return (result, index) => {
+      if (options.onResult && !options.token?.isCancellationRequested) {
+        options.onResult(result, index);
+      }
+    };
+  }
 
-      return {
-        success: true,
-        cst: cst as JavaCST,
-        filename,
-      };
-    } catch (error) {
-      const errorMessage = error instanceof Error ? error.message : String(error);
-      log(`Parse failed for ${filename}: ${errorMessage}`);
-
-      return {
-        success: false,
-        error: errorMessage,
-        filename,
-      };
+  private static throwIfCancelled(token: vscode.CancellationToken | undefined, log: Logger) {
+    if (token?.isCancellationRequested) {
+      log('Parsing cancelled');
+      throw new AnalysisCancelledError();
     }
   }
 
   /**
-   * Parse multiple Java source files
+   * Parse sources as a producer supplies them (e.g. while files are still being read) and hand each result to
+   * onParsed as soon as it is available. Unlike parseSources no results are kept, so a CST can be collected once
+   * onParsed returns and memory is bounded by the window of sources in flight rather than by the number of files.
+   * @param produce Supplies the sources; parsing is complete once it has resolved and the sources it queued are parsed
+   * @param onParsed Called with each result and the task it was parsed from, in completion order
    */
-  static async parseFiles(files: vscode.Uri[], outputChannel?: vscode.OutputChannel): Promise<ParseResult[]> {
+  static async parseStream<T extends ParseTask>(
+    produce: (stream: ParseStream<T>) => Promise<void>,
+    onParsed: (result: ParseResult, task: T) => void,
+    outputChannel?: vscode.OutputChannel,
+    options: Omit<ParseFilesOptions, 'onResult'> = {}
+  ): Promise<void> {
     const log = createPrefixedLogger(outputChannel, '[JavaParser]');
-    log(`Starting to parse ${files.length} Java files`);
+    const { token } = options;
+    const jobs = this.resolveJobs(options.jobs);
+    const windowSize = jobs * STREAM_WINDOW_PER_THREAD;
+    log(`Starting to parse Java sources as they are read with ${jobs} parser thread(s)`);
 
-    const results: ParseResult[] = [];
+    const pool = jobs > 1 ? new ParsePool(jobs, log) : undefined;
+    const cancellation = pool && token?.onCancellationRequested(() => void pool.dispose());
+    const inFlight = new Set<Promise<void>>();
     let successCount = 0;
     let failureCount = 0;
 
-    for (const file of files) {
-      log(`Processing file ${results.length + 1}/${files.length}: ${file.fsPath}`);
+    const handle = (result: ParseResult, task: T) => {
+      if (token?.isCancellationRequested) return;
+      if (result.success) {
+        successCount++;
+        log.debug(() => `✓ Success: ${result.filename}`);
+      } else {
+        failureCount++;
+        log.error(`✗ Failed: ${result.filename} - ${result.error}`);
+      }
+      onParsed(result, task);
+    };
 
-      const result = await this.parseFile(file, outputChannel);
-      results.push(result);
+    const stream: ParseStream<T> = {
+      parse: async (task) => {
+        if (token?.isCancellationRequested) return;
+        if (!pool) {
+          handle(parseInProcess(task), task);
+          await yieldToEventLoop();
+          return;
+        }
 
+        const parsed: Promise<void> = pool.parse(task).then((outcome) => {
+          inFlight.delete(parsed);
+          handle({ success: outcome.success, cst: outcome.cst, error: outcome.error, filename: task.filename, parseMs: outcome.parseMs }, task);
+        });
+        inFlight.add(parsed);
+        while (inFlight.size >= windowSize) {
+          await Promise.race(inFlight);
+        }
+      },
+    };
+
+    try {
+      await produce(stream);
+      await Promise.all(inFlight);
+    } finally {
+      cancellation?.dispose();
+      await pool?.dispose();
+    }
+    this.throwIfCancelled(token, log);
+
+    log(`Parsing complete. Success: ${successCount}, Failures: ${failureCount}`);
+  }
+
+  private static logParseSummary(results: ParseResult[], log: Logger) {
+    let successCount = 0;
+    let failureCount = 0;
+    for (const result of results) {
       if (result.success) {
         successCount++;
-        log(`✓ Success: ${result.filename}`);
+        log.debug(() => `✓ Success: ${result.filename}`);
       } else {
         failureCount++;
-        log(`✗ Failed: ${result.filename} - ${result.error}`);
+        log.error(`✗ Failed: ${result.filename} - ${result.error}`);
       }
     }
 
     log(`Parsing complete. Success: ${successCount}, Failures: ${failureCount}`);
+  }
 
-    return results;
+  /**
+   * Resolve the parser thread count; 0 or undefined uses the default pool size
+   */
+  private static resolveJobs(jobs?: number): number {
+    return jobs !== undefined && jobs > 0 ? jobs : ParsePool.defaultSize();
   }
 
   /**
@@ -212,6 +322,22 @@ export class JavaParser {
     componentType: string;
     componentId: string;
   }> {
+    const collector = JavaParser.createAkkaComponentCollector(filename);
+    visitCst(node, [collector.rule]);
+    return collector.finish();
+  }
+
+  /**
+   * Visitor rule for extractAkkaComponentsFromCST: checks every class declaration, including nested ones.
+   */
+  static createAkkaComponentCollector(filename: string): CstCollector<
+    Array<{
+      filename: string;
+      className: string;
+      componentType: string;
+      componentId: string;
+    }>
+  > {
     const components: Array<{
       filename: string;
       className: string;
@@ -293,150 +419,138 @@ export class JavaParser {
       return '';
     }
 
-    function recurse(n: any) {
-      if (n && n.name === 'classDeclaration') {
-        let className = '';
-        let superclassName = '';
-        let hasComponentId = false;
-        let componentIdValue = '';
-        let endpointType = '';
-        let endpointValue = '';
-        let hasFunctionTool = false;
-        let toolName = '';
-
-        // Extract class name
-        if (n.children && n.children.normalClassDeclaration && n.children.normalClassDeclaration[0]) {
-          const normalClass = n.children.normalClassDeclaration[0];
-          if (normalClass.children && normalClass.children.typeIdentifier && normalClass.children.typeIdentifier[0]) {
-            const typeIdentifier = normalClass.children.typeIdentifier[0];
-            if (typeIdentifier.children && typeIdentifier.children.Identifier && typeIdentifier.children.Identifier[0]) {
-              className = typeIdentifier.children.Identifier[0].image || '';
+    const rule: CstRule = {
+      enter: {
+        classDeclaration: (n) => {
+          let className = '';
+          let superclassName = '';
+          let hasComponentId = false;
+          let componentIdValue = '';
+          let endpointType = '';
+          let endpointValue = '';
+          let hasFunctionTool = false;
+          let toolName = '';
+
+          // Extract class name
+          if (n.children && n.children.normalClassDeclaration && n.children.normalClassDeclaration[0]) {
+            const normalClass = n.children.normalClassDeclaration[0];
+            if (normalClass.children && normalClass.children.typeIdentifier && normalClass.children.typeIdentifier[0]) {
+              const typeIdentifier = normalClass.children.typeIdentifier[0];
+              if (typeIdentifier.children && typeIdentifier.children.Identifier && typeIdentifier.children.Identifier[0]) {
+                className = typeIdentifier.children.Identifier[0].image || '';
+              }
             }
-          }
-          // Extract superclass from classExtends
-          if (normalClass.children && normalClass.children.classExtends && normalClass.children.classExtends[0]) {
-            const classExtends = normalClass.children.classExtends[0];
-            if (classExtends.children && classExtends.children.classType && classExtends.children.classType[0]) {
-              const classType = classExtends.children.classType[0];
-              if (classType.children && classType.children.Identifier && classType.children.Identifier[0]) {
-                superclassName = classType.children.Identifier[0].image || '';
-              } else if (classType.children && classType.children.classOrInterfaceType && classType.children.classOrInterfaceType[0]) {
-                const nested = classType.children.classOrInterfaceType[0];
-                if (nested.children && nested.children.Identifier && nested.children.Identifier[0]) {
-                  superclassName = nested.children.Identifier[0].image || '';
+            // Extract superclass from classExtends
+            if (normalClass.children && normalClass.children.classExtends && normalClass.children.classExtends[0]) {
+              const classExtends = normalClass.children.classExtends[0];
+              if (classExtends.children && classExtends.children.classType && classExtends.children.classType[0]) {
+                const classType = classExtends.children.classType[0];
+                if (classType.children && classType.children.Identifier && classType.children.Identifier[0]) {
+                  superclassName = classType.children.Identifier[0].image || '';
+                } else if (classType.children && classType.children.classOrInterfaceType && classType.children.classOrInterfaceType[0]) {
+                  const nested = classType.children.classOrInterfaceType[0];
+                  if (nested.children && nested.children.Identifier && nested.children.Identifier[0]) {
+                    superclassName = nested.children.Identifier[0].image || '';
+                  }
                 }
               }
             }
           }
-        }
 
-        // Check for annotations on the class
-        if (n.children && n.children.classModifier) {
-          for (const modifier of n.children.classModifier) {
-            if (modifier.children && modifier.children.annotation) {
-              for (const annotation of modifier.children.annotation) {
-                // Extract annotation name
-                let annotationName = '';
-                if (annotation.children && annotation.children.typeName && annotation.children.typeName[0]) {
-                  const typeNameNode = annotation.children.typeName[0];
-                  if (typeNameNode.children && typeNameNode.children.Identifier && typeNameNode.children.Identifier[0]) {
-                    annotationName = typeNameNode.children.Identifier[0].image || '';
-                  }
-                }
-                if (annotationName === 'ComponentId') {
-                  hasComponentId = true;
-                  if (annotation.children && annotation.children.elementValue) {
-                    const ev = annotation.children.elementValue[0];
-                    const stringValue = extractStringValueFromElementValue(ev);
-                    componentIdValue = stringValue || '';
+          // Check for annotations on the class
+          if (n.children && n.children.classModifier) {
+            for (const modifier of n.children.classModifier) {
+              if (modifier.children && modifier.children.annotation) {
+                for (const annotation of modifier.children.annotation) {
+                  // Extract annotation name
+                  let annotationName = '';
+                  if (annotation.children && annotation.children.typeName && annotation.children.typeName[0]) {
+                    const typeNameNode = annotation.children.typeName[0];
+                    if (typeNameNode.children && typeNameNode.children.Identifier && typeNameNode.children.Identifier[0]) {
+                      annotationName = typeNameNode.children.Identifier[0].image || '';
+                    }
                   }
-                } else if (endpointAnnotations.includes(annotationName)) {
-                  endpointType = annotationName;
-                  if (annotation.children && annotation.children.elementValue) {
-                    const ev = annotation.children.elementValue[0];
-                    const stringValue = extractStringValueFromElementValue(ev);
-                    endpointValue = stringValue || '';
-                  } else if (annotation.children && annotation.children.elementValuePairList) {
-                    const pairs = annotation.children.elementValuePairList;
-                    const namePair = pairs.find((pair: any) => pair.children && pair.children.Identifier && pair.children.Identifier[0] && pair.children.Identifier[0].image === 'name');
-                    if (namePair && namePair.children && namePair.children.elementValue) {
-                      const ev = namePair.children.elementValue[0];
+                  if (annotationName === 'ComponentId') {
+                    hasComponentId = true;
+                    if (annotation.children && annotation.children.elementValue) {
+                      const ev = annotation.children.elementValue[0];
+                      const stringValue = extractStringValueFromElementValue(ev);
+                      componentIdValue = stringValue || '';
+                    }
+                  } else if (endpointAnnotations.includes(annotationName)) {
+                    endpointType = annotationName;
+                    if (annotation.children && annotation.children.elementValue) {
+                      const ev = annotation.children.elementValue[0];
                       const stringValue = extractStringValueFromElementValue(ev);
                       endpointValue = stringValue || '';
+                    } else if (annotation.children && annotation.children.elementValuePairList) {
+                      const pairs = annotation.children.elementValuePairList;
+                      const namePair = pairs.find((pair: any) => pair.children && pair.children.Identifier && pair.children.Identifier[0] && pair.children.Identifier[0].image === 'name');
+                      if (namePair && namePair.children && namePair.children.elementValue) {
+                        const ev = namePair.children.elementValue[0];
+                        const stringValue = extractStringValueFromElementValue(ev);
+                        endpointValue = stringValue || '';
+                      }
                     }
-                  }
-                  if (!endpointValue) {
-                    endpointValue = annotationName.toLowerCase();
-                  }
-                } else if (toolAnnotations.includes(annotationName)) {
-                  hasFunctionTool = true;
-                  // Extract tool name from annotation if provided
-                  if (annotation.children && annotation.children.elementValue) {
-                    const ev = annotation.children.elementValue[0];
-                    const stringValue = extractStringValueFromElementValue(ev);
-                    toolName = stringValue || className;
-                  } else if (annotation.children && annotation.children.elementValuePairList) {
-                    const pairs = annotation.children.elementValuePairList;
-                    const namePair = pairs.find((pair: any) => pair.children && pair.children.Identifier && pair.children.Identifier[0] && pair.children.Identifier[0].image === 'name');
-                    if (namePair && namePair.children && namePair.children.elementValue) {
-                      const ev = namePair.children.elementValue[0];
+                    if (!endpointValue) {
+                      endpointValue = annotationName.toLowerCase();
+                    }
+                  } else if (toolAnnotations.includes(annotationName)) {
+                    hasFunctionTool = true;
+                    // Extract tool name from annotation if provided
+                    if (annotation.children && annotation.children.elementValue) {
+                      const ev = annotation.children.elementValue[0];
                       const stringValue = extractStringValueFromElementValue(ev);
                       toolName = stringValue || className;
+                    } else if (annotation.children && annotation.children.elementValuePairList) {
+                      const pairs = annotation.children.elementValuePairList;
+                      const namePair = pairs.find((pair: any) => pair.children && pair.children.Identifier && pair.children.Identifier[0] && pair.children.Identifier[0].image === 'name');
+                      if (namePair && namePair.children && namePair.children.elementValue) {
+                        const ev = namePair.children.elementValue[0];
+                        const stringValue = extractStringValueFromElementValue(ev);
+                        toolName = stringValue || className;
+                      }
+                    }
+                    if (!toolName) {
+                      toolName = className;
                     }
-                  }
-                  if (!toolName) {
-                    toolName = className;
                   }
                 }
               }
             }
           }
-        }
 
-        // Add superclass-based component if it has ComponentId and extends Akka superclass
-        if (hasComponentId && componentIdValue && akkaSuperclasses.includes(superclassName)) {
-          components.push({
-            filename,
-            className,
-            componentType: superclassName,
-            componentId: componentIdValue,
-          });
-        }
-        // Add endpoint-based component if it has endpoint annotation
-        if (endpointType && endpointValue) {
-          components.push({
-            filename,
-            className,
-            componentType: endpointType,
-            componentId: endpointValue,
-          });
-        }
-        // Add tool-based component if it has FunctionTool annotation
-        if (hasFunctionTool && toolName) {
-          components.push({
-            filename,
-            className,
-            componentType: 'FunctionTool',
-            componentId: toolName,
-          });
-        }
-      }
-      // Recurse into children
-      if (n.children) {
-        for (const childKey in n.children) {
-          const children = n.children[childKey];
-          if (Array.isArray(children)) {
-            for (const child of children) {
-              recurse(child);
-            }
-          } else if (children) {
-            recurse(children);
+          // Add superclass-based component if it has ComponentId and extends Akka superclass
+          if (hasComponentId && componentIdValue && akkaSuperclasses.includes(superclassName)) {
+            components.push({
+              filename,
+              className,
+              componentType: superclassName,
+              componentId: componentIdValue,
+            });
           }
-        }
-      }
-    }
+          // Add endpoint-based component if it has endpoint annotation
+          if (endpointType && endpointValue) {
+            components.push({
+              filename,
+              className,
+              componentType: endpointType,
+              componentId: endpointValue,
+            });
+          }
+          // Add tool-based component if it has FunctionTool annotation
+          if (hasFunctionTool && toolName) {
+            components.push({
+              filename,
+              className,
+              componentType: 'FunctionTool',
+              componentId: toolName,
+            });
+          }
+        },
+      },
+    };
 
-    recurse(node);
-    return components;
+    return { rule, finish: () => components };
   }
 }
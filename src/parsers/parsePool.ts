@@ -0,0 +1,214 @@
+import { Worker } from 'worker_threads';
+import * as os from 'os';
+import * as path from 'path';
+import * as fs from 'fs';
+import * as javaParser from 'java-parser';
+import { performance } from 'perf_hooks';
+import { Logger, nullLogger } from '../utils/logger';
+
+export interface ParseTask {
+  filename: string;
+  sourceText: string;
+}
+
+export interface ParseOutcome {
+  success: boolean;
+  cst?: any;
+  error?: string;
+  filename: string;
+  /** Time spent in java-parser, excluding the wait for a worker and the transfer of the CST */
+  parseMs?: number;
+}
+
+interface PendingTask {
+  id: number;
+  task: ParseTask;
+  resolve: (outcome: ParseOutcome) => void;
+}
+
+interface PoolWorker {
+  worker: Worker;
+  current?: PendingTask;
+  completed: number;
+  /** Set once the worker has errored or exited, so the 'exit' that follows an 'error' is not handled twice */
+  failed?: boolean;
+}
+
+// Workers that fail before completing a task are respawned until this many fail in a row without any task completing;
+// beyond that the failures are taken to be the worker script or environment rather than the input
+const MAX_CONSECUTIVE_STARTUP_FAILURES = 3;
+
+/**
+ * Pool of worker threads that parse Java source text into CSTs.
+ * Has no dependency on the vscode API so it can also be driven from plain Node scripts.
+ */
+export class ParsePool {
+  private readonly workers: PoolWorker[] = [];
+  private readonly queue: PendingTask[] = [];
+  private nextId = 0;
+  private disposed = false;
+  private startupFailures = 0;
+
+  /**
+   * @param size Number of worker threads; values < 1 use {@link ParsePool.defaultSize}
+   * @param log Logger for worker failures
+   * @param workerScript Path to the compiled parseWorker.js (defaults to the file next to this module)
+   */
+  constructor(
+    size: number = 0,
+    private readonly log: Logger = nullLogger,
+    private readonly workerScript: string = path.join(__dirname, 'parseWorker.js')
+  ) {
+    const poolSize = size > 0 ? size : ParsePool.defaultSize();
+    if (!fs.existsSync(workerScript)) {
+      log.debug(`Worker script not found at ${workerScript}, parsing in-process`);
+      return;
+    }
+    for (let i = 0; i < poolSize; i++) {
+      this.workers.push(this.spawn());
+    }
+  }
+
+  /**
+   * Default pool size: one worker per CPU, leaving one core for the extension host.
+   */
+  static defaultSize(): number {
+    return Math.max(1, os.cpus().length - 1);
+  }
+
+  get size(): number {
+    return this.workers.length;
+  }
+
+  /**
+   * Parse a single source text on the next idle worker.
+   */
+  parse(task: ParseTask): Promise<ParseOutcome> {
+    if (this.disposed) {
+      return Promise.resolve({ success: false, error: 'Parse pool has been disposed', filename: task.filename });
+    }
+    if (this.workers.length === 0) {
+      return Promise.resolve(parseInProcess(task));
+    }
+    return new Promise((resolve) => {
+      this.queue.push({ id: this.nextId++, task, resolve });
+      this.dispatch();
+    });
+  }
+
+  /**
+   * Parse all tasks. The returned array is in input order; onResult is called as each parse completes.
+   */
+  async parseAll(tasks: ParseTask[], onResult?: (outcome: ParseOutcome, index: number) => void): Promise<ParseOutcome[]> {
+    return Promise.all(
+      tasks.map((task, index) =>
+        this.parse(task).then((outcome) => {
+          if (onResult) {
+            onResult(outcome, index);
+          }
+          return outcome;
+        })
+      )
+    );
+  }
+
+  /**
+   * Terminate all workers. Queued tasks and the tasks being parsed resolve as failures.
+   */
+  async dispose(): Promise<void> {
+    this.disposed = true;
+    const unfinished = this.queue.splice(0);
+    for (const poolWorker of this.workers) {
+      if (poolWorker.current) {
+        unfinished.push(poolWorker.current);
+        poolWorker.current = undefined;
+      }
+    }
+    for (const pending of unfinished) {
+      pending.resolve({ success: false, error: 'Parse pool has been disposed', filename: pending.task.filename });
+    }
+    await Promise.all(this.workers.map((w) => w.worker.terminate()));
+    this.workers.length = 0;
+  }
+
+  private spawn(): PoolWorker {
+    const poolWorker: PoolWorker = { worker: new Worker(this.workerScript), completed: 0 };
+
+    poolWorker.worker.on('message', (message: { id: number; success: boolean; cst?: any; error?: string; parseMs?: number }) => {
+      const pending = poolWorker.current;
+      poolWorker.current = undefined;
+      poolWorker.completed++;
+      this.startupFailures = 0;
+      if (pending && pending.id === message.id) {
+        pending.resolve({ success: message.success, cst: message.cst, error: message.error, filename: pending.task.filename, parseMs: message.parseMs });
+      }
+      this.dispatch();
+    });
+
+    poolWorker.worker.on('error', (error) => this.handleWorkerFailure(poolWorker, error instanceof Error ? error.message : String(error)));
+    poolWorker.worker.on('exit', (code) => this.handleWorkerFailure(poolWorker, `exited with code ${code}`));
+
+    return poolWorker;
+  }
+
+  /**
+   * A worker that errored or exited (process.exit, killed, out of memory) takes its current task down with it.
+   * That task fails rather than being parsed again on the calling thread, since its input may be what crashed the worker.
+   */
+  private handleWorkerFailure(poolWorker: PoolWorker, reason: string) {
+    if (poolWorker.failed) return;
+    poolWorker.failed = true;
+
+    const pending = poolWorker.current;
+    poolWorker.current = undefined;
+    if (pending) {
+      pending.resolve({ success: false, error: `Parser worker failed: ${reason}`, filename: pending.task.filename });
+    }
+    const index = this.workers.indexOf(poolWorker);
+    if (index < 0 || this.disposed) return;
+
+    this.log.error(`Parser worker failed${pending ? ` while parsing ${pending.task.filename}` : ''}: ${reason}`);
+    if (poolWorker.completed === 0) {
+      this.startupFailures++;
+    }
+    if (this.startupFailures <= MAX_CONSECUTIVE_STARTUP_FAILURES) {
+      this.workers[index] = this.spawn();
+    } else {
+      // Workers keep failing before completing anything; respawning would fail the same way
+      this.workers.splice(index, 1);
+    }
+
+    if (this.workers.length === 0) {
+      for (const queued of this.queue.splice(0)) {
+        queued.resolve(parseInProcess(queued.task));
+      }
+    } else {
+      this.dispatch();
+    }
+  }
+
+  private dispatch() {
+    for (const poolWorker of this.workers) {
+      if (this.queue.length === 0) return;
+      if (!poolWorker.current) {
+        const pending = this.queue.shift()!;
+        poolWorker.current = pending;
+        poolWorker.worker.postMessage({ id: pending.id, filename: pending.task.filename, sourceText: pending.task.sourceText });
+      }
+    }
+  }
+}
+
+/**
+ * Parse on the calling thread. Used for single-job runs and as the fallback when workers are unavailable.
+ */
+export function parseInProcess(task: ParseTask): ParseOutcome {
+  const start = performance.now();
+  try {
+    const cst = javaParser.parse(task.sourceText);
+    return { success: true, cst, filename: task.filename, parseMs: performance.now() - start };
+  } catch (error) {
+    const errorMessage = error instanceof Error ? error.message : String(error);
+    return { success: false, error: errorMessage, filename: task.filename, parseMs: performance.now() - start };
+  }
+}
@@ -0,0 +1,55 @@
+import { parentPort } from 'worker_threads';
+import { performance } from 'perf_hooks';
+import * as javaParser from 'java-parser';
+
+/**
+ * Worker thread entry point for the parse pool.
+ * Receives { id, filename, sourceText } messages, parses the source with java-parser
+ * and posts back { id, success, cst, error, parseMs }.
+ */
+
+/**
+ * Copy a CST into plain data that survives the structured clone between threads.
+ * Chevrotain tokens carry a tokenType object graph which is not needed by the
+ * extractors, so tokens keep only their image and position fields.
+ */
+function toPlainCst(node: any): any {
+  if (!node || typeof node !== 'object') return node;
+
+  if (node.image !== undefined) {
+    return {
+      image: node.image,
+      startOffset: node.startOffset,
+      endOffset: node.endOffset,
+      startLine: node.startLine,
+      endLine: node.endLine,
+      startColumn: node.startColumn,
+      endColumn: node.endColumn,
+    };
+  }
+
+  const plain: any = { name: node.name, location: node.location };
+  if (node.children) {
+    plain.children = {};
+    for (const key in node.children) {
+      const children = node.children[key];
+      plain.children[key] = Array.isArray(children) ? children.map(toPlainCst) : toPlainCst(children);
+    }
+  }
+  return plain;
+}
+
+if (parentPort) {
+  const port = parentPort;
+  port.on('message', (message: { id: number; filename: string; sourceText: string }) => {
+    const start = performance.now();
+    try {
+      const cst = javaParser.parse(message.sourceText);
+      const parseMs = performance.now() - start;
+      port.postMessage({ id: message.id, success: true, cst: toPlainCst(cst), parseMs });
+    } catch (error) {
+      const errorMessage = error instanceof Error ? error.message : String(error);
+      port.postMessage({ id: message.id, success: false, error: errorMessage, parseMs: performance.now() - start });
+    }
+  });
+}
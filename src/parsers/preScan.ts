@@ -0,0 +1,185 @@
+/**
+ * Lexical pre-scan of Java source files.
+ *
+ * Tokenizes a file without building a CST (comments and string, character and text block literals are skipped)
+ * to decide whether it can contain anything the diagram extractors look for. Files that cannot are not sent to
+ * the full java-parser parse; the identifier index collected here is enough for their reference detection.
+ */
+
+/**
+ * Classification of one source file
+ */
+export interface PreScanResult {
+  /** Has a @ComponentId, endpoint or @FunctionTool annotation */
+  mayContainComponents: boolean;
+  /** Mentions a ComponentClient type */
+  mayContainClientCalls: boolean;
+  /** Has a @Produce or @Consume annotation */
+  mayContainTopicOrStream: boolean;
+  /** Has @FunctionTool, tools()/mcpTools() calls or a tool list field */
+  mayContainTools: boolean;
+  /** True when any of the above holds and the file needs the full CST parse */
+  isCandidate: boolean;
+  /** Top-level (normal) class names, in declaration order */
+  classNames: string[];
+  /** Distinct identifier-like tokens, in first-occurrence order */
+  identifiers: string[];
+}
+
+const COMPONENT_ANNOTATIONS = ['ComponentId', 'HttpEndpoint', 'GrpcEndpoint', 'MCPEndpoint', 'FunctionTool'];
+const TOPIC_OR_STREAM_ANNOTATIONS = ['Produce', 'Consume'];
+const TOOL_INVOCATIONS = ['tools', 'mcpTools'];
+const TOOL_FIELD_PATTERN = /tool|function/i;
+
+function isIdentifierStart(code: number): boolean {
+  return (code >= 65 && code <= 90) || (code >= 97 && code <= 122) || code === 95 || code === 36 || code > 127;
+}
+
+function isIdentifierPart(code: number): boolean {
+  return isIdentifierStart(code) || (code >= 48 && code <= 57);
+}
+
+/**
+ * Tokenize a Java source file and classify what it may contain
+ * @param sourceText The complete Java source code
+ */
+export function preScanJavaSource(sourceText: string): PreScanResult {
+  const identifiers = new Set<string>();
+  const annotationNames = new Set<string>();
+  const classNames: string[] = [];
+
+  const length = sourceText.length;
+  let braceDepth = 0;
+  let afterDot = false; // Previous token was '.'
+  let annotationState = 0; // 1: expecting a part of an annotation name (after '@' or a '.' in the name), 2: just read a part
+  let expectClassName = false; // Previous token was a top-level 'class' keyword
+  let i = 0;
+
+  while (i < length) {
+    const code = sourceText.charCodeAt(i);
+
+    // Whitespace
+    if (code === 32 || code === 9 || code === 10 || code === 13 || code === 12) {
+      i++;
+      continue;
+    }
+
+    // Comments
+    if (code === 47 /* / */) {
+      const next = sourceText.charCodeAt(i + 1);
+      if (next === 47) {
+        const end = sourceText.indexOf('\n', i + 2);
+        i = end < 0 ? length : end + 1;
+        continue;
+      }
+      if (next === 42 /* * */) {
+        const end = sourceText.indexOf('*/', i + 2);
+        i = end < 0 ? length : end + 2;
+        continue;
+      }
+    }
+
+    // Text blocks, strings and character literals
+    if (code === 34 /* " */ || code === 39 /* ' */) {
+      if (code === 34 && sourceText.startsWith('"""', i)) {
+        i += 3;
+        while (i < length && !sourceText.startsWith('"""', i)) {
+          i += sourceText.charCodeAt(i) === 92 /* \ */ ? 2 : 1;
+        }
+        i += 3;
+      } else {
+        i++;
+        while (i < length) {
+          const c = sourceText.charCodeAt(i);
+          if (c === 92) {
+            i += 2;
+            continue;
+          }
+          i++;
+          if (c === code || c === 10) break;
+        }
+      }
+      afterDot = false;
+      annotationState = 0;
+      expectClassName = false;
+      continue;
+    }
+
+    if (isIdentifierStart(code)) {
+      const start = i;
+      i++;
+      while (i < length && isIdentifierPart(sourceText.charCodeAt(i))) {
+        i++;
+      }
+      const word = sourceText.substring(start, i);
+      identifiers.add(word);
+
+      if (annotationState === 1) {
+        annotationNames.add(word);
+        annotationState = 2;
+      } else {
+        annotationState = 0;
+        if (expectClassName) {
+          classNames.push(word);
+        }
+      }
+      expectClassName = word === 'class' && braceDepth === 0 && !afterDot && annotationState === 0;
+      afterDot = false;
+      continue;
+    }
+
+    // Numeric literals, including suffixes, exponents and hex digits
+    if (code >= 48 && code <= 57) {
+      i++;
+      while (i < length && (isIdentifierPart(sourceText.charCodeAt(i)) || sourceText.charCodeAt(i) === 46)) {
+        i++;
+      }
+      afterDot = false;
+      annotationState = 0;
+      expectClassName = false;
+      continue;
+    }
+
+    // Punctuation
+    if (code === 46 /* . */) {
+      // A qualified annotation name continues after the dot
+      annotationState = annotationState === 2 ? 1 : 0;
+      afterDot = true;
+      expectClassName = false;
+      i++;
+      continue;
+    }
+    if (code === 64 /* @ */) {
+      annotationState = 1;
+    } else {
+      annotationState = 0;
+      if (code === 123 /* { */) {
+        braceDepth++;
+      } else if (code === 125 /* } */) {
+        braceDepth--;
+      }
+    }
+    afterDot = false;
+    expectClassName = false;
+    i++;
+  }
+
+  const identifierList = Array.from(identifiers);
+  const mayContainComponents = COMPONENT_ANNOTATIONS.some((name) => annotationNames.has(name));
+  const mayContainClientCalls = identifierList.some((word) => word.includes('ComponentClient'));
+  const mayContainTopicOrStream = TOPIC_OR_STREAM_ANNOTATIONS.some((name) => annotationNames.has(name));
+  const mayContainTools =
+    annotationNames.has('FunctionTool') ||
+    TOOL_INVOCATIONS.some((name) => identifiers.has(name)) ||
+    (identifiers.has('List') && identifierList.some((word) => TOOL_FIELD_PATTERN.test(word)));
+
+  return {
+    mayContainComponents,
+    mayContainClientCalls,
+    mayContainTopicOrStream,
+    mayContainTools,
+    isCandidate: mayContainComponents || mayContainClientCalls || mayContainTopicOrStream || mayContainTools,
+    classNames,
+    identifiers: identifierList,
+  };
+}
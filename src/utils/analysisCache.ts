@@ -0,0 +1,134 @@
+import * as fs from 'fs';
+import * as path from 'path';
+import * as crypto from 'crypto';
+import { FileFacts } from '../models/types';
+
+// Version of the cache file layout itself, independent of the extractor version
+const CACHE_FORMAT_VERSION = 1;
+
+interface CacheEntry {
+  hash: string;
+  facts: FileFacts;
+}
+
+interface CacheFileContent {
+  version: string;
+  entries: Array<[string, CacheEntry]>;
+}
+
+/**
+ * SHA-256 of a file's source text, used as the cache validity key
+ */
+export function hashSource(sourceText: string): string {
+  return crypto.createHash('sha256').update(sourceText).digest('hex');
+}
+
+/**
+ * Persistent cache of per-file analysis facts, keyed by file path and SHA-256 of the source text.
+ * Entries are kept in least-recently-used order and the oldest are evicted above maxEntries.
+ * The whole cache is discarded when the stored version differs from the current extractor version.
+ */
+export class AnalysisCache {
+  private entries = new Map<string, CacheEntry>();
+  private loaded = false;
+  private dirty = false;
+  private readonly version: string;
+
+  /**
+   * @param cacheFile Path of the JSON file the cache is persisted to
+   * @param extractorVersion Version of the extraction logic (see FILE_FACTS_VERSION)
+   * @param maxEntries Maximum number of files kept in the cache
+   */
+  constructor(private readonly cacheFile: string, extractorVersion: number, private readonly maxEntries: number) {
+    this.version = `${CACHE_FORMAT_VERSION}.${extractorVersion}`;
+  }
+
+  get size(): number {
+    return this.entries.size;
+  }
+
+  /**
+   * Load the cache file once. A missing, unreadable or outdated file leaves the cache empty.
+   */
+  async load(): Promise<void> {
+    if (this.loaded) return;
+    this.loaded = true;
+
+    try {
+      const content: CacheFileContent = JSON.parse(await fs.promises.readFile(this.cacheFile, 'utf8'));
+      if (content.version !== this.version || !Array.isArray(content.entries)) {
+        this.dirty = true; // Rewrite the file so the stale entries are not read again
+        return;
+      }
+      // Entries are stored oldest first, so inserting in order restores the LRU order
+      for (const [filename, entry] of content.entries) {
+        this.entries.set(filename, entry);
+      }
+      this.evict();
+    } catch (error) {
+      // No cache yet, or a corrupt file: start empty
+      this.entries.clear();
+    }
+  }
+
+  /**
+   * Get the cached facts for a file if its source hash still matches
+   */
+  get(filename: string, hash: string): FileFacts | undefined {
+    const entry = this.entries.get(filename);
+    if (!entry || entry.hash !== hash) {
+      return undefined;
+    }
+    // Move to the most-recently-used end
+    this.entries.delete(filename);
+    this.entries.set(filename, entry);
+    return entry.facts;
+  }
+
+  set(filename: string, hash: string, facts: FileFacts): void {
+    this.entries.delete(filename);
+    this.entries.set(filename, { hash, facts });
+    this.dirty = true;
+    this.evict();
+  }
+
+  /**
+   * Replace a file's cached facts by an equal copy (e.g. one with interned strings), so the cache and the caller share
+   * one instance. Nothing changes unless the entry still holds previous.
+   */
+  replaceFacts(filename: string, previous: FileFacts, facts: FileFacts): void {
+    const entry = this.entries.get(filename);
+    if (entry && entry.facts === previous) {
+      entry.facts = facts;
+    }
+  }
+
+  /**
+   * Write the cache to disk if it changed since it was loaded or last saved
+   */
+  async save(): Promise<void> {
+    if (!this.dirty) return;
+
+    const content: CacheFileContent = { version: this.version, entries: Array.from(this.entries.entries()) };
+    const tempFile = `${this.cacheFile}.tmp`;
+    await fs.promises.mkdir(path.dirname(this.cacheFile), { recursive: true });
+    await fs.promises.writeFile(tempFile, JSON.stringify(content), 'utf8');
+    await fs.promises.rename(tempFile, this.cacheFile);
+    this.dirty = false;
+  }
+
+  async clear(): Promise<void> {
+    this.entries.clear();
+    this.loaded = true;
+    this.dirty = false;
+    await fs.promises.rm(this.cacheFile, { force: true });
+  }
+
+  private evict() {
+    while (this.entries.size > this.maxEntries) {
+      const oldest = this.entries.keys().next().value as string;
+      this.entries.delete(oldest);
+      this.dirty = true;
+    }
+  }
+}
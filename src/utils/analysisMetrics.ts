@@ -0,0 +1,179 @@
+import * as fs from 'fs';
+import * as path from 'path';
+import * as v8 from 'v8';
+import { performance } from 'perf_hooks';
+
+/**
+ * Steps of an analysis: parsing the files (step 1, including reads, pre-scan and fact extraction), detecting
+ * components (steps 2-4), detecting edges (step 5, including reference detection) and creating the result (step 6)
+ */
+export type AnalysisStage = 'parse' | 'detect' | 'edges' | 'result';
+
+export interface FileMetrics {
+  filename: string;
+  bytes: number;
+  /**
+   * How the file's facts were obtained: parsed, taken from the cache, skipped by the pre-scan, not at all (read or
+   * parse error), or kept from the previous analysis (files an incremental update did not read)
+   */
+  outcome: 'parsed' | 'cached' | 'skipped' | 'failed' | 'unchanged';
+  preScanMs: number;
+  /** Time spent in java-parser, on a parser thread or the calling thread */
+  parseMs: number;
+  /** Time spent extracting the file's facts from its CST */
+  extractMs: number;
+  /** Time spent finding references to components in step 5; 0 when the file's references were still valid */
+  referencesMs: number;
+  cstNodes: number;
+  cstTokens: number;
+}
+
+export interface AnalysisMetrics {
+  startedAt: string;
+  totalMs: number;
+  parserThreads: number;
+  /** Wall-clock time of each step, in order */
+  stages: Array<{ stage: AnalysisStage; ms: number }>;
+  files: { total: number; parsed: number; cached: number; skipped: number; failed: number; unchanged: number };
+  /** Sums over all files. Files are parsed on several threads, so the sums can exceed the wall-clock time of step 1. */
+  fileTotals: { bytes: number; preScanMs: number; parseMs: number; extractMs: number; referencesMs: number; cstNodes: number; cstTokens: number };
+  cache: { enabled: boolean; hits: number; misses: number; hitRate: number };
+  /** Used heap of the analyzing thread; parser threads have heaps of their own */
+  heap: { startBytes: number; peakBytes: number; endBytes: number };
+  /** The files that took longest (pre-scan, parse, extraction and reference detection together), slowest first */
+  slowestFiles: FileMetrics[];
+}
+
+// Number of files listed in AnalysisMetrics.slowestFiles
+const SLOWEST_FILE_COUNT = 25;
+
+// The heap is sampled at stage boundaries and every few completed files, rather than on a timer
+const HEAP_SAMPLE_EVERY = 8;
+
+function usedHeap(): number {
+  return v8.getHeapStatistics().used_heap_size;
+}
+
+/**
+ * Total time of a file: pre-scan, parse, extraction and reference detection
+ */
+export function fileMetricsMs(file: FileMetrics): number {
+  return file.preScanMs + file.parseMs + file.extractMs + file.referencesMs;
+}
+
+/**
+ * Collects the timings and counters of one analysis; finish() returns them as AnalysisMetrics
+ */
+export class AnalysisMetricsRecorder {
+  private readonly startedAt = new Date();
+  private readonly start = performance.now();
+  private readonly stages: Array<{ stage: AnalysisStage; ms: number }> = [];
+  private readonly files = new Map<string, FileMetrics>();
+  private currentStage?: { stage: AnalysisStage; start: number };
+  private readonly heapStart = usedHeap();
+  private heapPeak = this.heapStart;
+  private samplesSkipped = 0;
+
+  cacheHits = 0;
+  cacheMisses = 0;
+
+  /**
+   * @param parserThreads Parser thread count of the analysis, as configured
+   * @param cacheEnabled Whether the analysis has a persistent cache
+   */
+  constructor(private readonly parserThreads: number, private readonly cacheEnabled: boolean) {}
+
+  /**
+   * End the current stage, if any, and start timing the next one
+   */
+  beginStage(stage: AnalysisStage) {
+    this.endStage();
+    this.currentStage = { stage, start: performance.now() };
+  }
+
+  /**
+   * The metrics of a file, created on first use
+   */
+  file(filename: string): FileMetrics {
+    let file = this.files.get(filename);
+    if (!file) {
+      file = { filename, bytes: 0, outcome: 'unchanged', preScanMs: 0, parseMs: 0, extractMs: 0, referencesMs: 0, cstNodes: 0, cstTokens: 0 };
+      this.files.set(filename, file);
+    }
+    return file;
+  }
+
+  /**
+   * Note that a file is done; samples the heap every few files
+   */
+  fileDone() {
+    if (++this.samplesSkipped >= HEAP_SAMPLE_EVERY) {
+      this.sampleHeap();
+    }
+  }
+
+  sampleHeap() {
+    this.samplesSkipped = 0;
+    this.heapPeak = Math.max(this.heapPeak, usedHeap());
+  }
+
+  finish(): AnalysisMetrics {
+    this.endStage();
+    const heapEnd = usedHeap();
+    this.heapPeak = Math.max(this.heapPeak, heapEnd);
+
+    const files = { total: this.files.size, parsed: 0, cached: 0, skipped: 0, failed: 0, unchanged: 0 };
+    const fileTotals = { bytes: 0, preScanMs: 0, parseMs: 0, extractMs: 0, referencesMs: 0, cstNodes: 0, cstTokens: 0 };
+    for (const file of this.files.values()) {
+      files[file.outcome]++;
+      fileTotals.bytes += file.bytes;
+      fileTotals.preScanMs += file.preScanMs;
+      fileTotals.parseMs += file.parseMs;
+      fileTotals.extractMs += file.extractMs;
+      fileTotals.referencesMs += file.referencesMs;
+      fileTotals.cstNodes += file.cstNodes;
+      fileTotals.cstTokens += file.cstTokens;
+    }
+
+    const lookups = this.cacheHits + this.cacheMisses;
+    return {
+      startedAt: this.startedAt.toISOString(),
+      totalMs: performance.now() - this.start,
+      parserThreads: this.parserThreads,
+      stages: this.stages,
+      files,
+      fileTotals,
+      cache: { enabled: this.cacheEnabled, hits: this.cacheHits, misses: this.cacheMisses, hitRate: lookups > 0 ? this.cacheHits / lookups : 0 },
+      heap: { startBytes: this.heapStart, peakBytes: this.heapPeak, endBytes: heapEnd },
+      slowestFiles: Array.from(this.files.values())
+        .sort((a, b) => fileMetricsMs(b) - fileMetricsMs(a))
+        .slice(0, SLOWEST_FILE_COUNT),
+    };
+  }
+
+  private endStage() {
+    if (this.currentStage) {
+      this.stages.push({ stage: this.currentStage.stage, ms: performance.now() - this.currentStage.start });
+      this.currentStage = undefined;
+      this.sampleHeap();
+    }
+  }
+}
+
+/**
+ * One-line summary of the metrics, for logs and titles
+ */
+export function formatMetricsSummary(metrics: AnalysisMetrics): string {
+  const stages = metrics.stages.map(({ stage, ms }) => `${stage} ${ms.toFixed(0)} ms`).join(', ');
+  const cache = metrics.cache.enabled ? `, cache ${(metrics.cache.hitRate * 100).toFixed(0)}% hits` : '';
+  const heap = `, peak heap ${(metrics.heap.peakBytes / 1024 / 1024).toFixed(0)} MB`;
+  return `${metrics.files.total} files in ${metrics.totalMs.toFixed(0)} ms (${stages})${cache}${heap}`;
+}
+
+/**
+ * Write the metrics as a JSON report
+ */
+export async function writeMetricsReport(reportFile: string, metrics: AnalysisMetrics): Promise<void> {
+  await fs.promises.mkdir(path.dirname(reportFile), { recursive: true });
+  await fs.promises.writeFile(reportFile, JSON.stringify(metrics, null, 2), 'utf8');
+}
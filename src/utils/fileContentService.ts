@@ -0,0 +1,85 @@
+import * as vscode from 'vscode';
+import { TextDecoder } from 'util';
+
+// Reads in flight at once when reading many files
+const DEFAULT_READ_CONCURRENCY = 16;
+
+// Decodes UTF-8 and drops a byte order mark, as opening the file as a text document does
+const decoder = new TextDecoder('utf-8');
+
+export interface FileContent {
+  sourceText?: string;
+  error?: string;
+}
+
+/**
+ * Reads source files for analysis.
+ * Files are read as bytes with vscode.workspace.fs and decoded once, instead of being opened as text documents,
+ * which creates a document model and notifies language extensions for every file. Documents with unsaved
+ * changes are the exception: their editor buffer is used so the diagram reflects what the user sees.
+ */
+export class FileContentService {
+  /**
+   * Read one file
+   */
+  static async read(fileUri: vscode.Uri): Promise<string> {
+    const dirty = this.dirtyDocuments().get(fileUri.toString());
+    return dirty ? dirty.getText() : this.readFromDisk(fileUri);
+  }
+
+  /**
+   * Read many files with a bounded number of reads in flight.
+   * onRead is called as each read completes, which is not necessarily in input order; the index identifies the file.
+   * @param files The files to read
+   * @param onRead Called with the text of each file, or the error that prevented reading it; if it returns a promise,
+   * the reader waits for it before starting its next read, which bounds how many file texts are held while they are processed
+   * @param concurrency Maximum number of reads in flight
+   * @param token No further reads are started once cancellation is requested; the files not read are not reported
+   */
+  static async readAll(
+    files: vscode.Uri[],
+    onRead: (content: FileContent, index: number) => void | Promise<void>,
+    concurrency: number = DEFAULT_READ_CONCURRENCY,
+    token?: vscode.CancellationToken
+  ): Promise<void> {
+    const dirtyDocuments = this.dirtyDocuments();
+    let next = 0;
+
+    const reader = async () => {
+      while (next < files.length && !token?.isCancellationRequested) {
+        const index = next++;
+        let content: FileContent;
+        try {
+          const dirty = dirtyDocuments.get(files[index].toString());
+          content = { sourceText: dirty ? dirty.getText() : await this.readFromDisk(files[index]) };
+        } catch (error) {
+          content = { error: error instanceof Error ? error.message : String(error) };
+        }
+        await onRead(content, index);
+      }
+    };
+
+    const readers: Promise<void>[] = [];
+    for (let i = 0; i < Math.min(Math.max(1, concurrency), files.length); i++) {
+      readers.push(reader());
+    }
+    await Promise.all(readers);
+  }
+
+  private static async readFromDisk(fileUri: vscode.Uri): Promise<string> {
+    return decoder.decode(await vscode.workspace.fs.readFile(fileUri));
+  }
+
+  /**
+   * Open documents with unsaved changes, keyed by URI
+   */
+  private static dirtyDocuments(): Map<string, vscode.TextDocument> {
+    const documents = new Map<string, vscode.TextDocument>();
+    for (const document of vscode.workspace.textDocuments) {
+      if (document.isDirty) {
+        documents.set(document.uri.toString(), document);
+      }
+    }
+    return documents;
+  }
+}
@@ -0,0 +1,100 @@
+import * as vscode from 'vscode';
+import { ViewState } from '../models/types';
+
+export type NodeLayout = { [id: string]: { x: number; y: number } };
+
+const DEFAULT_VIEW_STATE: ViewState = { panX: 0, panY: 0, scale: 1 };
+
+// Delay between the first unsaved change and the write to workspace state
+const DEFAULT_FLUSH_INTERVAL_MS = 5000;
+
+/**
+ * Node positions and view state of one diagram, kept in memory and written to workspace state in batches.
+ * The webview reports every drag and pan; merging them here and writing at most once per flush interval
+ * (and when the store is disposed) replaces a read-merge-write of the whole layout for every message.
+ */
+export class LayoutStore implements vscode.Disposable {
+  private layout: NodeLayout;
+  private viewState: ViewState;
+  private dirty = false;
+  private flushTimer: NodeJS.Timeout | undefined;
+
+  /**
+   * @param state Workspace state the layout is loaded from and written to
+   * @param layoutKey Key of the node positions
+   * @param viewStateKey Key of the view state
+   * @param flushIntervalMs Delay between the first unsaved change and the write
+   */
+  constructor(
+    private readonly state: vscode.Memento,
+    private readonly layoutKey: string,
+    private readonly viewStateKey: string,
+    private readonly flushIntervalMs: number = DEFAULT_FLUSH_INTERVAL_MS
+  ) {
+    this.layout = { ...state.get<NodeLayout>(layoutKey, {}) };
+    this.viewState = state.get<ViewState>(viewStateKey, DEFAULT_VIEW_STATE);
+  }
+
+  getLayout(): NodeLayout {
+    return this.layout;
+  }
+
+  getViewState(): ViewState {
+    return this.viewState;
+  }
+
+  /**
+   * Whether no node was moved and the view is at its default position and scale
+   */
+  isEmpty(): boolean {
+    const { panX, panY, scale } = this.viewState;
+    return Object.keys(this.layout).length === 0 && panX === 0 && panY === 0 && scale === 1;
+  }
+
+  /**
+   * Record new positions for some nodes; positions of other nodes are kept
+   */
+  mergeLayout(positions: NodeLayout) {
+    Object.assign(this.layout, positions);
+    this.markDirty();
+  }
+
+  setViewState(viewState: ViewState) {
+    this.viewState = viewState;
+    this.markDirty();
+  }
+
+  /**
+   * Forget all positions and reset the view; written immediately
+   */
+  async clear(): Promise<void> {
+    this.layout = {};
+    this.viewState = DEFAULT_VIEW_STATE;
+    this.dirty = true;
+    await this.flush();
+  }
+
+  /**
+   * Write unsaved changes to workspace state
+   */
+  async flush(): Promise<void> {
+    if (this.flushTimer) {
+      clearTimeout(this.flushTimer);
+      this.flushTimer = undefined;
+    }
+    if (!this.dirty) return;
+    this.dirty = false;
+    await Promise.all([this.state.update(this.layoutKey, { ...this.layout }), this.state.update(this.viewStateKey, this.viewState)]);
+  }
+
+  dispose() {
+    void this.flush();
+  }
+
+  private markDirty() {
+    this.dirty = true;
+    if (!this.flushTimer) {
+      this.flushTimer = setTimeout(() => void this.flush(), this.flushIntervalMs);
+    }
+  }
+}
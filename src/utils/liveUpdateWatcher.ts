@@ -0,0 +1,105 @@
+import * as vscode from 'vscode';
+import * as path from 'path';
+
+/**
+ * Watches the Java files under a scan root and reports changes in coalesced batches.
+ * Events are collected until no new event has arrived for debounceMs (or maxWaitMs has passed since the
+ * first event of the batch), so a git checkout touching hundreds of files produces a single batch.
+ * Batches never overlap: events arriving while a batch is being processed go into the next batch.
+ */
+export class LiveUpdateWatcher implements vscode.Disposable {
+  private readonly watcher: vscode.FileSystemWatcher;
+  private readonly changed = new Map<string, vscode.Uri>();
+  private readonly deleted = new Map<string, vscode.Uri>();
+  private debounceTimer: NodeJS.Timeout | undefined;
+  private batchStartTime = 0;
+  private running = false;
+  private disposed = false;
+
+  /**
+   * @param scanRoot Folder whose Java files are watched
+   * @param onBatch Called with the files created or modified, and the files deleted, since the last batch
+   * @param log Logger for batch activity
+   * @param debounceMs Quiet period after the last event before a batch is processed
+   * @param maxWaitMs Maximum delay between the first event of a batch and its processing
+   */
+  constructor(
+    private readonly scanRoot: string,
+    private readonly onBatch: (changedFiles: vscode.Uri[], deletedFiles: vscode.Uri[]) => Promise<void>,
+    private readonly log: (message: string) => void,
+    private readonly debounceMs: number = 500,
+    private readonly maxWaitMs: number = 3000
+  ) {
+    this.watcher = vscode.workspace.createFileSystemWatcher(new vscode.RelativePattern(scanRoot, '**/*.java'));
+    this.watcher.onDidCreate((uri) => this.onChanged(uri));
+    this.watcher.onDidChange((uri) => this.onChanged(uri));
+    this.watcher.onDidDelete((uri) => this.onDeleted(uri));
+  }
+
+  dispose() {
+    this.disposed = true;
+    if (this.debounceTimer) {
+      clearTimeout(this.debounceTimer);
+    }
+    this.watcher.dispose();
+  }
+
+  private onChanged(uri: vscode.Uri) {
+    if (this.isExcluded(uri)) return;
+    this.deleted.delete(uri.fsPath);
+    this.changed.set(uri.fsPath, uri);
+    this.schedule();
+  }
+
+  private onDeleted(uri: vscode.Uri) {
+    if (this.isExcluded(uri)) return;
+    this.changed.delete(uri.fsPath);
+    this.deleted.set(uri.fsPath, uri);
+    this.schedule();
+  }
+
+  // Same exclusion as the initial scan (findFiles with '**/target/**'), which matches paths relative to the workspace
+  // folder, so a workspace that itself lives under a directory named target is not excluded
+  private isExcluded(uri: vscode.Uri): boolean {
+    const base = vscode.workspace.getWorkspaceFolder(uri)?.uri.fsPath ?? this.scanRoot;
+    return path.relative(base, uri.fsPath).split(path.sep).includes('target');
+  }
+
+  private schedule() {
+    if (this.running) return; // Picked up when the running batch completes
+
+    const now = Date.now();
+    if (!this.debounceTimer) {
+      this.batchStartTime = now;
+    } else {
+      clearTimeout(this.debounceTimer);
+    }
+    const delay = Math.max(0, Math.min(this.debounceMs, this.batchStartTime + this.maxWaitMs - now));
+    this.debounceTimer = setTimeout(() => this.flush(), delay);
+  }
+
+  private async flush() {
+    this.debounceTimer = undefined;
+    if (this.disposed || (this.changed.size === 0 && this.deleted.size === 0)) return;
+
+    const changedFiles = Array.from(this.changed.values());
+    const deletedFiles = Array.from(this.deleted.values());
+    this.changed.clear();
+    this.deleted.clear();
+
+    this.running = true;
+    try {
+      this.log(`Live update: ${changedFiles.length} changed, ${deletedFiles.length} deleted Java file(s)`);
+      await this.onBatch(changedFiles, deletedFiles);
+    } catch (error) {
+      this.log(`Live update failed: ${error}`);
+    } finally {
+      this.running = false;
+    }
+
+    // Events that arrived during the batch start the next one
+    if (this.changed.size > 0 || this.deleted.size > 0) {
+      this.schedule();
+    }
+  }
+}
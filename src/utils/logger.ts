@@ -1,17 +1,130 @@
-import * as vscode from 'vscode';
+import type * as vscode from 'vscode';
+
+export type LogLevel = 'off' | 'error' | 'info' | 'debug' | 'trace';
+
+// Numeric order of the levels; a message is written when its level is at or below the current level
+const LOG_LEVELS: LogLevel[] = ['off', 'error', 'info', 'debug', 'trace'];
+const ERROR = 1;
+const INFO = 2;
+const DEBUG = 3;
+const TRACE = 4;
+
+// Buffered lines are written to the output channel after this delay, or as soon as this many are pending
+const FLUSH_INTERVAL_MS = 100;
+const MAX_BUFFERED_LINES = 500;
+
+let currentLevel = INFO;
+
+/**
+ * Set the level of all loggers (see the akkaDiagramGenerator.logLevel setting). Unknown values select 'info'.
+ */
+export function setLogLevel(level: string) {
+  const index = LOG_LEVELS.indexOf(level as LogLevel);
+  currentLevel = index >= 0 ? index : INFO;
+}
+
+/**
+ * Where log lines are written: a VS Code output channel, or anything else that appends text (e.g. stderr in the command line analyzer)
+ */
+export type LogChannel = Pick<vscode.OutputChannel, 'append'>;
+
+/**
+ * A prefixed logger. Arguments that are functions are only called when the level is enabled,
+ * so messages for disabled levels are never formatted:
+ *   log.trace(() => `Checking parameter: ${JSON.stringify(keys)}`);
+ * Calling the logger itself logs at info level.
+ */
+export interface Logger {
+  (...args: any[]): void;
+  error(...args: any[]): void;
+  info(...args: any[]): void;
+  debug(...args: any[]): void;
+  trace(...args: any[]): void;
+}
+
+/**
+ * Collects lines for an output channel and appends them in batches, since every append is a message to the editor
+ */
+class BufferedOutputChannelWriter {
+  private lines: string[] = [];
+  private timer: NodeJS.Timeout | undefined;
+
+  constructor(private readonly outputChannel: LogChannel) {}
+
+  write(line: string) {
+    this.lines.push(line);
+    if (this.lines.length >= MAX_BUFFERED_LINES) {
+      this.flush();
+    } else if (!this.timer) {
+      this.timer = setTimeout(() => this.flush(), FLUSH_INTERVAL_MS);
+    }
+  }
+
+  flush() {
+    if (this.timer) {
+      clearTimeout(this.timer);
+      this.timer = undefined;
+    }
+    if (this.lines.length > 0) {
+      this.outputChannel.append(this.lines.join('\n') + '\n');
+      this.lines = [];
+    }
+  }
+}
+
+// One writer per output channel, shared by all loggers writing to it so lines keep their order
+const writers = new Map<LogChannel, BufferedOutputChannelWriter>();
+
+/**
+ * Write all buffered log lines to their output channels
+ */
+export function flushLogs() {
+  writers.forEach((writer) => writer.flush());
+}
+
+function formatArgument(arg: any): string {
+  const value = typeof arg === 'function' ? arg() : arg;
+  return typeof value === 'string' ? value : JSON.stringify(value);
+}
 
 /**
  * Creates a logger with a specific prefix for module identification
- * @param outputChannel The VS Code output channel for logging
+ * @param outputChannel The VS Code output channel for logging; without one, messages go to the console
  * @param prefix The prefix to prepend to all log messages (e.g., '[JavaParser]', '[CSTUtils]')
- * @returns A logger function that prepends the prefix to all messages
+ * @returns A logger that prepends the prefix to all messages of enabled levels
  */
-export function createPrefixedLogger(outputChannel: vscode.OutputChannel | undefined, prefix: string) {
-  return (...args: any[]) => {
-    const msg = `${prefix} ${args.map((a) => (typeof a === 'string' ? a : JSON.stringify(a))).join(' ')}`;
-    if (outputChannel) {
-      outputChannel.appendLine(msg);
+export function createPrefixedLogger(outputChannel: LogChannel | undefined, prefix: string): Logger {
+  let writer: BufferedOutputChannelWriter | undefined;
+  if (outputChannel) {
+    writer = writers.get(outputChannel);
+    if (!writer) {
+      writer = new BufferedOutputChannelWriter(outputChannel);
+      writers.set(outputChannel, writer);
+    }
+  }
+
+  function write(level: number, args: any[]) {
+    if (level > currentLevel) return;
+    const msg = args.length === 1 ? `${prefix} ${formatArgument(args[0])}` : `${prefix} ${args.map(formatArgument).join(' ')}`;
+    if (writer) {
+      writer.write(msg);
+      if (level === ERROR) {
+        writer.flush();
+      }
+    } else {
+      console.log(msg);
     }
-    console.log(msg);
-  };
+  }
+
+  const logger = ((...args: any[]) => write(INFO, args)) as Logger;
+  logger.error = (...args: any[]) => write(ERROR, args);
+  logger.info = (...args: any[]) => write(INFO, args);
+  logger.debug = (...args: any[]) => write(DEBUG, args);
+  logger.trace = (...args: any[]) => write(TRACE, args);
+  return logger;
 }
+
+/**
+ * A logger that discards everything, for callers that were not given one
+ */
+export const nullLogger: Logger = Object.assign(() => {}, { error: () => {}, info: () => {}, debug: () => {}, trace: () => {} });
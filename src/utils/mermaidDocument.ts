@@ -0,0 +1,212 @@
+import * as fs from 'fs';
+import * as crypto from 'crypto';
+import { once } from 'events';
+import { Writable } from 'stream';
+import { MermaidSection } from './mermaidGenerator';
+
+// Each generated section is wrapped in HTML comments (invisible in rendered markdown) holding its id and a hash of
+// its content, so regenerating a document only replaces the sections whose content changed
+const SECTION_START = /^<!-- akka-diagram:(\S+) ([0-9a-f]+) -->\r?$/gm;
+const sectionEnd = (id: string) => `<!-- /akka-diagram:${id} -->`;
+
+interface MarkedSection {
+  id: string;
+  hash: string;
+  /** Offset of the start marker */
+  start: number;
+  /** Offset just after the end marker and its line break */
+  end: number;
+}
+
+/**
+ * A change to an existing document: the text from start to end is replaced by the section, or removed
+ */
+export interface SectionEdit {
+  start: number;
+  end: number;
+  section?: MermaidSection;
+  hash?: string;
+  /** Blank line written before or after an inserted section, to separate it from the section next to it */
+  separator?: 'before' | 'after';
+}
+
+/**
+ * How to bring a document up to date: rewrite it completely (it has no generated sections yet), or apply the
+ * edits, which are in document order and do not overlap
+ */
+export type DocumentUpdate = { rewrite: true } | { rewrite: false; edits: SectionEdit[] };
+
+function sectionHash(section: MermaidSection): string {
+  const hash = crypto.createHash('sha256');
+  hash.update(section.heading || '');
+  for (const line of section.lines()) {
+    hash.update(line);
+    hash.update('\n');
+  }
+  return hash.digest('hex').slice(0, 16);
+}
+
+/**
+ * The text of a section, marker lines included, as chunks of a line each
+ */
+export function* sectionChunks(section: MermaidSection, hash: string = sectionHash(section)): Generator<string> {
+  yield `<!-- akka-diagram:${section.id} ${hash} -->\n`;
+  if (section.heading) {
+    yield `${section.heading}\n\n`;
+  }
+  for (const line of section.lines()) {
+    yield `${line}\n`;
+  }
+  yield `${sectionEnd(section.id)}\n`;
+}
+
+// Length of the line break at offset, or 0
+function lineBreakAt(text: string, offset: number): number {
+  if (text.startsWith('\r\n', offset)) return 2;
+  return text[offset] === '\n' ? 1 : 0;
+}
+
+function findSections(text: string): MarkedSection[] {
+  const sections: MarkedSection[] = [];
+  SECTION_START.lastIndex = 0;
+  let match: RegExpExecArray | null;
+  while ((match = SECTION_START.exec(text))) {
+    const [, id, hash] = match;
+    const endMarker = text.indexOf(sectionEnd(id), match.index);
+    if (endMarker < 0) continue;
+    const markerEnd = endMarker + sectionEnd(id).length;
+    const end = markerEnd + lineBreakAt(text, markerEnd);
+    sections.push({ id, hash, start: match.index, end });
+    SECTION_START.lastIndex = end;
+  }
+  return sections;
+}
+
+// Length of the blank line ending at offset, or 0
+function blankLineBefore(text: string, offset: number): number {
+  if (text.endsWith('\n\r\n', offset)) return 2;
+  return text.endsWith('\n\n', offset) ? 1 : 0;
+}
+
+/**
+ * Compare the generated sections with those in the existing document. Unchanged sections are left alone,
+ * changed ones replaced, new ones inserted after the section preceding them, and sections no longer generated removed.
+ * @param existingText The document's current text; undefined or without generated sections means a rewrite
+ */
+export function planDocumentUpdate(existingText: string | undefined, sections: MermaidSection[]): DocumentUpdate {
+  const existing = existingText !== undefined ? findSections(existingText) : [];
+  if (existing.length === 0) {
+    return { rewrite: true };
+  }
+
+  const existingById = new Map(existing.map((section) => [section.id, section]));
+  const generatedIds = new Set(sections.map((section) => section.id));
+  // A removed section is removed with the blank line separating it from the kept section before it, or, if there is
+  // none, from the section after it
+  const edits: SectionEdit[] = [];
+  let keptBefore = false;
+  for (const section of existing) {
+    if (generatedIds.has(section.id)) {
+      keptBefore = true;
+    } else if (keptBefore) {
+      edits.push({ start: section.start - blankLineBefore(existingText!, section.start), end: section.end });
+    } else {
+      edits.push({ start: section.start, end: section.end + lineBreakAt(existingText!, section.end) });
+    }
+  }
+
+  // Sections generated before the first existing one are inserted in front of it, the others after their predecessor
+  let insertAt = existing[0].start;
+  let separator: SectionEdit['separator'] = 'after';
+  for (const section of sections) {
+    const hash = sectionHash(section);
+    const current = existingById.get(section.id);
+    if (current) {
+      if (current.hash !== hash) {
+        edits.push({ start: current.start, end: current.end, section, hash });
+      }
+      insertAt = current.end;
+      separator = 'before';
+    } else {
+      edits.push({ start: insertAt, end: insertAt, section, hash, separator });
+    }
+  }
+  return { rewrite: false, edits: edits.sort((a, b) => a.start - b.start || a.end - b.end) };
+}
+
+/**
+ * The text replacing the range of an edit: the section with its separator line, or nothing for a removed section
+ */
+export function* editChunks(edit: SectionEdit): Generator<string> {
+  if (!edit.section) return;
+  if (edit.separator === 'before') yield '\n';
+  yield* sectionChunks(edit.section, edit.hash);
+  if (edit.separator === 'after') yield '\n';
+}
+
+/**
+ * The chunks of the updated document: a complete document for a rewrite, otherwise the existing text with the edits applied
+ */
+export function* documentChunks(existingText: string | undefined, update: DocumentUpdate, sections: MermaidSection[], title: string): Generator<string> {
+  if (update.rewrite || existingText === undefined) {
+    yield `# ${title}\n\n`;
+    for (let i = 0; i < sections.length; i++) {
+      if (i > 0) yield '\n';
+      yield* sectionChunks(sections[i]);
+    }
+    return;
+  }
+
+  let copied = 0;
+  for (const edit of update.edits) {
+    yield existingText.slice(copied, edit.start);
+    yield* editChunks(edit);
+    copied = edit.end;
+  }
+  yield existingText.slice(copied);
+}
+
+/**
+ * Write chunks to a stream, waiting whenever its buffer is full
+ */
+export async function writeChunks(out: Writable, chunks: Iterable<string>): Promise<void> {
+  for (const chunk of chunks) {
+    if (chunk.length > 0 && !out.write(chunk)) {
+      await once(out, 'drain');
+    }
+  }
+}
+
+/**
+ * Write the generated sections to a markdown file with a write stream, without opening it as a text document.
+ * Only sections whose content changed are replaced; the rest of the file is kept as it is.
+ * @returns The number of sections written (0 if the file was already up to date)
+ */
+export async function writeMermaidDocument(filePath: string, sections: MermaidSection[], title: string): Promise<number> {
+  let existingText: string | undefined;
+  try {
+    existingText = await fs.promises.readFile(filePath, 'utf8');
+  } catch (error) {
+    // A missing file is written from scratch
+  }
+
+  const update = planDocumentUpdate(existingText, sections);
+  if (!update.rewrite && update.edits.length === 0) {
+    return 0;
+  }
+
+  // Written next to the file and renamed over it, so an interrupted write leaves the previous document intact
+  const tempFile = `${filePath}.tmp`;
+  const out = fs.createWriteStream(tempFile, { encoding: 'utf8' });
+  try {
+    await writeChunks(out, documentChunks(existingText, update, sections, title));
+    out.end();
+    await once(out, 'finish');
+  } catch (error) {
+    out.destroy();
+    await fs.promises.rm(tempFile, { force: true });
+    throw error;
+  }
+  await fs.promises.rename(tempFile, filePath);
+  return update.rewrite ? sections.length : update.edits.filter((edit) => edit.section).length;
+}
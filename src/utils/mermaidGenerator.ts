@@ -4,53 +4,228 @@ export interface MermaidDiagramOptions {
   title?: string;
   direction?: 'TB' | 'TD' | 'BT' | 'RL' | 'LR';
   theme?: 'default' | 'forest' | 'dark' | 'neutral';
+  /** Draws the nodes of each cluster in a subgraph; nodes without a cluster are drawn outside the subgraphs */
+  clusterOf?: (node: AkkaComponent) => string | undefined;
+  /** With clusterOf, diagrams with more nodes are split into an overview of the clusters and one diagram per cluster */
+  maxNodesPerDiagram?: number;
 }
 
+/**
+ * One fenced Mermaid block of a generated document, with an optional heading above it.
+ * Lines are produced on demand, so a large diagram can be written out without building it as one string.
+ */
+export interface MermaidSection {
+  /** Stable id, used to find the section again when the document is regenerated */
+  id: string;
+  heading?: string;
+  /** The lines of the fenced block, including the fences */
+  lines(): Iterable<string>;
+}
+
+// Prefix of subgraph and overview node ids, which cannot collide with sanitized class names
+const CLUSTER_NODE_PREFIX = 'cluster__';
+
 /**
  * Generates a Mermaid diagram from Akka component data
  */
 export function generateMermaidDiagram(nodes: AkkaComponent[], edges: AkkaEdge[], options: MermaidDiagramOptions = {}): string {
-  const { title = 'Akka Component Diagram', direction = 'TB', theme = 'neutral' } = options;
+  const { title = 'Akka Component Diagram' } = options;
+  const sections = generateMermaidSections(nodes, edges, options).map((section) =>
+    [...(section.heading ? [section.heading, ''] : []), ...section.lines()].join('\n')
+  );
+  return `# ${title}\n\n${sections.join('\n\n')}\n`;
+}
 
-  // Generate node definitions
-  const nodeDefinitions = nodes
-    .map((node) => {
-      const nodeId = sanitizeNodeId(node.id);
-      const nodeType = getNodeType(node.type);
-      return `    ${nodeId}["${node.name}"]:::${nodeType}`;
-    })
-    .join('\n');
+/**
+ * The Mermaid blocks of a diagram: a single block, with a subgraph per cluster when options.clusterOf is given,
+ * or, above options.maxNodesPerDiagram nodes, an overview of the clusters linked to a block per cluster
+ */
+export function generateMermaidSections(nodes: AkkaComponent[], edges: AkkaEdge[], options: MermaidDiagramOptions = {}): MermaidSection[] {
+  const { direction = 'TB', theme = 'neutral', clusterOf, maxNodesPerDiagram = 0 } = options;
+  if (!clusterOf) {
+    return [{ id: 'diagram', lines: () => diagramLines(theme, direction, flatBody(nodes, edges)) }];
+  }
 
-  // Generate edge definitions
-  const edgeDefinitions = edges
-    .map((edge) => {
-      const sourceId = sanitizeNodeId(edge.source);
-      const targetId = sanitizeNodeId(edge.target);
-      const label = edge.label || '';
-      return `    ${sourceId} -->|"${label}"| ${targetId}`;
-    })
-    .join('\n');
+  const clusters = groupByCluster(nodes, clusterOf);
+  if (maxNodesPerDiagram <= 0 || nodes.length <= maxNodesPerDiagram || clusters.members.size < 2) {
+    return [{ id: 'diagram', lines: () => diagramLines(theme, direction, clusteredBody(nodes, edges, clusters)) }];
+  }
 
-  // Generate CSS classes for different node types
-  const cssClasses = generateCssClasses();
+  const clusterNames = Array.from(clusters.members.keys()).sort();
+  return [
+    { id: 'overview', heading: '## Overview', lines: () => diagramLines(theme, direction, overviewBody(nodes, edges, clusters), OVERVIEW_CLASSES) },
+    ...clusterNames.map((cluster) => ({
+      id: `cluster:${cluster}`,
+      heading: `## ${cluster}`,
+      lines: () => diagramLines(theme, direction, clusterBody(cluster, nodes, edges, clusters), [EXTERNAL_CLASS]),
+    })),
+  ];
+}
 
-  return `# ${title}
+interface Clusters {
+  /** Members of each cluster, in node order */
+  members: Map<string, AkkaComponent[]>;
+  /** Cluster of each clustered node id */
+  clusterOf: Map<string, string>;
+}
 
-\`\`\`mermaid
----
-config:
-  theme: '${theme}'
----
+function groupByCluster(nodes: AkkaComponent[], clusterOf: (node: AkkaComponent) => string | undefined): Clusters {
+  const clusters: Clusters = { members: new Map(), clusterOf: new Map() };
+  for (const node of nodes) {
+    const cluster = clusterOf(node);
+    if (cluster === undefined) continue;
+    clusters.clusterOf.set(node.id, cluster);
+    const members = clusters.members.get(cluster);
+    if (members) {
+      members.push(node);
+    } else {
+      clusters.members.set(cluster, [node]);
+    }
+  }
+  return clusters;
+}
 
-graph ${direction}
+function* diagramLines(theme: string, direction: string, body: Iterable<string>, extraClasses: string[] = []): Generator<string> {
+  yield '```mermaid';
+  yield '---';
+  yield 'config:';
+  yield `  theme: '${theme}'`;
+  yield '---';
+  yield '';
+  yield `graph ${direction}`;
+  yield '';
+  yield* body;
+  yield '';
+  yield generateCssClasses();
+  yield* extraClasses;
+  yield '```';
+}
 
-${nodeDefinitions}
+function nodeLine(node: AkkaComponent, indent = '    '): string {
+  return `${indent}${sanitizeNodeId(node.id)}["${node.name}"]:::${getNodeType(node.type)}`;
+}
 
-${edgeDefinitions}
+function edgeLine(sourceId: string, targetId: string, label: string): string {
+  return `    ${sourceId} -->|"${label}"| ${targetId}`;
+}
 
-${cssClasses}
-\`\`\`
-`;
+function* edgeLines(edges: AkkaEdge[]): Generator<string> {
+  for (const edge of edges) {
+    yield edgeLine(sanitizeNodeId(edge.source), sanitizeNodeId(edge.target), edge.label || '');
+  }
+}
+
+function* flatBody(nodes: AkkaComponent[], edges: AkkaEdge[]): Generator<string> {
+  for (const node of nodes) {
+    yield nodeLine(node);
+  }
+  yield '';
+  yield* edgeLines(edges);
+}
+
+function* clusteredBody(nodes: AkkaComponent[], edges: AkkaEdge[], clusters: Clusters): Generator<string> {
+  for (const [cluster, members] of clusters.members) {
+    yield `    subgraph ${clusterNodeId(cluster)}["${cluster}"]`;
+    for (const node of members) {
+      yield nodeLine(node, '        ');
+    }
+    yield '    end';
+  }
+  for (const node of nodes) {
+    if (!clusters.clusterOf.has(node.id)) {
+      yield nodeLine(node);
+    }
+  }
+  yield '';
+  yield* edgeLines(edges);
+}
+
+const OVERVIEW_CLASSES = ['classDef cluster fill:#ffffff,stroke:#424242,stroke-width:3px'];
+const EXTERNAL_CLASS = 'classDef external fill:#ffffff,stroke:#9e9e9e,stroke-width:1px,stroke-dasharray: 3 3';
+
+/**
+ * One node per cluster, linked to the cluster's section, plus the unclustered nodes. Edges between the same
+ * clusters are combined; edges within a cluster are left to the cluster's diagram.
+ */
+function* overviewBody(nodes: AkkaComponent[], edges: AkkaEdge[], clusters: Clusters): Generator<string> {
+  const endpointId = (id: string) => {
+    const cluster = clusters.clusterOf.get(id);
+    return cluster === undefined ? sanitizeNodeId(id) : clusterNodeId(cluster);
+  };
+
+  for (const [cluster, members] of clusters.members) {
+    yield `    ${clusterNodeId(cluster)}["${cluster} (${members.length})"]:::cluster`;
+  }
+  for (const node of nodes) {
+    if (!clusters.clusterOf.has(node.id)) {
+      yield nodeLine(node);
+    }
+  }
+  yield '';
+
+  const combined = new Map<string, { sourceId: string; targetId: string; count: number; label: string }>();
+  for (const edge of edges) {
+    const sourceId = endpointId(edge.source);
+    const targetId = endpointId(edge.target);
+    if (sourceId === targetId) continue;
+    const key = `${sourceId}->${targetId}`;
+    const existing = combined.get(key);
+    if (existing) {
+      existing.count++;
+    } else {
+      combined.set(key, { sourceId, targetId, count: 1, label: edge.label || '' });
+    }
+  }
+  for (const { sourceId, targetId, count, label } of combined.values()) {
+    yield edgeLine(sourceId, targetId, count > 1 ? `${count} connections` : label);
+  }
+
+  yield '';
+  for (const cluster of clusters.members.keys()) {
+    yield `    click ${clusterNodeId(cluster)} "#${headingAnchor(cluster)}" "Show ${cluster}"`;
+  }
+}
+
+/**
+ * The members of a cluster and every edge touching them; the nodes at the other end of edges leaving the
+ * cluster are drawn as external nodes
+ */
+function* clusterBody(cluster: string, nodes: AkkaComponent[], edges: AkkaEdge[], clusters: Clusters): Generator<string> {
+  const members = clusters.members.get(cluster) || [];
+  const isMember = (id: string) => clusters.clusterOf.get(id) === cluster;
+  const clusterEdges = edges.filter((edge) => isMember(edge.source) || isMember(edge.target));
+
+  yield `    subgraph ${clusterNodeId(cluster)}["${cluster}"]`;
+  for (const node of members) {
+    yield nodeLine(node, '        ');
+  }
+  yield '    end';
+
+  const externalIds = new Set<string>();
+  clusterEdges.forEach((edge) => [edge.source, edge.target].filter((id) => !isMember(id)).forEach((id) => externalIds.add(id)));
+  for (const node of nodes) {
+    if (externalIds.has(node.id)) {
+      const otherCluster = clusters.clusterOf.get(node.id);
+      yield `    ${sanitizeNodeId(node.id)}["${node.name}${otherCluster !== undefined ? ` (${otherCluster})` : ''}"]:::external`;
+    }
+  }
+  yield '';
+  yield* edgeLines(clusterEdges);
+}
+
+function clusterNodeId(cluster: string): string {
+  return CLUSTER_NODE_PREFIX + sanitizeNodeId(cluster);
+}
+
+/**
+ * Anchor of a markdown heading as generated by GitHub and the VS Code markdown preview
+ */
+export function headingAnchor(heading: string): string {
+  return heading
+    .trim()
+    .toLowerCase()
+    .replace(/[^\p{L}\p{N}\s_-]/gu, '')
+    .replace(/\s/g, '-');
 }
 
 /**
@@ -0,0 +1,23 @@
+/**
+ * Section of the extension's settings (see contributes.configuration in package.json)
+ */
+export const SETTINGS_SECTION = 'akkaDiagramGenerator';
+
+export type MermaidTheme = 'default' | 'forest' | 'dark' | 'neutral';
+
+/**
+ * Defaults of the settings, as declared in package.json. The command line analyzer has no settings and uses these,
+ * so a scan from the command line analyzes and clusters a project the same way the extension does by default.
+ */
+export const SETTING_DEFAULTS = {
+  mermaidTheme: 'neutral' as MermaidTheme,
+  mermaidMaxNodesPerDiagram: 300,
+  parserThreads: 0,
+  analysisCacheSize: 10000,
+  liveUpdates: true,
+  logLevel: 'info',
+  nodeRenderer: 'dom',
+  showFrameStats: false,
+  autoLayout: 'layered',
+  clusterThreshold: 150,
+};
@@ -0,0 +1,25 @@
+/**
+ * Table of distinct strings, so that identifiers mentioned by many files are stored once.
+ * Strings sliced out of a source text (by the pre-scan or the in-process parser) are V8 sliced strings that keep
+ * the whole source text reachable; the table stores a flat copy of each string instead of the slice it was given.
+ */
+export class StringTable {
+  private readonly strings = new Map<string, string>();
+
+  /**
+   * The table's copy of value, added on first use
+   */
+  intern(value: string): string {
+    let interned = this.strings.get(value);
+    if (interned === undefined) {
+      // Round-tripping through a buffer yields a new flat string with no reference to the text value was sliced from
+      interned = Buffer.from(value, 'utf8').toString('utf8');
+      this.strings.set(interned, interned);
+    }
+    return interned;
+  }
+
+  get size(): number {
+    return this.strings.size;
+  }
+}
@@ -0,0 +1,34 @@
+import { AkkaEdge, SerializableDiagramData } from '../models/types';
+
+const COMPONENT_TYPES = ['HttpEndpoint', 'EventSourcedEntity', 'KeyValueEntity', 'View', 'Consumer', 'Workflow', 'TimedAction', 'Agent', 'Topic'];
+const METHODS = ['create', 'get', 'update', 'delete', 'find', 'process'];
+
+/**
+ * Generate a diagram of the given size for measuring webview rendering performance.
+ * Nodes are laid out on a square grid; every node calls its right neighbour and every third node also calls
+ * the node below it, so edges are short, local and evenly spread like in a laid-out project diagram.
+ * @param nodeCount Number of nodes
+ */
+export function createSyntheticDiagram(nodeCount: number): SerializableDiagramData {
+  const columns = Math.max(1, Math.ceil(Math.sqrt(nodeCount)));
+  const nodes: SerializableDiagramData['nodes'] = [];
+  const edges: AkkaEdge[] = [];
+
+  for (let i = 0; i < nodeCount; i++) {
+    const type = COMPONENT_TYPES[i % COMPONENT_TYPES.length];
+    nodes.push({ id: `${type}${i}`, name: `component-${i}`, type, x: (i % columns) * 280, y: Math.floor(i / columns) * 120 });
+  }
+
+  for (let i = 0; i < nodeCount; i++) {
+    if ((i + 1) % columns !== 0 && i + 1 < nodeCount) {
+      const method = METHODS[i % METHODS.length];
+      edges.push({ source: nodes[i].id, target: nodes[i + 1].id, label: method, details: [method], weight: 1 });
+    }
+    if (i % 3 === 0 && i + columns < nodeCount) {
+      const details = [METHODS[i % METHODS.length], METHODS[(i + 1) % METHODS.length]];
+      edges.push({ source: nodes[i].id, target: nodes[i + columns].id, label: `invokes (${details.length} methods)`, details, weight: 1 + (i % 7) });
+    }
+  }
+
+  return { nodes, edges };
+}
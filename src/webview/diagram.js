@@ -2,6 +2,8 @@ const vscode = acquireVsCodeApi();
 
 // Global variables
 let diagramData, initialViewState, nodes, edges;
+// Sequence number of the diagram shown, see applyDelta
+let diagramVersion;
 let draggingNode = null,
   dragOffsetX,
   dragOffsetY,
@@ -14,18 +16,119 @@ let isPanning = false,
 let isMarqueeSelecting = false,
   marqueeStartX,
   marqueeStartY;
-let edgeLabelHitboxes = [];
 const selectedNodes = new Set();
 let initialDragPositions = new Map();
 
+// Rendering options from the akkaDiagramGenerator.nodeRenderer, showFrameStats and autoLayout settings
+let renderOptions = { nodeRenderer: 'dom', showFrameStats: false, layout: 'layered' };
+let nodeRenderer;
+
+// Automatic layout runs in a worker (layoutWorker.js); only the response to the latest request is applied.
+// A webview can only start workers from blob URLs, so the worker's source is fetched from the extension's resources first.
+const layoutWorkerUri = document.currentScript && document.currentScript.dataset.layoutWorker;
+let layoutWorkerSource = null;
+let layoutUnavailable = !layoutWorkerUri;
+let layoutWorker = null;
+let layoutRequestId = 0;
+// Layout requested before the worker source was loaded: null if none, else whether every request was incremental
+let deferredLayout = null;
+
+// Nodes by id, rebuilt whenever the node list is replaced
+let nodeById = new Map();
+// Node bounds for marquee selection, rebuilt lazily after nodes moved or were resized
+const nodeIndex = new SpatialGrid(256);
+let nodeIndexDirty = true;
+// Edge label bounds for tooltips, rebuilt whenever the static edge layer is repainted
+const edgeLabelIndex = new SpatialGrid(256);
+
+// Below this zoom level edges are drawn as straight lines without labels
+const LOW_DETAIL_SCALE = 0.5;
+// World-space margin around the visible area within which edges are still drawn (arrowheads, labels)
+const CULL_MARGIN = 100;
+let drawScheduled = false;
+let staticLayerDirty = true;
+// While nodes are dragged: the edges touching them (moving) and all others (fixed)
+let dragEdges = null;
+
+// Layout and view state changes are sent to the extension at most once per interval (trailing)
+const PERSIST_INTERVAL_MS = 1000;
+let pendingLayout = null;
+let pendingViewState = null;
+let persistTimer = null;
+
+// Diagnostics go to the extension's output channel (at debug level) rather than the webview console
+function logToExtension(message) {
+  vscode.postMessage({ command: 'log', payload: { message } });
+}
+
+/**
+ * Uniform grid over world coordinates. Items are registered in every cell their bounds overlap,
+ * so a query only looks at the items near the queried area instead of all of them.
+ */
+function SpatialGrid(cellSize) {
+  this.cellSize = cellSize;
+  this.cells = new Map();
+}
+
+SpatialGrid.prototype.clear = function () {
+  this.cells.clear();
+};
+
+SpatialGrid.prototype.insert = function (item, x, y, width, height) {
+  const bounds = { item, left: x, top: y, right: x + width, bottom: y + height };
+  const minCol = Math.floor(bounds.left / this.cellSize);
+  const maxCol = Math.floor(bounds.right / this.cellSize);
+  const minRow = Math.floor(bounds.top / this.cellSize);
+  const maxRow = Math.floor(bounds.bottom / this.cellSize);
+  for (let col = minCol; col <= maxCol; col++) {
+    for (let row = minRow; row <= maxRow; row++) {
+      const key = col + ':' + row;
+      const cell = this.cells.get(key);
+      if (cell) {
+        cell.push(bounds);
+      } else {
+        this.cells.set(key, [bounds]);
+      }
+    }
+  }
+};
+
+/**
+ * Returns the items whose bounds intersect the given rectangle (a point when right/bottom are omitted)
+ */
+SpatialGrid.prototype.query = function (left, top, right = left, bottom = top) {
+  const found = new Set();
+  const minCol = Math.floor(left / this.cellSize);
+  const maxCol = Math.floor(right / this.cellSize);
+  const minRow = Math.floor(top / this.cellSize);
+  const maxRow = Math.floor(bottom / this.cellSize);
+  for (let col = minCol; col <= maxCol; col++) {
+    for (let row = minRow; row <= maxRow; row++) {
+      const cell = this.cells.get(col + ':' + row);
+      if (!cell) continue;
+      for (const bounds of cell) {
+        if (bounds.left <= right && bounds.right >= left && bounds.top <= bottom && bounds.bottom >= top) {
+          found.add(bounds.item);
+        }
+      }
+    }
+  }
+  return found;
+};
+
 // DOM elements
-const canvas = document.getElementById('diagram-canvas');
+const staticCanvas = document.getElementById('edge-canvas-static');
+const dynamicCanvas = document.getElementById('edge-canvas-dynamic');
 const nodeContainer = document.getElementById('node-container');
+const nodeCanvas = document.getElementById('node-canvas');
+const frameStatsOverlay = document.getElementById('frame-stats');
 const viewport = document.getElementById('viewport');
 const diagramRoot = document.getElementById('diagram-root');
 const tooltip = document.getElementById('tooltip');
 const marquee = document.getElementById('marquee');
-const ctx = canvas.getContext('2d');
+const staticCtx = staticCanvas.getContext('2d');
+const dynamicCtx = dynamicCanvas.getContext('2d');
+const nodeCtx = nodeCanvas.getContext('2d');
 
 // Component color mapping
 const componentColors = {
@@ -43,205 +146,824 @@ const componentColors = {
   serviceStream: 'bg-byzanthium',
   functionTool: 'bg-fuchsia-900',
   mcpTool: 'bg-cyan-900',
+  cluster: 'bg-zinc-600 cluster',
   unknown: 'bg-gray-700',
 };
 
+// The same colors for the canvas node renderer
+const componentFillColors = {
+  httpEndpoint: '#9333ea',
+  grpcEndpoint: '#4f46e5',
+  mcpEndpoint: '#0891b2',
+  eventSourcedEntity: '#16a34a',
+  keyValueEntity: '#059669',
+  view: '#2563eb',
+  consumer: '#ca8a04',
+  workflow: '#ea580c',
+  timedAction: '#e11d48',
+  agent: '#c026d3',
+  topic: '#64748b',
+  serviceStream: '#702963',
+  functionTool: '#701a75',
+  mcpTool: '#164e63',
+  cluster: '#52525b',
+  unknown: '#374151',
+};
+
 // Initialize the diagram
-function initializeDiagram(data, viewState) {
+function initializeDiagram(data, viewState, options) {
+  renderOptions = Object.assign(renderOptions, options);
+  nodeRenderer = renderOptions.nodeRenderer === 'canvas' ? canvasNodeRenderer : domNodeRenderer;
+  if (nodeRenderer === canvasNodeRenderer) {
+    nodeCanvas.classList.remove('hidden');
+  }
+  if (renderOptions.showFrameStats) {
+    frameStats.start();
+  }
+
   diagramData = data;
+  diagramVersion = data.version;
   initialViewState = viewState;
   nodes = diagramData.nodes;
   edges = diagramData.edges;
 
-  // Debug: log the edges being initialized
-  console.log('Initializing diagram with edges:', edges);
-  edges.forEach((edge, index) => {
-    console.log(`Edge ${index}:`, edge);
-    console.log(`Edge ${index} details:`, edge.details);
-    console.log(`Edge ${index} details length:`, edge.details ? edge.details.length : 'undefined');
-  });
-
   scale = initialViewState.scale;
   panX = initialViewState.panX;
   panY = initialViewState.panY;
 
-  render();
+  resizeCanvases();
+  render(false);
   setupEventListeners();
 }
 
-function render() {
-  nodeContainer.innerHTML = '';
+/**
+ * Show the current node list and lay out the nodes without a position.
+ * @param incremental Keep the nodes the automatic layout already placed (live updates); false lays them out again
+ */
+function render(incremental) {
+  nodeById = new Map();
   nodes.forEach((node, index) => {
-    node.x = node.x !== undefined ? node.x : 50;
-    node.y = node.y !== undefined ? node.y : 50 + index * 40;
-    createNodeElement(node);
+    placeNode(node, index);
+    nodeById.set(node.id, node);
   });
+  nodeRenderer.render();
+  nodeIndexDirty = true;
   updateTransform();
-  requestAnimationFrame(drawEdges);
+  requestLayout(incremental);
 }
 
-function createNodeElement(node) {
-  const el = document.createElement('div');
-  el.id = 'node-' + node.id;
-  const typeKey = node.type.charAt(0).toLowerCase() + node.type.slice(1);
-  const colorClass = componentColors[typeKey] || componentColors['unknown'];
-  el.className = 'node ' + colorClass;
-  el.innerHTML = `<div class="node-title">${node.id}</div><div class="node-type">${node.name} (${node.type})</div>`;
-  el.addEventListener('mousedown', onDragStart);
-  el.addEventListener('click', onNodeClick);
-  nodeContainer.appendChild(el);
-  node.element = el;
+// Nodes with a saved position are pinned there; the others are stacked in a column until the automatic layout places them
+function placeNode(node, index) {
+  if (node.pinned === undefined) {
+    node.pinned = node.x !== undefined;
+  }
+  node.x = node.x !== undefined ? node.x : 50;
+  node.y = node.y !== undefined ? node.y : 50 + index * 40;
+  node.order = index;
 }
 
-function drawEdges() {
-  const padding = 200;
-  let minX = 0,
-    minY = 0,
-    maxX = 0,
-    maxY = 0;
-
-  if (nodes.length > 0) {
-    minX = Infinity;
-    minY = Infinity;
-    maxX = -Infinity;
-    maxY = -Infinity;
-    nodes.forEach((n) => {
-      const nodeWidth = n.element ? n.element.offsetWidth : 180;
-      const nodeHeight = n.element ? n.element.offsetHeight : 60;
-      if (n.x < minX) minX = n.x;
-      if (n.y < minY) minY = n.y;
-      if (n.x + nodeWidth > maxX) maxX = n.x + nodeWidth;
-      if (n.y + nodeHeight > maxY) maxY = n.y + nodeHeight;
+function getLayoutWorker() {
+  if (!layoutWorker && layoutWorkerSource !== null) {
+    try {
+      layoutWorker = new Worker(URL.createObjectURL(new Blob([layoutWorkerSource], { type: 'text/javascript' })));
+      layoutWorker.onmessage = (e) => applyLayout(e.data);
+    } catch (error) {
+      logToExtension('Automatic layout is not available: ' + error);
+      layoutUnavailable = true;
+    }
+  }
+  return layoutWorker;
+}
+
+// Fetch the layout worker's source while the diagram data is on its way; a layout requested meanwhile runs once it is loaded
+function loadLayoutWorkerSource() {
+  if (layoutUnavailable) return;
+  fetch(layoutWorkerUri)
+    .then((response) => {
+      if (!response.ok) {
+        throw new Error('HTTP ' + response.status);
+      }
+      return response.text();
+    })
+    .then((source) => {
+      layoutWorkerSource = source;
+      if (deferredLayout !== null) {
+        const incremental = deferredLayout;
+        deferredLayout = null;
+        requestLayout(incremental);
+      }
+    })
+    .catch((error) => {
+      logToExtension('Automatic layout is not available: ' + error);
+      layoutUnavailable = true;
     });
+}
+
+/**
+ * Ask the layout worker for positions of the nodes that are not pinned.
+ * An incremental layout also keeps the nodes the automatic layout already placed, so only new nodes move.
+ */
+function requestLayout(incremental) {
+  if (renderOptions.layout === 'none' || layoutUnavailable || !nodes.some((node) => !node.pinned && !(incremental && node.placed))) return;
+  if (layoutWorkerSource === null) {
+    deferredLayout = deferredLayout === null ? incremental : deferredLayout && incremental;
+    return;
   }
+  const worker = getLayoutWorker();
+  if (!worker) return;
 
-  const worldWidth = maxX - minX;
-  const worldHeight = maxY - minY;
+  layoutRequestId++;
+  worker.postMessage({
+    requestId: layoutRequestId,
+    algorithm: renderOptions.layout,
+    incremental,
+    nodes: nodes.map((node) => ({
+      id: node.id,
+      type: node.type,
+      width: node.width,
+      height: node.height,
+      x: node.x,
+      y: node.y,
+      fixed: node.pinned || (incremental && node.placed === true),
+    })),
+    edges: edges.map((edge) => ({ source: edge.source, target: edge.target })),
+  });
+}
 
-  canvas.style.left = `${minX - padding}px`;
-  canvas.style.top = `${minY - padding}px`;
-  canvas.width = worldWidth + padding * 2;
-  canvas.height = worldHeight + padding * 2;
+// Move the nodes to the positions computed by the layout worker, except those pinned or dragged meanwhile
+function applyLayout(result) {
+  if (result.requestId !== layoutRequestId) return;
+  const firstLayout = !nodes.some((node) => node.placed || node.pinned);
 
-  nodes.forEach((n) => {
-    n.element.style.left = `${n.x}px`;
-    n.element.style.top = `${n.y}px`;
+  Object.keys(result.positions).forEach((id) => {
+    const node = nodeById.get(id);
+    if (!node || node.pinned || (draggingNode && selectedNodes.has(id))) return;
+    node.x = result.positions[id].x;
+    node.y = result.positions[id].y;
+    node.placed = node.placed || result.done;
+    nodeRenderer.moveNode(node);
   });
+  nodeIndexDirty = true;
+  nodeRenderer.invalidate();
+  invalidateEdges();
+
+  // A diagram shown for the first time, without a saved view, is zoomed to show all of it
+  if (result.done && firstLayout && panX === 0 && panY === 0 && scale === 1) {
+    fitToNodes();
+  }
+}
+
+function fitToNodes() {
+  if (nodes.length === 0) return;
+  let minX = Infinity,
+    minY = Infinity,
+    maxX = -Infinity,
+    maxY = -Infinity;
+  nodes.forEach((node) => {
+    minX = Math.min(minX, node.x);
+    minY = Math.min(minY, node.y);
+    maxX = Math.max(maxX, node.x + node.width);
+    maxY = Math.max(maxY, node.y + node.height);
+  });
+  const margin = 40;
+  scale = Math.max(0.1, Math.min(1, (diagramRoot.clientWidth - 2 * margin) / (maxX - minX), (diagramRoot.clientHeight - 2 * margin) / (maxY - minY)));
+  panX = margin - minX * scale;
+  panY = margin - minY * scale;
+  updateTransform();
+}
+
+/**
+ * Apply the changes between two versions of the diagram in place (see DiagramDelta in diagramDelta.ts).
+ * Node positions, the view, the selection of remaining nodes and a drag in progress are kept.
+ * A delta for another version than the one shown means one was missed, and the full diagram is requested instead.
+ */
+function applyDelta(delta) {
+  if (delta.baseVersion !== diagramVersion) {
+    logToExtension('Diagram version ' + diagramVersion + ' does not match delta base version ' + delta.baseVersion + ', requesting full update');
+    vscode.postMessage({ command: 'requestFullUpdate' });
+    return;
+  }
 
-  ctx.clearRect(0, 0, canvas.width, canvas.height);
-  ctx.save();
-  ctx.translate(-minX + padding, -minY + padding);
-  ctx.strokeStyle = '#A0AEC0';
-  ctx.lineWidth = 2;
-  ctx.fillStyle = '#E2E8F0';
-  ctx.font = '11px Inter';
-  ctx.textAlign = 'center';
-  edgeLabelHitboxes = [];
-
-  edges.forEach((edge) => {
-    const sourceNode = nodes.find((n) => n.id === edge.source);
-    const targetNode = nodes.find((n) => n.id === edge.target);
-    if (sourceNode && targetNode && sourceNode.element && targetNode.element) {
-      const startX = sourceNode.x + sourceNode.element.offsetWidth;
-      const startY = sourceNode.y + sourceNode.element.offsetHeight / 2;
-      const endX = targetNode.x;
-      const endY = targetNode.y + targetNode.element.offsetHeight / 2;
-      const cp1x = startX + 60;
-      const cp1y = startY;
-      const cp2x = endX - 60;
-      const cp2y = endY;
-
-      ctx.beginPath();
-      ctx.moveTo(startX, startY);
-      ctx.bezierCurveTo(cp1x, cp1y, cp2x, cp2y, endX, endY);
-      ctx.stroke();
-
-      const angle = Math.atan2(endY - cp2y, endX - cp2x);
-      ctx.save();
-      ctx.translate(endX, endY);
-      ctx.rotate(angle);
-      ctx.beginPath();
-      ctx.moveTo(0, 0);
-      ctx.lineTo(-10, -5);
-      ctx.lineTo(-10, 5);
-      ctx.closePath();
-      ctx.fill();
-      ctx.restore();
-
-      if (edge.label) {
-        // Position label at 1/3 distance from the target (arrow end)
-        const labelX = startX + (endX - startX) * (2 / 3);
-        const labelY = startY + (endY - startY) * (2 / 3) - 10;
-        ctx.save();
-        ctx.fillStyle = '#CBD5E0';
-        ctx.fillText(edge.label, labelX, labelY);
-        ctx.restore();
-        const textWidth = ctx.measureText(edge.label).width;
-        edgeLabelHitboxes.push({
-          x: labelX - textWidth / 2,
-          y: labelY - 10,
-          width: textWidth,
-          height: 20,
-          edge: edge,
+  const removedNodes = new Map();
+  if (delta.removeNodes.length > 0) {
+    const removed = new Set(delta.removeNodes);
+    if (draggingNode && removed.has(draggingNode.id)) {
+      onDragEnd();
+    }
+    removed.forEach((id) => {
+      const node = nodeById.get(id);
+      if (node) {
+        removedNodes.set(id, node);
+        nodeRenderer.removeNode(node);
+        nodeById.delete(id);
+      }
+      selectedNodes.delete(id);
+      initialDragPositions.delete(id);
+    });
+    nodes = nodes.filter((node) => !removed.has(node.id));
+    nodes.forEach((node, index) => (node.order = index));
+  }
+
+  delta.updateNodes.forEach((update) => {
+    const node = nodeById.get(update.id);
+    if (node) {
+      node.name = update.name;
+      node.type = update.type;
+      node.cluster = update.cluster;
+      node.memberCount = update.memberCount;
+      nodeRenderer.updateNode(node);
+    }
+  });
+
+  const expandedMembers = new Map();
+  delta.addNodes.forEach((node) => {
+    const unplaced = node.x === undefined;
+    placeNode(node, nodes.length);
+    if (unplaced && removedNodes.size > 0) {
+      placeAtCluster(node, removedNodes, expandedMembers);
+    }
+    nodes.push(node);
+    nodeById.set(node.id, node);
+    nodeRenderer.addNode(node);
+  });
+
+  if (delta.removeEdges.length > 0 || delta.removeNodes.length > 0) {
+    const removed = new Set(delta.removeEdges.map((edge) => edge.source + '\u0000' + edge.target));
+    edges = edges.filter((edge) => !removed.has(edge.source + '\u0000' + edge.target) && nodeById.has(edge.source) && nodeById.has(edge.target));
+  }
+  edges = edges.concat(delta.addEdges);
+
+  diagramData = { nodes, edges };
+  diagramVersion = delta.version;
+  nodeIndexDirty = true;
+  if (dragEdges) {
+    splitDragEdges();
+  }
+  nodeRenderer.invalidate();
+  invalidateEdges();
+  requestLayout(true);
+}
+
+/**
+ * Place a node that replaces removed nodes where they were: the members of an expanded cluster in a grid from
+ * the cluster's position, a collapsed cluster at the center of its members. The automatic layout leaves them there.
+ * @param expandedMembers Number of members placed so far, by cluster id
+ */
+function placeAtCluster(node, removedNodes, expandedMembers) {
+  if (node.type === 'Cluster') {
+    const members = Array.from(removedNodes.values()).filter((member) => member.cluster === node.id);
+    if (members.length === 0) return;
+    node.x = members.reduce((sum, member) => sum + member.x, 0) / members.length;
+    node.y = members.reduce((sum, member) => sum + member.y, 0) / members.length;
+    node.placed = true;
+  } else if (node.cluster && removedNodes.has(node.cluster)) {
+    const cluster = removedNodes.get(node.cluster);
+    const index = expandedMembers.get(node.cluster) || 0;
+    const columns = Math.max(1, Math.ceil(Math.sqrt(cluster.memberCount || 1)));
+    expandedMembers.set(node.cluster, index + 1);
+    node.x = cluster.x + (index % columns) * 230;
+    node.y = cluster.y + Math.floor(index / columns) * 100;
+    node.placed = true;
+  }
+}
+
+// The edge whose label is under the mouse, if any
+function edgeLabelAt(e) {
+  const worldX = (e.clientX - panX) / scale;
+  const worldY = (e.clientY - panY) / scale;
+  for (const edge of edgeLabelIndex.query(worldX, worldY)) {
+    return edge;
+  }
+  return null;
+}
+
+function rebuildNodeIndex() {
+  nodeIndex.clear();
+  nodes.forEach((node) => nodeIndex.insert(node, node.x, node.y, node.width, node.height));
+  nodeIndexDirty = false;
+}
+
+function nodeTypeKey(node) {
+  return node.type.charAt(0).toLowerCase() + node.type.slice(1);
+}
+
+// A collapsed cluster shows its name and size instead of a class name and component type
+function nodeTitle(node) {
+  return node.type === 'Cluster' ? node.name : node.id;
+}
+
+function nodeSubtitle(node) {
+  return node.type === 'Cluster' ? `${node.memberCount} components` : `${node.name} (${node.type})`;
+}
+
+/**
+ * Node renderers draw the nodes and resolve which node a mouse event is on; all mouse handling is delegated
+ * to the diagram root, so neither renderer registers listeners per node.
+ *
+ * DOM renderer: one absolutely positioned div per node inside the transformed viewport.
+ * Node sizes are cached on the nodes and only measured again when an element is resized (e.g. its content or font changed).
+ */
+const domNodeRenderer = {
+  resizeObserver: null,
+
+  render() {
+    if (!this.resizeObserver) {
+      this.resizeObserver = new ResizeObserver((entries) => {
+        entries.forEach((entry) => {
+          const node = nodeById.get(entry.target.id.replace('node-', ''));
+          if (node && node.element === entry.target) {
+            this.measure(node);
+          }
         });
-        console.log('Created hitbox for edge:', edge.source, '->', edge.target, 'at', labelX - textWidth / 2, labelY - 10, 'size:', textWidth, 'x', 20);
+        nodeIndexDirty = true;
+        invalidateEdges();
+      });
+    }
+    this.resizeObserver.disconnect();
+    nodeContainer.innerHTML = '';
+    nodes.forEach((node) => this.createElement(node));
+    // Measure after all elements were added, so layout is computed once
+    nodes.forEach((node) => {
+      this.measure(node);
+      this.resizeObserver.observe(node.element);
+    });
+  },
+
+  createElement(node) {
+    const el = document.createElement('div');
+    el.id = 'node-' + node.id;
+    const colorClass = componentColors[nodeTypeKey(node)] || componentColors['unknown'];
+    el.className = 'node ' + colorClass;
+    if (selectedNodes.has(node.id)) {
+      el.classList.add('selected');
+    }
+    el.innerHTML = `<div class="node-title">${nodeTitle(node)}</div><div class="node-type">${nodeSubtitle(node)}</div>`;
+    el.style.left = `${node.x}px`;
+    el.style.top = `${node.y}px`;
+    nodeContainer.appendChild(el);
+    node.element = el;
+  },
+
+  measure(node) {
+    node.width = node.element.offsetWidth;
+    node.height = node.element.offsetHeight;
+  },
+
+  addNode(node) {
+    this.createElement(node);
+    this.measure(node);
+    this.resizeObserver.observe(node.element);
+  },
+
+  removeNode(node) {
+    this.resizeObserver.unobserve(node.element);
+    node.element.remove();
+  },
+
+  // A new name or type changes the content and color; the resize observer re-measures the node
+  updateNode(node) {
+    const colorClass = componentColors[nodeTypeKey(node)] || componentColors['unknown'];
+    node.element.className = 'node ' + colorClass + (selectedNodes.has(node.id) ? ' selected' : '');
+    node.element.innerHTML = `<div class="node-title">${nodeTitle(node)}</div><div class="node-type">${nodeSubtitle(node)}</div>`;
+  },
+
+  nodeAt(e) {
+    const el = e.target.closest && e.target.closest('.node');
+    return el ? nodeById.get(el.id.replace('node-', '')) : undefined;
+  },
+
+  moveNode(node) {
+    node.element.style.left = `${node.x}px`;
+    node.element.style.top = `${node.y}px`;
+  },
+
+  setSelected(node, selected) {
+    node.element.classList.toggle('selected', selected);
+  },
+
+  invalidate() {},
+
+  draw() {},
+};
+
+/**
+ * Canvas renderer: nodes are painted on a viewport-sized canvas below the edge layers, skipping nodes outside
+ * the visible area, and hit-tested through the node spatial index. At low zoom only the node boxes are painted.
+ */
+const canvasNodeRenderer = {
+  dirty: true,
+
+  render() {
+    nodeContainer.innerHTML = '';
+    nodes.forEach((node) => this.measure(node));
+    this.invalidate();
+  },
+
+  // Same box model as the DOM nodes: 8px 12px padding, min-width 180px, a title and a type line
+  measure(node) {
+    nodeCtx.font = '600 16px Inter';
+    const titleWidth = nodeCtx.measureText(nodeTitle(node)).width;
+    nodeCtx.font = '12px Inter';
+    const typeWidth = nodeCtx.measureText(nodeSubtitle(node)).width;
+    node.width = Math.max(180, Math.ceil(Math.max(titleWidth, typeWidth)) + 26);
+    node.height = 64;
+    node.element = undefined;
+  },
+
+  addNode(node) {
+    this.measure(node);
+  },
+
+  removeNode() {},
+
+  updateNode(node) {
+    this.measure(node);
+  },
+
+  nodeAt(e) {
+    if (nodeIndexDirty) {
+      rebuildNodeIndex();
+    }
+    // The node painted last is on top
+    let hit;
+    nodeIndex.query((e.clientX - panX) / scale, (e.clientY - panY) / scale).forEach((node) => {
+      if (!hit || node.order > hit.order) {
+        hit = node;
+      }
+    });
+    return hit;
+  },
+
+  moveNode() {
+    this.invalidate();
+  },
+
+  setSelected() {
+    this.invalidate();
+  },
+
+  invalidate() {
+    this.dirty = true;
+    scheduleDraw();
+  },
+
+  draw() {
+    if (!this.dirty) return;
+    this.dirty = false;
+
+    const dpr = window.devicePixelRatio || 1;
+    nodeCtx.setTransform(1, 0, 0, 1, 0, 0);
+    nodeCtx.clearRect(0, 0, nodeCanvas.width, nodeCanvas.height);
+    nodeCtx.setTransform(dpr * scale, 0, 0, dpr * scale, dpr * panX, dpr * panY);
+    nodeCtx.textAlign = 'center';
+    nodeCtx.textBaseline = 'middle';
+
+    const visible = visibleWorldRect();
+    const lowDetail = scale < LOW_DETAIL_SCALE;
+    nodes.forEach((node) => {
+      if (node.x > visible.right || node.x + node.width < visible.left || node.y > visible.bottom || node.y + node.height < visible.top) return;
+
+      nodeCtx.fillStyle = componentFillColors[nodeTypeKey(node)] || componentFillColors['unknown'];
+      if (lowDetail) {
+        nodeCtx.fillRect(node.x, node.y, node.width, node.height);
+        if (selectedNodes.has(node.id)) {
+          nodeCtx.strokeStyle = '#60a5fa';
+          nodeCtx.lineWidth = 3;
+          nodeCtx.strokeRect(node.x, node.y, node.width, node.height);
+        }
+        return;
+      }
+
+      nodeCtx.beginPath();
+      nodeCtx.roundRect(node.x, node.y, node.width, node.height, 8);
+      nodeCtx.fill();
+      nodeCtx.strokeStyle = selectedNodes.has(node.id) ? '#60a5fa' : 'rgba(255, 255, 255, 0.2)';
+      nodeCtx.lineWidth = selectedNodes.has(node.id) ? 3 : 1;
+      nodeCtx.stroke();
+
+      const centerX = node.x + node.width / 2;
+      nodeCtx.fillStyle = 'white';
+      nodeCtx.font = '600 16px Inter';
+      nodeCtx.fillText(nodeTitle(node), centerX, node.y + 20);
+      nodeCtx.strokeStyle = 'rgba(255, 255, 255, 0.3)';
+      nodeCtx.lineWidth = 1;
+      nodeCtx.beginPath();
+      nodeCtx.moveTo(node.x + 12, node.y + 34);
+      nodeCtx.lineTo(node.x + node.width - 12, node.y + 34);
+      nodeCtx.stroke();
+      nodeCtx.globalAlpha = 0.8;
+      nodeCtx.font = '12px Inter';
+      nodeCtx.fillText(nodeSubtitle(node), centerX, node.y + 47);
+      nodeCtx.globalAlpha = 1;
+    });
+  },
+};
+
+/**
+ * Frame statistics overlay (akkaDiagramGenerator.showFrameStats): frames per second of the webview and the time
+ * spent repainting nodes and edges, for measuring pan, zoom and drag performance
+ */
+const frameStats = {
+  frames: 0,
+  drawTimes: [],
+  lastReport: 0,
+
+  start() {
+    frameStatsOverlay.classList.remove('hidden');
+    this.lastReport = performance.now();
+    const tick = (now) => {
+      this.frames++;
+      if (now - this.lastReport >= 500) {
+        this.report(now);
       }
+      requestAnimationFrame(tick);
+    };
+    requestAnimationFrame(tick);
+  },
+
+  record(milliseconds) {
+    if (renderOptions.showFrameStats) {
+      this.drawTimes.push(milliseconds);
     }
+  },
+
+  report(now) {
+    const fps = (this.frames * 1000) / (now - this.lastReport);
+    const draws = this.drawTimes.length;
+    const average = draws > 0 ? this.drawTimes.reduce((sum, time) => sum + time, 0) / draws : 0;
+    const max = draws > 0 ? Math.max(...this.drawTimes) : 0;
+    frameStatsOverlay.textContent =
+      `${fps.toFixed(0)} fps | draw ${average.toFixed(1)} ms avg, ${max.toFixed(1)} ms max (${draws} draws)` +
+      ` | ${nodes ? nodes.length : 0} nodes, ${edges ? edges.length : 0} edges | ${renderOptions.nodeRenderer} renderer`;
+    this.frames = 0;
+    this.drawTimes = [];
+    this.lastReport = now;
+  },
+};
+
+/**
+ * Repaint the edges. The canvases cover only the visible part of the diagram and edges outside it are skipped.
+ * While nodes are dragged, the edges touching them are drawn on the dynamic layer and only that layer is repainted;
+ * the static layer with all other edges is only repainted when it was invalidated (pan, zoom, resize, new data).
+ */
+function drawEdges() {
+  const visible = visibleWorldRect();
+  const lowDetail = scale < LOW_DETAIL_SCALE;
+
+  if (staticLayerDirty) {
+    prepareLayer(staticCtx);
+    edgeLabelIndex.clear();
+    drawEdgeList(staticCtx, dragEdges ? dragEdges.fixed : edges, visible, lowDetail);
+    staticLayerDirty = false;
+  }
+
+  prepareLayer(dynamicCtx);
+  if (dragEdges) {
+    drawEdgeList(dynamicCtx, dragEdges.moving, visible, lowDetail);
+  }
+}
+
+function scheduleDraw() {
+  if (drawScheduled) return;
+  drawScheduled = true;
+  requestAnimationFrame(() => {
+    drawScheduled = false;
+    const start = performance.now();
+    drawEdges();
+    nodeRenderer.draw();
+    frameStats.record(performance.now() - start);
+  });
+}
+
+/**
+ * Repaint all edges on the next frame
+ */
+function invalidateEdges() {
+  staticLayerDirty = true;
+  scheduleDraw();
+}
+
+function resizeCanvases() {
+  const dpr = window.devicePixelRatio || 1;
+  const width = diagramRoot.clientWidth;
+  const height = diagramRoot.clientHeight;
+  const layers = nodeRenderer === canvasNodeRenderer ? [nodeCanvas, staticCanvas, dynamicCanvas] : [staticCanvas, dynamicCanvas];
+  layers.forEach((layer) => {
+    layer.width = Math.round(width * dpr);
+    layer.height = Math.round(height * dpr);
+    layer.style.width = `${width}px`;
+    layer.style.height = `${height}px`;
   });
-  ctx.restore();
+}
+
+// The part of the world (diagram) coordinates currently on screen, plus a margin for arrowheads and labels
+function visibleWorldRect() {
+  return {
+    left: -panX / scale - CULL_MARGIN,
+    top: -panY / scale - CULL_MARGIN,
+    right: (diagramRoot.clientWidth - panX) / scale + CULL_MARGIN,
+    bottom: (diagramRoot.clientHeight - panY) / scale + CULL_MARGIN,
+  };
+}
+
+// Clear a layer and set it up to draw in world coordinates
+function prepareLayer(layerCtx) {
+  const dpr = window.devicePixelRatio || 1;
+  layerCtx.setTransform(1, 0, 0, 1, 0, 0);
+  layerCtx.clearRect(0, 0, layerCtx.canvas.width, layerCtx.canvas.height);
+  layerCtx.setTransform(dpr * scale, 0, 0, dpr * scale, dpr * panX, dpr * panY);
+  layerCtx.strokeStyle = '#A0AEC0';
+  layerCtx.lineWidth = 2;
+  layerCtx.fillStyle = '#E2E8F0';
+  layerCtx.font = '11px Inter';
+  layerCtx.textAlign = 'center';
+}
+
+function drawEdgeList(layerCtx, edgeList, visible, lowDetail) {
+  if (lowDetail) {
+    // Zoomed out: all edges as straight lines in a single path, without arrowheads or labels
+    layerCtx.beginPath();
+    edgeList.forEach((edge) => {
+      const ends = edgeEndpoints(edge);
+      if (!ends) return;
+      const left = Math.min(ends.startX, ends.endX);
+      const right = Math.max(ends.startX, ends.endX);
+      const top = Math.min(ends.startY, ends.endY);
+      const bottom = Math.max(ends.startY, ends.endY);
+      if (left > visible.right || right < visible.left || top > visible.bottom || bottom < visible.top) return;
+      layerCtx.moveTo(ends.startX, ends.startY);
+      layerCtx.lineTo(ends.endX, ends.endY);
+    });
+    layerCtx.stroke();
+    return;
+  }
+
+  edgeList.forEach((edge) => {
+    const ends = edgeEndpoints(edge);
+    if (!ends) return;
+    const { startX, startY, endX, endY } = ends;
+    const cp1x = startX + 60;
+    const cp1y = startY;
+    const cp2x = endX - 60;
+    const cp2y = endY;
+
+    // The curve lies within the bounding box of its end and control points
+    const left = Math.min(startX, endX - 60);
+    const right = Math.max(startX + 60, endX);
+    const top = Math.min(startY, endY);
+    const bottom = Math.max(startY, endY);
+    if (left > visible.right || right < visible.left || top > visible.bottom || bottom < visible.top) return;
+
+    // Edges aggregating several calls are drawn thicker (weight is the number of calls)
+    layerCtx.lineWidth = edge.weight > 1 ? 2 + Math.min(4, Math.log2(edge.weight)) : 2;
+    layerCtx.beginPath();
+    layerCtx.moveTo(startX, startY);
+    layerCtx.bezierCurveTo(cp1x, cp1y, cp2x, cp2y, endX, endY);
+    layerCtx.stroke();
+
+    const angle = Math.atan2(endY - cp2y, endX - cp2x);
+    layerCtx.save();
+    layerCtx.translate(endX, endY);
+    layerCtx.rotate(angle);
+    layerCtx.beginPath();
+    layerCtx.moveTo(0, 0);
+    layerCtx.lineTo(-10, -5);
+    layerCtx.lineTo(-10, 5);
+    layerCtx.closePath();
+    layerCtx.fill();
+    layerCtx.restore();
+
+    if (edge.label) {
+      // Position label at 1/3 distance from the target (arrow end)
+      const labelX = startX + (endX - startX) * (2 / 3);
+      const labelY = startY + (endY - startY) * (2 / 3) - 10;
+      layerCtx.save();
+      layerCtx.fillStyle = '#CBD5E0';
+      layerCtx.fillText(edge.label, labelX, labelY);
+      layerCtx.restore();
+      // Labels of edges being dragged are indexed again when the drag ends
+      if (layerCtx === staticCtx) {
+        const textWidth = layerCtx.measureText(edge.label).width;
+        edgeLabelIndex.insert(edge, labelX - textWidth / 2, labelY - 10, textWidth, 20);
+      }
+    }
+  });
+}
+
+// Edges leave the right side of the source node and enter the left side of the target node
+function edgeEndpoints(edge) {
+  const sourceNode = nodeById.get(edge.source);
+  const targetNode = nodeById.get(edge.target);
+  if (!sourceNode || !targetNode) return null;
+  return {
+    startX: sourceNode.x + sourceNode.width,
+    startY: sourceNode.y + sourceNode.height / 2,
+    endX: targetNode.x,
+    endY: targetNode.y + targetNode.height / 2,
+  };
 }
 
 function updateTransform() {
   viewport.style.transform = `translate(${panX}px, ${panY}px) scale(${scale})`;
+  nodeRenderer.invalidate();
+  invalidateEdges();
 }
 
 function saveViewState() {
-  vscode.postMessage({ command: 'saveViewState', payload: { panX, panY, scale } });
+  pendingViewState = { panX, panY, scale };
+  schedulePersist();
+}
+
+// Positions of moved nodes; merged with the ones not yet sent
+function saveLayout(positions) {
+  pendingLayout = Object.assign(pendingLayout || {}, positions);
+  schedulePersist();
+}
+
+function schedulePersist() {
+  if (!persistTimer) {
+    persistTimer = setTimeout(flushPersist, PERSIST_INTERVAL_MS);
+  }
+}
+
+// Send the latest layout and view state changes, if any
+function flushPersist() {
+  if (persistTimer) {
+    clearTimeout(persistTimer);
+    persistTimer = null;
+  }
+  if (pendingLayout) {
+    vscode.postMessage({ command: 'saveLayout', payload: pendingLayout });
+    pendingLayout = null;
+  }
+  if (pendingViewState) {
+    vscode.postMessage({ command: 'saveViewState', payload: pendingViewState });
+    pendingViewState = null;
+  }
+}
+
+// Collapse the clusters the selected nodes belong to
+function collapseSelectedClusters() {
+  const clusterIds = new Set();
+  selectedNodes.forEach((sid) => {
+    const node = nodeById.get(sid);
+    if (node && node.cluster) {
+      clusterIds.add(node.cluster);
+    }
+  });
+  if (clusterIds.size > 0) {
+    vscode.postMessage({ command: 'collapseCluster', payload: { clusterIds: Array.from(clusterIds) } });
+  }
 }
 
 function clearSelection() {
   if (selectedNodes.size > 0) {
     selectedNodes.forEach((sid) => {
-      const nodeEl = document.getElementById('node-' + sid);
-      if (nodeEl) {
-        nodeEl.classList.remove('selected');
+      const node = nodeById.get(sid);
+      if (node) {
+        nodeRenderer.setSelected(node, false);
       }
     });
     selectedNodes.clear();
   }
 }
 
-function onNodeClick(e) {
+function onNodeClick(e, node) {
   if (dragHappened) {
     return;
   }
-  const nodeEl = e.currentTarget;
-  const nodeId = nodeEl.id.replace('node-', '');
+  const nodeId = node.id;
 
   if (e.shiftKey) {
-    e.stopPropagation();
     if (selectedNodes.has(nodeId)) {
       selectedNodes.delete(nodeId);
-      nodeEl.classList.remove('selected');
+      nodeRenderer.setSelected(node, false);
     } else {
       selectedNodes.add(nodeId);
-      nodeEl.classList.add('selected');
+      nodeRenderer.setSelected(node, true);
     }
+  } else if (node.type === 'Cluster') {
+    vscode.postMessage({ command: 'expandCluster', payload: { clusterIds: [nodeId] } });
   } else {
     if (selectedNodes.size <= 1) {
-      console.log('Navigating to node:', nodeId);
       vscode.postMessage({ command: 'navigateTo', payload: { componentId: nodeId } });
     }
   }
 }
 
-function onDragStart(e) {
+// Whether the analysis recorded a component client call for an edge. 'references' edges have none, and neither do
+// edges to or from a collapsed cluster, which stand for the connections of several members.
+function hasCallSite(edge) {
+  if (!edge.location) return false;
+  const source = nodeById.get(edge.source);
+  const target = nodeById.get(edge.target);
+  return !(source && source.type === 'Cluster') && !(target && target.type === 'Cluster');
+}
+
+function onDragStart(e, node) {
   if (e.button !== 0) return;
-  e.stopPropagation();
-  const nodeEl = e.target.closest('.node');
-  if (!nodeEl) return;
-  const id = nodeEl.id.replace('node-', '');
-  draggingNode = nodes.find((n) => n.id === id);
+  const id = node.id;
+  draggingNode = node;
 
   if (draggingNode) {
     dragHappened = false;
@@ -250,13 +972,13 @@ function onDragStart(e) {
       if (!selectedNodes.has(id)) {
         clearSelection();
         selectedNodes.add(id);
-        nodeEl.classList.add('selected');
+        nodeRenderer.setSelected(node, true);
       }
     }
 
     initialDragPositions.clear();
     selectedNodes.forEach((sid) => {
-      const node = nodes.find((n) => n.id === sid);
+      const node = nodeById.get(sid);
       if (node) {
         initialDragPositions.set(sid, { x: node.x, y: node.y });
       }
@@ -273,6 +995,9 @@ function onDragStart(e) {
 
 function onDrag(e) {
   if (!draggingNode) return;
+  if (!dragHappened) {
+    splitDragEdges();
+  }
   dragHappened = true;
   e.preventDefault();
 
@@ -284,15 +1009,23 @@ function onDrag(e) {
   const dy = mouseY - (primaryNodeInitialPos.y + dragOffsetY);
 
   selectedNodes.forEach((sid) => {
-    const node = nodes.find((n) => n.id === sid);
+    const node = nodeById.get(sid);
     const initialPos = initialDragPositions.get(sid);
     if (node && initialPos) {
       node.x = initialPos.x + dx;
       node.y = initialPos.y + dy;
+      nodeRenderer.moveNode(node);
     }
   });
 
-  requestAnimationFrame(drawEdges);
+  scheduleDraw();
+}
+
+// Split the edges once per drag (and when a live update changes them); the fixed ones stay on the static layer until the drag ends
+function splitDragEdges() {
+  dragEdges = { moving: [], fixed: [] };
+  edges.forEach((edge) => (selectedNodes.has(edge.source) || selectedNodes.has(edge.target) ? dragEdges.moving : dragEdges.fixed).push(edge));
+  staticLayerDirty = true;
 }
 
 function onDragEnd() {
@@ -300,16 +1033,23 @@ function onDragEnd() {
   if (dragHappened) {
     const layoutPayload = {};
     selectedNodes.forEach((sid) => {
-      const node = nodes.find((n) => n.id === sid);
+      const node = nodeById.get(sid);
       if (node) {
+        // A node placed by the user is no longer moved by the automatic layout
+        node.pinned = true;
         layoutPayload[sid] = { x: node.x, y: node.y };
       }
     });
-    vscode.postMessage({ command: 'saveLayout', payload: layoutPayload });
+    saveLayout(layoutPayload);
+    nodeIndexDirty = true;
   }
 
   draggingNode = null;
   initialDragPositions.clear();
+  if (dragEdges) {
+    dragEdges = null;
+    invalidateEdges();
+  }
   window.removeEventListener('mousemove', onDrag);
   window.removeEventListener('mouseup', onDragEnd);
 
@@ -345,7 +1085,11 @@ function setupEventListeners() {
   });
 
   diagramRoot.addEventListener('mousedown', (e) => {
-    if (e.target.closest('.node')) return;
+    const node = nodeRenderer.nodeAt(e);
+    if (node) {
+      onDragStart(e, node);
+      return;
+    }
 
     if (e.shiftKey) {
       isMarqueeSelecting = true;
@@ -387,52 +1131,44 @@ function setupEventListeners() {
       marquee.style.width = `${width}px`;
       marquee.style.height = `${height}px`;
 
-      const marqueeRect = { left, top, right: left + width, bottom: top + height };
-
-      nodes.forEach((node) => {
-        const nodeEl = node.element;
-        const nodeRect = {
-          left: node.x,
-          top: node.y,
-          right: node.x + nodeEl.offsetWidth,
-          bottom: node.y + nodeEl.offsetHeight,
-        };
-
-        const intersects = nodeRect.left < marqueeRect.right && nodeRect.right > marqueeRect.left && nodeRect.top < marqueeRect.bottom && nodeRect.bottom > marqueeRect.top;
+      // Only nodes near the marquee are hit-tested; the selection was cleared when the marquee started,
+      // so nodes that left the marquee are among the selected ones
+      if (nodeIndexDirty) {
+        rebuildNodeIndex();
+      }
+      const intersecting = nodeIndex.query(left, top, left + width, top + height);
 
-        if (intersects) {
-          if (!selectedNodes.has(node.id)) {
-            selectedNodes.add(node.id);
-            nodeEl.classList.add('selected');
-          }
-        } else {
-          if (selectedNodes.has(node.id)) {
-            selectedNodes.delete(node.id);
-            nodeEl.classList.remove('selected');
-          }
+      intersecting.forEach((node) => {
+        if (!selectedNodes.has(node.id)) {
+          selectedNodes.add(node.id);
+          nodeRenderer.setSelected(node, true);
         }
       });
-    } else {
-      // Tooltip logic
-      const worldX = (e.clientX - panX) / scale;
-      const worldY = (e.clientY - panY) / scale;
-      let hoveredEdge = null;
-      // console.log('Mouse position (world):', worldX, worldY);
-      // console.log('Number of hitboxes:', edgeLabelHitboxes.length);
-      for (const hitbox of edgeLabelHitboxes) {
-        // console.log('Checking hitbox:', hitbox.x, hitbox.y, hitbox.width, hitbox.height);
-        if (worldX >= hitbox.x && worldX <= hitbox.x + hitbox.width && worldY >= hitbox.y && worldY <= hitbox.y + hitbox.height) {
-          hoveredEdge = hitbox.edge;
-          // console.log('Hovering over edge:', hoveredEdge);
-          // console.log('Edge details:', hoveredEdge.details);
-          // console.log('Edge details length:', hoveredEdge.details ? hoveredEdge.details.length : 'undefined');
-          break;
+      Array.from(selectedNodes).forEach((sid) => {
+        const node = nodeById.get(sid);
+        if (node && !intersecting.has(node)) {
+          selectedNodes.delete(sid);
+          nodeRenderer.setSelected(node, false);
         }
+      });
+    } else {
+      if (nodeRenderer === canvasNodeRenderer) {
+        diagramRoot.style.cursor = nodeRenderer.nodeAt(e) ? 'move' : '';
       }
+
+      // Tooltip logic
+      const hoveredEdge = edgeLabelAt(e);
       if (hoveredEdge && hoveredEdge.details && hoveredEdge.details.length > 0) {
         // Show all details in the tooltip
         const detailsList = hoveredEdge.details.map((d) => '<li>' + d + '</li>').join('');
-        tooltip.innerHTML = '<div><strong>Methods:</strong></div><ul style="margin: 4px 0; padding-left: 16px;">' + detailsList + '</ul>';
+        const calls = hoveredEdge.weight > 1 ? ' (' + hoveredEdge.weight + ' calls)' : '';
+        tooltip.innerHTML =
+          '<div><strong>Methods:</strong>' +
+          calls +
+          '</div><ul style="margin: 4px 0; padding-left: 16px;">' +
+          detailsList +
+          '</ul>' +
+          (hasCallSite(hoveredEdge) ? '<div style="opacity: 0.7;">Click to go to the call site</div>' : '');
         tooltip.style.left = e.clientX + 15 + 'px';
         tooltip.style.top = e.clientY + 15 + 'px';
         tooltip.classList.remove('hidden');
@@ -456,7 +1192,15 @@ function setupEventListeners() {
   });
 
   diagramRoot.addEventListener('click', (e) => {
-    if (!e.target.closest('.node') && !e.shiftKey && !dragHappened) {
+    const node = nodeRenderer.nodeAt(e);
+    if (node) {
+      onNodeClick(e, node);
+      return;
+    }
+    const edge = !e.shiftKey && !dragHappened ? edgeLabelAt(e) : null;
+    if (edge && hasCallSite(edge)) {
+      vscode.postMessage({ command: 'navigateToCallSite', payload: { source: edge.source, target: edge.target } });
+    } else if (!e.shiftKey && !dragHappened) {
       clearSelection();
     }
   });
@@ -470,6 +1214,11 @@ function setupEventListeners() {
       zoom(-1, diagramRoot.clientWidth / 2, diagramRoot.clientHeight / 2);
     } else if (e.key === '0') {
       resetZoom();
+    } else if (e.key === 'l' || e.key === 'L') {
+      // Lay out all nodes that are not pinned again
+      requestLayout(false);
+    } else if (e.key === 'c' || e.key === 'C') {
+      collapseSelectedClusters();
     }
   });
 
@@ -498,35 +1247,79 @@ function setupEventListeners() {
     }
   });
 
-  window.addEventListener('resize', drawEdges);
-}
+  // Do not lose the last changes when the panel is hidden or closed
+  document.addEventListener('visibilitychange', () => {
+    if (document.visibilityState === 'hidden') flushPersist();
+  });
+  window.addEventListener('pagehide', flushPersist);
 
-// Export the initialization function
-window.initializeDiagram = initializeDiagram;
+  window.addEventListener('resize', () => {
+    resizeCanvases();
+    invalidateEdges();
+  });
+}
 
 // Listen for messages from the extension
 window.addEventListener('message', (event) => {
   const message = event.data;
 
+  // Updates sent before the diagram was initialized are already part of the diagram the initialize message carries
+  if (message.command !== 'initialize' && !diagramData) return;
+
   switch (message.command) {
+    case 'initialize':
+      initializeDiagram(message.payload.data, message.payload.viewState, message.payload.options);
+      break;
     case 'updateDiagram':
       // Update the diagram with new data
-      const { data: newData, viewState: newViewState } = message.payload;
+      const { data: newData, viewState: newViewState, live } = message.payload;
+
+      if (live) {
+        // Live updates from file changes keep the current view, on-screen node positions and selection
+        const previousPositions = new Map(nodes.map((n) => [n.id, { x: n.x, y: n.y, pinned: n.pinned, placed: n.placed }]));
+        newData.nodes.forEach((n) => {
+          const previous = previousPositions.get(n.id);
+          if (previous) {
+            n.x = previous.x;
+            n.y = previous.y;
+            n.pinned = previous.pinned;
+            n.placed = previous.placed;
+          }
+        });
+        const newNodeIds = new Set(newData.nodes.map((n) => n.id));
+        Array.from(selectedNodes).forEach((sid) => {
+          if (!newNodeIds.has(sid)) {
+            selectedNodes.delete(sid);
+          }
+        });
+      }
+
       diagramData = newData;
-      initialViewState = newViewState;
+      diagramVersion = newData.version;
       nodes = diagramData.nodes;
       edges = diagramData.edges;
 
-      // Reset view state to new values
-      scale = initialViewState.scale;
-      panX = initialViewState.panX;
-      panY = initialViewState.panY;
+      if (!live) {
+        initialViewState = newViewState;
 
-      // Clear any existing selections
-      clearSelection();
+        // Reset view state to new values
+        scale = initialViewState.scale;
+        panX = initialViewState.panX;
+        panY = initialViewState.panY;
+
+        // Clear any existing selections
+        clearSelection();
+      }
 
-      // Re-render the diagram
-      render();
+      // Re-render the diagram; nodes a live update carried over keep the positions the automatic layout gave them
+      render(live === true);
+      break;
+    case 'applyDelta':
+      applyDelta(message.payload);
       break;
   }
 });
+
+// The diagram data is not part of the page; ask the extension for it now that the script is loaded
+loadLayoutWorkerSource();
+vscode.postMessage({ command: 'ready' });
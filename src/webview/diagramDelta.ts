@@ -0,0 +1,123 @@
+import { AkkaEdge, SerializableDiagramData } from '../models/types';
+
+type DiagramNode = SerializableDiagramData['nodes'][number];
+
+/**
+ * Changes between two successive versions of a diagram.
+ * Node positions are owned by the webview once a node is shown, so updated nodes only carry their name, type and
+ * cluster fields; added nodes carry their saved position, if any. Edges are identified by source and target (they are aggregated
+ * per pair), and an edge whose label, details, weight or call site presence changed is removed and added again.
+ */
+export interface DiagramDelta {
+  /** Version of the diagram after the delta is applied */
+  version: number;
+  /** Version the delta applies to; a webview at another version must request a full update */
+  baseVersion: number;
+  addNodes: DiagramNode[];
+  removeNodes: string[];
+  updateNodes: Array<Pick<DiagramNode, 'id' | 'name' | 'type' | 'cluster' | 'memberCount'>>;
+  addEdges: AkkaEdge[];
+  removeEdges: Array<{ source: string; target: string }>;
+}
+
+function edgeKey(edge: { source: string; target: string }): string {
+  return `${edge.source}\u0000${edge.target}`;
+}
+
+// The webview only uses an edge's location to tell whether it has a call site, so a call that moved is not a change
+function sameEdge(a: AkkaEdge, b: AkkaEdge): boolean {
+  return (
+    a.label === b.label &&
+    a.weight === b.weight &&
+    (a.location === undefined) === (b.location === undefined) &&
+    a.details.length === b.details.length &&
+    a.details.every((detail, i) => detail === b.details[i])
+  );
+}
+
+/**
+ * The diagram last sent to a webview, used to compute the delta to the next one.
+ * Every full update or delta gets the next sequence number.
+ */
+export class DiagramDeltaTracker {
+  private version = 0;
+  private nodes = new Map<string, DiagramNode>();
+  private edges = new Map<string, AkkaEdge>();
+
+  /**
+   * Record a diagram that is sent in full
+   * @returns The diagram with its version number
+   */
+  reset(data: SerializableDiagramData): SerializableDiagramData {
+    this.version++;
+    this.nodes = new Map(data.nodes.map((node) => [node.id, node]));
+    this.edges = new Map(data.edges.map((edge) => [edgeKey(edge), edge]));
+    return { ...data, version: this.version };
+  }
+
+  /**
+   * The current diagram, for a webview that lost track of the versions
+   */
+  snapshot(): SerializableDiagramData {
+    return { nodes: Array.from(this.nodes.values()), edges: Array.from(this.edges.values()), version: this.version };
+  }
+
+  /**
+   * Record the next diagram and compute the changes from the previous one
+   * @returns The delta, or undefined when nothing changed
+   */
+  diff(data: SerializableDiagramData): DiagramDelta | undefined {
+    const delta: DiagramDelta = { version: this.version + 1, baseVersion: this.version, addNodes: [], removeNodes: [], updateNodes: [], addEdges: [], removeEdges: [] };
+
+    const nodes = new Map<string, DiagramNode>();
+    for (const node of data.nodes) {
+      nodes.set(node.id, node);
+      const previous = this.nodes.get(node.id);
+      if (!previous) {
+        delta.addNodes.push(node);
+      } else if (previous.name !== node.name || previous.type !== node.type || previous.cluster !== node.cluster || previous.memberCount !== node.memberCount) {
+        delta.updateNodes.push({ id: node.id, name: node.name, type: node.type, cluster: node.cluster, memberCount: node.memberCount });
+      }
+    }
+    this.nodes.forEach((_, id) => {
+      if (!nodes.has(id)) {
+        delta.removeNodes.push(id);
+      }
+    });
+
+    const edges = new Map<string, AkkaEdge>();
+    for (const edge of data.edges) {
+      const key = edgeKey(edge);
+      edges.set(key, edge);
+      const previous = this.edges.get(key);
+      if (!previous) {
+        delta.addEdges.push(edge);
+      } else if (!sameEdge(previous, edge)) {
+        delta.removeEdges.push({ source: edge.source, target: edge.target });
+        delta.addEdges.push(edge);
+      }
+    }
+    this.edges.forEach((edge, key) => {
+      if (!edges.has(key)) {
+        delta.removeEdges.push({ source: edge.source, target: edge.target });
+      }
+    });
+
+    // Positions of nodes that are already shown are owned by the webview; keep the ones they were added with
+    nodes.forEach((node, id) => {
+      const previous = this.nodes.get(id);
+      if (previous) {
+        nodes.set(id, { ...node, x: previous.x, y: previous.y });
+      }
+    });
+    this.nodes = nodes;
+    this.edges = edges;
+
+    const changes = delta.addNodes.length + delta.removeNodes.length + delta.updateNodes.length + delta.addEdges.length + delta.removeEdges.length;
+    if (changes === 0) {
+      return undefined;
+    }
+    this.version = delta.version;
+    return delta;
+  }
+}
@@ -0,0 +1,358 @@
+// Automatic layout of diagram nodes, run in a Web Worker so large diagrams never block the webview.
+//
+// Request:  { requestId, algorithm: 'layered' | 'force', incremental, nodes: [{ id, type, width, height, x, y, fixed }], edges: [{ source, target }] }
+// Response: { requestId, positions: { [id]: { x, y } }, done }
+// Fixed nodes (pinned by the user, or already placed when the layout is incremental) keep their position and
+// are left out of the response; the others are placed around them. Force layouts post intermediate positions
+// with done: false so the diagram settles visibly.
+
+// Flow of a typical Akka service, left to right; types not listed are ranked after their predecessors
+const TYPE_RANKS = {
+  httpEndpoint: 0,
+  grpcEndpoint: 0,
+  mcpEndpoint: 0,
+  agent: 1,
+  workflow: 1,
+  timedAction: 1,
+  functionTool: 2,
+  mcpTool: 2,
+  eventSourcedEntity: 2,
+  keyValueEntity: 2,
+  view: 3,
+  consumer: 3,
+  topic: 4,
+  serviceStream: 4,
+};
+
+const LAYER_GAP = 120;
+const NODE_GAP = 30;
+// Barycenter sweeps over the layers when ordering the nodes of each layer
+const ORDERING_SWEEPS = 8;
+
+// Force layout iterations: at most FORCE_ITERATIONS, fewer for large diagrams so the work stays bounded
+const FORCE_ITERATIONS = 300;
+const FORCE_MIN_ITERATIONS = 50;
+const FORCE_NODE_ITERATIONS_BUDGET = 1000000;
+const FORCE_PROGRESS_EVERY = 25;
+
+function typeKey(type) {
+  return type.charAt(0).toLowerCase() + type.slice(1);
+}
+
+function buildAdjacency(nodes, edges) {
+  const index = new Map(nodes.map((node, i) => [node.id, i]));
+  const neighbors = nodes.map(() => []);
+  const predecessors = nodes.map(() => []);
+  edges.forEach((edge) => {
+    const s = index.get(edge.source);
+    const t = index.get(edge.target);
+    if (s === undefined || t === undefined || s === t) return;
+    neighbors[s].push(t);
+    neighbors[t].push(s);
+    predecessors[t].push(s);
+  });
+  return { neighbors, predecessors };
+}
+
+/**
+ * Layer of every node: its type rank, or for unknown types one more than the highest ranked predecessor.
+ * Empty layers are removed.
+ */
+function assignLayers(nodes, predecessors) {
+  const ranks = new Array(nodes.length);
+  const visiting = new Array(nodes.length).fill(false);
+
+  const rankOf = (i) => {
+    if (ranks[i] !== undefined) return ranks[i];
+    const typeRank = TYPE_RANKS[typeKey(nodes[i].type)];
+    if (typeRank !== undefined) return (ranks[i] = typeRank);
+    if (visiting[i]) return 0; // Cycle through unknown types
+    visiting[i] = true;
+    let rank = 0;
+    predecessors[i].forEach((p) => (rank = Math.max(rank, rankOf(p) + 1)));
+    visiting[i] = false;
+    return (ranks[i] = rank);
+  };
+  nodes.forEach((_, i) => rankOf(i));
+
+  const used = Array.from(new Set(ranks)).sort((a, b) => a - b);
+  const compact = new Map(used.map((rank, i) => [rank, i]));
+  return ranks.map((rank) => compact.get(rank));
+}
+
+/**
+ * Split layers with many nodes into several columns, so a project with thousands of entities does not become one
+ * tall column. Columns of one layer stay next to each other.
+ */
+function splitColumns(layers, nodeCount) {
+  const maxRows = Math.max(12, Math.ceil(Math.sqrt(nodeCount) * 1.5));
+  const columns = [];
+  layers.forEach((layer) => {
+    const count = Math.ceil(layer.length / maxRows) || 1;
+    const rows = Math.ceil(layer.length / count);
+    for (let c = 0; c < count; c++) {
+      columns.push(layer.slice(c * rows, (c + 1) * rows));
+    }
+  });
+  return columns;
+}
+
+/**
+ * Sugiyama-style layout: nodes are layered by type along the flow of the service, ordered within each layer by
+ * the barycenter of their neighbors to reduce crossings, and stacked in columns from left to right.
+ */
+function layeredLayout(nodes, edges) {
+  const { neighbors, predecessors } = buildAdjacency(nodes, edges);
+  const layerOf = assignLayers(nodes, predecessors);
+  const layerCount = layerOf.reduce((max, layer) => Math.max(max, layer), 0) + 1;
+
+  const layers = Array.from({ length: layerCount }, () => []);
+  nodes.forEach((_, i) => layers[layerOf[i]].push(i));
+
+  // Relative position of every node within its layer, 0..1
+  const position = new Float64Array(nodes.length);
+  const updatePositions = (layer) => layer.forEach((i, order) => (position[i] = layer.length > 1 ? order / (layer.length - 1) : 0.5));
+  layers.forEach(updatePositions);
+
+  for (let sweep = 0; sweep < ORDERING_SWEEPS; sweep++) {
+    const order = sweep % 2 === 0 ? layers : layers.slice().reverse();
+    order.forEach((layer) => {
+      const barycenter = new Map();
+      layer.forEach((i) => {
+        let sum = 0;
+        let count = 0;
+        neighbors[i].forEach((n) => {
+          if (layerOf[n] !== layerOf[i]) {
+            sum += position[n];
+            count++;
+          }
+        });
+        barycenter.set(i, count > 0 ? sum / count : position[i]);
+      });
+      layer.sort((a, b) => barycenter.get(a) - barycenter.get(b));
+      updatePositions(layer);
+    });
+  }
+
+  const columns = splitColumns(layers, nodes.length);
+  const columnHeights = columns.map((column) => column.reduce((sum, i) => sum + nodes[i].height + NODE_GAP, -NODE_GAP));
+  const tallest = Math.max(0, ...columnHeights);
+
+  const result = new Array(nodes.length);
+  let x = 0;
+  columns.forEach((column, c) => {
+    const width = Math.max(0, ...column.map((i) => nodes[i].width));
+    let y = (tallest - columnHeights[c]) / 2;
+    column.forEach((i) => {
+      result[i] = { x: x + (width - nodes[i].width) / 2, y };
+      y += nodes[i].height + NODE_GAP;
+    });
+    x += width + LAYER_GAP;
+  });
+  return result;
+}
+
+function overlaps(a, b) {
+  return a.x < b.x + b.width + NODE_GAP && b.x < a.x + a.width + NODE_GAP && a.y < b.y + b.height + NODE_GAP && b.y < a.y + a.height + NODE_GAP;
+}
+
+/**
+ * Move free nodes down until they no longer overlap a fixed node or a free node placed before them
+ */
+function resolveOverlaps(nodes, positions) {
+  const cell = 256;
+  const grid = new Map();
+  const cellsOf = (box) => {
+    const keys = [];
+    for (let cx = Math.floor((box.x - NODE_GAP) / cell); cx <= Math.floor((box.x + box.width + NODE_GAP) / cell); cx++) {
+      for (let cy = Math.floor((box.y - NODE_GAP) / cell); cy <= Math.floor((box.y + box.height + NODE_GAP) / cell); cy++) {
+        keys.push(cx + ',' + cy);
+      }
+    }
+    return keys;
+  };
+  const insert = (box) =>
+    cellsOf(box).forEach((key) => {
+      const list = grid.get(key);
+      list ? list.push(box) : grid.set(key, [box]);
+    });
+  const collision = (box) => {
+    for (const key of cellsOf(box)) {
+      const hit = (grid.get(key) || []).find((other) => overlaps(box, other));
+      if (hit) return hit;
+    }
+    return undefined;
+  };
+
+  nodes.forEach((node) => node.fixed && insert({ x: node.x, y: node.y, width: node.width, height: node.height }));
+  nodes.forEach((node, i) => {
+    if (node.fixed) return;
+    const box = { x: positions[i].x, y: positions[i].y, width: node.width, height: node.height };
+    let hit = collision(box);
+    while (hit) {
+      box.y = hit.y + hit.height + NODE_GAP;
+      hit = collision(box);
+    }
+    positions[i] = { x: box.x, y: box.y };
+    insert(box);
+  });
+}
+
+/**
+ * Force-directed layout (Fruchterman-Reingold). Edges pull connected nodes together and nodes push each other
+ * apart; repulsion is only computed between nodes in neighboring grid cells, so an iteration is linear in the
+ * number of nodes. Free nodes start from the layered layout, fixed nodes do not move, and overlaps left when the
+ * simulation cools down are resolved as in the layered layout.
+ */
+function forceLayout(nodes, edges, onProgress) {
+  const { neighbors } = buildAdjacency(nodes, edges);
+  const start = layeredLayout(nodes, edges);
+  const px = new Float64Array(nodes.length);
+  const py = new Float64Array(nodes.length);
+  nodes.forEach((node, i) => {
+    px[i] = node.fixed ? node.x + node.width / 2 : start[i].x + node.width / 2;
+    py[i] = node.fixed ? node.y + node.height / 2 : start[i].y + node.height / 2;
+  });
+
+  const averageWidth = nodes.reduce((sum, node) => sum + node.width, 0) / Math.max(1, nodes.length);
+  const k = averageWidth + NODE_GAP; // Ideal edge length
+  const cell = k * 1.5;
+  const dx = new Float64Array(nodes.length);
+  const dy = new Float64Array(nodes.length);
+  let temperature = k * 2;
+  const iterations = Math.max(FORCE_MIN_ITERATIONS, Math.min(FORCE_ITERATIONS, Math.floor(FORCE_NODE_ITERATIONS_BUDGET / Math.max(1, nodes.length))));
+  const cooling = Math.pow(1 / temperature, 1 / iterations);
+
+  for (let iteration = 0; iteration < iterations; iteration++) {
+    dx.fill(0);
+    dy.fill(0);
+
+    const grid = new Map();
+    nodes.forEach((_, i) => {
+      const key = Math.floor(px[i] / cell) + ',' + Math.floor(py[i] / cell);
+      const list = grid.get(key);
+      list ? list.push(i) : grid.set(key, [i]);
+    });
+    grid.forEach((list, key) => {
+      const [cx, cy] = key.split(',').map(Number);
+      for (let ox = -1; ox <= 1; ox++) {
+        for (let oy = -1; oy <= 1; oy++) {
+          const others = grid.get(cx + ox + ',' + (cy + oy));
+          if (!others) continue;
+          list.forEach((i) =>
+            others.forEach((j) => {
+              if (i === j) return;
+              let ddx = px[i] - px[j];
+              let ddy = py[i] - py[j];
+              let distance = Math.sqrt(ddx * ddx + ddy * ddy);
+              if (distance < 0.01) {
+                // Coincident nodes: separate them in a deterministic direction
+                ddx = ((i - j) % 7) + 0.5;
+                ddy = ((i + j) % 5) - 2;
+                distance = Math.sqrt(ddx * ddx + ddy * ddy);
+              }
+              const force = (k * k) / distance;
+              dx[i] += (ddx / distance) * force;
+              dy[i] += (ddy / distance) * force;
+            })
+          );
+        }
+      }
+    });
+
+    neighbors.forEach((list, i) =>
+      list.forEach((j) => {
+        const ddx = px[i] - px[j];
+        const ddy = py[i] - py[j];
+        const distance = Math.sqrt(ddx * ddx + ddy * ddy) || 0.01;
+        const force = (distance * distance) / k;
+        dx[i] -= (ddx / distance) * force;
+        dy[i] -= (ddy / distance) * force;
+      })
+    );
+
+    nodes.forEach((node, i) => {
+      if (node.fixed) return;
+      const length = Math.sqrt(dx[i] * dx[i] + dy[i] * dy[i]);
+      if (length > 0) {
+        const step = Math.min(length, temperature);
+        px[i] += (dx[i] / length) * step;
+        py[i] += (dy[i] / length) * step;
+      }
+    });
+    temperature = Math.max(1, temperature * cooling);
+
+    if (onProgress && (iteration + 1) % FORCE_PROGRESS_EVERY === 0 && iteration + 1 < iterations) {
+      onProgress(nodes.map((node, i) => ({ x: px[i] - node.width / 2, y: py[i] - node.height / 2 })));
+    }
+  }
+
+  const positions = nodes.map((node, i) => ({ x: px[i] - node.width / 2, y: py[i] - node.height / 2 }));
+  resolveOverlaps(nodes, positions);
+  return positions;
+}
+
+/**
+ * Layered layout around fixed nodes.
+ * A full layout places the free nodes on their own, to the right of the fixed ones so it does not cover them.
+ * An incremental layout (a few nodes added to a placed diagram) puts each free node below the fixed node of the
+ * same type that is closest to it in the layered layout, so it joins the column of its kind.
+ * Free nodes that would overlap another node are moved down.
+ */
+function layeredLayoutAround(nodes, edges, incremental) {
+  const positions = layeredLayout(nodes, edges);
+  let fixedRight = -Infinity;
+  let fixedTop = Infinity;
+  let freeLeft = Infinity;
+  nodes.forEach((node, i) => {
+    if (node.fixed) {
+      fixedRight = Math.max(fixedRight, node.x + node.width);
+      fixedTop = Math.min(fixedTop, node.y);
+    } else {
+      freeLeft = Math.min(freeLeft, positions[i].x);
+    }
+  });
+
+  if (fixedRight > -Infinity && freeLeft < Infinity) {
+    const offsetX = fixedRight + LAYER_GAP - freeLeft;
+    nodes.forEach((node, i) => {
+      if (node.fixed) return;
+      const below = incremental ? belowClosestOfType(nodes, positions, i) : undefined;
+      positions[i] = below || { x: positions[i].x + offsetX, y: positions[i].y + fixedTop };
+    });
+  }
+  resolveOverlaps(nodes, positions);
+  return positions;
+}
+
+function belowClosestOfType(nodes, positions, i) {
+  let best;
+  nodes.forEach((node, j) => {
+    if (!node.fixed || node.type !== nodes[i].type) return;
+    const distance = Math.abs(positions[j].x - positions[i].x) + Math.abs(positions[j].y - positions[i].y);
+    if (!best || distance < best.distance) {
+      best = { distance, x: node.x, y: node.y + node.height + NODE_GAP };
+    }
+  });
+  return best && { x: best.x, y: best.y };
+}
+
+function toPositions(nodes, list) {
+  const positions = {};
+  nodes.forEach((node, i) => {
+    if (!node.fixed) {
+      positions[node.id] = { x: Math.round(list[i].x), y: Math.round(list[i].y) };
+    }
+  });
+  return positions;
+}
+
+self.onmessage = (event) => {
+  const { requestId, algorithm, incremental, nodes, edges } = event.data;
+  if (algorithm === 'force') {
+    const positions = forceLayout(nodes, edges, (progress) => self.postMessage({ requestId, positions: toPositions(nodes, progress), done: false }));
+    self.postMessage({ requestId, positions: toPositions(nodes, positions), done: true });
+  } else {
+    self.postMessage({ requestId, positions: toPositions(nodes, layeredLayoutAround(nodes, edges, incremental)), done: true });
+  }
+};
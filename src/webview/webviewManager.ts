@@ -1,6 +1,8 @@
 import * as vscode from 'vscode';
 import * as path from 'path';
 import * as fs from 'fs';
+import * as crypto from 'crypto';
+import { SETTINGS_SECTION, SETTING_DEFAULTS } from '../utils/settings';
 
 export interface SerializableDiagramData {
   nodes: Array<{
@@ -9,13 +11,17 @@ export interface SerializableDiagramData {
     type: string;
     x?: number;
     y?: number;
+    cluster?: string;
+    memberCount?: number;
   }>;
   edges: Array<{
     source: string;
     target: string;
     label: string;
     details: string[];
+    weight?: number;
   }>;
+  version?: number;
 }
 
 export interface ViewState {
@@ -24,89 +30,90 @@ export interface ViewState {
   scale: number;
 }
 
-export function getWebviewContent(data: SerializableDiagramData, viewState: ViewState, extensionUri: vscode.Uri): string {
-  // Read the HTML template
-  const htmlPath = path.join(extensionUri.fsPath, 'src', 'webview', 'diagram.html');
-  const jsPath = path.join(extensionUri.fsPath, 'src', 'webview', 'diagram.js');
+export interface DiagramRenderOptions {
+  nodeRenderer: 'dom' | 'canvas';
+  showFrameStats: boolean;
+  layout: 'layered' | 'force' | 'none';
+}
 
-  let htmlContent: string;
-  let jsContent: string;
+const LAYOUT_ALGORITHMS = ['layered', 'force', 'none'];
 
-  try {
-    htmlContent = fs.readFileSync(htmlPath, 'utf8');
-    jsContent = fs.readFileSync(jsPath, 'utf8');
-  } catch (error) {
-    console.error('Error reading webview files:', error);
-    // Fallback to inline content if files can't be read
-    return getFallbackWebviewContent(data, viewState);
-  }
+/**
+ * Read the webview rendering options from the akkaDiagramGenerator settings
+ */
+export function getDiagramRenderOptions(): DiagramRenderOptions {
+  const config = vscode.workspace.getConfiguration(SETTINGS_SECTION);
+  const layout = config.get<string>('autoLayout', SETTING_DEFAULTS.autoLayout);
+  return {
+    nodeRenderer: config.get<string>('nodeRenderer', SETTING_DEFAULTS.nodeRenderer) === 'canvas' ? 'canvas' : 'dom',
+    showFrameStats: config.get<boolean>('showFrameStats', SETTING_DEFAULTS.showFrameStats),
+    layout: LAYOUT_ALGORITHMS.includes(layout) ? (layout as DiagramRenderOptions['layout']) : 'layered',
+  };
+}
 
-  // Convert the JavaScript file to a data URI for inline loading
-  const jsDataUri = `data:text/javascript;charset=utf-8,${encodeURIComponent(jsContent)}`;
+// Webview scripts and stylesheet built by webpack (see webpack.config.js), relative to the extension root
+const WEBVIEW_ASSETS_PATH = ['out', 'media'];
 
-  // Replace the script src with the data URI
-  const processedHtml = htmlContent.replace('src="diagram.js"', `src="${jsDataUri}"`);
+// The HTML template is read once per session; the assets it links to are loaded (and cached) by the webview itself
+let htmlTemplate: string | undefined;
 
-  // Add the initialization script
-  const dataJson = JSON.stringify(data);
-  const viewStateJson = JSON.stringify(viewState);
+function getWebviewAssetsUri(extensionUri: vscode.Uri): vscode.Uri {
+  return vscode.Uri.joinPath(extensionUri, ...WEBVIEW_ASSETS_PATH);
+}
 
-  const initScript = `
-    <script>
-      // Initialize the diagram when the page loads
-      document.addEventListener('DOMContentLoaded', function() {
-        if (window.initializeDiagram) {
-          window.initializeDiagram(${dataJson}, ${viewStateJson});
-        }
-      });
-    </script>
-  `;
+/**
+ * Options for a webview showing the diagram: scripts enabled and local resources restricted to the webview assets
+ */
+export function getWebviewOptions(extensionUri: vscode.Uri): vscode.WebviewOptions {
+  return {
+    enableScripts: true,
+    localResourceRoots: [getWebviewAssetsUri(extensionUri)],
+  };
+}
+
+/**
+ * HTML of the diagram webview. It holds no diagram data: once its script has loaded, the webview posts a 'ready'
+ * message and is sent the diagram with {@link createInitializeMessage}.
+ */
+export function getWebviewContent(webview: vscode.Webview, extensionUri: vscode.Uri): string {
+  if (htmlTemplate === undefined) {
+    try {
+      htmlTemplate = fs.readFileSync(path.join(extensionUri.fsPath, 'src', 'webview', 'diagram.html'), 'utf8');
+    } catch (error) {
+      console.error('Error reading webview files:', error);
+      return getFallbackWebviewContent();
+    }
+  }
 
-  // Insert the initialization script before the closing body tag
-  return processedHtml.replace('</body>', `${initScript}\n</body>`);
+  const assets = getWebviewAssetsUri(extensionUri);
+  const values: { [key: string]: string } = {
+    cspSource: webview.cspSource,
+    nonce: crypto.randomBytes(16).toString('base64'),
+    styleUri: webview.asWebviewUri(vscode.Uri.joinPath(assets, 'diagram.css')).toString(),
+    scriptUri: webview.asWebviewUri(vscode.Uri.joinPath(assets, 'diagram.js')).toString(),
+    layoutWorkerUri: webview.asWebviewUri(vscode.Uri.joinPath(assets, 'layoutWorker.js')).toString(),
+  };
+  return htmlTemplate.replace(/\{\{(\w+)\}\}/g, (placeholder, key: string) => values[key] ?? placeholder);
 }
 
-function getFallbackWebviewContent(data: SerializableDiagramData, viewState: ViewState): string {
-  // This is the original inline content as a fallback
-  const dataJson = JSON.stringify(data);
-  const viewStateJson = JSON.stringify(viewState);
+/**
+ * Message showing a diagram in a webview, sent in reply to the webview's 'ready' message
+ */
+export function createInitializeMessage(data: SerializableDiagramData, viewState: ViewState, options: DiagramRenderOptions = getDiagramRenderOptions()) {
+  return { command: 'initialize', payload: { data, viewState, options } };
+}
 
+function getFallbackWebviewContent(): string {
   return `
     <!DOCTYPE html>
     <html lang="en">
     <head>
       <meta charset="UTF-8">
-      <meta name="viewport" content="width=device-width, initial-scale=1.0">
+      <meta http-equiv="Content-Security-Policy" content="default-src 'none'; style-src 'unsafe-inline';">
       <title>Akka Flow Diagram</title>
-      <script src="https://cdn.tailwindcss.com"></script>
-      <link href="https://fonts.googleapis.com/css2?family=Inter:wght@400;500;600;700&display=swap" rel="stylesheet">
-      <style>
-        body { font-family: 'Inter', sans-serif; margin: 0; padding: 0; overflow: hidden; cursor: grab; }
-        body.panning { cursor: grabbing; }
-        .node { border-radius: 8px; color: white; padding: 8px 12px; position: absolute; cursor: move; min-width: 180px; box-shadow: 0 4px 8px rgba(0,0,0,0.4); border: 1px solid rgba(255,255,255,0.2); pointer-events: auto; user-select: none; }
-        .node.selected { box-shadow: 0 0 0 3px #60A5FA; }
-        .node-title { font-weight: 600; padding-bottom: 4px; border-bottom: 1px solid rgba(255,255,255,0.3); margin-bottom: 4px; text-align: center; }
-        .node-type { font-size: 0.75rem; text-align: center; opacity: 0.8; }
-        #diagram-root { position: relative; width: 100%; height: 100vh; }
-        #viewport { position: absolute; transform-origin: 0 0; }
-        #tooltip { position: fixed; background-color: #1f2937; color: white; border: 1px solid #4b5563; border-radius: 4px; padding: 8px; font-size: 12px; pointer-events: none; z-index: 100; max-width: 300px; }
-        #tooltip ul { list-style-type: disc; margin-left: 16px; }
-        #marquee { position: absolute; border: 1px solid #60A5FA; background-color: rgba(96, 165, 250, 0.2); pointer-events: none; z-index: 99; }
-      </style>
     </head>
-    <body class="bg-gray-700">
-      <div id="diagram-root">
-        <div id="viewport">
-          <div id="node-container" style="position: relative; width: 100%; height: 100%;"></div>
-          <canvas id="diagram-canvas" style="position: absolute; top: 0; left: 0; pointer-events: none;"></canvas>
-          <div id="marquee" class="hidden"></div>
-        </div>
-      </div>
-      <div id="tooltip" class="hidden"></div>
-      <script>
-        // Fallback JavaScript content would go here
-        console.error('Webview files not found, using fallback content');
-      </script>
+    <body style="font-family: sans-serif; background-color: #374151; color: white; padding: 16px;">
+      <p>The diagram view could not be loaded because its files are missing from the extension. Reinstalling the extension should restore them.</p>
     </body>
     </html>
   `;
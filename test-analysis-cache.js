@@ -0,0 +1,97 @@
+// Checks the per-file analysis cache against a copy of a test-samples project: a second scan takes every file from
+// the cache, a changed file is analyzed again, and a cache written by another extractor version (FILE_FACTS_VERSION)
+// is discarded.
+// Build the unbundled modules first (npx tsc -p ./), then run: node test-analysis-cache.js
+const assert = require('assert');
+const fs = require('fs');
+const os = require('os');
+const path = require('path');
+const { ComponentDiagramController } = require('./out/parsers/componentDiagramController');
+const { FILE_FACTS_VERSION } = require('./out/parsers/fileFacts');
+const { NodeAnalysisHost } = require('./out/host/nodeAnalysisHost');
+const { AnalysisCache } = require('./out/utils/analysisCache');
+const { setLogLevel } = require('./out/utils/logger');
+
+const SAMPLE_PROJECT = path.join(__dirname, 'test-samples', 'shopping-cart-with-view');
+const CACHE_SIZE = 10000;
+
+function collectJavaFiles(dir, files = []) {
+  for (const entry of fs.readdirSync(dir, { withFileTypes: true })) {
+    const fullPath = path.join(dir, entry.name);
+    if (entry.isDirectory()) {
+      collectJavaFiles(fullPath, files);
+    } else if (entry.name.endsWith('.java')) {
+      files.push(fullPath);
+    }
+  }
+  return files;
+}
+
+async function scan(host, files, cacheFile, extractorVersion = FILE_FACTS_VERSION) {
+  const cache = new AnalysisCache(cacheFile, extractorVersion, CACHE_SIZE);
+  const controller = new ComponentDiagramController(host, undefined, cache);
+  const result = await controller.processProject(files.map((file) => host.fileUri(file)));
+  return { result, cache };
+}
+
+function diagramOf(result) {
+  return {
+    nodes: result.nodes.map((node) => `${node.id}:${node.type}`).sort(),
+    edges: result.edges.map((edge) => `${edge.source}->${edge.target}:${edge.label}`).sort(),
+  };
+}
+
+async function main() {
+  setLogLevel('off');
+  const dir = fs.mkdtempSync(path.join(os.tmpdir(), 'akka-analysis-cache-'));
+  try {
+    const projectDir = path.join(dir, 'project');
+    fs.cpSync(path.join(SAMPLE_PROJECT, 'src'), path.join(projectDir, 'src'), { recursive: true });
+    const cacheFile = path.join(dir, 'analysis-cache.json');
+    const host = new NodeAnalysisHost({ jobs: 1 });
+    const files = collectJavaFiles(projectDir);
+    assert.ok(files.length > 0, 'the sample project has Java files');
+
+    console.log('[Test] First scan fills the cache...');
+    const first = await scan(host, files, cacheFile);
+    assert.strictEqual(first.result.metrics.cache.hits, 0);
+    assert.strictEqual(first.result.metrics.cache.misses, files.length);
+    assert.ok(fs.existsSync(cacheFile), 'the cache is saved');
+    assert.strictEqual(first.cache.size, files.length);
+    console.log('[Test] ✓ Every file analyzed and cached');
+
+    console.log('[Test] Second scan reads every file from the cache...');
+    const second = await scan(host, files, cacheFile);
+    assert.strictEqual(second.result.metrics.cache.hits, files.length);
+    assert.strictEqual(second.result.metrics.files.parsed, 0);
+    assert.deepStrictEqual(diagramOf(second.result), diagramOf(first.result), 'cached facts produce the same diagram');
+    console.log('[Test] ✓ No file parsed again');
+
+    console.log('[Test] A changed file is analyzed again...');
+    const changed = files[0];
+    fs.appendFileSync(changed, '\n// changed\n');
+    const third = await scan(host, files, cacheFile);
+    assert.strictEqual(third.result.metrics.cache.misses, 1);
+    assert.strictEqual(third.result.metrics.cache.hits, files.length - 1);
+    console.log('[Test] ✓ Only the changed file missed the cache');
+
+    console.log('[Test] A cache of another extractor version is discarded...');
+    const bumped = await scan(host, files, cacheFile, FILE_FACTS_VERSION + 1);
+    assert.strictEqual(bumped.result.metrics.cache.hits, 0, 'facts of the previous version are not reused');
+    assert.strictEqual(bumped.result.metrics.cache.misses, files.length);
+    assert.deepStrictEqual(diagramOf(bumped.result), diagramOf(first.result));
+    const reloaded = new AnalysisCache(cacheFile, FILE_FACTS_VERSION, CACHE_SIZE);
+    await reloaded.load();
+    assert.strictEqual(reloaded.size, 0, 'the rewritten cache file is of the new version, so the old version starts empty');
+    console.log('[Test] ✓ Cache invalidated by the version bump');
+
+    console.log('[Test] All analysis cache tests passed');
+  } finally {
+    fs.rmSync(dir, { recursive: true, force: true });
+  }
+}
+
+main().catch((error) => {
+  console.error('[Test] Failed:', error);
+  process.exit(1);
+});
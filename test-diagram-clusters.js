@@ -0,0 +1,95 @@
+// Checks the clustered view of a diagram analyzed from a test-samples project: components are grouped by package
+// (or by a cluster rule), a collapsed cluster replaces its members and aggregates their edges, and an expanded
+// cluster shows its members again.
+// Build the unbundled modules first (npx tsc -p ./), then run: node test-diagram-clusters.js
+const assert = require('assert');
+const fs = require('fs');
+const path = require('path');
+const { ComponentDiagramController } = require('./out/parsers/componentDiagramController');
+const { NodeAnalysisHost } = require('./out/host/nodeAnalysisHost');
+const { aggregateEdges } = require('./out/models/diagramGraph');
+const { DiagramClusters, clusterNodeId } = require('./out/models/diagramClusters');
+const { setLogLevel } = require('./out/utils/logger');
+
+const SAMPLE_PROJECT = path.join(__dirname, 'test-samples', 'shopping-cart-with-view', 'src', 'main', 'java');
+const APPLICATION_CLUSTER = clusterNodeId('shoppingcart.application');
+
+function collectJavaFiles(dir, files = []) {
+  for (const entry of fs.readdirSync(dir, { withFileTypes: true })) {
+    const fullPath = path.join(dir, entry.name);
+    if (entry.isDirectory()) {
+      collectJavaFiles(fullPath, files);
+    } else if (entry.name.endsWith('.java')) {
+      files.push(fullPath);
+    }
+  }
+  return files;
+}
+
+async function main() {
+  setLogLevel('off');
+  const host = new NodeAnalysisHost({ jobs: 1 });
+  const result = await new ComponentDiagramController(host).processProject(collectJavaFiles(SAMPLE_PROJECT).map((file) => host.fileUri(file)));
+  const data = { nodes: result.nodes, edges: aggregateEdges(result.edges) };
+  const applicationComponents = data.nodes.filter((node) => node.uri.path.includes('/shoppingcart/application/'));
+  assert.ok(applicationComponents.length > 1, 'the sample has several components in shoppingcart.application');
+
+  console.log('[Test] Components are grouped by package...');
+  const clusters = new DiagramClusters();
+  for (const node of applicationComponents) {
+    assert.strictEqual(clusters.clusterOf(node), 'shoppingcart.application');
+  }
+  assert.strictEqual(clusters.clusterOf(data.nodes.find((node) => node.id === 'ShoppingCartEndpoint')), 'shoppingcart.api');
+  console.log('[Test] ✓ Clusters follow the Java packages');
+
+  console.log('[Test] A collapsed cluster replaces its members...');
+  const collapsed = clusters.view(data, {});
+  const clusterNode = collapsed.nodes.find((node) => node.id === APPLICATION_CLUSTER);
+  assert.ok(clusterNode, 'the cluster is shown as a node');
+  assert.strictEqual(clusterNode.type, 'Cluster');
+  assert.strictEqual(clusterNode.memberCount, applicationComponents.length);
+  for (const member of applicationComponents) {
+    assert.ok(!collapsed.nodes.some((node) => node.id === member.id), `${member.id} is hidden in the cluster`);
+  }
+  assert.ok(collapsed.nodes.some((node) => node.id === 'ShoppingCartEndpoint'), 'a cluster of one component is shown as the component');
+
+  const memberIds = new Set(applicationComponents.map((node) => node.id));
+  const endpointToMembers = data.edges.filter((edge) => edge.source === 'ShoppingCartEndpoint' && memberIds.has(edge.target));
+  assert.ok(endpointToMembers.length > 0, 'the endpoint calls components of the application package');
+  assert.ok(endpointToMembers.every((edge) => edge.location), 'component client calls keep their call site when aggregated');
+  const clusterEdge = collapsed.edges.find((edge) => edge.source === 'ShoppingCartEndpoint' && edge.target === APPLICATION_CLUSTER);
+  assert.ok(clusterEdge, 'edges to the members are aggregated into one edge to the cluster');
+  assert.strictEqual(clusterEdge.weight, endpointToMembers.reduce((sum, edge) => sum + (edge.weight || 1), 0));
+  assert.strictEqual(clusterEdge.location, undefined, 'a cluster edge has no call site');
+  assert.ok(!collapsed.edges.some((edge) => edge.source === APPLICATION_CLUSTER && edge.target === APPLICATION_CLUSTER), 'edges inside the cluster are hidden');
+  console.log(`[Test] ✓ ${applicationComponents.length} members collapsed, ${endpointToMembers.length} edge(s) aggregated`);
+
+  console.log('[Test] An expanded cluster shows its members...');
+  assert.strictEqual(clusters.expand(APPLICATION_CLUSTER), true);
+  assert.strictEqual(clusters.expand(APPLICATION_CLUSTER), false, 'expanding twice changes nothing');
+  const expanded = clusters.view(data, {});
+  assert.ok(!expanded.nodes.some((node) => node.id === APPLICATION_CLUSTER));
+  for (const member of applicationComponents) {
+    const node = expanded.nodes.find((candidate) => candidate.id === member.id);
+    assert.ok(node, `${member.id} is shown`);
+    assert.strictEqual(node.cluster, APPLICATION_CLUSTER, 'members remember their cluster so they can be collapsed again');
+  }
+  assert.strictEqual(expanded.edges.length, data.edges.length, 'with every cluster expanded all edges are shown');
+  assert.strictEqual(clusters.collapse(APPLICATION_CLUSTER), true);
+  assert.ok(clusters.view(data, {}).nodes.some((node) => node.id === APPLICATION_CLUSTER), 'collapsing shows the cluster node again');
+  console.log('[Test] ✓ Members shown and hidden again');
+
+  console.log('[Test] Cluster rules take precedence over packages...');
+  const byRule = new DiagramClusters([{ pattern: '^shoppingcart\\.\\w+\\.(ShoppingCart)', cluster: 'cart-$1' }]);
+  assert.strictEqual(byRule.clusterOf(data.nodes.find((node) => node.id === 'ShoppingCartEntity')), 'cart-ShoppingCart');
+  assert.strictEqual(byRule.clusterOf(data.nodes.find((node) => node.id === 'ShoppingCartEndpoint')), 'cart-ShoppingCart');
+  assert.strictEqual(byRule.clusterOf(data.nodes.find((node) => node.id === 'UserEntity')), 'shoppingcart.application');
+  console.log('[Test] ✓ Rule groups and package fallback applied');
+
+  console.log('[Test] All diagram cluster tests passed');
+}
+
+main().catch((error) => {
+  console.error('[Test] Failed:', error);
+  process.exit(1);
+});
@@ -0,0 +1,120 @@
+// Checks the versioned diagram deltas sent to the webview, using live updates of a copy of a test-samples project:
+// each delta applies to the version before it and reproduces the new diagram, an unchanged diagram sends nothing,
+// and a webview at another version can tell that it must request a full update.
+// Build the unbundled modules first (npx tsc -p ./), then run: node test-diagram-delta.js
+const assert = require('assert');
+const fs = require('fs');
+const os = require('os');
+const path = require('path');
+const { ComponentDiagramController } = require('./out/parsers/componentDiagramController');
+const { NodeAnalysisHost } = require('./out/host/nodeAnalysisHost');
+const { aggregateEdges } = require('./out/models/diagramGraph');
+const { DiagramDeltaTracker } = require('./out/webview/diagramDelta');
+const { setLogLevel } = require('./out/utils/logger');
+
+const SAMPLE_PROJECT = path.join(__dirname, 'test-samples', 'shopping-cart-with-view');
+
+function collectJavaFiles(dir, files = []) {
+  for (const entry of fs.readdirSync(dir, { withFileTypes: true })) {
+    const fullPath = path.join(dir, entry.name);
+    if (entry.isDirectory()) {
+      collectJavaFiles(fullPath, files);
+    } else if (entry.name.endsWith('.java')) {
+      files.push(fullPath);
+    }
+  }
+  return files;
+}
+
+function toDiagramData(result) {
+  return {
+    nodes: result.nodes.map(({ id, name, type }) => ({ id, name, type })),
+    edges: aggregateEdges(result.edges),
+  };
+}
+
+/**
+ * Apply a delta the way the webview's applyDelta does, to plain node and edge lists
+ */
+function applyDelta(diagram, delta) {
+  assert.strictEqual(delta.baseVersion, diagram.version, 'the delta applies to the version shown');
+  const removedNodes = new Set(delta.removeNodes);
+  const updatedNodes = new Map(delta.updateNodes.map((node) => [node.id, node]));
+  const nodes = diagram.nodes.filter((node) => !removedNodes.has(node.id)).map((node) => ({ ...node, ...updatedNodes.get(node.id) }));
+  nodes.push(...delta.addNodes);
+
+  const edgeKey = (edge) => `${edge.source}->${edge.target}`;
+  const removedEdges = new Set(delta.removeEdges.map(edgeKey));
+  const edges = diagram.edges.filter((edge) => !removedEdges.has(edgeKey(edge)) && !removedNodes.has(edge.source) && !removedNodes.has(edge.target));
+  edges.push(...delta.addEdges);
+  return { nodes, edges, version: delta.version };
+}
+
+function summary(diagram) {
+  return {
+    nodes: diagram.nodes.map((node) => `${node.id}:${node.name}:${node.type}`).sort(),
+    edges: diagram.edges.map((edge) => `${edge.source}->${edge.target}:${edge.label}:${edge.details.join('|')}:${edge.weight}`).sort(),
+  };
+}
+
+async function main() {
+  setLogLevel('off');
+  const dir = fs.mkdtempSync(path.join(os.tmpdir(), 'akka-diagram-delta-'));
+  try {
+    fs.cpSync(path.join(SAMPLE_PROJECT, 'src', 'main'), path.join(dir, 'src', 'main'), { recursive: true });
+    const host = new NodeAnalysisHost({ jobs: 1 });
+    const controller = new ComponentDiagramController(host);
+    const tracker = new DiagramDeltaTracker();
+
+    console.log('[Test] Full diagram...');
+    const initial = tracker.reset(toDiagramData(await controller.processProject(collectJavaFiles(dir).map((file) => host.fileUri(file)))));
+    assert.strictEqual(initial.version, 1);
+    assert.ok(initial.nodes.some((node) => node.id === 'CartCloser'));
+    let webview = { nodes: initial.nodes, edges: initial.edges, version: initial.version };
+    console.log(`[Test] ✓ Version 1 with ${initial.nodes.length} nodes and ${initial.edges.length} edges`);
+
+    console.log('[Test] An unchanged project sends no delta...');
+    const unchanged = await controller.updateFiles([], []);
+    assert.strictEqual(tracker.diff(toDiagramData(unchanged)), undefined);
+    assert.strictEqual(tracker.snapshot().version, 1, 'no delta, no new version');
+    console.log('[Test] ✓ No delta');
+
+    console.log('[Test] Deleting a component sends a delta removing it and its connections...');
+    const cartCloser = collectJavaFiles(dir).find((file) => path.basename(file) === 'CartCloser.java');
+    fs.rmSync(cartCloser);
+    const deleted = tracker.diff(toDiagramData(await controller.updateFiles([], [host.fileUri(cartCloser)])));
+    assert.ok(deleted, 'a delta is sent');
+    assert.strictEqual(deleted.baseVersion, 1);
+    assert.strictEqual(deleted.version, 2);
+    assert.ok(deleted.removeNodes.includes('CartCloser'));
+    assert.ok(deleted.removeEdges.some((edge) => edge.source === 'CartCloser'));
+    webview = applyDelta(webview, deleted);
+    assert.deepStrictEqual(summary(webview), summary(tracker.snapshot()), 'the delta reproduces the new diagram');
+    console.log('[Test] ✓ Version 2 removes CartCloser');
+
+    console.log('[Test] Restoring the component sends a delta adding it back...');
+    fs.cpSync(path.join(SAMPLE_PROJECT, 'src', 'main', path.relative(path.join(dir, 'src', 'main'), cartCloser)), cartCloser);
+    const restored = tracker.diff(toDiagramData(await controller.updateFiles([host.fileUri(cartCloser)], [])));
+    assert.strictEqual(restored.baseVersion, 2);
+    assert.strictEqual(restored.version, 3);
+    assert.ok(restored.addNodes.some((node) => node.id === 'CartCloser'));
+    webview = applyDelta(webview, restored);
+    assert.deepStrictEqual(summary(webview), summary(tracker.snapshot()));
+    assert.deepStrictEqual(summary(webview), summary(initial), 'the restored diagram is the initial one');
+    console.log('[Test] ✓ Version 3 adds CartCloser back');
+
+    console.log('[Test] A webview that missed a delta detects the version mismatch...');
+    assert.notStrictEqual(restored.baseVersion, initial.version, 'a webview still at version 1 must request a full update');
+    assert.strictEqual(tracker.snapshot().version, 3, 'the full update carries the current version');
+    console.log('[Test] ✓ Stale base version detected');
+
+    console.log('[Test] All diagram delta tests passed');
+  } finally {
+    fs.rmSync(dir, { recursive: true, force: true });
+  }
+}
+
+main().catch((error) => {
+  console.error('[Test] Failed:', error);
+  process.exit(1);
+});
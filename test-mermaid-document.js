@@ -0,0 +1,109 @@
+// Checks the incremental update of a generated Mermaid document, with the sections of a test-samples project split
+// into an overview and a diagram per package: a rerun writes nothing, a changed section is the only one replaced,
+// and removed and inserted sections keep a blank line between them and the sections next to them.
+// Build the unbundled modules first (npx tsc -p ./), then run: node test-mermaid-document.js
+const assert = require('assert');
+const fs = require('fs');
+const os = require('os');
+const path = require('path');
+const { ComponentDiagramController } = require('./out/parsers/componentDiagramController');
+const { NodeAnalysisHost } = require('./out/host/nodeAnalysisHost');
+const { aggregateEdges } = require('./out/models/diagramGraph');
+const { DiagramClusters } = require('./out/models/diagramClusters');
+const { generateMermaidSections } = require('./out/utils/mermaidGenerator');
+const { writeMermaidDocument } = require('./out/utils/mermaidDocument');
+const { setLogLevel } = require('./out/utils/logger');
+
+const SAMPLE_PROJECT = path.join(__dirname, 'test-samples', 'shopping-cart-with-view', 'src', 'main', 'java');
+const TITLE = 'Akka Component Diagram';
+const SECTION_MARKER = '<!-- akka-diagram:';
+
+function collectJavaFiles(dir, files = []) {
+  for (const entry of fs.readdirSync(dir, { withFileTypes: true })) {
+    const fullPath = path.join(dir, entry.name);
+    if (entry.isDirectory()) {
+      collectJavaFiles(fullPath, files);
+    } else if (entry.name.endsWith('.java')) {
+      files.push(fullPath);
+    }
+  }
+  return files;
+}
+
+function assertSeparated(text) {
+  assert.ok(!text.includes('\n\n\n'), 'no doubled blank lines');
+  let index = text.indexOf(SECTION_MARKER);
+  while (index >= 0) {
+    assert.strictEqual(text.slice(index - 2, index), '\n\n', `the section at offset ${index} follows a blank line`);
+    index = text.indexOf(SECTION_MARKER, index + 1);
+  }
+}
+
+async function main() {
+  setLogLevel('off');
+  const host = new NodeAnalysisHost({ jobs: 1 });
+  const result = await new ComponentDiagramController(host).processProject(collectJavaFiles(SAMPLE_PROJECT).map((file) => host.fileUri(file)));
+  const clusters = new DiagramClusters();
+  const sections = generateMermaidSections(result.nodes, aggregateEdges(result.edges), {
+    clusterOf: (node) => clusters.clusterOf(node),
+    maxNodesPerDiagram: 1,
+  });
+  assert.ok(sections.length > 3, 'the sample is split into an overview and several package diagrams');
+
+  const tempDir = fs.mkdtempSync(path.join(os.tmpdir(), 'akka-mermaid-document-'));
+  const file = path.join(tempDir, 'diagram.md');
+  try {
+    console.log('[Test] A new document is written in full...');
+    assert.strictEqual(await writeMermaidDocument(file, sections, TITLE), sections.length);
+    const full = fs.readFileSync(file, 'utf8');
+    assert.ok(full.startsWith(`# ${TITLE}\n\n`));
+    assertSeparated(full);
+    console.log(`[Test] ✓ ${sections.length} sections written`);
+
+    console.log('[Test] A rerun writes nothing...');
+    assert.strictEqual(await writeMermaidDocument(file, sections, TITLE), 0);
+    assert.strictEqual(fs.readFileSync(file, 'utf8'), full);
+    console.log('[Test] ✓ Document unchanged');
+
+    console.log('[Test] Only a changed section is replaced...');
+    const changedId = sections[2].id;
+    const changed = sections.map((section) =>
+      section.id === changedId ? { ...section, lines: () => [...section.lines(), '%% changed'] } : section,
+    );
+    assert.strictEqual(await writeMermaidDocument(file, changed, TITLE), 1);
+    const changedText = fs.readFileSync(file, 'utf8');
+    assert.ok(changedText.includes('%% changed'));
+    for (const section of sections.filter((section) => section.id !== changedId)) {
+      const start = full.indexOf(`${SECTION_MARKER}${section.id} `);
+      const end = full.indexOf(`<!-- /akka-diagram:${section.id} -->`);
+      assert.ok(changedText.includes(full.slice(start, end)), `section ${section.id} is kept`);
+    }
+    assert.strictEqual(await writeMermaidDocument(file, sections, TITLE), 1);
+    assert.strictEqual(fs.readFileSync(file, 'utf8'), full);
+    console.log(`[Test] ✓ Section ${changedId} replaced and restored`);
+
+    for (const index of [0, 2, sections.length - 1]) {
+      const removedId = sections[index].id;
+      console.log(`[Test] Section ${removedId} is removed and inserted again...`);
+      const without = sections.filter((section) => section.id !== removedId);
+      assert.strictEqual(await writeMermaidDocument(file, without, TITLE), 0, 'removing a section writes no section');
+      const removedText = fs.readFileSync(file, 'utf8');
+      assert.ok(!removedText.includes(`${SECTION_MARKER}${removedId} `));
+      assertSeparated(removedText);
+      assert.strictEqual(await writeMermaidDocument(file, sections, TITLE), 1);
+      const insertedText = fs.readFileSync(file, 'utf8');
+      assertSeparated(insertedText);
+      assert.strictEqual(insertedText, full, 'the inserted section is separated as in a document written in full');
+      console.log('[Test] ✓ Blank lines kept around the section');
+    }
+
+    console.log('[Test] All Mermaid document tests passed');
+  } finally {
+    fs.rmSync(tempDir, { recursive: true, force: true });
+  }
+}
+
+main().catch((error) => {
+  console.error('[Test] Failed:', error);
+  process.exit(1);
+});
@@ -0,0 +1,132 @@
+// Checks that the parse pool recovers from workers that crash or exit: the task being parsed fails, every other
+// task still completes, and parseAll never hangs.
+// Build the unbundled modules first (npx tsc -p ./), then run: node test-parse-pool.js
+const assert = require('assert');
+const fs = require('fs');
+const os = require('os');
+const path = require('path');
+const { ParsePool } = require('./out/parsers/parsePool');
+
+const SAMPLES_DIR = path.join(__dirname, 'test-samples', 'key-value-counter', 'src', 'main', 'java', 'com', 'example');
+const PARSE_WORKER = path.join(__dirname, 'out', 'parsers', 'parseWorker.js');
+const TIMEOUT_MS = 30000;
+
+function sampleTask(relativePath) {
+  const filename = path.join(SAMPLES_DIR, relativePath);
+  return { filename, sourceText: fs.readFileSync(filename, 'utf8') };
+}
+
+/**
+ * Write a worker script that behaves like parseWorker.js, except for sources containing CRASH, on which it calls process.exit
+ */
+function crashingWorkerScript(dir) {
+  const script = path.join(dir, 'crashingParseWorker.js');
+  fs.writeFileSync(
+    script,
+    `const { parentPort } = require('worker_threads');
+parentPort.on('message', (message) => { if (message.sourceText.includes('CRASH')) process.exit(3); });
+require(${JSON.stringify(PARSE_WORKER)});
+`
+  );
+  return script;
+}
+
+/**
+ * Write a worker script that exits as soon as it starts, without emitting 'error'
+ */
+function exitingWorkerScript(dir) {
+  const script = path.join(dir, 'exitingParseWorker.js');
+  fs.writeFileSync(script, 'process.exit(0);\n');
+  return script;
+}
+
+function withTimeout(promise, what) {
+  let timer;
+  const timeout = new Promise((_, reject) => {
+    timer = setTimeout(() => reject(new Error(`${what} did not complete within ${TIMEOUT_MS} ms`)), TIMEOUT_MS);
+  });
+  return Promise.race([promise, timeout]).finally(() => clearTimeout(timer));
+}
+
+async function testWorkerExitDuringParse(dir) {
+  console.log('[Test] Worker exiting while parsing a task...');
+  const errors = [];
+  const log = Object.assign(() => {}, { error: (message) => errors.push(message), info: () => {}, debug: () => {}, trace: () => {} });
+  const pool = new ParsePool(1, log, crashingWorkerScript(dir));
+  try {
+    const counter = sampleTask('application/CounterEntity.java');
+    const crash = { filename: 'Crash.java', sourceText: '// CRASH\nclass Crash {}' };
+    const endpoint = sampleTask('api/CounterEndpoint.java');
+
+    const outcomes = await withTimeout(pool.parseAll([counter, crash, endpoint]), 'parseAll');
+
+    assert.strictEqual(outcomes[0].success, true, 'the task parsed before the crash succeeds');
+    assert.strictEqual(outcomes[1].success, false, 'the task that crashed the worker fails');
+    assert.match(outcomes[1].error, /exited with code 3/);
+    assert.strictEqual(outcomes[2].success, true, 'the task after the crash is parsed by the replacement worker');
+    assert.strictEqual(pool.size, 1, 'the crashed worker is replaced');
+    assert.strictEqual(errors.length, 1, 'the failure is logged once');
+  } finally {
+    await pool.dispose();
+  }
+  console.log('[Test] ✓ Crashed task failed, the others were parsed');
+}
+
+async function testWorkerExitOnFirstTask(dir) {
+  console.log('[Test] Workers exiting on their first task...');
+  const pool = new ParsePool(1, undefined, crashingWorkerScript(dir));
+  try {
+    const crashes = [1, 2].map((i) => ({ filename: `Crash${i}.java`, sourceText: '// CRASH\nclass Crash {}' }));
+    const tasks = [...crashes, sampleTask('application/CounterEntity.java'), sampleTask('api/CounterEndpoint.java')];
+
+    const outcomes = await withTimeout(pool.parseAll(tasks), 'parseAll');
+
+    assert.strictEqual(outcomes[0].success, false);
+    assert.strictEqual(outcomes[1].success, false);
+    assert.strictEqual(outcomes[2].success, true, 'the worker respawned after the crashes parses the next task');
+    assert.strictEqual(outcomes[3].success, true);
+    assert.strictEqual(pool.size, 1, 'a worker crashing on its first task does not shrink the pool');
+  } finally {
+    await pool.dispose();
+  }
+  console.log('[Test] ✓ Worker slot kept after crashes on the first task');
+}
+
+async function testWorkerExitOnStartup(dir) {
+  console.log('[Test] Workers exiting on startup...');
+  const pool = new ParsePool(2, undefined, exitingWorkerScript(dir));
+  try {
+    // More tasks than the workers and their respawns can take down with them
+    const tasks = Array.from({ length: 8 }, (_, i) => sampleTask(i % 2 ? 'api/CounterEndpoint.java' : 'application/CounterEntity.java'));
+
+    const outcomes = await withTimeout(pool.parseAll(tasks), 'parseAll');
+
+    assert.strictEqual(outcomes.length, tasks.length);
+    for (const outcome of outcomes) {
+      // Tasks sent to an exiting worker fail; queued tasks are parsed in-process once no worker is left
+      assert.ok(outcome.success || /Parser worker failed/.test(outcome.error), `unexpected outcome ${JSON.stringify(outcome.error)}`);
+    }
+    assert.ok(outcomes.some((outcome) => outcome.success), 'queued tasks fall back to parsing in-process');
+    assert.strictEqual(pool.size, 0, 'workers that keep failing on startup are not respawned indefinitely');
+  } finally {
+    await pool.dispose();
+  }
+  console.log('[Test] ✓ Pool fell back to in-process parsing');
+}
+
+async function main() {
+  const dir = fs.mkdtempSync(path.join(os.tmpdir(), 'akka-parse-pool-'));
+  try {
+    await testWorkerExitDuringParse(dir);
+    await testWorkerExitOnFirstTask(dir);
+    await testWorkerExitOnStartup(dir);
+    console.log('[Test] All parse pool tests passed');
+  } finally {
+    fs.rmSync(dir, { recursive: true, force: true });
+  }
+}
+
+main().catch((error) => {
+  console.error('[Test] Failed:', error);
+  process.exit(1);
+});
@@ -1,15 +1,51 @@
+const fs = require('fs');
 const path = require('path');
 
-module.exports = {
+/**
+ * Emits the precompiled webview stylesheet next to the webview scripts, without comments and redundant whitespace
+ */
+class WebviewStylesPlugin {
+  constructor(stylesheet) {
+    this.stylesheet = path.resolve(__dirname, stylesheet);
+  }
+
+  apply(compiler) {
+    const { Compilation, sources } = compiler.webpack;
+    compiler.hooks.thisCompilation.tap('WebviewStylesPlugin', (compilation) => {
+      compilation.fileDependencies.add(this.stylesheet);
+      compilation.hooks.processAssets.tap({ name: 'WebviewStylesPlugin', stage: Compilation.PROCESS_ASSETS_STAGE_ADDITIONAL }, () => {
+        const css = fs
+          .readFileSync(this.stylesheet, 'utf8')
+          .replace(/\/\*[\s\S]*?\*\//g, '')
+          .replace(/\s+/g, ' ')
+          .replace(/\s*([{};,>])\s*/g, '$1')
+          .replace(/;}/g, '}')
+          .trim();
+        compilation.emitAsset(path.basename(this.stylesheet), new sources.RawSource(css));
+      });
+    });
+  }
+}
+
+const extensionConfig = {
   target: 'node',
   mode: 'production',
-  entry: './src/extension.ts',
+  entry: {
+    extension: './src/extension.ts',
+    parseWorker: './src/parsers/parseWorker.ts',
+    // Command line analyzer (node out/cli.js scan), sharing the analysis core and parse worker with the extension
+    cli: './src/cli.ts',
+  },
   output: {
     path: path.resolve(__dirname, 'out'),
-    filename: 'extension.js',
+    filename: '[name].js',
     libraryTarget: 'commonjs2',
     devtoolModuleFilenameTemplate: '../[resource-path]',
   },
+  node: {
+    // Keep the real __dirname so the parse pool can locate out/parseWorker.js at runtime
+    __dirname: false,
+  },
   externals: {
     vscode: 'commonjs vscode',
   },
@@ -31,3 +67,21 @@ module.exports = {
   },
   devtool: 'nosources-source-map',
 };
+
+// Webview assets, loaded by the diagram webview from out/media with webview.asWebviewUri (see webviewManager.ts)
+const webviewConfig = {
+  target: 'web',
+  mode: 'production',
+  entry: {
+    diagram: './src/webview/diagram.js',
+    layoutWorker: './src/webview/layoutWorker.js',
+  },
+  output: {
+    path: path.resolve(__dirname, 'out', 'media'),
+    filename: '[name].js',
+  },
+  plugins: [new WebviewStylesPlugin('./src/webview/diagram.css')],
+  devtool: false,
+};
+
+module.exports = [extensionConfig, webviewConfig];